@@ -0,0 +1,182 @@
+package org.opensha.oaf.oetas;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.opensha.oaf.oetas.OERupture.RUPPAR_SEED;
+
+
+// Canned inputs for the JMH benchmarks.
+//
+// Benchmark inputs are fixed, so that results from different runs (and different
+// versions of the code) can be compared.  Rupture lists are stored as resources in
+// src/jmh/resources, and random number generators are created from fixed seeds.
+
+public class OEBenchInputs {
+
+	//----- Constants -----
+
+	// Resource containing the canned aftershock sequence.
+
+	public static final String RES_RUP_LIST = "/org/opensha/oaf/oetas/bench_rup_list.txt";
+
+	// Fixed master seed for benchmark random number generators.
+
+	public static final long BENCH_SEED = 0x4F414642454E4348L;
+
+	// Parameters of the canned aftershock sequence.
+
+	public static final double BENCH_P = 1.08;
+	public static final double BENCH_C = 0.002;
+	public static final double BENCH_B = 1.0;
+	public static final double BENCH_ALPHA = 0.8;
+	public static final double BENCH_MAG_MAIN = 7.1;
+	public static final double BENCH_MAG_CAT = 2.5;
+	public static final double BENCH_TEND = 30.0;
+
+
+
+
+	//----- Loading -----
+
+
+
+
+	// Load a rupture list from a resource.
+	// Each non-blank line that does not begin with '#' contains a time (in days) and a magnitude.
+
+	public static ArrayList<OERupture> load_rup_list (String resource) {
+		ArrayList<OERupture> rup_list = new ArrayList<OERupture>();
+
+		try (
+			InputStream in = OEBenchInputs.class.getResourceAsStream (resource);
+		) {
+			if (in == null) {
+				throw new IllegalArgumentException ("OEBenchInputs.load_rup_list: Resource not found: " + resource);
+			}
+			BufferedReader reader = new BufferedReader (new InputStreamReader (in, StandardCharsets.UTF_8));
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				String s = line.trim();
+				if (s.isEmpty() || s.startsWith ("#")) {
+					continue;
+				}
+				String[] words = s.split ("\\s+");
+				if (words.length != 2) {
+					throw new IllegalArgumentException ("OEBenchInputs.load_rup_list: Invalid line: " + line);
+				}
+				OERupture rup = new OERupture();
+				rup.set (Double.parseDouble (words[0]), Double.parseDouble (words[1]));
+				rup_list.add (rup);
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException ("OEBenchInputs.load_rup_list: I/O error reading resource: " + resource, e);
+		}
+
+		return rup_list;
+	}
+
+
+
+
+	// Load the canned aftershock sequence.
+
+	public static ArrayList<OERupture> load_rup_list () {
+		return load_rup_list (RES_RUP_LIST);
+	}
+
+
+
+
+	// Make a random number generator with the fixed seed and the given stream index.
+
+	public static OERandomGenerator make_rangen (long stream_index) {
+		return new OERandomGenerator (BENCH_SEED, stream_index);
+	}
+
+
+
+
+	//----- Catalogs -----
+
+
+
+
+	// Make typical catalog parameters for catalog generation, with the given branch ratio.
+
+	public static OECatalogParams make_cat_params (double n, int gen_size_target, int gen_count_max) {
+		OECatalogParams cat_params = (new OECatalogParams()).set_to_typical (
+			0.0,			// a
+			BENCH_P,		// p
+			BENCH_C,		// c
+			BENCH_B,		// b
+			BENCH_ALPHA,	// alpha
+			gen_size_target,
+			gen_count_max
+		);
+		cat_params.a = OEStatsCalc.calc_inv_branch_ratio (n, cat_params);
+		return cat_params;
+	}
+
+
+
+
+	// Begin a catalog in the given storage, and insert the seed ruptures as the first generation.
+	// Each seed rupture contributes its time and magnitude; its productivity is computed from the parameters.
+
+	public static void begin_seeded_catalog (OECatalogStorage cat_storage, OECatalogParams cat_params, List<OERupture> seeds) {
+		cat_storage.begin_catalog (cat_params);
+
+		OEGenerationInfo gen_info = (new OEGenerationInfo()).set (
+			cat_params.mref,	// gen_mag_min
+			cat_params.msup		// gen_mag_max
+		);
+		cat_storage.begin_generation (gen_info);
+
+		OERupture rup = new OERupture();
+		for (OERupture seed : seeds) {
+			double k_prod = OEStatsCalc.calc_k_corr (
+				seed.rup_mag,		// m0
+				cat_params,			// cat_params
+				gen_info			// gen_info
+			);
+			rup.set (
+				seed.t_day,			// t_day
+				seed.rup_mag,		// rup_mag
+				k_prod,				// k_prod
+				RUPPAR_SEED,		// rup_parent
+				0.0,				// x_km
+				0.0					// y_km
+			);
+			cat_storage.add_rup (rup);
+		}
+
+		cat_storage.end_generation();
+		return;
+	}
+
+
+
+
+	// Generate a catalog from the canned aftershock sequence, with the given branch ratio.
+	// The result is the same every time, because the random number generator has a fixed seed.
+
+	public static OECatalogStorage make_bench_catalog (double n) {
+		OECatalogParams cat_params = make_cat_params (n, 100, 100);
+		OECatalogStorage cat_storage = new OECatalogStorage();
+		begin_seeded_catalog (cat_storage, cat_params, load_rup_list());
+
+		OECatalogGenerator cat_generator = new OECatalogGenerator();
+		cat_generator.setup (make_rangen (0L), cat_storage, false);
+		cat_generator.calc_all_gen();
+		cat_generator.forget();
+
+		return cat_storage;
+	}
+
+}
@@ -0,0 +1,98 @@
+package org.opensha.oaf.oetas;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// JMH benchmark for OECatalogGenerator.calc_all_gen.
+//
+// Each invocation generates one complete catalog from the same seed, so every invocation
+// does the same work.  The seed generation is either the mainshock alone, or the entire
+// canned aftershock sequence.
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OECatalogGeneratorBench {
+
+	// Branch ratio.
+
+	@Param({"0.80", "0.95"})
+	public double n;
+
+	// Seed generation: "main" = mainshock only, "sequence" = entire canned sequence.
+
+	@Param({"main", "sequence"})
+	public String seeds;
+
+	// Generation size target and maximum number of generations.
+
+	public static final int GEN_SIZE_TARGET = 100;
+	public static final int GEN_COUNT_MAX = 100;
+
+	// Working objects.
+
+	private OECatalogParams cat_params;
+	private List<OERupture> seed_list;
+	private OERandomGenerator rangen;
+	private OECatalogStorage cat_storage;
+	private OECatalogGenerator cat_generator;
+
+
+
+
+	@Setup(Level.Trial)
+	public void setup_trial () {
+		cat_params = OEBenchInputs.make_cat_params (n, GEN_SIZE_TARGET, GEN_COUNT_MAX);
+
+		ArrayList<OERupture> rup_list = OEBenchInputs.load_rup_list();
+		if (seeds.equals ("main")) {
+			seed_list = rup_list.subList (0, 1);
+		} else {
+			seed_list = rup_list;
+		}
+
+		rangen = OEBenchInputs.make_rangen (0L);
+		cat_storage = new OECatalogStorage();
+		cat_generator = new OECatalogGenerator();
+	}
+
+
+
+
+	@Setup(Level.Invocation)
+	public void setup_invocation () {
+		rangen.set_stream (OEBenchInputs.BENCH_SEED, 0L);
+		OEBenchInputs.begin_seeded_catalog (cat_storage, cat_params, seed_list);
+		cat_generator.setup (rangen, cat_storage, false);
+	}
+
+
+
+
+	// Generate the catalog, and return its size.
+
+	@Benchmark
+	public int calc_all_gen () {
+		cat_generator.calc_all_gen();
+		return cat_storage.size();
+	}
+
+}
@@ -0,0 +1,129 @@
+package org.opensha.oaf.oetas;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// JMH benchmark for OECatalogStorage.
+//
+// The input is a catalog generated once from the canned aftershock sequence with a fixed
+// seed, and unpacked into per-generation arrays.  The add_rup benchmark rebuilds the catalog
+// from the arrays.  The scan benchmark reads every rupture back with get_rup_full.
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class OECatalogStorageBench {
+
+	// Branch ratio used to generate the input catalog.
+
+	public static final double BENCH_N = 0.95;
+
+	// The input catalog, unpacked: parameters, generation info, and ruptures by generation.
+
+	private OECatalogParams cat_params;
+	private OEGenerationInfo[] gen_info;
+	private OERupture[][] gen_rups;
+
+	// The catalog, which is rebuilt by add_rup and read by scan.
+
+	private OECatalogStorage cat_storage;
+
+	// Work rupture for scanning.
+
+	private OERupture work_rup;
+
+
+
+
+	@Setup(Level.Trial)
+	public void setup_trial () {
+		OECatalogStorage src = OEBenchInputs.make_bench_catalog (BENCH_N);
+
+		cat_params = new OECatalogParams();
+		src.get_cat_params (cat_params);
+
+		int gen_count = src.get_gen_count();
+		gen_info = new OEGenerationInfo[gen_count];
+		gen_rups = new OERupture[gen_count][];
+		for (int i_gen = 0; i_gen < gen_count; ++i_gen) {
+			gen_info[i_gen] = new OEGenerationInfo();
+			src.get_gen_info (i_gen, gen_info[i_gen]);
+			int gen_size = src.get_gen_size (i_gen);
+			gen_rups[i_gen] = new OERupture[gen_size];
+			for (int j_rup = 0; j_rup < gen_size; ++j_rup) {
+				gen_rups[i_gen][j_rup] = new OERupture();
+				src.get_rup_full (i_gen, j_rup, gen_rups[i_gen][j_rup]);
+			}
+		}
+
+		cat_storage = new OECatalogStorage();
+		build_catalog();
+
+		work_rup = new OERupture();
+	}
+
+
+
+
+	// Build the catalog from the unpacked arrays.
+
+	private void build_catalog () {
+		cat_storage.begin_catalog (cat_params);
+		for (int i_gen = 0; i_gen < gen_rups.length; ++i_gen) {
+			cat_storage.begin_generation (gen_info[i_gen]);
+			final OERupture[] rups = gen_rups[i_gen];
+			for (int j_rup = 0; j_rup < rups.length; ++j_rup) {
+				cat_storage.add_rup (rups[j_rup]);
+			}
+			cat_storage.end_generation();
+		}
+		cat_storage.end_catalog();
+		return;
+	}
+
+
+
+
+	// Rebuild the catalog with add_rup, and return its size.
+
+	@Benchmark
+	public int add_rup () {
+		build_catalog();
+		return cat_storage.size();
+	}
+
+
+
+
+	// Scan every rupture in the catalog, and return a checksum.
+
+	@Benchmark
+	public double scan () {
+		double total = 0.0;
+		int gen_count = cat_storage.get_gen_count();
+		for (int i_gen = 0; i_gen < gen_count; ++i_gen) {
+			int gen_size = cat_storage.get_gen_size (i_gen);
+			for (int j_rup = 0; j_rup < gen_size; ++j_rup) {
+				cat_storage.get_rup_full (i_gen, j_rup, work_rup);
+				total += work_rup.t_day + work_rup.rup_mag + work_rup.k_prod;
+			}
+		}
+		return total;
+	}
+
+}
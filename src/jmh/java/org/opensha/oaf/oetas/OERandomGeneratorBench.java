@@ -0,0 +1,159 @@
+package org.opensha.oaf.oetas;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// JMH benchmark for the OERandomGenerator samplers used in catalog generation.
+//
+// Compares the Poisson sampler with the Colt sampler (the nested class Colt runs the same
+// benchmarks in a JVM started with -Doafrangen=colt), and compares Omori and
+// Gutenberg-Richter sampling with and without cached samplers.  Each benchmark draws
+// BATCH samples per invocation, with parameters typical of catalog generation.
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class OERandomGeneratorBench {
+
+	// Number of samples per invocation.
+
+	public static final int BATCH = 1000;
+
+	// Poisson means: small means use the inversion table, large means use rejection.
+
+	public static final double SMALL_MEAN = 2.5;
+	public static final double LARGE_MEAN = 150.0;
+
+	// Omori and Gutenberg-Richter parameters.
+
+	public static final double P = OEBenchInputs.BENCH_P;
+	public static final double C = OEBenchInputs.BENCH_C;
+	public static final double T0 = 0.5;
+	public static final double T1 = 0.5;
+	public static final double T2 = 365.0;
+	public static final double B = OEBenchInputs.BENCH_B;
+	public static final double M1 = 3.0;
+	public static final double M2 = 9.5;
+
+	// The random number generator and samplers.
+
+	private OERandomGenerator rangen;
+	private OERandomGenerator.OmoriShiftedSampler omori_sampler;
+	private OERandomGenerator.GRSampler gr_sampler;
+
+
+
+
+	@Setup(Level.Trial)
+	public void setup_trial () {
+		rangen = OEBenchInputs.make_rangen (0L);
+		omori_sampler = new OERandomGenerator.OmoriShiftedSampler();
+		gr_sampler = new OERandomGenerator.GRSampler();
+	}
+
+
+
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int poisson_small () {
+		int total = 0;
+		for (int i = 0; i < BATCH; ++i) {
+			total += rangen.poisson_sample (SMALL_MEAN);
+		}
+		return total;
+	}
+
+
+
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public int poisson_large () {
+		int total = 0;
+		for (int i = 0; i < BATCH; ++i) {
+			total += rangen.poisson_sample (LARGE_MEAN);
+		}
+		return total;
+	}
+
+
+
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public double omori_uncached () {
+		double total = 0.0;
+		for (int i = 0; i < BATCH; ++i) {
+			total += rangen.omori_sample_shifted (P, C, T0, T1, T2);
+		}
+		return total;
+	}
+
+
+
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public double omori_cached () {
+		double total = 0.0;
+		omori_sampler.setup (P, C, T0, T1, T2);
+		for (int i = 0; i < BATCH; ++i) {
+			total += rangen.omori_sample_shifted (omori_sampler);
+		}
+		return total;
+	}
+
+
+
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public double gr_uncached () {
+		double total = 0.0;
+		for (int i = 0; i < BATCH; ++i) {
+			total += rangen.gr_sample (B, M1, M2);
+		}
+		return total;
+	}
+
+
+
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public double gr_cached () {
+		double total = 0.0;
+		gr_sampler.setup (B, M1, M2);
+		for (int i = 0; i < BATCH; ++i) {
+			total += rangen.gr_sample (gr_sampler);
+		}
+		return total;
+	}
+
+
+
+
+	// The same benchmarks, using the Colt Poisson sampler.
+
+	@Fork(value = 1, jvmArgsAppend = "-Doafrangen=colt")
+	public static class Colt extends OERandomGeneratorBench {
+	}
+
+}
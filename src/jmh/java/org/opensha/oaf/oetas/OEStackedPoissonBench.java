@@ -0,0 +1,91 @@
+package org.opensha.oaf.oetas;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+// JMH benchmark for OEStackedPoisson.Accumulator.add_shifted_poisson.
+//
+// Each invocation clears an accumulator, adds one shifted Poisson distribution per
+// simulated catalog, and then computes a fractile, as is done when accumulating forecast
+// counts.  The means and shifts are drawn once from a fixed seed.  The means are
+// log-uniform over the given number of decades, ending at 1000, and the shifts are
+// uniform from 0 to 500.
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class OEStackedPoissonBench {
+
+	// Number of distributions added per invocation (number of simulated catalogs).
+
+	@Param({"10000"})
+	public int count;
+
+	// Number of decades spanned by the means.
+
+	@Param({"2", "5"})
+	public int decades;
+
+	// Maximum mean and shift.
+
+	public static final double MAX_LAMBDA = 1000.0;
+	public static final int MAX_SHIFT = 500;
+
+	// The means and shifts.
+
+	private double[] lambda;
+	private int[] shift;
+
+	// The accumulator.
+
+	private OEStackedPoisson.Accumulator accum;
+
+
+
+
+	@Setup(Level.Trial)
+	public void setup_trial () {
+		Random rand = new Random (OEBenchInputs.BENCH_SEED);
+		lambda = new double[count];
+		shift = new int[count];
+		for (int i = 0; i < count; ++i) {
+			lambda[i] = MAX_LAMBDA * Math.pow (10.0, -decades * rand.nextDouble());
+			shift[i] = rand.nextInt (MAX_SHIFT + 1);
+		}
+
+		accum = (new OEStackedPoisson()).make_accumulator();
+	}
+
+
+
+
+	// Accumulate all the distributions, and return the median.
+
+	@Benchmark
+	public int add_shifted_poisson () {
+		accum.clear();
+		for (int i = 0; i < count; ++i) {
+			accum.add_shifted_poisson (lambda[i], shift[i]);
+		}
+		accum.cumulate();
+		return accum.get_fractile (0.5);
+	}
+
+}
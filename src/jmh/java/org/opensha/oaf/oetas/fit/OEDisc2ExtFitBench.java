@@ -0,0 +1,129 @@
+package org.opensha.oaf.oetas.fit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.opensha.oaf.oetas.OEConstants;
+
+
+// JMH benchmark for the OEDisc2ExtFit matrices.
+//
+// The build benchmark builds the Omori matrix and the pair data structure for one (p, c),
+// which is the work done once per (p, c) grid point.  The apply benchmark builds the
+// productivity data structure and evaluates the log-likelihood, which is the work done
+// for each (a, ams) grid point.  The history is built from the canned aftershock sequence.
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class OEDisc2ExtFitBench {
+
+	// Omori matrix method: "dense", "float", or "expsum".
+
+	@Param({"dense", "float", "expsum"})
+	public String omat_meth;
+
+	// The fitting inputs.
+
+	private OEFitBenchInputs inputs;
+
+	// The fitter and its handles.
+
+	private OEDisc2ExtFit fitter;
+	private OEDisc2ExtFit.MagExponentHandle mexp;
+	private OEDisc2ExtFit.OmoriMatrixHandle omat;
+	private OEDisc2ExtFit.PairMagOmoriHandle pmom;
+	private OEDisc2ExtFit.AValueProdHandle avpr;
+
+	// Parameter values.
+
+	private double p;
+	private double c;
+	private double ten_aint_q;
+	private double ten_ams_q;
+
+
+
+
+	@Setup(Level.Trial)
+	public void setup_trial () {
+		inputs = new OEFitBenchInputs();
+
+		int meth;
+		switch (omat_meth) {
+		case "dense": meth = OEConstants.OMAT_METH_DENSE; break;
+		case "float": meth = OEConstants.OMAT_METH_FLOAT; break;
+		case "expsum": meth = OEConstants.OMAT_METH_EXPSUM; break;
+		default: throw new IllegalArgumentException ("OEDisc2ExtFitBench.setup_trial: Invalid omat_meth = " + omat_meth);
+		}
+
+		fitter = inputs.make_fitter();
+		fitter.set_grid_options ((new OEGridOptions()).set_omat_meth (meth, OEConstants.DEF_OMAT_TOL));
+
+		mexp = fitter.make_MagExponentHandle();
+		omat = fitter.make_OmoriMatrixHandle();
+		pmom = fitter.make_PairMagOmoriHandle();
+		avpr = fitter.make_AValueProdHandle();
+
+		mexp.mexp_build (inputs.cat_params_stats.b, inputs.cat_params_stats.alpha);
+
+		p = inputs.cat_params_stats.p;
+		c = inputs.cat_params_stats.c;
+		ten_aint_q = Math.pow (10.0, inputs.cat_params_stats.a) * mexp.get_q_correction();
+		ten_ams_q = Math.pow (10.0, inputs.seed_params_stats.ams);
+
+		omat.omat_build (p, c);
+		pmom.pmom_build (mexp, omat);
+	}
+
+
+
+
+	@TearDown(Level.Trial)
+	public void teardown_trial () {
+		avpr.close();
+		pmom.close();
+		omat.close();
+		mexp.close();
+	}
+
+
+
+
+	// Build the Omori matrix and pair data structure for one (p, c).
+
+	@Benchmark
+	public OEDisc2ExtFit.PairMagOmoriHandle matrix_build () {
+		omat.omat_build (p, c);
+		pmom.pmom_build (mexp, omat);
+		return pmom;
+	}
+
+
+
+
+	// Apply the matrices: build the productivity data structure and compute the log-likelihood.
+
+	@Benchmark
+	public double matrix_apply () {
+		avpr.avpr_build (pmom, ten_aint_q);
+		return avpr.avpr_calc_log_like (ten_aint_q, ten_ams_q);
+	}
+
+}
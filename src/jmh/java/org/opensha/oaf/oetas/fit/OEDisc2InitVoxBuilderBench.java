@@ -0,0 +1,115 @@
+package org.opensha.oaf.oetas.fit;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.opensha.oaf.oetas.bay.OEBayPrior;
+import org.opensha.oaf.oetas.except.OEException;
+import org.opensha.oaf.oetas.util.OEDiscreteRange;
+import org.opensha.oaf.util.AutoExecutorService;
+import org.opensha.oaf.util.SimpleExecTimer;
+
+
+// JMH benchmark for OEDisc2InitVoxBuilder, end-to-end.
+//
+// Each invocation builds the fitter and the voxel set for a c/p/zams grid on the history
+// built from the canned aftershock sequence, as is done when fitting an operational forecast.
+// The work per invocation is large, so this uses single-shot timing.
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class OEDisc2InitVoxBuilderBench {
+
+	// Number of worker threads, or -1 for the default.
+
+	@Param({"1", "-1"})
+	public int num_threads;
+
+	// The fitting inputs.
+
+	private OEFitBenchInputs inputs;
+
+	// The grid.
+
+	private OEGridParams grid_params;
+
+	// The executor.
+
+	private AutoExecutorService auto_executor;
+
+
+
+
+	@Setup(Level.Trial)
+	public void setup_trial () {
+		inputs = new OEFitBenchInputs();
+
+		double c = inputs.cat_params_stats.c;
+		double p = inputs.cat_params_stats.p;
+
+		grid_params = new OEGridParams (
+			OEDiscreteRange.makeSingle (inputs.cat_params_stats.b),		// b_range
+			OEDiscreteRange.makeSingle (inputs.cat_params_stats.alpha),	// alpha_range
+			OEDiscreteRange.makeLog (9, c * 0.1, c * 10.0),				// c_range
+			OEDiscreteRange.makeLinear (9, p - 0.2, p + 0.2),			// p_range
+			OEDiscreteRange.makeSingle (OEFitBenchInputs.BENCH_N),		// n_range
+			OEDiscreteRange.makeLinear (21, OEFitBenchInputs.BENCH_ZAMS - 1.0, OEFitBenchInputs.BENCH_ZAMS + 1.0),	// zams_range
+			null														// zmu_range
+		);
+
+		auto_executor = new AutoExecutorService (num_threads);
+	}
+
+
+
+
+	@TearDown(Level.Trial)
+	public void teardown_trial () {
+		auto_executor.close();
+	}
+
+
+
+
+	// Build the fitter and the voxel set, and return the voxel set.
+
+	@Benchmark
+	public OEDisc2InitVoxSet build_voxels () throws OEException {
+		OEDisc2ExtFit fitter = inputs.make_fitter();
+
+		OEDisc2InitVoxSet voxel_set = new OEDisc2InitVoxSet();
+
+		OEDisc2InitVoxBuilder voxel_builder = new OEDisc2InitVoxBuilder();
+		voxel_builder.setup_vbld (
+			voxel_set,
+			fitter,
+			OEBayPrior.makeUniform()
+		);
+		voxel_builder.setup_grid (
+			grid_params
+		);
+
+		SimpleExecTimer exec_timer = new SimpleExecTimer (SimpleExecTimer.NO_MAX_RUNTIME, SimpleExecTimer.NO_PROGRESS_TIME, auto_executor);
+		voxel_builder.build_voxels (exec_timer);
+
+		return voxel_set;
+	}
+
+}
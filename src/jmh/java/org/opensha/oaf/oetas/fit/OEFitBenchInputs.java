@@ -0,0 +1,149 @@
+package org.opensha.oaf.oetas.fit;
+
+import java.util.ArrayList;
+
+import org.opensha.oaf.oetas.OEBenchInputs;
+import org.opensha.oaf.oetas.OECatalogParams;
+import org.opensha.oaf.oetas.OECatalogParamsStats;
+import org.opensha.oaf.oetas.OEConstants;
+import org.opensha.oaf.oetas.OERupture;
+import org.opensha.oaf.oetas.OESeedParams;
+import org.opensha.oaf.oetas.OESeedParamsStats;
+
+
+// Canned fitting inputs for the JMH benchmarks.
+//
+// The history is built from the canned aftershock sequence (see OEBenchInputs), using the
+// default discretization, splitting, and grouping parameters.  The catalog and seed
+// parameters are those used to generate the canned sequence.
+
+public class OEFitBenchInputs {
+
+	//----- Constants -----
+
+	// Branch ratio, zams, and magnitude range of the canned sequence.
+
+	public static final double BENCH_N = 0.9;
+	public static final double BENCH_ZAMS = 0.0;
+	public static final double BENCH_MREF = 3.0;
+	public static final double BENCH_MSUP = 9.5;
+
+	// Fitting options.
+
+	public static final boolean BENCH_F_INTERVALS = true;
+	public static final int BENCH_LMR_OPT = OEConstants.DEF_LMR_OPT;
+
+
+
+
+	//----- Inputs -----
+
+
+
+
+	// Catalog parameters, with the minimum magnitude set to the history's magCat.
+
+	public OECatalogParams cat_params;
+	public OECatalogParamsStats cat_params_stats;
+
+	// Seed parameters.
+
+	public OESeedParamsStats seed_params_stats;
+
+	// The history.
+
+	public OEDisc2History history;
+
+
+
+
+	// Make the inputs.
+
+	public OEFitBenchInputs () {
+
+		// Catalog and seed parameters
+
+		cat_params = (new OECatalogParams()).set_to_fixed_mag_br (
+			BENCH_N,						// n
+			OEBenchInputs.BENCH_P,			// p
+			OEBenchInputs.BENCH_C,			// c
+			OEBenchInputs.BENCH_B,			// b
+			OEBenchInputs.BENCH_ALPHA,		// alpha
+			BENCH_MREF,						// mref
+			BENCH_MSUP,						// msup
+			0.0,							// tbegin
+			OEBenchInputs.BENCH_TEND		// tend
+		);
+
+		OESeedParams seed_params = (new OESeedParams()).set_from_zams (BENCH_ZAMS, cat_params);
+
+		// Make the history
+
+		ArrayList<OERupture> rup_list = OEBenchInputs.load_rup_list();
+
+		OEMagCompFnDisc.SplitFn split_fn = new OEMagCompFnDisc.SplitFnRatio (
+			OEConstants.DEF_DURLIM_RATIO,
+			OEConstants.DEF_DURLIM_MIN,
+			OEConstants.DEF_DURLIM_MAX
+		);
+
+		OEDiscFGHParams hist_params = new OEDiscFGHParams();
+
+		hist_params.set_sim_history_typical (
+			OEBenchInputs.BENCH_MAG_CAT,			// magCat
+			OEConstants.HELM_PARAM_WORLD,			// helm_param
+			0.0,									// t_range_begin
+			OEBenchInputs.BENCH_TEND,				// t_range_end
+			OEConstants.DEF_DISC_DELTA,				// disc_delta
+			OEConstants.DEF_MAG_CAT_COUNT,			// mag_cat_count
+			OEConstants.NO_MAG_NEG,					// eligible_mag
+			OEConstants.DEF_ELIGIBLE_COUNT,			// eligible_count
+			split_fn,								// split_fn
+			0.0,									// t_interval_begin
+			OEConstants.DEF_BEFORE_MAX_COUNT,		// before_max_count
+			OEConstants.DEF_MAG_CAT_INT_JOIN		// mag_cat_int_join
+		);
+
+		history = new OEDisc2History();
+		history.build_from_fgh (hist_params, rup_list);
+
+		// Statistics, with the minimum simulation magnitude adjusted to the history's magCat
+
+		cat_params_stats = cat_params.get_params_stats();
+		cat_params_stats.set_fixed_mag_min (history.magCat);
+
+		seed_params_stats = seed_params.get_params_stats();
+	}
+
+
+
+
+	// Make a fitter for the history, with default grouping.
+
+	public OEDisc2ExtFit make_fitter () {
+		OEDisc2ExtFit fitter = new OEDisc2ExtFit();
+
+		boolean f_likelihood = true;
+		boolean f_background = seed_params_stats.has_background_rate();
+		fitter.dfit_build (history, cat_params_stats.get_params_mags(), BENCH_F_INTERVALS, f_likelihood, BENCH_LMR_OPT, f_background);
+
+		OEDisc2Grouping.SpanWidthFcn span_width_fcn = new OEDisc2Grouping.SpanWidthFcnRatio (
+			OEConstants.DEF_GS_REL_BASE_TIME,
+			OEConstants.DEF_GS_RATIO,
+			OEConstants.DEF_GS_MIN_WIDTH
+		);
+		OEDisc2Grouping.RupWidthFcn rup_width_fcn = new OEDisc2Grouping.RupWidthFcnTaper (
+			OEConstants.DEF_GR_LO_RATIO,
+			OEConstants.DEF_GR_HI_RATIO,
+			OEConstants.DEF_GR_HI_MAG_DELTA,
+			OEConstants.DEF_GR_TAPER_MAG_DELTA,
+			OEConstants.DEF_GR_INIT_MAG
+		);
+		fitter.setup_grouping (span_width_fcn, rup_width_fcn);
+
+		fitter.set_tint_br (cat_params.tend - cat_params.tbegin);
+
+		return fitter;
+	}
+
+}
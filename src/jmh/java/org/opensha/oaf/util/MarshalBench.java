@@ -0,0 +1,119 @@
+package org.opensha.oaf.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.opensha.oaf.oetas.OEBenchInputs;
+import org.opensha.oaf.oetas.OECatalogStorage;
+
+
+// JMH benchmark for Marshal round-trips.
+//
+// Each benchmark marshals a catalog and then unmarshals it into a second catalog, using one
+// of the marshal implementations: JSON string, arrays, or binary data stream.  The catalog
+// is generated once from the canned aftershock sequence with a fixed seed.
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MarshalBench {
+
+	// Branch ratio used to generate the catalog.
+
+	public static final double BENCH_N = 0.8;
+
+	// The source catalog, and the catalog that receives the unmarshaled data.
+
+	private OECatalogStorage src_catalog;
+	private OECatalogStorage dest_catalog;
+
+	// Buffer for the binary data stream.
+
+	private ByteArrayOutputStream byte_out;
+
+
+
+
+	@Setup(Level.Trial)
+	public void setup_trial () {
+		src_catalog = OEBenchInputs.make_bench_catalog (BENCH_N);
+		dest_catalog = new OECatalogStorage();
+		byte_out = new ByteArrayOutputStream();
+	}
+
+
+
+
+	// Round-trip through a JSON string.
+
+	@Benchmark
+	public int json_round_trip () {
+		MarshalImpJsonWriter writer = new MarshalImpJsonWriter();
+		src_catalog.marshal (writer, null);
+		writer.check_write_complete();
+		String json_string = writer.get_json_string();
+
+		MarshalImpJsonReader reader = new MarshalImpJsonReader (json_string);
+		dest_catalog.unmarshal (reader, null);
+		reader.check_read_complete();
+
+		return dest_catalog.size();
+	}
+
+
+
+
+	// Round-trip through arrays.
+
+	@Benchmark
+	public int array_round_trip () {
+		MarshalImpArray writer = new MarshalImpArray();
+		src_catalog.marshal (writer, null);
+		writer.check_write_complete();
+
+		MarshalImpArray reader = new MarshalImpArray (writer.get_long_store(), writer.get_double_store(), writer.get_string_store());
+		dest_catalog.unmarshal (reader, null);
+		reader.check_read_complete();
+
+		return dest_catalog.size();
+	}
+
+
+
+
+	// Round-trip through a binary data stream.
+
+	@Benchmark
+	public int data_round_trip () throws IOException {
+		byte_out.reset();
+		MarshalImpDataWriter writer = new MarshalImpDataWriter (new DataOutputStream (byte_out), false);
+		src_catalog.marshal (writer, null);
+		writer.check_write_complete();
+
+		MarshalImpDataReader reader = new MarshalImpDataReader (new DataInputStream (new ByteArrayInputStream (byte_out.toByteArray())), false);
+		dest_catalog.unmarshal (reader, null);
+		reader.check_read_complete();
+
+		return dest_catalog.size();
+	}
+
+}
@@ -120,10 +120,22 @@ public class CleanupSupport extends ServerComponent {
 
 
 	// Set cleanup retry following a failed operation.
-	// Note: This is to be called from the execution function of a cleanup task, or from idle time code.
+	// Note: This is to be called from the execution function of a cleanup task, or from idle time code,
+	// or from a task pool worker (in which case the main dispatcher sets the retry).
 
 	public void set_cleanup_retry () {
 
+		// The cleanup state belongs to the main dispatcher, so if called from a pool worker, pass the request to it
+
+		if (sg.task_disp.defer_to_main_thread (new Runnable() {
+			@Override
+			public void run () {
+				set_cleanup_retry();
+			}
+		})) {
+			return;
+		}
+
 		// Get the current time
 
 		long time_now = sg.task_disp.get_time();
@@ -0,0 +1,443 @@
+package org.opensha.oaf.aafs;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+
+import org.opensha.oaf.util.SimpleUtils;
+
+
+/**
+ * Storage format for the details of database records.
+ *
+ * Timeline entries and pending tasks carry their details as a JSON string containing
+ * marshaled data.  For forecast timelines the details include the entire forecast, so
+ * they can be large.  This class selects how the details are stored in MongoDB:
+ *
+ * DFMT_JSON - The JSON string is stored in the string field "details".  This is the
+ * original format.
+ *
+ * DFMT_DEFLATE - The JSON string is compressed with deflate and stored in the binary
+ * field "details_z".  The field "details" is omitted, so that older software reports
+ * an error rather than seeing empty details.  Short details are stored as JSON, because
+ * compressing them does not save enough to be worthwhile.
+ *
+ * In memory, the details are always the JSON string, so the format affects only the
+ * conversion to and from MongoDB documents.  Documents in either format can always be
+ * read, so a collection can hold a mix of formats.  The format used for writing is
+ * selected by the system property "oafdetails", which can be "json" (the default) or
+ * "deflate".  The ServerCmd subcommand convert_details rewrites existing records.
+ *
+ * The compressed field contains the length of the JSON string in UTF-8 bytes, as a
+ * 4-byte big-endian integer, followed by the deflate stream (with zlib header).
+ *
+ * Threading: All functions can be called simultaneously from multiple threads.
+ */
+public class DBDetailsCodec {
+
+	//----- Storage formats -----
+
+	public static final int DFMT_MIN = 0;
+	public static final int DFMT_JSON = 0;			// JSON string, in field "details"
+	public static final int DFMT_DEFLATE = 1;		// Deflate-compressed JSON, in binary field "details_z"
+	public static final int DFMT_MAX = 1;
+
+	// Return a string describing a details format.
+
+	public static String get_details_format_as_string (int x) {
+		switch (x) {
+		case DFMT_JSON: return "DFMT_JSON";
+		case DFMT_DEFLATE: return "DFMT_DEFLATE";
+		}
+		return "DFMT_INVALID(" + x + ")";
+	}
+
+	// Parse a details format from a string, as used in the system property and commands.
+	// Returns -1 if the string is not recognized.
+
+	public static int parse_details_format (String s) {
+		switch (s.trim().toLowerCase()) {
+		case "json": return DFMT_JSON;
+		case "deflate": return DFMT_DEFLATE;
+		}
+		return -1;
+	}
+
+	// Field names in the MongoDB document.
+
+	public static final String FIELD_DETAILS = "details";
+	public static final String FIELD_DETAILS_Z = "details_z";
+
+	// Minimum length of a JSON string to be compressed, in characters.
+
+	public static final int MIN_COMPRESS_LENGTH = 512;
+
+	// Compression level, favoring speed since most of the size reduction comes at low levels.
+
+	public static final int DEFLATE_LEVEL = Deflater.BEST_SPEED;
+
+
+
+
+	//----- Format selection -----
+
+	// Default format for writing, selected by the system property "oafdetails".
+
+	public static final int default_details_format = select_details_format();
+
+	// Select the default format for writing, according to the system property.
+
+	private static int select_details_format () {
+		int result = DFMT_JSON;
+		String s = SimpleUtils.get_property_string ("oafdetails");
+		if (s != null) {
+			int fmt = parse_details_format (s);
+			if (fmt >= 0) {
+				result = fmt;
+			}
+		}
+		return result;
+	}
+
+	// The format currently used for writing.
+
+	private static volatile int details_format = default_details_format;
+
+	// Get the format used for writing.
+
+	public static int get_details_format () {
+		return details_format;
+	}
+
+	// Set the format used for writing.
+
+	public static void set_details_format (int the_details_format) {
+		if (!( the_details_format >= DFMT_MIN && the_details_format <= DFMT_MAX )) {
+			throw new IllegalArgumentException ("DBDetailsCodec.set_details_format: Invalid details format: " + the_details_format);
+		}
+		details_format = the_details_format;
+		return;
+	}
+
+
+
+
+	//----- Document access -----
+
+
+
+
+	// Append details to a document, using the current format for writing.
+	// Parameters:
+	//  doc = Document to receive the details.
+	//  details = Details, as a JSON string, cannot be null (but can be empty).
+	// Returns doc.
+
+	public static Document append_details (Document doc, String details) {
+		if (details_format == DFMT_DEFLATE && details.length() >= MIN_COMPRESS_LENGTH) {
+			doc.append (FIELD_DETAILS_Z, new Binary (compress (details)));
+		} else {
+			doc.append (FIELD_DETAILS, details);
+			stat_json_count.incrementAndGet();
+		}
+		return doc;
+	}
+
+
+
+
+	// Read details from a document, in any format.
+	// Returns the details, as a JSON string.
+	// An exception is thrown if the details are missing or cannot be decoded.
+
+	public static String get_details (Document doc) {
+		if (doc.containsKey (FIELD_DETAILS_Z)) {
+			byte[] data = MongoDBUtil.doc_get_binary (doc, FIELD_DETAILS_Z);
+			try {
+				return decompress (data);
+			} catch (Exception e) {
+				throw new DBCorruptException ("MongoDB document read: Error decompressing field: " + FIELD_DETAILS_Z, e);
+			}
+		}
+		return MongoDBUtil.doc_get_string (doc, FIELD_DETAILS);
+	}
+
+
+
+
+	// Get the format in which details are stored in a document.
+
+	public static int get_doc_details_format (Document doc) {
+		if (doc.containsKey (FIELD_DETAILS_Z)) {
+			return DFMT_DEFLATE;
+		}
+		return DFMT_JSON;
+	}
+
+
+
+
+	//----- Compression -----
+
+
+
+
+	// Compress a string.
+	// Returns the compressed data, including the length header.
+
+	public static byte[] compress (String s) {
+		long start_time = System.nanoTime();
+
+		byte[] raw = s.getBytes (StandardCharsets.UTF_8);
+
+		// Allocate output for the header plus a typical compressed size, it is expanded if needed
+
+		byte[] out = new byte[4 + Math.max (64, raw.length / 4)];
+		out[0] = (byte)(raw.length >>> 24);
+		out[1] = (byte)(raw.length >>> 16);
+		out[2] = (byte)(raw.length >>> 8);
+		out[3] = (byte)(raw.length);
+		int len = 4;
+
+		Deflater deflater = new Deflater (DEFLATE_LEVEL);
+		try {
+			deflater.setInput (raw);
+			deflater.finish();
+			while (!( deflater.finished() )) {
+				if (len == out.length) {
+					out = Arrays.copyOf (out, out.length * 2);
+				}
+				len += deflater.deflate (out, len, out.length - len);
+			}
+		} finally {
+			deflater.end();
+		}
+
+		stat_comp_count.incrementAndGet();
+		stat_comp_raw_bytes.addAndGet (raw.length);
+		stat_comp_bytes.addAndGet (len);
+		stat_comp_nanos.addAndGet (System.nanoTime() - start_time);
+
+		return Arrays.copyOf (out, len);
+	}
+
+
+
+
+	// Decompress a string.
+	// Parameters:
+	//  data = Compressed data, including the length header, as produced by compress().
+	// Throws DataFormatException if the data is invalid.
+
+	public static String decompress (byte[] data) throws DataFormatException {
+		long start_time = System.nanoTime();
+
+		if (data.length < 4) {
+			throw new DataFormatException ("DBDetailsCodec.decompress: Missing length header");
+		}
+		int raw_len = ((data[0] & 0xFF) << 24) | ((data[1] & 0xFF) << 16) | ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+		if (raw_len < 0) {
+			throw new DataFormatException ("DBDetailsCodec.decompress: Invalid length header: raw_len = " + raw_len);
+		}
+
+		byte[] raw = new byte[raw_len];
+		int len = 0;
+
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput (data, 4, data.length - 4);
+			while (len < raw_len) {
+				int n = inflater.inflate (raw, len, raw_len - len);
+				if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				len += n;
+			}
+		} finally {
+			inflater.end();
+		}
+
+		if (len != raw_len) {
+			throw new DataFormatException ("DBDetailsCodec.decompress: Length mismatch: raw_len = " + raw_len + ", len = " + len);
+		}
+
+		String result = new String (raw, StandardCharsets.UTF_8);
+
+		stat_decomp_count.incrementAndGet();
+		stat_decomp_bytes.addAndGet (data.length);
+		stat_decomp_nanos.addAndGet (System.nanoTime() - start_time);
+
+		return result;
+	}
+
+
+
+
+	//----- Statistics -----
+
+	// Number of details compressed, total uncompressed and compressed bytes, and total time in nanoseconds.
+
+	private static final AtomicLong stat_comp_count = new AtomicLong (0L);
+	private static final AtomicLong stat_comp_raw_bytes = new AtomicLong (0L);
+	private static final AtomicLong stat_comp_bytes = new AtomicLong (0L);
+	private static final AtomicLong stat_comp_nanos = new AtomicLong (0L);
+
+	// Number of details decompressed, total compressed bytes, and total time in nanoseconds.
+
+	private static final AtomicLong stat_decomp_count = new AtomicLong (0L);
+	private static final AtomicLong stat_decomp_bytes = new AtomicLong (0L);
+	private static final AtomicLong stat_decomp_nanos = new AtomicLong (0L);
+
+	// Number of details written as JSON.
+
+	private static final AtomicLong stat_json_count = new AtomicLong (0L);
+
+
+	// Reset the statistics.
+
+	public static void reset_stats () {
+		stat_comp_count.set (0L);
+		stat_comp_raw_bytes.set (0L);
+		stat_comp_bytes.set (0L);
+		stat_comp_nanos.set (0L);
+		stat_decomp_count.set (0L);
+		stat_decomp_bytes.set (0L);
+		stat_decomp_nanos.set (0L);
+		stat_json_count.set (0L);
+		return;
+	}
+
+
+	// Get a string describing the statistics.
+
+	public static String get_stats_string () {
+		long comp_count = stat_comp_count.get();
+		long comp_raw_bytes = stat_comp_raw_bytes.get();
+		long comp_bytes = stat_comp_bytes.get();
+		long comp_nanos = stat_comp_nanos.get();
+		long decomp_count = stat_decomp_count.get();
+		long decomp_bytes = stat_decomp_bytes.get();
+		long decomp_nanos = stat_decomp_nanos.get();
+		long json_count = stat_json_count.get();
+
+		StringBuilder result = new StringBuilder();
+		result.append ("DBDetailsCodec statistics:" + "\n");
+		result.append ("details_format = " + get_details_format_as_string (details_format) + "\n");
+		result.append ("json_count = " + json_count + "\n");
+		result.append ("comp_count = " + comp_count + "\n");
+		result.append ("comp_raw_bytes = " + comp_raw_bytes + "\n");
+		result.append ("comp_bytes = " + comp_bytes + "\n");
+		if (comp_bytes > 0L) {
+			result.append ("comp_ratio = " + String.format ("%.3f", ((double)comp_raw_bytes) / ((double)comp_bytes)) + "\n");
+		}
+		if (comp_count > 0L) {
+			result.append ("comp_avg_micros = " + String.format ("%.3f", ((double)comp_nanos) / ((double)comp_count) / 1000.0) + "\n");
+		}
+		result.append ("decomp_count = " + decomp_count + "\n");
+		result.append ("decomp_bytes = " + decomp_bytes + "\n");
+		if (decomp_count > 0L) {
+			result.append ("decomp_avg_micros = " + String.format ("%.3f", ((double)decomp_nanos) / ((double)decomp_count) / 1000.0) + "\n");
+		}
+		return result.toString();
+	}
+
+
+
+
+	//----- Testing -----
+
+
+
+
+	public static void main(String[] args) {
+
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("DBDetailsCodec : Missing subcommand");
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  count  reps
+		// Build a JSON-like string containing count numbers, then compress and decompress it reps times.
+		// Check that the round trip reproduces the string, and display the statistics.
+
+		if (args[0].equalsIgnoreCase ("test1")) {
+
+			// 2 additional arguments
+
+			if (args.length != 3) {
+				System.err.println ("DBDetailsCodec : Invalid 'test1' subcommand");
+				return;
+			}
+
+			try {
+
+				int count = Integer.parseInt (args[1]);
+				int reps = Integer.parseInt (args[2]);
+
+				// Say hello
+
+				System.out.println ("Compressing and decompressing details");
+				System.out.println ("count = " + count);
+				System.out.println ("reps = " + reps);
+
+				// Make the string
+
+				StringBuilder sb = new StringBuilder();
+				sb.append ("{\"ver\":12345,\"values\":[");
+				java.util.Random rand = new java.util.Random (12345L);
+				for (int i = 0; i < count; ++i) {
+					if (i > 0) {
+						sb.append (",");
+					}
+					sb.append (Double.toString (Math.exp (rand.nextGaussian())));
+				}
+				sb.append ("],\"name\":\"caf\u00e9 \u0394\"}");
+				String s = sb.toString();
+
+				// Round trips
+
+				boolean f_ok = true;
+				for (int rep = 0; rep < reps; ++rep) {
+					String t = decompress (compress (s));
+					if (!( s.equals (t) )) {
+						f_ok = false;
+					}
+				}
+
+				System.out.println ();
+				System.out.println ("length = " + s.length());
+				System.out.println ("round_trip_ok = " + f_ok);
+				System.out.println ();
+				System.out.println (get_stats_string());
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Unrecognized subcommand.
+
+		System.err.println ("DBDetailsCodec : Unrecognized subcommand : " + args[0]);
+		return;
+
+	}
+
+}
@@ -8,6 +8,10 @@ import java.util.LinkedHashMap;
 
 import java.time.Instant;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
 import org.opensha.oaf.util.MarshalReader;
 import org.opensha.oaf.util.MarshalWriter;
 import org.opensha.oaf.util.MarshalException;
@@ -1084,6 +1088,10 @@ public class ForecastResults implements Marshalable {
 					exec_env.filename_fc_json = null;
 					exec_env.filename_marginals = null;
 
+					// Keep Omori matrices between forecasts for this mainshock, for incremental refitting
+
+					exec_env.omat_archive_key = fcmain.mainshock_event_id;
+
 					// Set up the input area
 
 					exec_env.setup_input_area_from_compact (
@@ -1171,6 +1179,222 @@ public class ForecastResults implements Marshalable {
 	}
 
 
+	//----- Calculation timing -----
+
+	// Default calculation mode for calc_all, selected by the system property "oafparcalc".
+	// If the property is "parallel", then the ETAS run is started as soon as the catalog is
+	// available, and the RJ models are computed while it runs.  Otherwise, the models are
+	// computed one after another.
+
+	public static final boolean f_default_parallel_calc = SimpleUtils.is_property_value ("oafparcalc", "parallel");
+
+	// True if the last calculation used the parallel mode.
+	// This field is not marshaled.
+
+	public boolean calc_parallel = false;
+
+	// Elapsed time for each stage of the last calculation, in milliseconds, or -1L if not calculated.
+	// The total is the wall-clock time for all stages, which is less than the sum in parallel mode.
+	// These fields are not marshaled.
+
+	public long calc_time_catalog = -1L;
+	public long calc_time_generic = -1L;
+	public long calc_time_seq_spec = -1L;
+	public long calc_time_bayesian = -1L;
+	public long calc_time_etas = -1L;
+	public long calc_time_total = -1L;
+
+	// set_default_calc_times - Set calculation times to default values.
+
+	public void set_default_calc_times () {
+		calc_parallel = false;
+		calc_time_catalog = -1L;
+		calc_time_generic = -1L;
+		calc_time_seq_spec = -1L;
+		calc_time_bayesian = -1L;
+		calc_time_etas = -1L;
+		calc_time_total = -1L;
+		return;
+	}
+
+	// Return true if calculation times are available.
+
+	public boolean has_calc_times () {
+		return calc_time_total >= 0L;
+	}
+
+	// Convert a calculation time to a string, in seconds.
+
+	private static String calc_time_to_string (long calc_time) {
+		if (calc_time < 0L) {
+			return "-";
+		}
+		return String.format ("%.3f", ((double)calc_time)/1000.0);
+	}
+
+	// Get a string describing the calculation times, suitable for the log.
+
+	public String get_calc_times_string () {
+		return "mode = " + (calc_parallel ? "parallel" : "serial")
+			+ ", catalog = " + calc_time_to_string (calc_time_catalog)
+			+ ", generic = " + calc_time_to_string (calc_time_generic)
+			+ ", seq_spec = " + calc_time_to_string (calc_time_seq_spec)
+			+ ", bayesian = " + calc_time_to_string (calc_time_bayesian)
+			+ ", etas = " + calc_time_to_string (calc_time_etas)
+			+ ", total = " + calc_time_to_string (calc_time_total)
+			+ " seconds";
+	}
+
+
+
+
+	//----- Calculation pipeline -----
+
+	// Calculate the models, after the catalog results have been calculated, one after another.
+
+	private void calc_models_serial (ForecastMainshock fcmain, ForecastParameters params, boolean f_seq_spec) {
+		long t0 = System.currentTimeMillis();
+		calc_generic_results (fcmain, params);
+		long t1 = System.currentTimeMillis();
+		calc_time_generic = t1 - t0;
+		calc_seq_spec_results (fcmain, params, f_seq_spec);
+		long t2 = System.currentTimeMillis();
+		calc_time_seq_spec = t2 - t1;
+		calc_bayesian_results (fcmain, params);
+		long t3 = System.currentTimeMillis();
+		calc_time_bayesian = t3 - t2;
+		calc_etas_results (fcmain, params);
+		calc_time_etas = System.currentTimeMillis() - t3;
+		return;
+	}
+
+	// Wait for a stage of the parallel calculation to complete.
+	// Returns null if the stage completed normally, or the exception it threw.
+	// If interrupted, this keeps waiting (because the stage is writing into this object),
+	// and then restores the interrupt status.
+
+	private static Throwable await_calc_stage (Future<?> future) {
+		boolean f_interrupted = false;
+		Throwable result = null;
+		for (;;) {
+			try {
+				future.get();
+				result = null;
+				break;
+			} catch (ExecutionException e) {
+				result = e.getCause();
+				break;
+			} catch (InterruptedException e) {
+				f_interrupted = true;
+			}
+		}
+		if (f_interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return result;
+	}
+
+	// Rethrow an exception from a stage of the parallel calculation.
+
+	private static void rethrow_calc_failure (Throwable e) {
+		if (e instanceof RuntimeException) {
+			throw (RuntimeException)e;
+		}
+		if (e instanceof Error) {
+			throw (Error)e;
+		}
+		throw new RuntimeException ("ForecastResults.calc_models_parallel: Exception during parallel calculation", e);
+	}
+
+	// Calculate the models, after the catalog results have been calculated, in parallel.
+	// The ETAS run depends only on the catalog, so it is started first, in the executor.
+	// The generic model is computed in the executor, and the sequence specific model in
+	// this thread.  The Bayesian model needs both, so it is computed when they are done.
+	// All stages are complete when this function returns, even if one of them throws an
+	// exception.  If several stages throw, the exception rethrown is the one that the
+	// serial calculation would have thrown.
+
+	private void calc_models_parallel (final ForecastMainshock fcmain, final ForecastParameters params, boolean f_seq_spec) {
+
+		try (
+			AutoExecutorService auto_executor = new AutoExecutorService (2);
+		){
+			ExecutorService executor = auto_executor.get_executor();
+
+			// Start ETAS
+
+			Future<?> etas_future = executor.submit (new Runnable() {
+				@Override
+				public void run () {
+					long t0 = System.currentTimeMillis();
+					calc_etas_results (fcmain, params);
+					calc_time_etas = System.currentTimeMillis() - t0;
+				}
+			});
+
+			// Start the generic model
+
+			Future<?> generic_future = executor.submit (new Runnable() {
+				@Override
+				public void run () {
+					long t0 = System.currentTimeMillis();
+					calc_generic_results (fcmain, params);
+					calc_time_generic = System.currentTimeMillis() - t0;
+				}
+			});
+
+			// Sequence specific model in this thread
+
+			Throwable seq_spec_failure = null;
+			try {
+				long t0 = System.currentTimeMillis();
+				calc_seq_spec_results (fcmain, params, f_seq_spec);
+				calc_time_seq_spec = System.currentTimeMillis() - t0;
+			} catch (Throwable e) {
+				seq_spec_failure = e;
+			}
+
+			// Bayesian model, once the generic and sequence specific models are done
+
+			Throwable generic_failure = await_calc_stage (generic_future);
+
+			Throwable bayesian_failure = null;
+			if (generic_failure == null && seq_spec_failure == null) {
+				try {
+					long t0 = System.currentTimeMillis();
+					calc_bayesian_results (fcmain, params);
+					calc_time_bayesian = System.currentTimeMillis() - t0;
+				} catch (Throwable e) {
+					bayesian_failure = e;
+				}
+			}
+
+			// Wait for ETAS
+
+			Throwable etas_failure = await_calc_stage (etas_future);
+
+			// Report failures in the order of the serial calculation
+
+			if (generic_failure != null) {
+				rethrow_calc_failure (generic_failure);
+			}
+			if (seq_spec_failure != null) {
+				rethrow_calc_failure (seq_spec_failure);
+			}
+			if (bayesian_failure != null) {
+				rethrow_calc_failure (bayesian_failure);
+			}
+			if (etas_failure != null) {
+				rethrow_calc_failure (etas_failure);
+			}
+		}
+
+		return;
+	}
+
+
+
+
 	//----- Construction -----
 
 	// Default constructor.
@@ -1179,16 +1403,32 @@ public class ForecastResults implements Marshalable {
 
 	// Calculate all results.
 	// If f_seq_spec is false, then sequence specific results are not calculated.
+	// The calculation mode is selected by f_default_parallel_calc.
 
 	public void calc_all (long the_result_time, long the_advisory_lag, String the_injectable_text, ForecastMainshock fcmain, ForecastParameters params, boolean f_seq_spec) {
+		calc_all (the_result_time, the_advisory_lag, the_injectable_text, fcmain, params, f_seq_spec, f_default_parallel_calc);
+		return;
+	}
+
+	// Calculate all results.
+	// If f_seq_spec is false, then sequence specific results are not calculated.
+	// If f_parallel is true, then the models are calculated in parallel once the catalog is available.
+
+	public void calc_all (long the_result_time, long the_advisory_lag, String the_injectable_text, ForecastMainshock fcmain, ForecastParameters params, boolean f_seq_spec, boolean f_parallel) {
+		set_default_calc_times();
+		calc_parallel = f_parallel;
+		long t0 = System.currentTimeMillis();
 		result_time = the_result_time;
 		advisory_lag = the_advisory_lag;
 		injectable_text = ((the_injectable_text == null) ? "" : the_injectable_text);
 		calc_catalog_results (fcmain, params);
-		calc_generic_results (fcmain, params);
-		calc_seq_spec_results (fcmain, params, f_seq_spec);
-		calc_bayesian_results (fcmain, params);
-		calc_etas_results (fcmain, params);
+		calc_time_catalog = System.currentTimeMillis() - t0;
+		if (f_parallel) {
+			calc_models_parallel (fcmain, params, f_seq_spec);
+		} else {
+			calc_models_serial (fcmain, params, f_seq_spec);
+		}
+		calc_time_total = System.currentTimeMillis() - t0;
 		return;
 	}
 
@@ -1199,14 +1439,20 @@ public class ForecastResults implements Marshalable {
 	public void calc_all_from_known_as (long the_result_time, long the_advisory_lag, String the_injectable_text,
 		ForecastMainshock fcmain, ForecastParameters params, boolean f_seq_spec, List<ObsEqkRupture> known_as) {
 
+		set_default_calc_times();
+		calc_parallel = f_default_parallel_calc;
+		long t0 = System.currentTimeMillis();
 		result_time = the_result_time;
 		advisory_lag = the_advisory_lag;
 		injectable_text = ((the_injectable_text == null) ? "" : the_injectable_text);
 		calc_catalog_results_from_known_as (fcmain, params, known_as);
-		calc_generic_results (fcmain, params);
-		calc_seq_spec_results (fcmain, params, f_seq_spec);
-		calc_bayesian_results (fcmain, params);
-		calc_etas_results (fcmain, params);
+		calc_time_catalog = System.currentTimeMillis() - t0;
+		if (calc_parallel) {
+			calc_models_parallel (fcmain, params, f_seq_spec);
+		} else {
+			calc_models_serial (fcmain, params, f_seq_spec);
+		}
+		calc_time_total = System.currentTimeMillis() - t0;
 		return;
 	}
 
@@ -1290,6 +1536,17 @@ public class ForecastResults implements Marshalable {
 
 	public void write_calc_log (ServerGroup sg) {
 
+		// If we have calculation times, write log entry and display them
+
+		if (has_calc_times()) {
+			String calc_times = get_calc_times_string();
+			if (sg != null) {
+				sg.log_sup.report_forecast_calc_times (calc_times);
+			}
+			System.out.println ();
+			System.out.println ("Forecast calculation times: " + calc_times);
+		}
+
 		// If we have ETAS log info ...
 
 		if (etas_result_avail && etas_log_info != null) {
@@ -270,11 +270,14 @@ public class HealthSupport extends ServerComponent {
 
 
 	//----- Health monitors -----
+	//
+	// These are changed only by the main task dispatcher, but may be read by task pool workers,
+	// which share this object; the monitors themselves are thread-safe.
 
 
 	// Health monitor for forecast, or null if none.
 
-	private HealthMonitor forecast_health_monitor;
+	private volatile HealthMonitor forecast_health_monitor;
 
 	public HealthMonitor get_forecast_health_monitor () {
 		return forecast_health_monitor;
@@ -283,7 +286,7 @@ public class HealthSupport extends ServerComponent {
 
 	// Health monitor for poll, or null if none.
 
-	private HealthMonitor poll_health_monitor;
+	private volatile HealthMonitor poll_health_monitor;
 
 	public HealthMonitor get_poll_health_monitor () {
 		return poll_health_monitor;
@@ -292,7 +295,7 @@ public class HealthSupport extends ServerComponent {
 
 	// Health monitor for intake, or null if none.
 
-	private HealthMonitor intake_health_monitor;
+	private volatile HealthMonitor intake_health_monitor;
 
 	public HealthMonitor get_intake_health_monitor () {
 		return intake_health_monitor;
@@ -516,7 +519,7 @@ public class HealthSupport extends ServerComponent {
 
 	// True if health status monitoring is enabled.
 
-	private boolean f_heath_status_enabled;
+	private volatile boolean f_heath_status_enabled;
 
 
 	// Get the current health status.
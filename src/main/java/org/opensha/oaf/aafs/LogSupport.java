@@ -430,6 +430,73 @@ public class LogSupport extends ServerComponent {
 
 
 
+	// Report task worker pool started.
+
+	public void report_worker_pool_start (int worker_count) {
+		report_action ("WORKER-POOL-START",
+					"worker_count = " + worker_count);
+		return;
+	}
+
+
+
+
+	// Report task worker pool stopped.
+
+	public void report_worker_pool_stop () {
+		report_action ("WORKER-POOL-STOP");
+		return;
+	}
+
+
+
+
+	// Report an expired task lease taken over from another owner.
+
+	public void report_task_lease_reclaimed (String lock_key) {
+		report_action ("TASK-LEASE-RECLAIMED",
+					"lock_key = " + lock_key);
+		return;
+	}
+
+
+
+
+	// Report a task lease that could not be renewed.
+
+	public void report_task_lease_lost (String lock_key) {
+		report_action ("TASK-LEASE-LOST",
+					"lock_key = " + lock_key);
+		return;
+	}
+
+
+
+
+	// Report a task that finished after its lease was lost.
+	// If f_transact is true, the task's transaction was not committed.
+
+	public void report_task_lease_abort (String lock_key, boolean f_transact) {
+		report_action ("TASK-LEASE-ABORT",
+					"lock_key = " + lock_key,
+					"commit_skipped = " + f_transact);
+		return;
+	}
+
+
+
+
+	// Report that the task queue change stream is unavailable, so the dispatcher is polling.
+
+	public void report_task_watch_unavailable (Throwable e) {
+		report_action ("TASK-WATCH-UNAVAILABLE");
+		report_exception (e);
+		return;
+	}
+
+
+
+
 	// Report timeline entry deleted.
 
 	public void report_timeline_entry_deleted (String event_id) {
@@ -1173,6 +1240,17 @@ public class LogSupport extends ServerComponent {
 
 
 
+	// Report the elapsed time of each stage of a forecast calculation.
+
+	public void report_forecast_calc_times (String calc_times) {
+		report_action ("FORECAST-CALC-TIMES",
+					calc_times);
+		return;
+	}
+
+
+
+
 	// Report forecast rate limit triggered, if delay is positive.
 
 	public void report_forecast_rate_limit (long delay) {
@@ -17,6 +17,7 @@ import java.util.HashMap;
 import java.util.Date;
 
 import org.bson.types.ObjectId;
+import org.bson.types.Binary;
 import com.mongodb.client.MongoCollection;
 import org.bson.Document;
 import com.mongodb.client.model.Indexes;
@@ -826,6 +827,25 @@ public class MongoDBUtil implements AutoCloseable {
 	}
 
 
+	// Read a binary byte array from a document.
+	// An exception is thrown if the Binary is null.
+
+	public static byte[] doc_get_binary (Document doc, String name) {
+
+		Binary x;
+		try {
+			x = doc.get (name, Binary.class);
+		} catch (Exception e) {
+			throw new DBCorruptException ("MongoDB document read: Error converting field: " + name, e);
+		}
+		if (x == null) {
+			throw new DBCorruptException ("MongoDB document read: Null field: " + name);
+		}
+
+		return x.getData();
+	}
+
+
 	// Read a string array from a document.
 	// An exception is thrown if the array or any contained string is null.
 
@@ -743,9 +743,9 @@ public class PDLSupport extends ServerComponent {
 			return false;
 		}
 
-		// Get the primary mode from the relay link
+		// Get the primary mode from the relay link (a pool worker uses the main dispatcher's snapshot)
 
-		return sg.relay_link.is_primary_state();
+		return sg.task_disp.is_relay_primary_state();
 
 		//  // For now, just assume primary
 		//  
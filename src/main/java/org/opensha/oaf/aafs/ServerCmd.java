@@ -1,6 +1,7 @@
 package org.opensha.oaf.aafs;
 
 import java.util.List;
+import java.util.ArrayList;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -1001,6 +1002,121 @@ public class ServerCmd {
 
 
 
+	// cmd_convert_details - Convert the storage format of timeline entry and pending task details.
+
+	public static void cmd_convert_details(String[] args) {
+
+		// 1 additional argument
+
+		if (args.length != 2) {
+			System.err.println ("ServerCmd : Invalid 'convert_details' subcommand");
+			return;
+		}
+
+		int details_format = DBDetailsCodec.parse_details_format (args[1]);
+		if (details_format < 0) {
+			System.err.println ("ServerCmd : Invalid details format: " + args[1]);
+			return;
+		}
+
+		// Turn off excessive log messages
+
+		MongoDBLogControl.disable_excessive();
+
+		// Connect to MongoDB
+
+		try (
+			MongoDBUtil mongo_instance = new MongoDBUtil();
+		){
+
+			// Select the format for writing
+
+			DBDetailsCodec.set_details_format (details_format);
+			System.out.println ("Converting details to format " + DBDetailsCodec.get_details_format_as_string (details_format));
+
+			// Get the keys of all timeline entries (so rewriting does not disturb the iteration)
+
+			ArrayList<RecordKey> keys = new ArrayList<RecordKey>();
+			try (
+				RecordIterator<TimelineEntry> entries = TimelineEntry.fetch_timeline_entry_range (0L, 0L, null, null, null, TimelineEntry.UNSORTED);
+			){
+				for (TimelineEntry tentry : entries) {
+					keys.add (tentry.get_record_key());
+				}
+			}
+
+			// Rewrite the timeline entries, timing the reads in the old format
+
+			DBDetailsCodec.reset_stats();
+			long details_chars = 0L;
+			long read_nanos = 0L;
+			long write_nanos = 0L;
+			int count = 0;
+
+			for (RecordKey key : keys) {
+				long t0 = System.nanoTime();
+				TimelineEntry tentry = TimelineEntry.get_timeline_entry_for_key (key);
+				long t1 = System.nanoTime();
+				if (tentry != null) {
+					details_chars += tentry.dump_details().length();
+					TimelineEntry.rewrite_timeline_entry (tentry);
+					++count;
+				}
+				read_nanos += (t1 - t0);
+				write_nanos += (System.nanoTime() - t1);
+			}
+
+			System.out.println ();
+			System.out.println ("Timeline entries converted: " + count);
+			System.out.println ("details_chars = " + details_chars);
+			if (count > 0) {
+				System.out.println ("old_read_avg_millis = " + String.format ("%.3f", ((double)read_nanos) / ((double)count) / 1.0e6));
+				System.out.println ("write_avg_millis = " + String.format ("%.3f", ((double)write_nanos) / ((double)count) / 1.0e6));
+			}
+			System.out.println (DBDetailsCodec.get_stats_string());
+
+			// Read the timeline entries again, timing the reads in the new format
+
+			DBDetailsCodec.reset_stats();
+			read_nanos = 0L;
+			count = 0;
+
+			for (RecordKey key : keys) {
+				long t0 = System.nanoTime();
+				TimelineEntry tentry = TimelineEntry.get_timeline_entry_for_key (key);
+				read_nanos += (System.nanoTime() - t0);
+				if (tentry != null) {
+					++count;
+				}
+			}
+
+			System.out.println ("Timeline entries read back: " + count);
+			if (count > 0) {
+				System.out.println ("new_read_avg_millis = " + String.format ("%.3f", ((double)read_nanos) / ((double)count) / 1.0e6));
+			}
+			System.out.println (DBDetailsCodec.get_stats_string());
+
+			// Rewrite the pending tasks (there are only a few, so no statistics)
+
+			DBDetailsCodec.reset_stats();
+			count = 0;
+
+			for (PendingTask ptask : PendingTask.get_all_tasks_unsorted()) {
+				if (PendingTask.rewrite_task (ptask)) {
+					++count;
+				}
+			}
+
+			System.out.println ("Pending tasks converted: " + count);
+			System.out.println (DBDetailsCodec.get_stats_string());
+		}
+
+		return;
+	}
+
+
+
+
 	// cmd_backup_database - Back up all of our MongoDB collections.
 
 	public static void cmd_backup_database(String[] args) {
@@ -2448,6 +2564,21 @@ public class ServerCmd {
 			}
 			return;
 
+		// Subcommand : convert_details
+		// Command format:
+		//  convert_details  format
+		// Rewrite all timeline entries and pending tasks, storing details in the given format.
+		// The format can be "json" (original) or "deflate" (compressed).
+		// Note: This should be run while the server is stopped.
+
+		case "convert_details":
+			try {
+				cmd_convert_details(args);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			return;
+
 		// Subcommand : backup_database
 		// Command format:
 		//  backup_database  filename
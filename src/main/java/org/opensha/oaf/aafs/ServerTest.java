@@ -4,6 +4,9 @@ import java.util.List;
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.TreeMap;
 
 import java.io.File;
 import java.io.Reader;
@@ -20,6 +23,7 @@ import org.opensha.oaf.aafs.entity.CatalogSnapshot;
 import org.opensha.oaf.aafs.entity.TimelineEntry;
 import org.opensha.oaf.aafs.entity.AliasFamily;
 import org.opensha.oaf.aafs.entity.RelayItem;
+import org.opensha.oaf.aafs.entity.TaskLease;
 
 import org.opensha.oaf.rj.AftershockStatsCalc;
 import org.opensha.oaf.rj.CompactEqkRupList;
@@ -5992,6 +5996,159 @@ public class ServerTest {
 
 
 
+	// Test #97 - Run task pool workers that contend for the tasks of one timeline.
+
+	public static void test97(String[] args) throws Exception {
+
+		// 3 additional arguments
+
+		if (args.length != 4) {
+			System.err.println ("ServerTest : Invalid 'test97' or 'pool_contend' subcommand");
+			return;
+		}
+
+		String event_id = args[1];
+		int num_tasks = Integer.parseInt (args[2]);
+		int num_workers = Integer.parseInt (args[3]);
+
+		if (num_tasks < 1 || num_workers < 2) {
+			System.out.println ("Invalid num_tasks = " + num_tasks + " or num_workers = " + num_workers);
+			return;
+		}
+
+		// Turn off excessive log messages
+
+		MongoDBLogControl.disable_excessive();
+
+		// Connect to MongoDB
+
+		try (
+			MongoDBUtil mongo_instance = new MongoDBUtil();
+		){
+
+			// Remove any leases, and any tasks left for the event
+
+			TaskLease.delete_all_leases();
+
+			for (PendingTask ptask : PendingTask.get_task_entry_range (0L, 0L, event_id)) {
+				PendingTask.delete_task (ptask);
+			}
+
+			// Post the tasks, in order of scheduled time
+			// (a next timeline operation for an event with no timeline completes quickly)
+
+			long base_time = ServerClock.get_time() - 60000L;
+
+			for (int n = 0; n < num_tasks; ++n) {
+				OpNextTimelineOp payload = new OpNextTimelineOp();
+				payload.setup (OpNextTimelineOp.NTOREAS_REBUILD);
+				PendingTask.submit_task (event_id, base_time + n, base_time + n, "ServerTest",
+					TaskDispatcher.OPCODE_NEXT_TIMELINE_OP, 0, payload.marshal_task());
+			}
+
+			System.out.println ("Posted " + num_tasks + " tasks for event_id = " + event_id);
+
+			// Start the workers, recording the tasks they run
+
+			TaskDispatcher dispatcher = new TaskDispatcher();
+			dispatcher.set_worker_count (num_workers);
+			dispatcher.setup_task_context();
+
+			List<String> trace = new ArrayList<String>();
+			dispatcher.set_pool_trace (trace);
+
+			dispatcher.start_worker_pool();
+
+			// Wait until all the tasks are done, or 5 minutes
+
+			long deadline = System.currentTimeMillis() + 300000L;
+			while (PendingTask.get_first_task_entry (0L, 0L, event_id) != null && System.currentTimeMillis() < deadline) {
+				try {
+					Thread.sleep (1000L);
+				} catch (InterruptedException e) {
+				}
+			}
+
+			dispatcher.stop_worker_pool();
+
+			// Check that the tasks ran one at a time, in order of scheduled time
+
+			int errors = 0;
+
+			List<String[]> records = new ArrayList<String[]>();
+			synchronized (trace) {
+				for (String line : trace) {
+					records.add (line.split (" "));
+				}
+			}
+			Collections.sort (records, new Comparator<String[]>() {
+				@Override
+				public int compare (String[] a, String[] b) {
+					return Long.compare (Long.parseLong (a[3]), Long.parseLong (b[3]));
+				}
+			});
+
+			if (records.size() != num_tasks) {
+				System.out.println ("FAIL: Tasks run = " + records.size() + ", expected = " + num_tasks);
+				++errors;
+			}
+
+			TreeMap<String, Integer> owner_counts = new TreeMap<String, Integer>();
+			for (int i = 0; i < records.size(); ++i) {
+				String[] r = records.get(i);
+				owner_counts.put (r[0], owner_counts.getOrDefault (r[0], 0) + 1);
+				if (i > 0) {
+					String[] prev = records.get(i - 1);
+					if (Long.parseLong (r[3]) < Long.parseLong (prev[4])) {
+						System.out.println ("FAIL: Task " + r[2] + " run by " + r[0] + " overlaps task " + prev[2] + " run by " + prev[0]);
+						++errors;
+					}
+					if (Long.parseLong (r[2]) <= Long.parseLong (prev[2])) {
+						System.out.println ("FAIL: Task " + r[2] + " run after task " + prev[2]);
+						++errors;
+					}
+				}
+			}
+
+			for (String owner : owner_counts.keySet()) {
+				System.out.println ("Owner " + owner + " ran " + owner_counts.get (owner) + " tasks");
+			}
+
+			// Check that a dispatcher whose lease was taken over cannot commit
+
+			String owner_a = "ServerTest-A";
+			String owner_b = "ServerTest-B";
+			long now = ServerClock.get_true_time();
+
+			int lease_a = TaskLease.acquire_lease (event_id, owner_a, now - 20000L, 10000L);
+			int lease_b = TaskLease.acquire_lease (event_id, owner_b, now, 60000L);
+
+			System.out.println ("Lease A = " + TaskLease.get_lease_result_as_string (lease_a) + ", lease B = " + TaskLease.get_lease_result_as_string (lease_b));
+
+			if (lease_b != TaskLease.LEASE_RECLAIMED) {
+				System.out.println ("FAIL: Expired lease was not reclaimed");
+				++errors;
+			}
+			if (dispatcher.check_lease_for_commit (event_id, owner_a)) {
+				System.out.println ("FAIL: Commit allowed after lease was lost");
+				++errors;
+			}
+			if (!( dispatcher.check_lease_for_commit (event_id, owner_b) )) {
+				System.out.println ("FAIL: Commit refused to lease holder");
+				++errors;
+			}
+
+			TaskLease.release_lease (event_id, owner_b);
+
+			System.out.println ((errors == 0) ? "PASS" : ("FAIL: errors = " + errors));
+		}
+
+		return;
+	}
+
+
+
+
 	// Test dispatcher.
 	
 	public static void main(String[] args) {
@@ -7681,6 +7838,25 @@ public class ServerTest {
 			return;
 		}
 
+		// Subcommand : Test #97
+		// Command format:
+		//  test97  event_id  num_tasks  num_workers
+		// Post num_tasks next timeline operation tasks for event_id (which should have no timeline),
+		// and run num_workers task pool workers that contend for them.  Check that the tasks run
+		// one at a time and in order, and that a lease taken over by another owner cannot commit.
+		// Note: Do not run while the server is running, because this deletes all task leases.
+
+		if (args[0].equalsIgnoreCase ("test97") || args[0].equalsIgnoreCase ("pool_contend")) {
+
+			try {
+				test97(args);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
 		// Unrecognized subcommand.
 
 		System.err.println ("ServerTest : Unrecognized subcommand : " + args[0]);
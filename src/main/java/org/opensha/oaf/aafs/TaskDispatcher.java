@@ -1,8 +1,21 @@
 package org.opensha.oaf.aafs;
 
 import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
 import java.util.LinkedHashSet;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 import java.io.IOException;
 import java.io.PrintStream;
 
@@ -11,6 +24,7 @@ import org.opensha.oaf.aafs.entity.LogEntry;
 import org.opensha.oaf.aafs.entity.CatalogSnapshot;
 import org.opensha.oaf.aafs.entity.TimelineEntry;
 import org.opensha.oaf.aafs.entity.AliasFamily;
+import org.opensha.oaf.aafs.entity.TaskLease;
 
 import org.opensha.oaf.util.MarshalReader;
 import org.opensha.oaf.util.MarshalWriter;
@@ -323,6 +337,543 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 
 
 
+	//----- Worker pool -----
+	//
+	// In worker pool mode, timeline tasks (forecasts, PDL reports, expirations, and delayed
+	// timeline operations) are executed by a pool of workers.  Each worker is a TaskDispatcher
+	// with its own server group, running in its own thread, so that a long forecast for one
+	// timeline does not delay tasks for other timelines.  The main dispatcher runs all other
+	// tasks, and continues to do relay link polling and idle-time operations.
+	//
+	// Before running a task, a worker (or the main dispatcher) takes an exclusive lease on the
+	// task's event ID (see TaskLease), and then runs the first task for that event ID.  So tasks
+	// for the same timeline run one at a time and in order, while tasks for different timelines
+	// run in parallel.  Leases are renewed while tasks run.  If the server crashes, the leases
+	// expire and the active tasks are restarted, just as in single dispatcher mode.
+	//
+	// If a lease is lost while its task runs (because renewal failed for longer than the lease
+	// duration), another dispatcher may take the lease and run the same task.  So the lease is
+	// checked and renewed again just before the task's transaction is committed; if it is no
+	// longer held then the transaction is not committed, and the task is left for the new lease
+	// holder.  The renewal is done in the lease renewer thread, outside the transaction, so that
+	// it does not conflict with the periodic renewals; after it succeeds, the lease has a full
+	// lease duration left, which is ample time for the commit.
+	// Without transactions, the task's changes cannot be withdrawn, and the loss is only logged.
+	//
+	// The relay link, and the cleanup, polling, and health monitoring state, belong to the main
+	// dispatcher.  Workers share the main dispatcher's cleanup, poll, and health support objects.
+	// A worker that needs to change their state (such as a PDL deletion requesting a cleanup
+	// retry) queues the change with defer_to_main_thread, and the main dispatcher applies it in
+	// its own thread between tasks.  Workers do not use the relay link, which the main dispatcher
+	// re-initializes and shuts down when it restarts; instead they read a snapshot of the primary
+	// state, which the main dispatcher updates each time it polls the relay link.
+
+
+	// Default number of pool workers, selected by the system property "oafworkers".
+	// Zero means no worker pool, so the main dispatcher runs all tasks one at a time.
+
+	public static final int default_worker_count = SimpleUtils.get_property_int ("oafworkers", 0, 0);
+
+	// Opcodes that are executed by pool workers.
+
+	private static final List<Integer> pool_opcodes = Arrays.asList (
+		OPCODE_GEN_FORECAST,
+		OPCODE_GEN_PDL_REPORT,
+		OPCODE_GEN_EXPIRE,
+		OPCODE_NEXT_TIMELINE_OP
+	);
+
+	// Number of pool workers, or 0 if no worker pool.
+
+	private int worker_count = default_worker_count;
+
+	// Lease duration, in milliseconds.
+
+	private long lease_duration = 300000L;			// 5 minutes
+
+	// Interval between lease renewals, in milliseconds.
+
+	private long lease_renew_interval = 60000L;		// 1 minute
+
+	// The polling delay for pool workers, in milliseconds.
+
+	private long worker_polling_delay = 5000L;		// 5 seconds
+
+	// Identifies this dispatcher as the owner of leases, or null if not using leases.
+
+	private String lease_owner = null;
+
+	// Leases currently held by the main dispatcher and pool workers, mapping lock key to owner.
+	// This is shared by the main dispatcher and its workers.
+
+	private ConcurrentHashMap<String, String> held_leases = null;
+
+	// Lock keys of held leases that the lease renewer found to be lost.
+	// This is shared by the main dispatcher and its workers.
+
+	private Set<String> lost_leases = null;
+
+	// For a pool worker, the main dispatcher; null for the main dispatcher.
+
+	private TaskDispatcher pool_main = null;
+
+	// Pool workers and their threads, or null if the pool is not running.
+
+	private List<TaskDispatcher> pool_workers = null;
+	private List<Thread> pool_threads = null;
+
+	// Flag to tell pool workers to stop, after finishing their current task.
+
+	private volatile boolean pool_stop = false;
+
+	// Executor that renews held leases, or null if the pool is not running.
+
+	private ScheduledExecutorService lease_renewer = null;
+
+	// The primary state of the relay link, as of the last time the main dispatcher polled it.
+
+	private volatile boolean relay_primary_snapshot = true;
+
+	// The thread running the main dispatcher, or null if it is not running.
+
+	private volatile Thread dispatcher_thread = null;
+
+	// Operations queued by other threads, to be run by the main dispatcher in its own thread.
+
+	private ConcurrentLinkedQueue<Runnable> main_thread_ops = new ConcurrentLinkedQueue<Runnable>();
+
+	// If non-null, receives a record of each task run in worker pool mode (used for testing).
+
+	private List<String> pool_trace = null;
+
+
+	// Get the number of pool workers, or 0 if no worker pool.
+
+	public int get_worker_count () {
+		return worker_count;
+	}
+
+
+	// Set the number of pool workers, or 0 if no worker pool.
+	// This must be called before the dispatcher is started.
+
+	public void set_worker_count (int the_worker_count) {
+		if (the_worker_count < 0) {
+			throw new IllegalArgumentException ("TaskDispatcher.set_worker_count: Invalid worker count: " + the_worker_count);
+		}
+		worker_count = the_worker_count;
+		return;
+	}
+
+
+	// Return true if tasks with the given event ID require a lease.
+	// Special event IDs and the empty event ID are not associated with a timeline.
+
+	private static boolean is_lockable_event_id (String event_id) {
+		return event_id != null && event_id.length() > 0 && !( event_id.startsWith ("===") );
+	}
+
+
+	// Set the list that receives a record of each task run in worker pool mode, or null for none.
+	// Each record contains the owner, event ID, scheduled time, and start and end times in nanoseconds.
+	// This is used for testing, and must be called before the pool is started.
+
+	void set_pool_trace (List<String> the_pool_trace) {
+		pool_trace = the_pool_trace;
+		return;
+	}
+
+
+	// Run an operation in the main dispatcher thread.
+	// If called from any thread other than the running main dispatcher (such as a pool worker),
+	// the operation is queued, the main dispatcher runs it between tasks with its own task
+	// context, and the return value is true.  Otherwise, the return value is false, and the
+	// caller should perform the operation itself.
+
+	public boolean defer_to_main_thread (Runnable op) {
+		TaskDispatcher main = ((pool_main == null) ? this : pool_main);
+		Thread thread = main.dispatcher_thread;
+		if (thread == null || thread == Thread.currentThread()) {
+			return false;
+		}
+		main.main_thread_ops.add (op);
+		return true;
+	}
+
+
+	// Run the operations queued for the main dispatcher thread.
+
+	private void run_main_thread_ops () {
+		for (Runnable op = main_thread_ops.poll(); op != null; op = main_thread_ops.poll()) {
+			op.run();
+		}
+		return;
+	}
+
+
+	// Return true if the relay link is in primary state (see RelayLink.is_primary_state).
+	// A pool worker returns the main dispatcher's most recent snapshot.
+
+	public boolean is_relay_primary_state () {
+		if (pool_main != null) {
+			return pool_main.relay_primary_snapshot;
+		}
+		return sg.relay_link.is_primary_state();
+	}
+
+
+	// Check, just before commit, that a lease is still held.
+	// Parameters:
+	//  lock_key = Lock key of the lease.
+	//  owner = Owner of the lease.
+	// Returns true if the lease is held, in which case it is extended.
+	// If the worker pool is running, the renewal is done in the lease renewer thread, with its
+	// own connection to MongoDB, so that it is not part of the caller's transaction (which would
+	// cause a write conflict with the periodic renewals, and make the commit fail).
+
+	boolean check_lease_for_commit (final String lock_key, final String owner) {
+		if (lost_leases != null && lost_leases.contains (lock_key)) {
+			return false;
+		}
+
+		// If no lease renewer, renew in this thread
+
+		ScheduledExecutorService renewer = ((pool_main == null) ? lease_renewer : pool_main.lease_renewer);
+
+		if (renewer == null) {
+			return TaskLease.renew_lease (lock_key, owner, ServerClock.get_true_time(), lease_duration);
+		}
+
+		// Renew in the lease renewer thread, and wait for the result
+
+		Future<Boolean> renewal = renewer.submit (new Callable<Boolean>() {
+			@Override
+			public Boolean call () {
+				try (
+					MongoDBUtil mongo_instance = new MongoDBUtil (MongoDBUtil.CONOPT_CONNECT, MongoDBUtil.DDBOPT_SAVE_SET, null);
+				){
+					return TaskLease.renew_lease (lock_key, owner, ServerClock.get_true_time(), lease_duration);
+				}
+			}
+		});
+
+		for (;;) {
+			try {
+				return renewal.get().booleanValue();
+			} catch (InterruptedException e) {
+			} catch (ExecutionException e) {
+				e.printStackTrace();
+				return false;
+			}
+		}
+	}
+
+
+
+
+	// Start the worker pool.
+	// This is called by the main dispatcher, with a connection to MongoDB.
+
+	void start_worker_pool () {
+
+		// Leases
+
+		lease_owner = "disp-" + MongoDBUtil.make_object_id().toHexString();
+		held_leases = new ConcurrentHashMap<String, String>();
+		lost_leases = ConcurrentHashMap.newKeySet();
+		pool_stop = false;
+
+		// Create the workers, which share our summary log and the support state that belongs to us,
+		// and read our snapshot of the relay link state instead of using the relay link
+
+		pool_workers = new ArrayList<TaskDispatcher>();
+		pool_threads = new ArrayList<Thread>();
+
+		for (int n = 0; n < worker_count; ++n) {
+			final TaskDispatcher worker = new TaskDispatcher();
+			worker.worker_count = 0;
+			worker.pool_main = this;
+			worker.lease_owner = lease_owner + "-w" + n;
+			worker.held_leases = held_leases;
+			worker.lost_leases = lost_leases;
+			worker.pool_trace = pool_trace;
+			worker.dispatcher_verbose = dispatcher_verbose;
+			worker.sg.log_sup = sg.log_sup;
+			worker.sg.cleanup_sup = sg.cleanup_sup;
+			worker.sg.poll_sup = sg.poll_sup;
+			worker.sg.health_sup = sg.health_sup;
+			worker.sg.relay_link = null;
+
+			Thread thread = new Thread (new Runnable() {
+				@Override
+				public void run () {
+					worker.run_pool_worker();
+				}
+			}, "TaskWorker-" + n);
+
+			pool_workers.add (worker);
+			pool_threads.add (thread);
+		}
+
+		// Start the lease renewer and the workers
+
+		lease_renewer = Executors.newSingleThreadScheduledExecutor();
+		lease_renewer.scheduleWithFixedDelay (new Runnable() {
+			@Override
+			public void run () {
+				renew_held_leases();
+			}
+		}, lease_renew_interval, lease_renew_interval, TimeUnit.MILLISECONDS);
+
+		for (Thread thread : pool_threads) {
+			thread.start();
+		}
+
+		sg.log_sup.report_worker_pool_start (worker_count);
+		return;
+	}
+
+
+
+
+	// Stop the worker pool, if it is running.
+	// Each worker finishes its current task before stopping.
+
+	void stop_worker_pool () {
+		if (pool_workers != null) {
+
+			// Tell workers to stop, and wait for them
+
+			pool_stop = true;
+
+			for (Thread thread : pool_threads) {
+				for (;;) {
+					try {
+						thread.join();
+						break;
+					} catch (InterruptedException e) {
+					}
+				}
+			}
+
+			// Stop renewing leases
+
+			lease_renewer.shutdown();
+
+			pool_workers = null;
+			pool_threads = null;
+			lease_renewer = null;
+
+			sg.log_sup.report_worker_pool_stop ();
+		}
+		return;
+	}
+
+
+
+
+	// Renew all held leases.
+	// This runs in the lease renewer thread, with its own connection to MongoDB.
+	// Exceptions are not propagated, because that would stop further renewals.
+
+	private void renew_held_leases () {
+		try (
+			MongoDBUtil mongo_instance = new MongoDBUtil (MongoDBUtil.CONOPT_CONNECT, MongoDBUtil.DDBOPT_SAVE_SET, null);
+		){
+			long now = ServerClock.get_true_time();
+			for (Map.Entry<String, String> entry : held_leases.entrySet()) {
+				if (!( TaskLease.renew_lease (entry.getKey(), entry.getValue(), now, lease_duration) )) {
+
+					// Mark it lost, so the task is not committed, and report it, only if the lease was not just released
+
+					if (held_leases.containsKey (entry.getKey())) {
+						lost_leases.add (entry.getKey());
+						sg.log_sup.report_task_lease_lost (entry.getKey());
+					}
+				}
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+		return;
+	}
+
+
+
+
+	//----- Task wakeup -----
+	//
+	// Between polls, the dispatcher waits for the polling delay.  If change stream wakeup is
+	// enabled, then during the wait the dispatcher watches a MongoDB change stream on the
+	// pending task collection, and wakes up as soon as a task is posted or rescheduled to
+	// execute before the end of the wait.  The wait is also cut short when the earliest
+	// waiting task becomes ready.  So a task posted by the analyst tools, the command line,
+	// or the relay link starts within about a second, instead of after up to a full polling
+	// delay, without polling the task queue more often.
+	//
+	// Change streams are only available on replica sets.  If the change stream cannot be
+	// opened, or fails, the dispatcher falls back to waiting for the full polling delay,
+	// and tries again the next time it connects to MongoDB.
+
+
+	// Default for enabling change stream wakeup, selected by the system property "oafwakeup".
+	// It is enabled unless the property is "off".
+
+	public static final boolean default_task_wakeup = !SimpleUtils.is_property_value ("oafwakeup", "off");
+
+	// True to enable change stream wakeup.
+
+	private boolean task_wakeup = default_task_wakeup;
+
+	// Minimum time between checks of the change stream, in milliseconds.
+	// (Normally a check waits on the server for about a second, so this only applies if the server returns at once.)
+
+	private long task_watch_interval = 250L;		// 0.25 seconds
+
+	// The change stream iterator, or null if not watching the task queue.
+
+	private RecordIterator<PendingTask> task_watch = null;
+
+
+	// Get the flag that enables change stream wakeup.
+
+	public boolean get_task_wakeup () {
+		return task_wakeup;
+	}
+
+
+	// Set the flag that enables change stream wakeup.
+	// This must be called before the dispatcher is started.
+
+	public void set_task_wakeup (boolean the_task_wakeup) {
+		task_wakeup = the_task_wakeup;
+		return;
+	}
+
+
+
+
+	// Open the change stream on the task queue, if enabled.
+	// This must be called with a connection to MongoDB, outside of any transaction.
+	// If the change stream cannot be opened, the dispatcher falls back to polling.
+
+	private void open_task_watch () {
+		close_task_watch();
+		if (task_wakeup) {
+			try {
+				task_watch = PendingTask.watch_task_changes();
+			} catch (Exception e) {
+				task_watch = null;
+				sg.log_sup.report_task_watch_unavailable (e);
+			}
+		}
+		return;
+	}
+
+
+
+
+	// Close the change stream on the task queue, if it is open.
+	// Exceptions are discarded, because the stream is also closed when the MongoDB connection closes.
+
+	private void close_task_watch () {
+		RecordIterator<PendingTask> my_task_watch = task_watch;
+		task_watch = null;
+		if (my_task_watch != null) {
+			try {
+				my_task_watch.close();
+			} catch (Exception e) {
+			}
+		}
+		return;
+	}
+
+
+
+
+	// Return true if a wait should end early because the dispatcher is stopping.
+
+	private boolean is_wait_stopped () {
+		return pool_main != null && pool_main.pool_stop;
+	}
+
+
+
+
+	// Wait for the next task.
+	// Parameters:
+	//  delay = Maximum time to wait, in milliseconds.
+	//  cutoff_time = Cutoff time used for the last check of the task queue.
+	// Returns when the delay has elapsed, or earlier if a task may have become ready.
+	// If the change stream is not open, this just sleeps for the given delay.
+	// This must be called with a connection to MongoDB, outside of any transaction.
+
+	private void wait_for_task (long delay, long cutoff_time) {
+
+		long time_now = ServerClock.get_true_time();
+		long wake_time = time_now + delay;
+
+		// If watching, end the wait when the next waiting task becomes ready
+		// (tasks at or before the cutoff time were already considered, and are active or leased)
+
+		if (task_watch != null) {
+			PendingTask next_task = PendingTask.get_first_task_entry (cutoff_time + 1L, 0L, null);
+			if (next_task != null) {
+				wake_time = Math.min (wake_time, time_now + Math.max (0L, next_task.get_exec_time() - ServerClock.get_time()));
+			}
+		}
+
+		// Loop until time to wake up
+
+		while (time_now < wake_time && !( is_wait_stopped() )) {
+
+			// If not watching, just sleep
+
+			if (task_watch == null) {
+				try {
+					Thread.sleep (wake_time - time_now);
+				} catch (InterruptedException e) {
+				}
+				break;
+			}
+
+			// Check the change stream, falling back to polling if it fails
+
+			long check_time = time_now;
+
+			try {
+				while (task_watch.hasNext()) {
+					PendingTask changed_task = task_watch.next();
+					if (changed_task.get_exec_time() != EXEC_TIME_ACTIVE) {
+						wake_time = Math.min (wake_time, time_now + Math.max (0L, changed_task.get_exec_time() - ServerClock.get_time()));
+					}
+				}
+			} catch (Exception e) {
+				close_task_watch();
+				sg.log_sup.report_task_watch_unavailable (e);
+			}
+
+			// If the server returned at once, avoid checking again too soon
+
+			time_now = ServerClock.get_true_time();
+
+			if (time_now < wake_time && task_watch != null && time_now - check_time < task_watch_interval) {
+				try {
+					Thread.sleep (Math.min (task_watch_interval, wake_time - time_now));
+				} catch (InterruptedException e) {
+				}
+				time_now = ServerClock.get_true_time();
+			}
+		}
+
+		return;
+	}
+
+
+
+
 	//----- Idle time -----
 
 	// The console log output stream, or null if none.
@@ -636,6 +1187,10 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 
 		dispatcher_state = STATE_FIRST_CONNECT;
 
+		// Operations deferred by pool workers run in this thread
+
+		dispatcher_thread = Thread.currentThread();
+
 		// Set up timers
 
 		start_time = ServerClock.get_true_time();
@@ -675,6 +1230,12 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 					// Remove any shutdown commands from the task queue
 
 					delete_all_shutdown_tasks();
+
+					// Remove any task leases left by a previous run
+
+					if (worker_count > 0) {
+						TaskLease.delete_all_leases();
+					}
 				
 					// Remove any health monitoring commands from the task queue
 
@@ -735,6 +1296,20 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 					sg.relay_link.poll_relay_link();
 				}
 
+				// Save the primary state for pool workers
+
+				relay_primary_snapshot = sg.relay_link.is_primary_state();
+
+				// Start the worker pool, if desired and not already running
+
+				if (worker_count > 0 && pool_workers == null && dispatcher_state != STATE_SHUTDOWN) {
+					start_worker_pool();
+				}
+
+				// Watch the task queue for new tasks, if enabled
+
+				open_task_watch();
+
 				// The time at which we force idle-time processing
 
 				long idle_force_time = dispatcher_true_time + idle_force_delay_long;
@@ -758,9 +1333,10 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 
 					refresh_task_context();
 
-					// Poll the relay link
+					// Poll the relay link, and save the primary state for pool workers
 
 					sg.relay_link.poll_relay_link();
+					relay_primary_snapshot = sg.relay_link.is_primary_state();
 
 					// State = polling
 
@@ -770,6 +1346,10 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 
 					refresh_task_context();
 
+					// Run operations deferred by pool workers
+
+					run_main_thread_ops();
+
 					// Record the dispatcher active time
 
 					active_time = dispatcher_true_time;
@@ -780,8 +1360,11 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 					task = null;
 
 					// Do a prelimiary check without starting a transaction
+					// (in worker pool mode, skip tasks run by the pool or leased by others)
 
-					PendingTask prelim_task = PendingTask.get_first_ready_task (cutoff_time);
+					PendingTask prelim_task = ((worker_count > 0)
+						? PendingTask.get_first_ready_task (cutoff_time, TaskLease.get_leased_keys (dispatcher_true_time, null), pool_opcodes, false)
+						: PendingTask.get_first_ready_task (cutoff_time));
 
 					// No task, do idle-time with no task pending
 
@@ -813,9 +1396,17 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 						prelim_task = null;
 					}
 
+					// If passed prelimiary check in worker pool mode, lease and run the task
+
+					if (idle_state > 0 && worker_count > 0) {
+						if (!( run_pool_task (cutoff_time, conopt_inner, ddbopt) )) {
+							idle_state = 0;
+						}
+					}
+
 					// If passed prelimiary check, start a transaction if enabled
 
-					if (idle_state > 0) {
+					else if (idle_state > 0) {
 						try (
 							MongoDBUtil mongo_inner = new MongoDBUtil (conopt_inner, ddbopt, null);
 						){
@@ -887,18 +1478,19 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 								eff_polling_delay = polling_delay;
 							}
 
-							// Wait for the polling delay
+							// Wait for the polling delay, or until a task may be ready
 
 							if (eff_polling_delay >= polling_delay_min) {
-								try {
-									Thread.sleep(eff_polling_delay);
-								} catch (InterruptedException e) {
-								}
+								wait_for_task (eff_polling_delay, cutoff_time);
 							}
 						}
 					}
 				}
 
+				// Stop watching the task queue
+
+				close_task_watch();
+
 				// Shut down the relay link
 
 				sg.relay_link.shutdown_relay_link();
@@ -923,6 +1515,10 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 				sg.log_sup.report_dispatcher_exception (task, e);
 			}
 
+			// The change stream, if any, was closed with the connection
+
+			task_watch = null;
+
 			// If normal shutdown, exit the restart loop
 
 			if (dispatcher_state == STATE_SHUTDOWN) {
@@ -962,6 +1558,287 @@ public class TaskDispatcher extends ServerComponent implements Runnable {
 
 		}
 
+		// Stop the worker pool
+
+		stop_worker_pool();
+
+		// Discard any operations deferred by pool workers, since there is no longer a main thread to run them
+
+		dispatcher_thread = null;
+		main_thread_ops.clear();
+
+		return;
+	}
+
+
+
+
+	// Run the next task in worker pool mode.
+	// Parameters:
+	//  cutoff_time = Maximum allowed exeuction time of the task.
+	//  conopt_inner = Connection option for the task transaction.
+	//  ddbopt = Default database option.
+	// Returns true if a task was executed, false if there is no task we can run now.
+	// A pool worker considers only the pool opcodes, and the main dispatcher considers all others.
+	// Tasks whose event ID is leased by another dispatcher are skipped.  For other tasks, this
+	// takes the lease on the event ID, and then runs the first task for that event ID, which
+	// may have been left active by a crashed dispatcher.
+	// If the lease is busy (because another worker took it first), or if the first task for the
+	// event ID cannot be run by us, then the event ID is excluded and the next ready task is tried
+	// immediately, so that workers do not wait while other events have tasks ready.
+	// On entry, task context variables are set up:
+	//  dispatcher_time, dispatcher_true_time, dispatcher_action_config
+
+	private boolean run_pool_task (long cutoff_time, int conopt_inner, int ddbopt) {
+		boolean f_worker = (pool_main != null);
+
+		// Event IDs to skip, initially those leased by others
+
+		List<String> excluded_keys = new ArrayList<String> (TaskLease.get_leased_keys (dispatcher_true_time, null));
+
+		// Loop until we run a task or there are no more candidates.
+		// Each pass excludes one more event ID, so the loop terminates.
+
+		for (;;) {
+
+			// Find a candidate task, skipping excluded event IDs
+
+			PendingTask candidate = PendingTask.get_first_ready_task (cutoff_time, excluded_keys, pool_opcodes, f_worker);
+
+			if (candidate == null) {
+				return false;
+			}
+
+			// If the event ID does not need a lease, just run it
+
+			String lock_key = candidate.get_event_id();
+
+			if (!( is_lockable_event_id (lock_key) )) {
+				if (activate_and_dispatch (candidate, null, cutoff_time, conopt_inner, ddbopt)) {
+					return true;
+				}
+				if (lock_key == null) {
+					return false;
+				}
+				excluded_keys.add (lock_key);
+				continue;
+			}
+
+			// Take the lease, if someone else got it first then try another event
+
+			int lease_result = TaskLease.acquire_lease (lock_key, lease_owner, dispatcher_true_time, lease_duration);
+
+			if (lease_result == TaskLease.LEASE_BUSY) {
+				excluded_keys.add (lock_key);
+				continue;
+			}
+
+			if (lease_result == TaskLease.LEASE_RECLAIMED) {
+				sg.log_sup.report_task_lease_reclaimed (lock_key);
+			}
+
+			held_leases.put (lock_key, lease_owner);
+
+			try {
+
+				// Tasks for the event must run in order, so we can only run the first one,
+				// and only if it is ready and it belongs to us
+
+				PendingTask first_task = PendingTask.get_first_task_entry (0L, 0L, lock_key);
+
+				if (!( first_task != null
+					&& first_task.get_exec_time() <= cutoff_time
+					&& pool_opcodes.contains (first_task.get_opcode()) == f_worker )) {
+					excluded_keys.add (lock_key);
+					continue;
+				}
+
+				// Run it
+
+				return activate_and_dispatch (first_task, lock_key, cutoff_time, conopt_inner, ddbopt);
+			}
+
+			// Release the lease
+
+			finally {
+				held_leases.remove (lock_key);
+				lost_leases.remove (lock_key);
+				TaskLease.release_lease (lock_key, lease_owner);
+			}
+		}
+	}
+
+
+
+
+	// Activate and dispatch a task, in worker pool mode.
+	// Parameters:
+	//  candidate = Task to activate.
+	//  lock_key = Lock key of the lease we hold for the task, or null if none.
+	//  cutoff_time = Maximum allowed exeuction time of the task.
+	//  conopt_inner = Connection option for the task transaction.
+	//  ddbopt = Default database option.
+	// Returns true if the task was executed, false if it was no longer ready,
+	// or if the lease was lost and so the task's transaction was not committed.
+
+	private boolean activate_and_dispatch (PendingTask candidate, String lock_key, long cutoff_time, int conopt_inner, int ddbopt) {
+		boolean result = false;
+		PendingTask task = null;
+
+		try (
+			MongoDBUtil mongo_inner = new MongoDBUtil (conopt_inner, ddbopt, null);
+		){
+
+			// Activate the task
+
+			task = PendingTask.activate_ready_task (candidate, cutoff_time);
+
+			// If we got an active task ...
+
+			if (task != null) {
+
+				// State = processing
+
+				dispatcher_state = STATE_PROCESSING;
+
+				// Dispatch on opcode
+
+				long trace_start = System.nanoTime();
+
+				dispatch_task (task);
+				result = true;
+
+				if (pool_trace != null) {
+					synchronized (pool_trace) {
+						pool_trace.add (lease_owner + " " + task.get_event_id() + " " + task.get_sched_time() + " " + trace_start + " " + System.nanoTime());
+					}
+				}
+			}
+
+			// If we no longer hold the lease, another dispatcher may run the task, so don't commit
+
+			if (lock_key != null && !( check_lease_for_commit (lock_key, lease_owner) )) {
+				sg.log_sup.report_task_lease_abort (lock_key, dispatcher_transact);
+				if (dispatcher_transact) {
+					result = false;
+				}
+			}
+
+			// If doing transactions, commit
+
+			else if (dispatcher_transact) {
+				mongo_inner.set_transact_commit (true);
+			}
+		}
+
+		// Identify the failing task
+
+		catch (Throwable e) {
+			if (task != null) {
+				System.err.println ("Failing task: " + task.toString());
+			}
+			throw e;
+		}
+
+		return result;
+	}
+
+
+
+
+	// Run a pool worker.
+	// The worker runs tasks until the main dispatcher stops the pool.
+	// If an exception occurs, the worker reconnects after a delay.
+
+	private void run_pool_worker () {
+
+		// Set up timers
+
+		start_time = ServerClock.get_true_time();
+		active_time = start_time;
+
+		// Transaction flag and connect options
+
+		dispatcher_transact = MongoDBUtil.is_transaction_enabled (null);
+
+		int conopt_outer = (dispatcher_transact ? MongoDBUtil.CONOPT_SESSION : MongoDBUtil.CONOPT_CONNECT);
+		int conopt_inner = (dispatcher_transact ? MongoDBUtil.CONOPT_TRANSACT_ABORT : MongoDBUtil.CONOPT_CONNECT);
+
+		int ddbopt = MongoDBUtil.DDBOPT_SAVE_SET;
+
+		// Restart loop, continue until stopped
+
+		while (!( pool_main.pool_stop )) {
+
+			// Connect to MongoDB
+
+			try (
+				MongoDBUtil mongo_instance = new MongoDBUtil (conopt_outer, ddbopt, null);
+			){
+
+				// Watch the task queue for new tasks, if enabled
+
+				open_task_watch();
+
+				// Polling loop, continue until stopped or exception
+
+				while (!( pool_main.pool_stop )) {
+
+					// State = polling
+
+					dispatcher_state = STATE_POLLING;
+
+					// Get task time and configuration
+
+					refresh_task_context();
+
+					// Record the dispatcher active time
+
+					active_time = dispatcher_true_time;
+
+					// Run a task, or wait if none
+
+					if (!( run_pool_task (dispatcher_time, conopt_inner, ddbopt) )) {
+
+						// State = waiting
+
+						dispatcher_state = STATE_WAITING;
+
+						wait_for_task (worker_polling_delay, dispatcher_time);
+					}
+				}
+
+				// Stop watching the task queue
+
+				close_task_watch();
+
+			// Operation failed with exception
+
+			} catch (Exception e) {
+				e.printStackTrace();
+				sg.log_sup.report_dispatcher_exception (null, e);
+			} catch (Throwable e) {
+				e.printStackTrace();
+				sg.log_sup.report_dispatcher_exception (null, e);
+			}
+
+			// The change stream, if any, was closed with the connection
+
+			task_watch = null;
+
+			// Wait before restarting
+
+			if (!( pool_main.pool_stop )) {
+				try {
+					Thread.sleep(restart_delay_min);
+				} catch (InterruptedException e) {
+				}
+			}
+		}
+
+		// State = shutdown
+
+		dispatcher_state = STATE_SHUTDOWN;
 		return;
 	}
 
@@ -78,7 +78,7 @@ public abstract class DBEntity implements java.io.Serializable {
 
 	// The number of collections defined.
 
-	public static final int COLL_DEFINED = 6;
+	public static final int COLL_DEFINED = 7;
 
 
 
@@ -121,6 +121,11 @@ public abstract class DBEntity implements java.io.Serializable {
 			System.out.println ("Creating indexes for relay items...");
 		}
 		RelayItem.make_indexes();
+		
+		if (f_verbose) {
+			System.out.println ("Creating indexes for task leases...");
+		}
+		TaskLease.make_indexes();
 			
 		if (f_verbose) {
 			System.out.println ("All indexes were created successfully.");
@@ -169,6 +174,11 @@ public abstract class DBEntity implements java.io.Serializable {
 			System.out.println ("Dropping indexes for relay items...");
 		}
 		RelayItem.drop_indexes ();
+		
+		if (f_verbose) {
+			System.out.println ("Dropping indexes for task leases...");
+		}
+		TaskLease.drop_indexes ();
 			
 		if (f_verbose) {
 			System.out.println ("All indexes were dropped successfully.");
@@ -217,6 +227,11 @@ public abstract class DBEntity implements java.io.Serializable {
 			System.out.println ("Erasing collection of relay items...");
 		}
 		RelayItem.drop_collection ();
+		
+		if (f_verbose) {
+			System.out.println ("Erasing collection of task leases...");
+		}
+		TaskLease.drop_collection ();
 			
 		if (f_verbose) {
 			System.out.println ("All collections were erased successfully.");
@@ -305,6 +320,17 @@ public abstract class DBEntity implements java.io.Serializable {
 				System.out.println ("Existing collection of relay items... NO");
 			}
 		}
+
+		if (TaskLease.collection_exists()) {
+			++count;
+			if (f_verbose) {
+				System.out.println ("Existing collection of task leases... YES");
+			}
+		} else {
+			if (f_verbose) {
+				System.out.println ("Existing collection of task leases... NO");
+			}
+		}
 			
 		if (f_verbose) {
 			System.out.println (count + " of " + COLL_DEFINED + " collections exist.");
@@ -460,6 +486,8 @@ public abstract class DBEntity implements java.io.Serializable {
 				}
 			}
 
+			// Task leases are transient, so they are not backed up
+
 			// End-of-file indicator
 
 			if (f_verbose) {
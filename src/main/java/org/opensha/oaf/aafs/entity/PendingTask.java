@@ -1,6 +1,7 @@
 package org.opensha.oaf.aafs.entity;
 
 import java.util.List;
+import java.util.Collection;
 
 import org.bson.types.ObjectId;
 
@@ -34,9 +35,13 @@ import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.model.Updates;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
 
 import org.opensha.oaf.aafs.DBCorruptException;
+import org.opensha.oaf.aafs.DBDetailsCodec;
 import org.opensha.oaf.aafs.RecordIteratorMongo;
+import org.opensha.oaf.aafs.RecordChangeIteratorMongo;
 import org.opensha.oaf.aafs.MongoDBCollRet;
 import org.opensha.oaf.aafs.MongoDBCollHandle;
 
@@ -582,7 +587,11 @@ public class PendingTask extends DBEntity implements java.io.Serializable {
 						.append ("submit_id"  , submit_id)
 						.append ("opcode"     , Integer.valueOf(opcode))
 						.append ("stage"      , Integer.valueOf(stage))
-						.append ("details"    , details);
+						;
+
+		// Details, in the currently selected storage format
+
+		DBDetailsCodec.append_details (doc, details);
 
 		return doc;
 	}
@@ -603,7 +612,7 @@ public class PendingTask extends DBEntity implements java.io.Serializable {
 		submit_id   = MongoDBUtil.doc_get_string    (doc, "submit_id"  );
 		opcode      = MongoDBUtil.doc_get_int       (doc, "opcode"     );
 		stage       = MongoDBUtil.doc_get_int       (doc, "stage"      );
-		details     = MongoDBUtil.doc_get_string    (doc, "details"    );
+		details     = DBDetailsCodec.get_details    (doc);
 
 		return this;
 	}
@@ -632,6 +641,27 @@ public class PendingTask extends DBEntity implements java.io.Serializable {
 
 
 
+	// Our change stream iterator class.
+
+	private static class MyChangeStreamIterator extends RecordChangeIteratorMongo<PendingTask> {
+
+		// Constructor passes thru the cursor.
+
+		public MyChangeStreamIterator (MongoCursor<ChangeStreamDocument<Document>> mongo_cursor, MongoDBCollHandle coll_handle) {
+			super (mongo_cursor, coll_handle);
+		}
+
+		// Hook routine to convert a Document to a T.
+
+		@Override
+		protected PendingTask hook_convert (Document doc, OperationType optype) {
+			return (new PendingTask()).from_bson_doc (doc);
+		}
+	}
+
+
+
+
 	//  // Make the natural sort for this collection.
 	//  // The natural sort is in increasing order of execution time.
 	//  
@@ -892,6 +922,38 @@ public class PendingTask extends DBEntity implements java.io.Serializable {
 
 
 
+	/**
+	 * rewrite_task - Rewrite a task in the database, using the current details format.
+	 * @param ptask = Existing task to rewrite, as read from the database.
+	 * @return
+	 * Returns true if the task was rewritten, false if it is no longer in the database.
+	 * This is for converting the details storage format (see DBDetailsCodec).
+	 * The contents of the task are unchanged.
+	 */
+	public static boolean rewrite_task (PendingTask ptask) {
+
+		// Check conditions
+
+		if (!( ptask != null && ptask.get_id() != null )) {
+			throw new IllegalArgumentException("PendingTask.rewrite_task: Invalid parameters");
+		}
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Filter: id == ptask.id
+
+		Bson filter = id_filter (ptask.get_id());
+
+		// Replace the document
+
+		return coll_handle.replaceOne (filter, ptask.to_bson_doc()).getMatchedCount() > 0L;
+	}
+
+
+
+
 	/**
 	 * store_entity - Store this entity into the database.
 	 * This is primarily for restoring from backup.
@@ -1217,6 +1279,149 @@ public class PendingTask extends DBEntity implements java.io.Serializable {
 
 
 
+	/**
+	 * get_first_ready_task - Get the first ready task, according to execution time, with restrictions.
+	 * @param cutoff_time = Cutoff time, in milliseconds since the epoch.
+	 * @param excluded_event_ids = Event IDs to exclude, or null or empty if none.
+	 * @param opcodes = List of opcodes, or null if opcodes are not restricted.
+	 * @param f_include_opcodes = True to consider only the given opcodes, false to exclude them.
+	 * Only tasks with exec_time <= cutoff_time are considered.
+	 * Return is null if there are no such tasks.
+	 *
+	 * Current usage: Production, when the task dispatcher uses a worker pool.
+	 * Production code requires that the result be sorted (so it returns the first to execute).
+	 */
+	public static PendingTask get_first_ready_task (long cutoff_time, Collection<String> excluded_event_ids,
+								Collection<Integer> opcodes, boolean f_include_opcodes) {
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Filter: exec_time <= cutoff_time, and event and opcode restrictions
+
+		ArrayList<Bson> filters = new ArrayList<Bson>();
+
+		filters.add (cutoff_filter (cutoff_time));
+
+		if (excluded_event_ids != null && !( excluded_event_ids.isEmpty() )) {
+			filters.add (Filters.nin ("event_id", excluded_event_ids));
+		}
+
+		if (opcodes != null) {
+			if (f_include_opcodes) {
+				filters.add (Filters.in ("opcode", opcodes));
+			} else {
+				filters.add (Filters.nin ("opcode", opcodes));
+			}
+		}
+
+		Bson filter = ((filters.size() == 1) ? filters.get(0) : Filters.and (filters));
+
+		// Get the document
+
+		Document doc = coll_handle.find_first (filter, natural_sort (DEFAULT_SORT));
+
+		// Convert to task
+
+		if (doc == null) {
+			return null;
+		}
+
+		return (new PendingTask()).from_bson_doc (doc);
+	}
+
+
+
+
+	/**
+	 * activate_ready_task - Activate a given task, if it is still ready.
+	 * @param ptask = Existing pending task to activate, typically obtained from get_first_ready_task.
+	 * @param cutoff_time = Cutoff time, in milliseconds since the epoch.
+	 * Return is null if the task no longer exists, or its exec_time is now > cutoff_time,
+	 * or its event ID has changed.  Otherwise, the return is the task as it was just
+	 * before activation, so that is_restarted() works.
+	 * The task is marked active by setting exec_time = 0 in the database.
+	 *
+	 * Current usage: Production, when the task dispatcher uses a worker pool.
+	 */
+	public static PendingTask activate_ready_task (PendingTask ptask, long cutoff_time) {
+
+		// Check conditions
+
+		if (!( ptask != null && ptask.get_id() != null )) {
+			throw new IllegalArgumentException("PendingTask.activate_ready_task: Invalid task parameters");
+		}
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Filter: id == ptask.id, exec_time <= cutoff_time, event_id == ptask.event_id
+
+		Bson filter = Filters.and (
+			id_filter (ptask.get_id()),
+			cutoff_filter (cutoff_time),
+			Filters.eq ("event_id", ptask.get_event_id())
+		);
+
+		// Update: Set exec_time to 0L
+
+		Bson update = Updates.set ("exec_time", Long.valueOf(0L));
+
+		// Options: return original document value
+
+		FindOneAndUpdateOptions options = (new FindOneAndUpdateOptions()).returnDocument(ReturnDocument.BEFORE);
+
+		// Get the document
+
+		Document doc = coll_handle.findOneAndUpdate (filter, update, options);
+
+		// Convert to task
+
+		if (doc == null) {
+			return null;
+		}
+
+		return (new PendingTask()).from_bson_doc (doc);
+	}
+
+
+
+
+
+	/**
+	 * watch_task_changes - Iterate changes in the pending task collection.
+	 *
+	 * The iterator returns tasks that are inserted, replaced, or updated, except that
+	 * activating a task (which sets exec_time = 0) is not reported.  Deleted tasks are
+	 * not reported.
+	 *
+	 * Note: Change streams are only supported on replica sets.  On a standalone server,
+	 * this function or the returned iterator throws an exception.
+	 *
+	 * Current usage: Production.
+	 */
+	public static RecordIterator<PendingTask> watch_task_changes () {
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Filter to watch exec_time >= 1L, in the fullDocument subdocument of the change stream document
+		// (the "not" form of the filter also passes changes that don't contain a full document, such as delete and invalidate)
+
+		long exec_time_cutoff = 1L;
+		Bson filter = Filters.not (Filters.lt ("fullDocument.exec_time", Long.valueOf(exec_time_cutoff)));
+
+		// Get the cursor and iterator
+
+		MongoCursor<ChangeStreamDocument<Document>> cursor = coll_handle.watch (filter);
+		return new MyChangeStreamIterator (cursor, coll_handle);
+	}
+
+
+
 
 	/**
 	 * stage_task - Begin a new stage of a task.
@@ -0,0 +1,389 @@
+package org.opensha.oaf.aafs.entity;
+
+import java.util.List;
+import java.util.ArrayList;
+
+import org.opensha.oaf.aafs.MongoDBUtil;
+import org.opensha.oaf.aafs.DBDriverException;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.MongoCursor;
+
+import org.opensha.oaf.aafs.MongoDBCollHandle;
+
+
+
+/**
+ * Holds an exclusive lease on a task lock key in the MongoDB database.
+ *
+ * The collection "leases" holds one document for each lock key that is, or recently was,
+ * held by a task worker.  The lock key is normally the event ID of a task, so that only
+ * one worker at a time can execute tasks for a given timeline.  Each lease has an owner
+ * and an expiration time.  The owner must renew the lease before it expires.  If the owner
+ * crashes, the lease expires and can be taken over by another worker.
+ *
+ * The lock key is used as the MongoDB identifier, so the database guarantees that there
+ * is at most one lease per key.
+ *
+ * Leases are transient state, so they are not included in database backups.
+ *
+ * Note: Lease operations must not be done inside a transaction, because other workers
+ * must see the lease as soon as it is acquired.
+ */
+public class TaskLease {
+
+	//----- Lease results -----
+
+	// Result codes for acquire_lease.
+
+	public static final int LEASE_BUSY = 0;			// Lease is held by another owner
+	public static final int LEASE_NEW = 1;			// Lease was newly created
+	public static final int LEASE_RENEWED = 2;		// Lease was already held by the same owner
+	public static final int LEASE_RECLAIMED = 3;	// Lease was expired and taken over from another owner
+
+	// Return a string describing a lease result.
+
+	public static String get_lease_result_as_string (int x) {
+		switch (x) {
+		case LEASE_BUSY: return "LEASE_BUSY";
+		case LEASE_NEW: return "LEASE_NEW";
+		case LEASE_RENEWED: return "LEASE_RENEWED";
+		case LEASE_RECLAIMED: return "LEASE_RECLAIMED";
+		}
+		return "LEASE_INVALID(" + x + ")";
+	}
+
+
+
+
+	//----- MongoDB Java driver access -----
+
+
+
+
+	// Get the collection handle.
+	// If db_handle is null or empty, then use the current default database.
+
+	private static MongoDBCollHandle get_coll_handle (String db_handle) {
+		return MongoDBUtil.get_coll_handle (db_handle, "leases");
+	}
+
+
+
+
+	// Make indexes for our collection.
+
+	public static void make_indexes () {
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Production code finds leases by owner (the identifier is indexed automatically).
+
+		coll_handle.make_simple_index ("lease_owner", "leowner");
+
+		return;
+	}
+
+
+
+
+	// Drop all indexes our collection.
+
+	public static void drop_indexes () {
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Drop the indexes
+
+		coll_handle.drop_indexes ();
+
+		return;
+	}
+
+
+
+
+	// Drop our collection.
+
+	public static void drop_collection () {
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Drop the collection
+
+		coll_handle.drop ();
+
+		return;
+	}
+
+
+
+
+	// Test if our collection exists.
+	// Return true if the collection exists
+
+	public static boolean collection_exists () {
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Test if the collection exists
+
+		return coll_handle.collection_exists ();
+	}
+
+
+
+
+	// Return true if the exception is a duplicate key error.
+
+	private static boolean is_duplicate_key (Throwable e) {
+		for (Throwable t = e; t != null; t = t.getCause()) {
+			if (t instanceof MongoWriteException) {
+				if (((MongoWriteException)t).getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+					return true;
+				}
+			}
+			if (t instanceof MongoException) {
+				if (((MongoException)t).getCode() == 11000) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+
+
+
+	/**
+	 * acquire_lease - Acquire, renew, or take over a lease.
+	 * @param lock_key = Lock key, typically an event ID. Cannot be null or empty.
+	 * @param owner = Identifies the owner of the lease. Cannot be null or empty.
+	 * @param now = Current time, in milliseconds since the epoch.
+	 * @param duration = Lease duration, in milliseconds. Must be positive.
+	 * @return
+	 * Returns one of the LEASE_XXXXX codes.  The lease is held by the owner
+	 * unless the return value is LEASE_BUSY.
+	 * The lease can be acquired if it does not exist, if it has expired, or if
+	 * it is already held by the same owner.
+	 */
+	public static int acquire_lease (String lock_key, String owner, long now, long duration) {
+
+		// Check conditions
+
+		if (!( lock_key != null && lock_key.length() > 0
+			&& owner != null && owner.length() > 0
+			&& duration > 0L )) {
+			throw new IllegalArgumentException("TaskLease.acquire_lease: Invalid lease parameters");
+		}
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Filter: _id == lock_key and (lease_expiry < now or lease_owner == owner)
+
+		Bson filter = Filters.and (
+			Filters.eq ("_id", lock_key),
+			Filters.or (
+				Filters.lt ("lease_expiry", Long.valueOf(now)),
+				Filters.eq ("lease_owner", owner)
+			)
+		);
+
+		// Update: Set owner and expiration time
+
+		Bson update = Updates.combine (
+			Updates.set ("lease_owner", owner),
+			Updates.set ("lease_expiry", Long.valueOf(now + duration))
+		);
+
+		// Options: return original document value
+
+		FindOneAndUpdateOptions options = (new FindOneAndUpdateOptions()).returnDocument(ReturnDocument.BEFORE);
+
+		// Try to take an existing lease
+
+		Document doc = coll_handle.findOneAndUpdate (filter, update, options);
+
+		if (doc != null) {
+			if (owner.equals (MongoDBUtil.doc_get_string (doc, "lease_owner"))) {
+				return LEASE_RENEWED;
+			}
+			return LEASE_RECLAIMED;
+		}
+
+		// No lease that we can take, so try to create a new one
+		// (this fails with a duplicate key error if another owner holds the lease)
+
+		Document new_doc = new Document ("_id", lock_key)
+						.append ("lease_owner" , owner)
+						.append ("lease_expiry", Long.valueOf(now + duration));
+
+		try {
+			coll_handle.insertOne (new_doc);
+		} catch (DBDriverException e) {
+			if (is_duplicate_key (e)) {
+				return LEASE_BUSY;
+			}
+			throw e;
+		}
+
+		return LEASE_NEW;
+	}
+
+
+
+
+	/**
+	 * renew_lease - Extend a lease held by the given owner.
+	 * @param lock_key = Lock key, typically an event ID. Cannot be null or empty.
+	 * @param owner = Identifies the owner of the lease. Cannot be null or empty.
+	 * @param now = Current time, in milliseconds since the epoch.
+	 * @param duration = Lease duration, in milliseconds. Must be positive.
+	 * @return
+	 * Returns true if the lease was renewed, false if the owner no longer holds the lease.
+	 */
+	public static boolean renew_lease (String lock_key, String owner, long now, long duration) {
+
+		// Check conditions
+
+		if (!( lock_key != null && lock_key.length() > 0
+			&& owner != null && owner.length() > 0
+			&& duration > 0L )) {
+			throw new IllegalArgumentException("TaskLease.renew_lease: Invalid lease parameters");
+		}
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Filter: _id == lock_key and lease_owner == owner
+
+		Bson filter = Filters.and (
+			Filters.eq ("_id", lock_key),
+			Filters.eq ("lease_owner", owner)
+		);
+
+		// Update: Set expiration time
+
+		Bson update = Updates.set ("lease_expiry", Long.valueOf(now + duration));
+
+		// Run the update
+
+		return coll_handle.updateOne (filter, update).getMatchedCount() > 0L;
+	}
+
+
+
+
+	/**
+	 * release_lease - Release a lease held by the given owner.
+	 * @param lock_key = Lock key, typically an event ID. Cannot be null or empty.
+	 * @param owner = Identifies the owner of the lease. Cannot be null or empty.
+	 * If the lease is not held by the owner, then this does nothing.
+	 */
+	public static void release_lease (String lock_key, String owner) {
+
+		// Check conditions
+
+		if (!( lock_key != null && lock_key.length() > 0
+			&& owner != null && owner.length() > 0 )) {
+			throw new IllegalArgumentException("TaskLease.release_lease: Invalid lease parameters");
+		}
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Filter: _id == lock_key and lease_owner == owner
+
+		Bson filter = Filters.and (
+			Filters.eq ("_id", lock_key),
+			Filters.eq ("lease_owner", owner)
+		);
+
+		// Run the delete
+
+		coll_handle.deleteOne (filter);
+
+		return;
+	}
+
+
+
+
+	/**
+	 * get_leased_keys - Get a list of lock keys with unexpired leases.
+	 * @param now = Current time, in milliseconds since the epoch.
+	 * @param owner = Owner whose leases should be omitted, or null to include all owners.
+	 * @return
+	 * Returns a list of lock keys, which may be empty.
+	 */
+	public static List<String> get_leased_keys (long now, String owner) {
+		ArrayList<String> result = new ArrayList<String>();
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Filter: lease_expiry >= now and lease_owner != owner
+
+		Bson filter = Filters.gte ("lease_expiry", Long.valueOf(now));
+		if (owner != null) {
+			filter = Filters.and (filter, Filters.ne ("lease_owner", owner));
+		}
+
+		// Collect the keys
+
+		try (
+			MongoCursor<Document> cursor = coll_handle.find_iterator (filter);
+		){
+			while (cursor.hasNext()) {
+				Document doc = cursor.next();
+				result.add (MongoDBUtil.doc_get_string (doc, "_id"));
+			}
+		}
+
+		return result;
+	}
+
+
+
+
+	/**
+	 * delete_all_leases - Delete all leases, regardless of owner.
+	 * This should only be called when no workers are running, typically at server startup,
+	 * to discard leases left behind by a previous run of the server.
+	 */
+	public static void delete_all_leases () {
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Run the delete, one document at a time (there are at most a few)
+
+		while (coll_handle.findOneAndDelete (Filters.exists ("_id")) != null) {
+		}
+
+		return;
+	}
+
+}
@@ -36,6 +36,7 @@ import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCursor;
 
 import org.opensha.oaf.aafs.DBCorruptException;
+import org.opensha.oaf.aafs.DBDetailsCodec;
 import org.opensha.oaf.aafs.RecordIteratorMongo;
 import org.opensha.oaf.aafs.MongoDBCollRet;
 import org.opensha.oaf.aafs.MongoDBCollHandle;
@@ -513,7 +514,11 @@ public class TimelineEntry extends DBEntity implements java.io.Serializable {
 						.append ("event_id"   , event_id)
 						.append ("comcat_ids" , Arrays.asList(comcat_ids.clone()))
 						.append ("actcode"    , Integer.valueOf(actcode))
-						.append ("details"    , details);
+						;
+
+		// Details, in the currently selected storage format
+
+		DBDetailsCodec.append_details (doc, details);
 
 		return doc;
 	}
@@ -531,7 +536,7 @@ public class TimelineEntry extends DBEntity implements java.io.Serializable {
 		event_id    = MongoDBUtil.doc_get_string       (doc, "event_id"   );
 		comcat_ids  = MongoDBUtil.doc_get_string_array (doc, "comcat_ids" );
 		actcode     = MongoDBUtil.doc_get_int          (doc, "actcode"    );
-		details     = MongoDBUtil.doc_get_string       (doc, "details"    );
+		details     = DBDetailsCodec.get_details       (doc);
 
 		return this;
 	}
@@ -749,6 +754,38 @@ public class TimelineEntry extends DBEntity implements java.io.Serializable {
 
 
 
+	/**
+	 * rewrite_timeline_entry - Rewrite a timeline entry in the database, using the current details format.
+	 * @param tentry = Existing timeline entry to rewrite, as read from the database.
+	 * @return
+	 * Returns true if the timeline entry was rewritten, false if it is no longer in the database.
+	 * This is for converting the details storage format (see DBDetailsCodec).
+	 * The contents of the timeline entry are unchanged.
+	 */
+	public static boolean rewrite_timeline_entry (TimelineEntry tentry) {
+
+		// Check conditions
+
+		if (!( tentry != null && tentry.get_id() != null )) {
+			throw new IllegalArgumentException("TimelineEntry.rewrite_timeline_entry: Invalid parameters");
+		}
+
+		// Get collection handle
+
+		MongoDBCollHandle coll_handle = get_coll_handle (null);
+
+		// Filter: id == tentry.id
+
+		Bson filter = id_filter (tentry.get_id());
+
+		// Replace the document
+
+		return coll_handle.replaceOne (filter, tentry.to_bson_doc()).getMatchedCount() > 0L;
+	}
+
+
+
+
 	/**
 	 * store_entity - Store this entity into the database.
 	 * This is primarily for restoring from backup.
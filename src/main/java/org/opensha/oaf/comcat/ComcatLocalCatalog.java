@@ -28,7 +28,7 @@ import org.opensha.commons.param.impl.StringParameter;
 import org.opensha.oaf.util.SimpleUtils;
 import org.opensha.oaf.util.SphRegionWorld;
 import org.opensha.oaf.util.SphLatLon;
-//import org.opensha.oaf.util.SphRegion;
+import org.opensha.oaf.util.SphRegion;
 import org.opensha.oaf.util.SphRegionCircle;
 import org.opensha.oaf.util.catalog.ObsEqkRupMaxTimeComparator;
 
@@ -132,6 +132,48 @@ public class ComcatLocalCatalog {
 
 	protected ComcatLocalCatalogEntry[][][] event_bins;
 
+	// Compiled binary catalog, or null if the catalog was loaded from text.
+	// If non-null, then event_map and event_bins are null, and queries go to the
+	// memory-mapped file.
+
+	protected ComcatLocalCatalogMapped mapped_catalog;
+
+
+
+
+	//----- Query index -----
+
+	// Default for using the space-filling-curve query index.
+	// This can be selected with the system property oaflocatindex = "zorder" or "bins".
+
+	public static final boolean default_use_query_index = SimpleUtils.is_property_value ("oaflocatindex", "zorder");
+
+	// True to use the query index for visitEventList, false to use the bins.
+
+	protected volatile boolean use_query_index = default_use_query_index;
+
+	// The query index, or null if it has not been built.
+	// It is built when first needed.
+
+	protected volatile ComcatLocalCatalogIndex query_index;
+
+	// The entries, in the order of the source indexes in the query index.
+	// This is null if the query index has not been built, or if the catalog is mapped
+	// (for a mapped catalog the source index is the event number in the file).
+
+	protected ComcatLocalCatalogEntry[] query_index_entries;
+
+	// Get or set the flag to use the query index.
+
+	public final boolean get_use_query_index () {
+		return use_query_index;
+	}
+
+	public final void set_use_query_index (boolean the_use_query_index) {
+		use_query_index = the_use_query_index;
+		return;
+	}
+
 
 
 
@@ -185,6 +227,9 @@ public class ComcatLocalCatalog {
 		// Initialize counters
 
 		clear_stat();
+		mapped_catalog = null;
+		query_index = null;
+		query_index_entries = null;
 
 		// Create the map of event ids
 
@@ -320,9 +365,18 @@ public class ComcatLocalCatalog {
 
 	// Load the catalog from a list of files.
 	// Throws an exception if the load fails.
+	// If there is a single file, and it is a compiled binary catalog, then it is opened
+	// by memory mapping, and the_n_lat_bins is ignored (the binning is stored in the file).
 
 	public void load_catalog (int the_n_lat_bins, String... filename) throws IOException {
 
+		// If a compiled catalog, open it
+
+		if (filename.length == 1 && ComcatLocalCatalogMapped.is_mapped_catalog_file (filename[0])) {
+			open_mapped_catalog (filename[0]);
+			return;
+		}
+
 		// Set the number of latitude bins, zero means use default
 
 		n_lat_bins = ((the_n_lat_bins >= 1) ? the_n_lat_bins : DEF_N_LAT_BINS);
@@ -330,6 +384,9 @@ public class ComcatLocalCatalog {
 		// Initialize counters
 
 		clear_stat();
+		mapped_catalog = null;
+		query_index = null;
+		query_index_entries = null;
 
 		// Create the map of event ids
 
@@ -458,6 +515,118 @@ public class ComcatLocalCatalog {
 
 
 
+	// Open a compiled binary catalog file, by memory mapping.
+	// Throws an exception if the open fails.
+
+	public void open_mapped_catalog (String filename) throws IOException {
+
+		// Open the file
+
+		ComcatLocalCatalogMapped the_mapped_catalog = new ComcatLocalCatalogMapped (filename);
+
+		// Install it, with statistics from the file
+
+		n_lat_bins = the_mapped_catalog.get_n_lat_bins();
+		event_map = null;
+		event_bins = null;
+		mapped_catalog = the_mapped_catalog;
+		query_index = null;
+		query_index_entries = null;
+
+		clear_stat();
+		stat_total_bins = mapped_catalog.get_n_bins();
+		stat_total_events = mapped_catalog.get_n_events();
+		stat_max_bin_size = mapped_catalog.get_stat_max_bin_size();
+		stat_min_time = mapped_catalog.get_stat_min_time();
+		stat_max_time = mapped_catalog.get_stat_max_time();
+		stat_min_depth = mapped_catalog.get_stat_min_depth();
+		stat_max_depth = mapped_catalog.get_stat_max_depth();
+		stat_min_mag = mapped_catalog.get_stat_min_mag();
+		stat_max_mag = mapped_catalog.get_stat_max_mag();
+		stat_bin_size_histogram = mapped_catalog.make_bin_size_histogram();
+
+		return;
+	}
+
+
+
+
+	// Write the catalog as a compiled binary file.
+	// The catalog must have been loaded from text files.
+	// Throws an exception if the write fails.
+
+	public void write_mapped_catalog (String filename) throws IOException {
+		ComcatLocalCatalogMapped.write_catalog (this, filename);
+		return;
+	}
+
+
+
+
+	// Get the query index, building it if necessary.
+
+	public synchronized ComcatLocalCatalogIndex get_query_index () {
+		if (query_index == null) {
+
+			// Gather the columns
+
+			int n = stat_total_events;
+			long[] time = new long[n];
+			double[] lat = new double[n];
+			double[] lon = new double[n];
+			double[] depth = new double[n];
+			double[] mag = new double[n];
+
+			ComcatLocalCatalogEntry[] entries = null;
+
+			if (mapped_catalog != null) {
+				for (int ev = 0; ev < n; ++ev) {
+					time[ev] = mapped_catalog.get_time (ev);
+					lat[ev] = mapped_catalog.get_lat (ev);
+					lon[ev] = mapped_catalog.get_lon (ev);
+					depth[ev] = mapped_catalog.get_depth (ev);
+					mag[ev] = mapped_catalog.get_mag (ev);
+				}
+			}
+
+			else {
+				entries = new ComcatLocalCatalogEntry[n];
+				int ev = 0;
+				for (ComcatLocalCatalogEntry[][] lon_bins : event_bins) {
+					for (ComcatLocalCatalogEntry[] time_arr : lon_bins) {
+						for (ComcatLocalCatalogEntry entry : time_arr) {
+							entries[ev] = entry;
+							time[ev] = entry.rup_time;
+							lat[ev] = entry.rup_lat;
+							lon[ev] = entry.rup_lon;
+							depth[ev] = entry.rup_depth;
+							mag[ev] = entry.rup_mag;
+							++ev;
+						}
+					}
+				}
+			}
+
+			// Build the index
+
+			query_index_entries = entries;
+			query_index = new ComcatLocalCatalogIndex (time, lat, lon, depth, mag, 0, 0);
+		}
+		return query_index;
+	}
+
+
+
+
+	// Return true if the catalog is a memory-mapped compiled catalog.
+
+	public boolean is_mapped () {
+		return mapped_catalog != null;
+	}
+
+
+
+
 	// Clear all the statistics variables.
 
 	public void clear_stat () {
@@ -529,6 +698,9 @@ public class ComcatLocalCatalog {
 		n_lat_bins = 0;
 		event_map = null;
 		event_bins = null;
+		mapped_catalog = null;
+		query_index = null;
+		query_index_entries = null;
 
 		clear_stat();
 	}
@@ -628,7 +800,12 @@ public class ComcatLocalCatalog {
 
 		// Retrieve the entry
 
-		ComcatLocalCatalogEntry entry = event_map.get (eventID);
+		ComcatLocalCatalogEntry entry;
+		if (mapped_catalog != null) {
+			entry = mapped_catalog.fetch_entry (eventID);
+		} else {
+			entry = event_map.get (eventID);
+		}
 
 		// If found, convert the entry
 
@@ -749,6 +926,13 @@ public class ComcatLocalCatalog {
 			event_filter.add (exclude_id);
 		}
 
+		// If using the query index, pass the query to it
+
+		if (use_query_index) {
+			return visit_indexed (visitor, event_filter, startTime, endTime,
+				minDepth, maxDepth, region, wrapLon, extendedInfo, minMag);
+		}
+
 		// Result code to return
 
 		int result = 0;
@@ -774,8 +958,8 @@ public class ComcatLocalCatalog {
 
 			// Get the array of longitude bins
 		
-			ComcatLocalCatalogEntry[][] lon_bins = event_bins[lat_bin];
-			int n_lon_bins = lon_bins.length;
+			ComcatLocalCatalogEntry[][] lon_bins = ((mapped_catalog != null) ? null : event_bins[lat_bin]);
+			int n_lon_bins = ((mapped_catalog != null) ? mapped_catalog.get_n_lon_bins (lat_bin) : lon_bins.length);
 
 			// Longitude bin range
 
@@ -790,6 +974,17 @@ public class ComcatLocalCatalog {
 
 			for (int lon_bin = min_lon_bin; lon_bin <= max_lon_bin; ++lon_bin) {
 
+				// If compiled catalog, search the mapped columns
+
+				if (mapped_catalog != null) {
+					result = mapped_catalog.visit_bin (lat_bin, lon_bin % n_lon_bins, visitor, startTime, endTime,
+						minDepth, maxDepth, region, wrapLon, extendedInfo, minMag, event_filter);
+					if (result != 0) {
+						return result;
+					}
+					continue;
+				}
+
 				// Get the time-sorted array
 
 				ComcatLocalCatalogEntry[] time_arr = lon_bins[lon_bin % n_lon_bins];
@@ -854,6 +1049,41 @@ public class ComcatLocalCatalog {
 
 
 
+	// Visit a list of events satisfying the given conditions, using the query index.
+	// Parameters are the same as visitEventList, except that event_filter is the set of
+	// event ids to exclude, and the end time has been adjusted.
+	// Returns the result code from the last call to the visitor.
+
+	private int visit_indexed (final ComcatVisitor visitor, final Set<String> event_filter, long startTime, long endTime,
+			double minDepth, double maxDepth, ComcatRegion region, final boolean wrapLon, final boolean extendedInfo,
+			double minMag) {
+
+		// Get the index, building it if needed
+
+		ComcatLocalCatalogIndex the_index = get_query_index();
+		final ComcatLocalCatalogEntry[] entries = query_index_entries;
+		final ComcatLocalCatalogMapped the_mapped_catalog = mapped_catalog;
+
+		// Visitor that converts each event and passes it to the caller's visitor
+
+		ComcatLocalCatalogIndex.EventVisitor event_visitor = new ComcatLocalCatalogIndex.EventVisitor() {
+			@Override
+			public int visit_event (int source_index) {
+				ComcatLocalCatalogEntry entry = ((the_mapped_catalog != null) ? the_mapped_catalog.get_entry (source_index) : entries[source_index]);
+				if (event_filter.contains (entry.rup_id_list[0])) {
+					return 0;
+				}
+				ObsEqkRupture rup = entry.get_eqk_rupture (wrapLon, extendedInfo);
+				return visitor.visit (rup, null);
+			}
+		};
+
+		return the_index.visit_events (event_visitor, startTime, endTime,
+			minDepth, maxDepth, region, minMag);
+	}
+
+
+
 	//----- Testing and commands -----
 
 	public static void main(String[] args) {
@@ -1007,6 +1237,376 @@ public class ComcatLocalCatalog {
 
 
 
+		// Subcommand : Compile catalog files into a binary catalog file.
+		// Command format:
+		//  compile  cat_filename...  bin_filename
+		// The cat_filename must be a catalog file such as created by the download command.
+		// This command writes the bin_filename file, which is a compiled binary catalog
+		// that can be opened by memory mapping (see ComcatLocalCatalogMapped).
+		// Then it opens the binary file, and checks that every event id fetches the same event.
+
+		if (args[0].equalsIgnoreCase ("compile")) {
+
+			// Two or more additional arguments
+
+			if (args.length < 3) {
+				System.err.println ("ComcatLocalCatalog : Invalid 'compile' subcommand");
+				return;
+			}
+
+			try {
+
+				String[] cat_filename = Arrays.copyOfRange (args, 1, args.length - 1);
+				String bin_filename = args[args.length - 1];
+
+				// Load the text catalog
+
+				System.out.println ("Loading catalog: " + "[" + String.join (", ", cat_filename) + "]");
+				long t0 = System.currentTimeMillis();
+				ComcatLocalCatalog local_catalog = new ComcatLocalCatalog();
+				local_catalog.load_catalog (0, cat_filename);
+				long t1 = System.currentTimeMillis();
+				System.out.println ("Text load time = " + (t1 - t0) + " ms");
+
+				// Write the binary catalog
+
+				System.out.println ("Writing compiled catalog: " + bin_filename);
+				local_catalog.write_mapped_catalog (bin_filename);
+				long t2 = System.currentTimeMillis();
+				System.out.println ("Write time = " + (t2 - t1) + " ms");
+
+				// Open the binary catalog
+
+				ComcatLocalCatalog mapped_catalog = new ComcatLocalCatalog();
+				mapped_catalog.load_catalog (0, bin_filename);
+				long t3 = System.currentTimeMillis();
+				System.out.println ("Mapped open time = " + (t3 - t2) + " ms");
+				System.out.println (mapped_catalog.get_summary_string());
+
+				// Check that every id fetches the same entry
+
+				int n_ids = 0;
+				int n_bad = 0;
+				for (Map.Entry<String, ComcatLocalCatalogEntry> me : local_catalog.event_map.entrySet()) {
+					++n_ids;
+					ComcatLocalCatalogEntry entry = mapped_catalog.mapped_catalog.fetch_entry (me.getKey());
+					if (entry == null || !( entry.format_line().equals (me.getValue().format_line()) )) {
+						if (n_bad < 10) {
+							System.out.println ("Mismatch for id: " + me.getKey());
+						}
+						++n_bad;
+					}
+				}
+				long t4 = System.currentTimeMillis();
+				System.out.println ("Checked ids = " + n_ids + ", mismatches = " + n_bad + ", time = " + (t4 - t3) + " ms");
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Subcommand : Compare text and compiled catalogs.
+		// Command format:
+		//  compare_mapped  cat_filename  bin_filename  min_days  max_days  radius_km  min_mag  event_id...
+		// Load the text catalog cat_filename, and open the compiled catalog bin_filename.
+		// For each event, fetch the event list for a circle surrounding the hypocenter,
+		// for the specified interval in days after the origin time, from each catalog,
+		// and check that the lists are the same.  Also displays the query times.
+
+		if (args[0].equalsIgnoreCase ("compare_mapped")) {
+
+			// Seven or more additional arguments
+
+			if (args.length < 8) {
+				System.err.println ("ComcatLocalCatalog : Invalid 'compare_mapped' subcommand");
+				return;
+			}
+
+			try {
+
+				String cat_filename = args[1];
+				String bin_filename = args[2];
+				double min_days = Double.parseDouble (args[3]);
+				double max_days = Double.parseDouble (args[4]);
+				double radius_km = Double.parseDouble (args[5]);
+				double min_mag = Double.parseDouble (args[6]);
+				String[] event_ids = Arrays.copyOfRange (args, 7, args.length);
+
+				// Load the catalogs
+
+				System.out.println ("Loading catalog: " + cat_filename);
+				ComcatLocalCatalog text_catalog = new ComcatLocalCatalog();
+				text_catalog.load_catalog (0, cat_filename);
+
+				System.out.println ("Opening compiled catalog: " + bin_filename);
+				ComcatLocalCatalog mapped_catalog = new ComcatLocalCatalog();
+				mapped_catalog.open_mapped_catalog (bin_filename);
+
+				double minDepth = ComcatOAFAccessor.DEFAULT_MIN_DEPTH;
+				double maxDepth = ComcatOAFAccessor.DEFAULT_MAX_DEPTH;
+				boolean wrapLon = false;
+				boolean extendedInfo = true;
+
+				long text_time = 0L;
+				long mapped_time = 0L;
+				int n_bad = 0;
+
+				for (String event_id : event_ids) {
+
+					// Get the mainshock from each catalog
+
+					ObsEqkRupture rup = text_catalog.fetchEvent (event_id, wrapLon, extendedInfo, false);
+					ObsEqkRupture mapped_rup = mapped_catalog.fetchEvent (event_id, wrapLon, extendedInfo, false);
+
+					if (rup == null || mapped_rup == null) {
+						System.out.println (event_id + ": text found = " + (rup != null) + ", mapped found = " + (mapped_rup != null));
+						if ((rup == null) != (mapped_rup == null)) {
+							++n_bad;
+						}
+						continue;
+					}
+
+					String rup_event_id = rup.getEventId();
+					long rup_time = rup.getOriginTime();
+					Location hypo = rup.getHypocenterLocation();
+
+					SphRegionCircle region = new SphRegionCircle (new SphLatLon(hypo), radius_km);
+					long startTime = rup_time + (long)(min_days*ComcatOAFAccessor.day_millis);
+					long endTime = rup_time + (long)(max_days*ComcatOAFAccessor.day_millis);
+
+					// Query each catalog
+
+					long t0 = System.nanoTime();
+					ObsEqkRupList text_list = text_catalog.fetchEventList (rup_event_id, startTime, endTime,
+							minDepth, maxDepth, region, wrapLon, extendedInfo, min_mag);
+					long t1 = System.nanoTime();
+					ObsEqkRupList mapped_list = mapped_catalog.fetchEventList (rup_event_id, startTime, endTime,
+							minDepth, maxDepth, region, wrapLon, extendedInfo, min_mag);
+					long t2 = System.nanoTime();
+
+					text_time += (t1 - t0);
+					mapped_time += (t2 - t1);
+
+					// Compare, the lists should be identical including order
+
+					boolean same = (text_list.size() == mapped_list.size());
+					for (int i = 0; same && i < text_list.size(); ++i) {
+						ObsEqkRupture r1 = text_list.get(i);
+						ObsEqkRupture r2 = mapped_list.get(i);
+						same = (   r1.getEventId().equals (r2.getEventId())
+								&& r1.getOriginTime() == r2.getOriginTime()
+								&& r1.getMag() == r2.getMag()
+								&& ComcatOAFAccessor.rupToString(r1).equals (ComcatOAFAccessor.rupToString(r2)) );
+					}
+					if (!( same )) {
+						++n_bad;
+					}
+
+					System.out.println (event_id + ": text count = " + text_list.size() + ", mapped count = " + mapped_list.size() + ", same = " + same);
+				}
+
+				System.out.println ("Text query time = " + (text_time / 1000000L) + " ms");
+				System.out.println ("Mapped query time = " + (mapped_time / 1000000L) + " ms");
+				System.out.println ("Mismatches = " + n_bad);
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Subcommand : Benchmark the query index against the bins.
+		// Command format:
+		//  index_bench  filename...  n_queries  radius_km  max_days  min_mag  global_days  global_min_mag
+		// Load the catalog, and choose n_queries random events with magnitude >= min_mag
+		// as mainshocks (with a fixed seed, so runs are repeatable).  For each mainshock,
+		// query a circle of the given radius, and a polygon (square) of the same size, for
+		// max_days after the origin time, with no magnitude limit.  Then do global scans of
+		// the most recent global_days with magnitude >= global_min_mag.  Each query is done
+		// using the bins and using the index, the results are checked for equality, and the
+		// total times are displayed.
+
+		if (args[0].equalsIgnoreCase ("index_bench")) {
+
+			// Seven or more additional arguments
+
+			if (args.length < 8) {
+				System.err.println ("ComcatLocalCatalog : Invalid 'index_bench' subcommand");
+				return;
+			}
+
+			try {
+
+				String[] filename = Arrays.copyOfRange (args, 1, args.length - 6);
+				int n_queries = Integer.parseInt (args[args.length - 6]);
+				double radius_km = Double.parseDouble (args[args.length - 5]);
+				double max_days = Double.parseDouble (args[args.length - 4]);
+				double min_mag = Double.parseDouble (args[args.length - 3]);
+				double global_days = Double.parseDouble (args[args.length - 2]);
+				double global_min_mag = Double.parseDouble (args[args.length - 1]);
+
+				// Load the catalog
+
+				System.out.println ("Loading catalog: " + "[" + String.join (", ", filename) + "]");
+				ComcatLocalCatalog local_catalog = new ComcatLocalCatalog();
+				local_catalog.load_catalog (0, filename);
+
+				// Build the index
+
+				long t0 = System.currentTimeMillis();
+				ComcatLocalCatalogIndex the_index = local_catalog.get_query_index();
+				long t1 = System.currentTimeMillis();
+				System.out.println ("Index build time = " + (t1 - t0) + " ms");
+				System.out.println (the_index.toString());
+
+				// Choose mainshocks
+
+				List<ComcatLocalCatalogEntry> candidates = new ArrayList<ComcatLocalCatalogEntry>();
+				for (ComcatLocalCatalogEntry[][] lon_bins : local_catalog.event_bins) {
+					for (ComcatLocalCatalogEntry[] time_arr : lon_bins) {
+						for (ComcatLocalCatalogEntry entry : time_arr) {
+							if (entry.rup_mag >= min_mag) {
+								candidates.add (entry);
+							}
+						}
+					}
+				}
+				System.out.println ("Candidate mainshocks = " + candidates.size());
+				if (candidates.isEmpty()) {
+					return;
+				}
+
+				java.util.Random rangen = new java.util.Random (12345L);
+
+				// Build the list of queries, each is a region and time range
+
+				List<SphRegion> q_region = new ArrayList<SphRegion>();
+				List<Long> q_start = new ArrayList<Long>();
+				List<Long> q_end = new ArrayList<Long>();
+				List<Double> q_mag = new ArrayList<Double>();
+				List<String> q_kind = new ArrayList<String>();
+
+				double half_deg = radius_km / 111.19;
+
+				for (int q = 0; q < n_queries; ++q) {
+					ComcatLocalCatalogEntry entry = candidates.get (rangen.nextInt (candidates.size()));
+					long start = entry.rup_time + 1L;
+					long end = entry.rup_time + (long)(max_days*ComcatOAFAccessor.day_millis);
+
+					q_region.add (SphRegion.makeCircle (new SphLatLon (entry.rup_lat, entry.rup_lon), radius_km));
+					q_start.add (start);
+					q_end.add (end);
+					q_mag.add (-10.0);
+					q_kind.add ("circle");
+
+					double lat_lo = Math.max (-89.0, entry.rup_lat - half_deg);
+					double lat_hi = Math.min (89.0, entry.rup_lat + half_deg);
+					double lon_half = Math.min (90.0, half_deg / Math.max (0.1, Math.cos (Math.toRadians (entry.rup_lat))));
+					double lon_lo = entry.rup_lon - lon_half;
+					if (lon_lo < -180.0) {
+						lon_lo += 360.0;
+					}
+					double lon_hi = entry.rup_lon + lon_half;
+					if (lon_hi > 180.0) {
+						lon_hi -= 360.0;
+					}
+					List<SphLatLon> vertex_list = new ArrayList<SphLatLon>();
+					vertex_list.add (new SphLatLon (lat_lo, lon_lo));
+					vertex_list.add (new SphLatLon (lat_lo, lon_hi));
+					vertex_list.add (new SphLatLon (lat_hi, lon_hi));
+					vertex_list.add (new SphLatLon (lat_hi, lon_lo));
+					q_region.add (SphRegion.makeMercPolygon (vertex_list));
+					q_start.add (start);
+					q_end.add (end);
+					q_mag.add (-10.0);
+					q_kind.add ("polygon");
+				}
+
+				for (int q = 0; q < 3; ++q) {
+					long end = local_catalog.stat_max_time - q * (long)(global_days*ComcatOAFAccessor.day_millis);
+					q_region.add (SphRegion.makeWorld ());
+					q_start.add (end - (long)(global_days*ComcatOAFAccessor.day_millis));
+					q_end.add (end);
+					q_mag.add (global_min_mag);
+					q_kind.add ("global");
+				}
+
+				// Run each query both ways
+
+				double minDepth = ComcatOAFAccessor.DEFAULT_MIN_DEPTH;
+				double maxDepth = ComcatOAFAccessor.DEFAULT_MAX_DEPTH;
+
+				Map<String, long[]> kind_times = new java.util.LinkedHashMap<String, long[]>();
+				int n_bad = 0;
+
+				for (int q = 0; q < q_region.size(); ++q) {
+					long[] times = kind_times.get (q_kind.get(q));
+					if (times == null) {
+						times = new long[3];
+						kind_times.put (q_kind.get(q), times);
+					}
+
+					local_catalog.set_use_query_index (false);
+					long tb0 = System.nanoTime();
+					ObsEqkRupList bin_list = local_catalog.fetchEventList (null, q_start.get(q), q_end.get(q),
+							minDepth, maxDepth, q_region.get(q), false, false, q_mag.get(q));
+					long tb1 = System.nanoTime();
+
+					local_catalog.set_use_query_index (true);
+					long ti0 = System.nanoTime();
+					ObsEqkRupList index_list = local_catalog.fetchEventList (null, q_start.get(q), q_end.get(q),
+							minDepth, maxDepth, q_region.get(q), false, false, q_mag.get(q));
+					long ti1 = System.nanoTime();
+
+					times[0] += (tb1 - tb0);
+					times[1] += (ti1 - ti0);
+					times[2] += bin_list.size();
+
+					// Results are in different orders, so compare as sets of ids
+
+					Set<String> bin_ids = new HashSet<String>();
+					for (ObsEqkRupture r : bin_list) {
+						bin_ids.add (r.getEventId());
+					}
+					Set<String> index_ids = new HashSet<String>();
+					for (ObsEqkRupture r : index_list) {
+						index_ids.add (r.getEventId());
+					}
+					if (!( bin_ids.equals (index_ids) && bin_list.size() == index_list.size() )) {
+						++n_bad;
+						System.out.println ("Mismatch: query " + q + " (" + q_kind.get(q) + "): bins = " + bin_list.size() + ", index = " + index_list.size());
+					}
+				}
+
+				// Report
+
+				for (Map.Entry<String, long[]> me : kind_times.entrySet()) {
+					long[] times = me.getValue();
+					System.out.println (me.getKey() + ": events = " + times[2]
+						+ ", bins = " + (times[0] / 1000000L) + " ms"
+						+ ", index = " + (times[1] / 1000000L) + " ms");
+				}
+				System.out.println ("Mismatches = " + n_bad);
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
 		// Subcommand : Convert catalog file to flat file.
 		// Command format:
 		//  cat_to_flat  cat_filename...  flat_filename
@@ -0,0 +1,558 @@
+package org.opensha.oaf.comcat;
+
+import java.util.Arrays;
+
+import org.opensha.commons.data.comcat.ComcatRegion;
+
+
+// Space-filling-curve index for local catalog queries.
+//
+// ComcatLocalCatalog sorts events into latitude/longitude bins, and a query visits every
+// bin that overlaps the bounding box of the region, doing a binary search on time within
+// each bin.  This works well for small regions and short time windows, but for large
+// regions there are many bins to visit, and for long time windows every event in every
+// bin must be examined even if a magnitude or depth limit excludes almost all of them.
+//
+// This index divides the latitude/longitude plane into a grid of 2^level x 2^level cells,
+// and orders the cells along a Z-order (Morton) curve.  Events are sorted by cell key, and
+// within each cell by time.  A query bounding box is decomposed, by recursive subdivision
+// of the grid, into a short list of contiguous ranges of cell keys.  A quadrant that lies
+// entirely within the bounding box becomes one range regardless of how many cells it
+// contains, so large regions produce few ranges.
+//
+// Events are grouped into fixed-size blocks, and each block has a summary of its time range,
+// maximum magnitude, and depth range.  While scanning a range of events, any block whose
+// summary cannot satisfy the query is skipped as a whole.  Because events within a cell are
+// sorted by time, blocks in dense cells cover short time spans, so time, magnitude, and
+// depth limits prune most of the catalog without examining individual events.
+//
+// Events that pass the block and bounding box tests are checked against the region with
+// ComcatRegion.contains, so any region type (circle, polygon, rectangle, world) is supported.
+//
+// The index holds its own copies of the event columns, in index order.  Each event is
+// identified by its source index, which is the index into the columns passed to the
+// constructor.  The catalog uses the source index to retrieve the event itself.
+//
+// Threading: After construction, the index is immutable, and queries can be done
+// simultaneously from multiple threads.
+
+public class ComcatLocalCatalogIndex {
+
+	//----- Parameters -----
+
+	// Default grid level, the grid is 2^level cells in latitude and in longitude.
+	// With level 10, cells are about 0.35 degrees in longitude and 0.18 degrees in latitude.
+
+	public static final int DEF_LEVEL = 10;
+
+	// Maximum grid level, so the cell key fits in an int.
+
+	public static final int MAX_LEVEL = 15;
+
+	// Default block size, which must be a power of 2.
+
+	public static final int DEF_BLOCK_SHIFT = 5;
+
+
+
+
+	//----- Visitor -----
+
+	// Interface for visiting events found by a query.
+
+	public static interface EventVisitor {
+
+		// Visit an event.
+		// Parameters:
+		//  source_index = Index of the event in the columns passed to the constructor.
+		// Returns a result code, a nonzero value stops the query.
+
+		public int visit_event (int source_index);
+	}
+
+
+
+
+	//----- Index data -----
+
+	// Grid level, and number of cells in each direction.
+
+	private int level;
+	private int grid_size;
+
+	// Block size is 2^block_shift.
+
+	private int block_shift;
+
+	// Number of events.
+
+	private int n_events;
+
+	// Cell key for each event, in index order.
+
+	private int[] ev_key;
+
+	// Event columns, in index order.
+
+	private long[] ev_time;
+	private double[] ev_lat;
+	private double[] ev_lon;
+	private double[] ev_depth;
+	private double[] ev_mag;
+
+	// Source index for each event.
+
+	private int[] ev_source;
+
+	// Block summaries.
+
+	private int n_blocks;
+	private long[] blk_min_time;
+	private long[] blk_max_time;
+	private double[] blk_max_mag;
+	private double[] blk_min_depth;
+	private double[] blk_max_depth;
+
+
+
+
+	//----- Access -----
+
+	public final int get_level () {
+		return level;
+	}
+
+	public final int get_n_events () {
+		return n_events;
+	}
+
+	public final int get_n_blocks () {
+		return n_blocks;
+	}
+
+	public final int get_block_size () {
+		return 1 << block_shift;
+	}
+
+	// Estimate the memory used by the index, in bytes.
+
+	public final long get_memory_bytes () {
+		return 48L * ((long)n_events) + 40L * ((long)n_blocks);
+	}
+
+
+
+
+	//----- Cell keys -----
+
+
+
+
+	// Get the cell coordinate for a latitude.
+
+	private int get_lat_cell (double lat) {
+		int y = (int)Math.floor (((lat + 90.0) / 180.0) * ((double)grid_size));
+		return Math.max (0, Math.min (grid_size - 1, y));
+	}
+
+
+
+
+	// Get the cell coordinate for a longitude, which can be -180 to +360.
+
+	private int get_lon_cell (double lon) {
+		double x = lon;
+		if (x >= 180.0) {
+			x -= 360.0;
+		}
+		int c = (int)Math.floor (((x + 180.0) / 360.0) * ((double)grid_size));
+		return Math.max (0, Math.min (grid_size - 1, c));
+	}
+
+
+
+
+	// Spread the low 16 bits of x so that there is a zero bit between each.
+
+	private static int spread_bits (int x) {
+		x &= 0x0000FFFF;
+		x = (x | (x << 8)) & 0x00FF00FF;
+		x = (x | (x << 4)) & 0x0F0F0F0F;
+		x = (x | (x << 2)) & 0x33333333;
+		x = (x | (x << 1)) & 0x55555555;
+		return x;
+	}
+
+
+
+
+	// Get the cell key for the given cell coordinates.
+	// Longitude goes in the even bits, latitude in the odd bits.
+
+	private static int cell_key (int x, int y) {
+		return spread_bits (x) | (spread_bits (y) << 1);
+	}
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	// Sort the permutation by (key, time), using a merge sort.
+
+	private static void sort_perm (int[] perm, int[] key, long[] time) {
+		int n = perm.length;
+		int[] src = perm;
+		int[] dst = new int[n];
+		for (int width = 1; width < n; width *= 2) {
+			for (int lo = 0; lo < n; lo += 2 * width) {
+				int mid = Math.min (lo + width, n);
+				int hi = Math.min (lo + 2 * width, n);
+				int i = lo;
+				int j = mid;
+				int k = lo;
+				while (i < mid && j < hi) {
+					int a = src[i];
+					int b = src[j];
+					if (key[b] < key[a] || (key[b] == key[a] && time[b] < time[a])) {
+						dst[k++] = b;
+						++j;
+					} else {
+						dst[k++] = a;
+						++i;
+					}
+				}
+				while (i < mid) {
+					dst[k++] = src[i++];
+				}
+				while (j < hi) {
+					dst[k++] = src[j++];
+				}
+			}
+			int[] t = src;
+			src = dst;
+			dst = t;
+		}
+		if (src != perm) {
+			System.arraycopy (src, 0, perm, 0, n);
+		}
+		return;
+	}
+
+
+
+
+	// Build the index.
+	// Parameters:
+	//  time, lat, lon, depth, mag = Event columns, all of the same length.
+	//  level = Grid level, or 0 for default.
+	//  block_shift = Log2 of the block size, or 0 for default.
+	// The columns are copied, so the caller may discard them.
+
+	public ComcatLocalCatalogIndex (long[] time, double[] lat, double[] lon, double[] depth, double[] mag,
+			int level, int block_shift) {
+
+		n_events = time.length;
+		if (!( lat.length == n_events && lon.length == n_events && depth.length == n_events && mag.length == n_events )) {
+			throw new IllegalArgumentException ("ComcatLocalCatalogIndex: Column lengths do not match");
+		}
+
+		this.level = ((level >= 1) ? level : DEF_LEVEL);
+		if (this.level > MAX_LEVEL) {
+			throw new IllegalArgumentException ("ComcatLocalCatalogIndex: Invalid grid level: level = " + level);
+		}
+		grid_size = 1 << this.level;
+		this.block_shift = ((block_shift >= 1) ? block_shift : DEF_BLOCK_SHIFT);
+
+		// Compute keys, and sort
+
+		int[] key = new int[n_events];
+		int[] perm = new int[n_events];
+		for (int i = 0; i < n_events; ++i) {
+			key[i] = cell_key (get_lon_cell (lon[i]), get_lat_cell (lat[i]));
+			perm[i] = i;
+		}
+		sort_perm (perm, key, time);
+
+		// Copy columns in index order
+
+		ev_key = new int[n_events];
+		ev_time = new long[n_events];
+		ev_lat = new double[n_events];
+		ev_lon = new double[n_events];
+		ev_depth = new double[n_events];
+		ev_mag = new double[n_events];
+		ev_source = perm;
+
+		for (int i = 0; i < n_events; ++i) {
+			int src = perm[i];
+			ev_key[i] = key[src];
+			ev_time[i] = time[src];
+			ev_lat[i] = lat[src];
+			ev_lon[i] = lon[src];
+			ev_depth[i] = depth[src];
+			ev_mag[i] = mag[src];
+		}
+
+		// Block summaries
+
+		int block_size = 1 << this.block_shift;
+		n_blocks = (n_events + block_size - 1) >> this.block_shift;
+		blk_min_time = new long[n_blocks];
+		blk_max_time = new long[n_blocks];
+		blk_max_mag = new double[n_blocks];
+		blk_min_depth = new double[n_blocks];
+		blk_max_depth = new double[n_blocks];
+
+		for (int b = 0; b < n_blocks; ++b) {
+			int lo = b << this.block_shift;
+			int hi = Math.min (lo + block_size, n_events);
+			blk_min_time[b] = ev_time[lo];
+			blk_max_time[b] = ev_time[lo];
+			blk_max_mag[b] = ev_mag[lo];
+			blk_min_depth[b] = ev_depth[lo];
+			blk_max_depth[b] = ev_depth[lo];
+			for (int i = lo + 1; i < hi; ++i) {
+				blk_min_time[b] = Math.min (blk_min_time[b], ev_time[i]);
+				blk_max_time[b] = Math.max (blk_max_time[b], ev_time[i]);
+				blk_max_mag[b] = Math.max (blk_max_mag[b], ev_mag[i]);
+				blk_min_depth[b] = Math.min (blk_min_depth[b], ev_depth[i]);
+				blk_max_depth[b] = Math.max (blk_max_depth[b], ev_depth[i]);
+			}
+		}
+	}
+
+
+
+
+	//----- Range decomposition -----
+
+
+
+
+	// A list of key ranges, with inclusive endpoints.
+	// Adjacent ranges are merged as they are added.
+
+	private static class RangeList {
+		public int[] lo = new int[16];
+		public int[] hi = new int[16];
+		public int count = 0;
+
+		public void add (int r_lo, int r_hi) {
+			if (count > 0 && hi[count - 1] + 1 == r_lo) {
+				hi[count - 1] = r_hi;
+				return;
+			}
+			if (count == lo.length) {
+				lo = Arrays.copyOf (lo, 2 * count);
+				hi = Arrays.copyOf (hi, 2 * count);
+			}
+			lo[count] = r_lo;
+			hi[count] = r_hi;
+			++count;
+			return;
+		}
+	}
+
+
+
+
+	// Add the key ranges for the part of a quadrant that lies within a cell rectangle.
+	// Parameters:
+	//  ranges = List of ranges.
+	//  qx, qy = Lower-left cell of the quadrant.
+	//  qsize = Size of the quadrant, in cells, a power of 2.
+	//  x0, x1, y0, y1 = Cell rectangle, inclusive.
+	// Children are visited in Z order, so ranges are added in increasing key order.
+
+	private static void decompose (RangeList ranges, int qx, int qy, int qsize, int x0, int x1, int y0, int y1) {
+
+		// If disjoint, nothing to add
+
+		if (qx > x1 || qx + qsize - 1 < x0 || qy > y1 || qy + qsize - 1 < y0) {
+			return;
+		}
+
+		// If entirely inside, add the whole quadrant
+
+		if (qx >= x0 && qx + qsize - 1 <= x1 && qy >= y0 && qy + qsize - 1 <= y1) {
+			int k = cell_key (qx, qy);
+			ranges.add (k, k + qsize * qsize - 1);
+			return;
+		}
+
+		// Otherwise, subdivide
+
+		int h = qsize / 2;
+		decompose (ranges, qx,     qy,     h, x0, x1, y0, y1);
+		decompose (ranges, qx + h, qy,     h, x0, x1, y0, y1);
+		decompose (ranges, qx,     qy + h, h, x0, x1, y0, y1);
+		decompose (ranges, qx + h, qy + h, h, x0, x1, y0, y1);
+		return;
+	}
+
+
+
+
+	// Get the key ranges covering the bounding box of a region.
+
+	private RangeList get_ranges (ComcatRegion region) {
+		RangeList ranges = new RangeList();
+
+		int y0 = get_lat_cell (region.getMinLat());
+		int y1 = get_lat_cell (region.getMaxLat());
+
+		double min_lon = region.getMinLon();
+		double max_lon = region.getMaxLon();
+
+		// If full longitude range, one rectangle
+
+		if (max_lon - min_lon >= 360.0) {
+			decompose (ranges, 0, 0, grid_size, 0, grid_size - 1, y0, y1);
+			return ranges;
+		}
+
+		int x0 = get_lon_cell (min_lon);
+		int x1 = get_lon_cell (max_lon);
+
+		// If the box crosses the date line, it is two rectangles,
+		// which are decomposed together so ranges stay in key order
+
+		if (x1 < x0 || (x1 == x0 && max_lon - min_lon > 180.0)) {
+			RangeList west = new RangeList();
+			RangeList east = new RangeList();
+			decompose (west, 0, 0, grid_size, 0, x1, y0, y1);
+			decompose (east, 0, 0, grid_size, x0, grid_size - 1, y0, y1);
+			int i = 0;
+			int j = 0;
+			while (i < west.count || j < east.count) {
+				if (j >= east.count || (i < west.count && west.lo[i] < east.lo[j])) {
+					ranges.add (west.lo[i], west.hi[i]);
+					++i;
+				} else {
+					ranges.add (east.lo[j], east.hi[j]);
+					++j;
+				}
+			}
+			return ranges;
+		}
+
+		decompose (ranges, 0, 0, grid_size, x0, x1, y0, y1);
+		return ranges;
+	}
+
+
+
+
+	// Find the first event with key >= the given key.
+
+	private int lower_bound (int key) {
+		int lo = -1;
+		int hi = n_events;
+		while (hi - lo > 1) {
+			int mid = (hi + lo) >>> 1;
+			if (ev_key[mid] >= key) {
+				hi = mid;
+			} else {
+				lo = mid;
+			}
+		}
+		return hi;
+	}
+
+
+
+
+	//----- Query -----
+
+
+
+
+	// Visit the events that satisfy the given conditions.
+	// Parameters:
+	//  visitor = The visitor that is called for each event.
+	//  startTime = Start of time interval, in milliseconds after the epoch.
+	//  endTime = End of time interval, in milliseconds after the epoch (inclusive).
+	//  minDepth = Minimum depth, in km.
+	//  maxDepth = Maximum depth, in km.
+	//  region = Region to search.
+	//  minMag = Minimum magnitude.
+	// Returns the result code from the last call to the visitor, or 0 if none.
+	// Events are visited in index order, which is by cell and then by time.
+
+	public int visit_events (EventVisitor visitor, long startTime, long endTime,
+			double minDepth, double maxDepth, ComcatRegion region, double minMag) {
+
+		int result = 0;
+
+		RangeList ranges = get_ranges (region);
+
+		for (int r = 0; r < ranges.count; ++r) {
+			int ev_lo = lower_bound (ranges.lo[r]);
+			int ev_hi = lower_bound (ranges.hi[r] + 1);
+
+			int i = ev_lo;
+			while (i < ev_hi) {
+
+				// Check the block summary, and skip the block if no event can match
+
+				int b = i >> block_shift;
+				int block_end = Math.min ((b + 1) << block_shift, ev_hi);
+
+				if (   blk_max_time[b] < startTime
+					|| blk_min_time[b] > endTime
+					|| blk_max_mag[b] < minMag
+					|| blk_max_depth[b] < minDepth
+					|| blk_min_depth[b] > maxDepth ) {
+					i = block_end;
+					continue;
+				}
+
+				// Check each event in the block
+
+				for ( ; i < block_end; ++i) {
+					long t = ev_time[i];
+					double depth = ev_depth[i];
+					if (   t >= startTime
+						&& t <= endTime
+						&& ev_mag[i] >= minMag
+						&& depth >= minDepth
+						&& depth <= maxDepth
+						&& region.contains (ev_lat[i], ev_lon[i]) ) {
+
+						result = visitor.visit_event (ev_source[i]);
+						if (result != 0) {
+							return result;
+						}
+					}
+				}
+			}
+		}
+
+		return result;
+	}
+
+
+
+
+	// Display our contents.
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+
+		result.append ("ComcatLocalCatalogIndex:" + "\n");
+		result.append ("level = " + level + "\n");
+		result.append ("grid_size = " + grid_size + "\n");
+		result.append ("block_size = " + get_block_size() + "\n");
+		result.append ("n_events = " + n_events + "\n");
+		result.append ("n_blocks = " + n_blocks + "\n");
+		result.append ("memory_bytes = " + get_memory_bytes() + "\n");
+
+		return result.toString();
+	}
+
+}
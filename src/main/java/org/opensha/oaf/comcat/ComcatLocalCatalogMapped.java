@@ -0,0 +1,831 @@
+package org.opensha.oaf.comcat;
+
+import java.util.Set;
+
+import java.io.IOException;
+import java.io.File;
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupture;
+
+import org.opensha.commons.data.comcat.ComcatRegion;
+import org.opensha.commons.data.comcat.ComcatVisitor;
+
+
+/**
+ * A local earthquake catalog in compiled binary form, accessed by memory mapping.
+ *
+ * A text catalog file (as written by ComcatLocalCatalog download) must be parsed and
+ * sorted every time it is loaded, and the resulting objects occupy a lot of memory.
+ * This class holds the same catalog compiled into a binary file, which is opened by
+ * mapping it into memory.  Opening takes almost no time, the catalog does not occupy
+ * the Java heap, and the operating system shares the pages among all processes that
+ * use the same file.
+ *
+ * The file contains the events sorted into the same latitude/longitude bins used by
+ * ComcatLocalCatalog, and within each bin sorted by time.  Event parameters are held
+ * in columns (one array each for time, latitude, longitude, depth, and magnitude), so
+ * that a query examines only the columns it needs.  The network, code, id list, and place
+ * of each event are held in a string heap, and decoded only for events that are returned.
+ * An open-addressing hash table maps each Comcat id to its event.
+ *
+ * File layout (all values big-endian, sections aligned to 8 bytes):
+ *  Header, HEADER_SIZE bytes (see the HDR_XXX offsets).
+ *  bin_start: int[n_bins + 1], index of the first event in each bin.
+ *  time: long[n_events], time in milliseconds since the epoch.
+ *  lat, lon, depth, mag: double[n_events] each.
+ *  str_start: int[n_events + 1], offset of each event's record in the string heap.
+ *  slot_hash, slot_event, slot_ord: int[table_size] each, the id hash table.
+ *  heap: byte[heap_size], string records.
+ * Each string record is UTF-8 text: the number of ids, network, code, then the ids,
+ * then the place, separated by tabs.  (Network, code, and ids cannot contain whitespace,
+ * so the place is everything after the last id.)
+ *
+ * The total file size is limited to 2 GB, which allows about 20 million events.
+ */
+public class ComcatLocalCatalogMapped {
+
+	//----- File format -----
+
+	// Magic number at the start of the file, "OAFLOCAT".
+
+	public static final long MAGIC = 0x4F41464C4F434154L;
+
+	// File format version.
+
+	public static final int VERSION = 1;
+
+	// Header offsets.
+
+	private static final int HDR_MAGIC = 0;				// long
+	private static final int HDR_VERSION = 8;			// int
+	private static final int HDR_N_LAT_BINS = 12;		// int
+	private static final int HDR_N_EVENTS = 16;			// int
+	private static final int HDR_N_BINS = 20;			// int
+	private static final int HDR_TABLE_SIZE = 24;		// int
+	private static final int HDR_MAX_BIN_SIZE = 28;		// int
+	private static final int HDR_MIN_TIME = 32;			// long
+	private static final int HDR_MAX_TIME = 40;			// long
+	private static final int HDR_MIN_DEPTH = 48;		// double
+	private static final int HDR_MAX_DEPTH = 56;		// double
+	private static final int HDR_MIN_MAG = 64;			// double
+	private static final int HDR_MAX_MAG = 72;			// double
+	private static final int HDR_HEAP_SIZE = 80;		// long
+
+	// Size of the header, in bytes.
+
+	private static final int HEADER_SIZE = 128;
+
+	// Separator between fields in a string record.
+
+	private static final char SEP = '\t';
+
+
+
+
+	//----- Section layout -----
+
+	// Offsets of each section, and the total file size.
+
+	private static class Layout {
+		public long off_bin_start;
+		public long off_time;
+		public long off_lat;
+		public long off_lon;
+		public long off_depth;
+		public long off_mag;
+		public long off_str_start;
+		public long off_slot_hash;
+		public long off_slot_event;
+		public long off_slot_ord;
+		public long off_heap;
+		public long file_size;
+
+		// Round up to a multiple of 8.
+
+		private static long align (long x) {
+			return (x + 7L) & (~7L);
+		}
+
+		// Compute the layout for the given counts.
+
+		public Layout (int n_bins, int n_events, int table_size, long heap_size) {
+			long off = HEADER_SIZE;
+			off_bin_start = off;
+			off = align (off + 4L * (n_bins + 1));
+			off_time = off;
+			off += 8L * n_events;
+			off_lat = off;
+			off += 8L * n_events;
+			off_lon = off;
+			off += 8L * n_events;
+			off_depth = off;
+			off += 8L * n_events;
+			off_mag = off;
+			off += 8L * n_events;
+			off_str_start = off;
+			off = align (off + 4L * (n_events + 1));
+			off_slot_hash = off;
+			off += 4L * table_size;
+			off_slot_event = off;
+			off += 4L * table_size;
+			off_slot_ord = off;
+			off = align (off + 4L * table_size);
+			off_heap = off;
+			off += heap_size;
+			file_size = off;
+		}
+	}
+
+
+
+
+	// Get the hash table size for the given number of ids.
+	// This is a power of 2, at least twice the number of ids.
+
+	private static int calc_table_size (int n_ids) {
+		int table_size = 16;
+		while (table_size < 2 * n_ids) {
+			table_size *= 2;
+		}
+		return table_size;
+	}
+
+
+
+
+	// Hash function for ids, which must be the same when writing and reading.
+
+	private static int id_hash (String id) {
+		int h = id.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+
+
+
+	//----- Mapped data -----
+
+	// The filename.
+
+	private String filename;
+
+	// The number of latitude bins.
+
+	private int n_lat_bins;
+
+	// The number of events.
+
+	private int n_events;
+
+	// The total number of bins.
+
+	private int n_bins;
+
+	// The size of the hash table.
+
+	private int table_size;
+
+	// For each latitude bin, the number of longitude bins, and the index of its first bin.
+	// These are computed when the file is opened.
+
+	private int[] n_lon_bins;
+	private int[] lat_bin_first;
+
+	// The mapped columns.
+
+	private IntBuffer bin_start;
+	private LongBuffer col_time;
+	private DoubleBuffer col_lat;
+	private DoubleBuffer col_lon;
+	private DoubleBuffer col_depth;
+	private DoubleBuffer col_mag;
+	private IntBuffer str_start;
+	private IntBuffer slot_hash;
+	private IntBuffer slot_event;
+	private IntBuffer slot_ord;
+	private ByteBuffer heap;
+
+	// Statistics from the header.
+
+	private int stat_max_bin_size;
+	private long stat_min_time;
+	private long stat_max_time;
+	private double stat_min_depth;
+	private double stat_max_depth;
+	private double stat_min_mag;
+	private double stat_max_mag;
+
+
+
+
+	//----- Access -----
+
+	public final String get_filename () {
+		return filename;
+	}
+
+	public final int get_n_lat_bins () {
+		return n_lat_bins;
+	}
+
+	public final int get_n_events () {
+		return n_events;
+	}
+
+	public final int get_n_bins () {
+		return n_bins;
+	}
+
+	public final int get_n_lon_bins (int lat_bin) {
+		return n_lon_bins[lat_bin];
+	}
+
+	public final int get_stat_max_bin_size () {
+		return stat_max_bin_size;
+	}
+
+	public final long get_stat_min_time () {
+		return stat_min_time;
+	}
+
+	public final long get_stat_max_time () {
+		return stat_max_time;
+	}
+
+	public final double get_stat_min_depth () {
+		return stat_min_depth;
+	}
+
+	public final double get_stat_max_depth () {
+		return stat_max_depth;
+	}
+
+	public final double get_stat_min_mag () {
+		return stat_min_mag;
+	}
+
+	public final double get_stat_max_mag () {
+		return stat_max_mag;
+	}
+
+
+	// Get the number of events in a bin.
+
+	public final int get_bin_size (int lat_bin, int lon_bin) {
+		int bin = lat_bin_first[lat_bin] + lon_bin;
+		return bin_start.get (bin + 1) - bin_start.get (bin);
+	}
+
+
+
+
+	// Get the columns for an event.
+	// Events are numbered from 0 to get_n_events() - 1, in bin order.
+
+	public final long get_time (int ev) {
+		return col_time.get (ev);
+	}
+
+	public final double get_lat (int ev) {
+		return col_lat.get (ev);
+	}
+
+	public final double get_lon (int ev) {
+		return col_lon.get (ev);
+	}
+
+	public final double get_depth (int ev) {
+		return col_depth.get (ev);
+	}
+
+	public final double get_mag (int ev) {
+		return col_mag.get (ev);
+	}
+
+
+	// Get the catalog entry for an event.
+
+	public final ComcatLocalCatalogEntry get_entry (int ev) {
+		return make_entry (ev);
+	}
+
+
+
+
+	// Decode the string record for an event, and make a catalog entry.
+
+	private ComcatLocalCatalogEntry make_entry (int ev) {
+		int start = str_start.get (ev);
+		int len = str_start.get (ev + 1) - start;
+		byte[] b = new byte[len];
+		ByteBuffer dup = heap.duplicate();
+		dup.position (start);
+		dup.get (b);
+		String s = new String (b, StandardCharsets.UTF_8);
+
+		// The first field is the number of ids, then network, code, ids, place
+
+		String[] fields = s.split (String.valueOf (SEP), -1);
+		int idlen = Integer.parseInt (fields[0]);
+
+		ComcatLocalCatalogEntry entry = new ComcatLocalCatalogEntry();
+		entry.rup_network = fields[1];
+		entry.rup_code = fields[2];
+		entry.rup_id_list = new String[idlen];
+		for (int i = 0; i < idlen; ++i) {
+			entry.rup_id_list[i] = fields[3 + i];
+		}
+
+		// The place is the rest of the record, which may itself contain separators
+
+		if (fields.length == 4 + idlen) {
+			entry.rup_place = fields[3 + idlen];
+		} else {
+			StringBuilder place = new StringBuilder (fields[3 + idlen]);
+			for (int i = 4 + idlen; i < fields.length; ++i) {
+				place.append (SEP);
+				place.append (fields[i]);
+			}
+			entry.rup_place = place.toString();
+		}
+
+		entry.rup_time = col_time.get (ev);
+		entry.rup_lat = col_lat.get (ev);
+		entry.rup_lon = col_lon.get (ev);
+		entry.rup_depth = col_depth.get (ev);
+		entry.rup_mag = col_mag.get (ev);
+		return entry;
+	}
+
+
+
+
+	//----- Query -----
+
+
+
+
+	// Find the catalog entry with the given id.
+	// Returns null if not found.
+
+	public ComcatLocalCatalogEntry fetch_entry (String id) {
+		int h = id_hash (id);
+		int mask = table_size - 1;
+		for (int slot = h & mask; ; slot = (slot + 1) & mask) {
+			int ev = slot_event.get (slot);
+			if (ev < 0) {
+				return null;
+			}
+			if (slot_hash.get (slot) == h) {
+				ComcatLocalCatalogEntry entry = make_entry (ev);
+				if (id.equals (entry.rup_id_list[slot_ord.get (slot)])) {
+					return entry;
+				}
+			}
+		}
+	}
+
+
+
+
+	// Visit the events in one bin that satisfy the given conditions.
+	// The parameters are the same as for ComcatLocalCatalog.visitEventList, except:
+	//  lat_bin = Latitude bin.
+	//  lon_bin = Longitude bin, ranging from 0 to get_n_lon_bins(lat_bin) - 1.
+	//  event_filter = Set of event ids to exclude.
+	// Returns the result code from the last call to the visitor, or 0 if none.
+
+	public int visit_bin (int lat_bin, int lon_bin, ComcatVisitor visitor, long startTime, long endTime,
+			double minDepth, double maxDepth, ComcatRegion region, boolean wrapLon, boolean extendedInfo,
+			double minMag, Set<String> event_filter) {
+
+		int result = 0;
+
+		int bin = lat_bin_first[lat_bin] + lon_bin;
+		int ev_lo = bin_start.get (bin);
+		int ev_hi = bin_start.get (bin + 1);
+
+		// Binary search to find the first entry >= the start time
+
+		int lo = ev_lo - 1;
+		int hi = ev_hi;
+		while (hi - lo > 1) {
+			int mid = (hi + lo) >>> 1;
+			if (col_time.get (mid) >= startTime) {
+				hi = mid;
+			} else {
+				lo = mid;
+			}
+		}
+
+		// Loop over time range
+
+		for (int ev = hi; ev < ev_hi; ++ev) {
+
+			// If end of time interval, exit the loop
+
+			if (col_time.get (ev) > endTime) {
+				break;
+			}
+
+			// If entry passes the numeric filters ...
+
+			double depth = col_depth.get (ev);
+
+			if (   col_mag.get (ev) >= minMag
+				&& depth >= minDepth
+				&& depth <= maxDepth
+				&& region.contains (col_lat.get (ev), col_lon.get (ev)) ) {
+
+				// Decode the entry, and check the id filter
+
+				ComcatLocalCatalogEntry entry = make_entry (ev);
+
+				if (!( event_filter.contains (entry.rup_id_list[0]) )) {
+
+					// Visit the event
+
+					ObsEqkRupture rup = entry.get_eqk_rupture (wrapLon, extendedInfo);
+					result = visitor.visit (rup, null);
+
+					// Stop if requested
+
+					if (result != 0) {
+						return result;
+					}
+				}
+			}
+		}
+
+		return result;
+	}
+
+
+
+
+	//----- Opening -----
+
+
+
+
+	// Return true if the file is a compiled binary catalog.
+	// Returns false if the file does not exist or cannot be read.
+
+	public static boolean is_mapped_catalog_file (String filename) {
+		File file = new File (filename);
+		if (!( file.isFile() && file.length() >= HEADER_SIZE )) {
+			return false;
+		}
+		try (
+			RandomAccessFile raf = new RandomAccessFile (file, "r");
+		){
+			return raf.readLong() == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+
+
+
+	// Open a compiled binary catalog.
+	// Throws an exception if the file cannot be opened or is invalid.
+
+	public ComcatLocalCatalogMapped (String filename) throws IOException {
+		this.filename = filename;
+
+		MappedByteBuffer buf;
+		try (
+			RandomAccessFile raf = new RandomAccessFile (filename, "r");
+			FileChannel channel = raf.getChannel();
+		){
+			long size = channel.size();
+			if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+				throw new IOException ("ComcatLocalCatalogMapped: Invalid file size: filename = " + filename + ", size = " + size);
+			}
+			buf = channel.map (FileChannel.MapMode.READ_ONLY, 0L, size);
+		}
+
+		// Read and check the header
+
+		if (buf.getLong (HDR_MAGIC) != MAGIC) {
+			throw new IOException ("ComcatLocalCatalogMapped: Not a compiled catalog file: filename = " + filename);
+		}
+		if (buf.getInt (HDR_VERSION) != VERSION) {
+			throw new IOException ("ComcatLocalCatalogMapped: Unsupported file version: filename = " + filename + ", version = " + buf.getInt (HDR_VERSION));
+		}
+
+		n_lat_bins = buf.getInt (HDR_N_LAT_BINS);
+		n_events = buf.getInt (HDR_N_EVENTS);
+		n_bins = buf.getInt (HDR_N_BINS);
+		table_size = buf.getInt (HDR_TABLE_SIZE);
+		stat_max_bin_size = buf.getInt (HDR_MAX_BIN_SIZE);
+		stat_min_time = buf.getLong (HDR_MIN_TIME);
+		stat_max_time = buf.getLong (HDR_MAX_TIME);
+		stat_min_depth = buf.getDouble (HDR_MIN_DEPTH);
+		stat_max_depth = buf.getDouble (HDR_MAX_DEPTH);
+		stat_min_mag = buf.getDouble (HDR_MIN_MAG);
+		stat_max_mag = buf.getDouble (HDR_MAX_MAG);
+		long heap_size = buf.getLong (HDR_HEAP_SIZE);
+
+		Layout layout = new Layout (n_bins, n_events, table_size, heap_size);
+		if (layout.file_size != buf.capacity()) {
+			throw new IOException ("ComcatLocalCatalogMapped: File size does not match header: filename = " + filename + ", expected = " + layout.file_size + ", actual = " + buf.capacity());
+		}
+
+		// Compute the latitude bin structure, and check it matches the file
+
+		ComcatLocalCatalog bin_calc = new ComcatLocalCatalog();
+		bin_calc.n_lat_bins = n_lat_bins;
+		n_lon_bins = new int[n_lat_bins];
+		lat_bin_first = new int[n_lat_bins];
+		int total_bins = 0;
+		for (int lat_bin = 0; lat_bin < n_lat_bins; ++lat_bin) {
+			n_lon_bins[lat_bin] = bin_calc.calc_n_lon_bins (lat_bin);
+			lat_bin_first[lat_bin] = total_bins;
+			total_bins += n_lon_bins[lat_bin];
+		}
+		if (total_bins != n_bins) {
+			throw new IOException ("ComcatLocalCatalogMapped: Bin count does not match header: filename = " + filename + ", expected = " + total_bins + ", actual = " + n_bins);
+		}
+
+		// Make views of the sections
+
+		bin_start = slice (buf, layout.off_bin_start, 4L * (n_bins + 1)).asIntBuffer();
+		col_time = slice (buf, layout.off_time, 8L * n_events).asLongBuffer();
+		col_lat = slice (buf, layout.off_lat, 8L * n_events).asDoubleBuffer();
+		col_lon = slice (buf, layout.off_lon, 8L * n_events).asDoubleBuffer();
+		col_depth = slice (buf, layout.off_depth, 8L * n_events).asDoubleBuffer();
+		col_mag = slice (buf, layout.off_mag, 8L * n_events).asDoubleBuffer();
+		str_start = slice (buf, layout.off_str_start, 4L * (n_events + 1)).asIntBuffer();
+		slot_hash = slice (buf, layout.off_slot_hash, 4L * table_size).asIntBuffer();
+		slot_event = slice (buf, layout.off_slot_event, 4L * table_size).asIntBuffer();
+		slot_ord = slice (buf, layout.off_slot_ord, 4L * table_size).asIntBuffer();
+		heap = slice (buf, layout.off_heap, heap_size);
+	}
+
+
+
+
+	// Make a slice of a buffer.
+
+	private static ByteBuffer slice (ByteBuffer buf, long off, long len) {
+		ByteBuffer dup = buf.duplicate();
+		dup.position ((int)off);
+		dup.limit ((int)(off + len));
+		return dup.slice();
+	}
+
+
+
+
+	// Construct the histogram of bin sizes, with length stat_max_bin_size + 1.
+
+	public int[] make_bin_size_histogram () {
+		int[] histogram = new int[stat_max_bin_size + 1];
+		for (int bin = 0; bin < n_bins; ++bin) {
+			histogram[bin_start.get (bin + 1) - bin_start.get (bin)]++;
+		}
+		return histogram;
+	}
+
+
+
+
+	//----- Compiling -----
+
+
+
+
+	// Write a catalog as a compiled binary file.
+	// Parameters:
+	//  catalog = Catalog, which must have been loaded from text files.
+	//  filename = Name of file to write.
+	// Throws an exception if the write fails.
+
+	public static void write_catalog (ComcatLocalCatalog catalog, String filename) throws IOException {
+
+		ComcatLocalCatalogEntry[][][] event_bins = catalog.event_bins;
+		if (event_bins == null) {
+			throw new IllegalArgumentException ("ComcatLocalCatalogMapped.write_catalog: Catalog is not loaded from text");
+		}
+
+		// Count bins, events, and ids, and make the string records
+
+		int the_n_lat_bins = event_bins.length;
+		int the_n_bins = 0;
+		int the_n_events = 0;
+		int n_ids = 0;
+		for (ComcatLocalCatalogEntry[][] lon_bins : event_bins) {
+			the_n_bins += lon_bins.length;
+			for (ComcatLocalCatalogEntry[] time_arr : lon_bins) {
+				the_n_events += time_arr.length;
+				for (ComcatLocalCatalogEntry entry : time_arr) {
+					n_ids += entry.rup_id_list.length;
+				}
+			}
+		}
+
+		byte[][] records = new byte[the_n_events][];
+		long heap_size = 0L;
+		int ev = 0;
+		for (ComcatLocalCatalogEntry[][] lon_bins : event_bins) {
+			for (ComcatLocalCatalogEntry[] time_arr : lon_bins) {
+				for (ComcatLocalCatalogEntry entry : time_arr) {
+					StringBuilder sb = new StringBuilder();
+					sb.append (entry.rup_id_list.length);
+					sb.append (SEP);
+					sb.append (entry.rup_network);
+					sb.append (SEP);
+					sb.append (entry.rup_code);
+					for (String id : entry.rup_id_list) {
+						sb.append (SEP);
+						sb.append (id);
+					}
+					sb.append (SEP);
+					sb.append (entry.rup_place);
+					records[ev] = sb.toString().getBytes (StandardCharsets.UTF_8);
+					heap_size += records[ev].length;
+					++ev;
+				}
+			}
+		}
+
+		// Build the id hash table
+
+		int the_table_size = calc_table_size (n_ids);
+		int[] hash_arr = new int[the_table_size];
+		int[] event_arr = new int[the_table_size];
+		int[] ord_arr = new int[the_table_size];
+		for (int slot = 0; slot < the_table_size; ++slot) {
+			event_arr[slot] = -1;
+		}
+		int mask = the_table_size - 1;
+		ev = 0;
+		for (ComcatLocalCatalogEntry[][] lon_bins : event_bins) {
+			for (ComcatLocalCatalogEntry[] time_arr : lon_bins) {
+				for (ComcatLocalCatalogEntry entry : time_arr) {
+					for (int ord = 0; ord < entry.rup_id_list.length; ++ord) {
+						int h = id_hash (entry.rup_id_list[ord]);
+						int slot = h & mask;
+						while (event_arr[slot] >= 0) {
+							slot = (slot + 1) & mask;
+						}
+						hash_arr[slot] = h;
+						event_arr[slot] = ev;
+						ord_arr[slot] = ord;
+					}
+					++ev;
+				}
+			}
+		}
+
+		// Check the file size
+
+		Layout layout = new Layout (the_n_bins, the_n_events, the_table_size, heap_size);
+		if (layout.file_size > Integer.MAX_VALUE) {
+			throw new IOException ("ComcatLocalCatalogMapped.write_catalog: Catalog too large for compiled file: size = " + layout.file_size);
+		}
+
+		// Write the file
+
+		try (
+			DataOutputStream out = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (filename), 1048576));
+		){
+
+			// Header
+
+			out.writeLong (MAGIC);
+			out.writeInt (VERSION);
+			out.writeInt (the_n_lat_bins);
+			out.writeInt (the_n_events);
+			out.writeInt (the_n_bins);
+			out.writeInt (the_table_size);
+			out.writeInt (catalog.stat_max_bin_size);
+			out.writeLong (catalog.stat_min_time);
+			out.writeLong (catalog.stat_max_time);
+			out.writeDouble (catalog.stat_min_depth);
+			out.writeDouble (catalog.stat_max_depth);
+			out.writeDouble (catalog.stat_min_mag);
+			out.writeDouble (catalog.stat_max_mag);
+			out.writeLong (heap_size);
+			pad_to (out, layout.off_bin_start);
+
+			// Bin starts
+
+			int start = 0;
+			out.writeInt (start);
+			for (ComcatLocalCatalogEntry[][] lon_bins : event_bins) {
+				for (ComcatLocalCatalogEntry[] time_arr : lon_bins) {
+					start += time_arr.length;
+					out.writeInt (start);
+				}
+			}
+			pad_to (out, layout.off_time);
+
+			// Columns
+
+			for (ComcatLocalCatalogEntry[][] lon_bins : event_bins) {
+				for (ComcatLocalCatalogEntry[] time_arr : lon_bins) {
+					for (ComcatLocalCatalogEntry entry : time_arr) {
+						out.writeLong (entry.rup_time);
+					}
+				}
+			}
+			for (int col = 0; col < 4; ++col) {
+				for (ComcatLocalCatalogEntry[][] lon_bins : event_bins) {
+					for (ComcatLocalCatalogEntry[] time_arr : lon_bins) {
+						for (ComcatLocalCatalogEntry entry : time_arr) {
+							switch (col) {
+							case 0: out.writeDouble (entry.rup_lat); break;
+							case 1: out.writeDouble (entry.rup_lon); break;
+							case 2: out.writeDouble (entry.rup_depth); break;
+							default: out.writeDouble (entry.rup_mag); break;
+							}
+						}
+					}
+				}
+			}
+
+			// String record offsets
+
+			int str_off = 0;
+			out.writeInt (str_off);
+			for (byte[] record : records) {
+				str_off += record.length;
+				out.writeInt (str_off);
+			}
+			pad_to (out, layout.off_slot_hash);
+
+			// Hash table
+
+			for (int x : hash_arr) {
+				out.writeInt (x);
+			}
+			for (int x : event_arr) {
+				out.writeInt (x);
+			}
+			for (int x : ord_arr) {
+				out.writeInt (x);
+			}
+			pad_to (out, layout.off_heap);
+
+			// String heap
+
+			for (byte[] record : records) {
+				out.write (record);
+			}
+
+			if (out.size() != layout.file_size) {
+				throw new IOException ("ComcatLocalCatalogMapped.write_catalog: Internal error, file size mismatch: expected = " + layout.file_size + ", actual = " + out.size());
+			}
+		}
+
+		return;
+	}
+
+
+
+
+	// Pad the output with zeros, up to the given offset.
+
+	private static void pad_to (DataOutputStream out, long off) throws IOException {
+		while (out.size() < off) {
+			out.writeByte (0);
+		}
+		return;
+	}
+
+
+
+
+	// Display our contents.
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+
+		result.append ("ComcatLocalCatalogMapped:" + "\n");
+		result.append ("filename = " + filename + "\n");
+		result.append ("n_lat_bins = " + n_lat_bins + "\n");
+		result.append ("n_bins = " + n_bins + "\n");
+		result.append ("n_events = " + n_events + "\n");
+		result.append ("table_size = " + table_size + "\n");
+		result.append ("heap_size = " + heap.capacity() + "\n");
+
+		return result.toString();
+	}
+
+}
@@ -20,6 +20,7 @@ import java.util.Set;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Arrays;
 import java.util.Locale;
 
@@ -48,6 +49,7 @@ import java.util.zip.ZipException;
 import org.opensha.oaf.util.SphLatLon;
 //import org.opensha.oaf.util.SphRegion;
 import org.opensha.oaf.util.SphRegionCircle;
+import org.opensha.oaf.util.SphRegionWorld;
 import org.opensha.oaf.util.SimpleUtils;
 import org.opensha.oaf.util.catalog.ObsEqkRupMaxTimeComparator;
 import org.opensha.oaf.util.health.HealthMonitor;
@@ -126,6 +128,24 @@ public class ComcatOAFAccessor extends ComcatAccessor {
 
 	private static HealthMonitor comcat_health_monitor = null;
 
+	// The service key, which identifies the Comcat server, for use in query cache keys.
+
+	protected String service_key;
+
+	// True to use the query cache for event list queries to Comcat.
+
+	protected boolean f_query_cache;
+
+	// True if queries through the query cache must return authoritative data, so they
+	// always do a full fetch from Comcat (which is then stored in the cache).
+
+	protected boolean f_query_cache_authoritative;
+
+	// If nonzero, the updatedafter time to add to queries sent to Comcat, in milliseconds since the epoch.
+	// This is set only while the query cache is doing an incremental fetch.
+
+	protected long query_updated_after;
+
 	public static synchronized HealthMonitor get_comcat_health_monitor () {
 		return comcat_health_monitor;
 	}
@@ -171,6 +191,58 @@ public class ComcatOAFAccessor extends ComcatAccessor {
 
 
 
+	//----- Query cache -----
+
+	// Default maximum number of entries in the query cache, or 0 to disable the query cache.
+	// This can be selected with the system property oafcomcatcache, which can be
+	// "off", "on", or a number of entries.  The default is ComcatQueryCache.DEF_MAX_ENTRIES.
+
+	public static final int default_query_cache_size = SimpleUtils.get_property_on_off_int ("oafcomcatcache", ComcatQueryCache.DEF_MAX_ENTRIES, ComcatQueryCache.DEF_MAX_ENTRIES);
+
+	// The query cache, shared by all accessors.
+
+	private static final ComcatQueryCache query_cache = make_query_cache();
+
+	private static ComcatQueryCache make_query_cache () {
+		ComcatQueryCache cache = new ComcatQueryCache();
+		cache.set_limits (default_query_cache_size, ComcatQueryCache.DEF_MAX_EVENTS, ComcatQueryCache.DEF_MAX_INCREMENTAL_AGE);
+		return cache;
+	}
+
+	// Get the query cache.
+
+	public static ComcatQueryCache get_query_cache () {
+		return query_cache;
+	}
+
+	// Enable or disable the query cache for this accessor.
+	// It is enabled by default, unless the query cache size is zero.
+
+	public void set_query_cache_enabled (boolean f_enable) {
+		f_query_cache = f_enable && (default_query_cache_size > 0);
+		return;
+	}
+
+	public boolean get_query_cache_enabled () {
+		return f_query_cache;
+	}
+
+	// Set whether queries from this accessor must return authoritative data.
+	// If true, queries through the cache always do a full fetch from Comcat, and store the
+	// result in the cache for use by other accessors.  The default is false.
+
+	public void set_query_cache_authoritative (boolean f_authoritative) {
+		f_query_cache_authoritative = f_authoritative;
+		return;
+	}
+
+	public boolean get_query_cache_authoritative () {
+		return f_query_cache_authoritative;
+	}
+
+
+
+
 	// Get or create the cached local catalog.
 	// Parameters:
 	//  locat_filenames = List of filenames, or null or empty if no local catalog is requested.
@@ -336,6 +408,7 @@ public class ComcatOAFAccessor extends ComcatAccessor {
 				}
 			}
 			service = new ComcatEventWebService (serviceURL, feedURL);
+			service_key = serviceURL.toString();
 
 		} catch (MalformedURLException e) {
 			ExceptionUtils.throwAsRuntimeException(e);
@@ -352,6 +425,12 @@ public class ComcatOAFAccessor extends ComcatAccessor {
 
 		refetch_secondary = true;
 
+		// Query cache
+
+		f_query_cache = (default_query_cache_size > 0);
+		f_query_cache_authoritative = false;
+		query_updated_after = 0L;
+
 		// If we're using program configuration ...
 
 		if (f_use_config) {
@@ -527,12 +606,135 @@ public class ComcatOAFAccessor extends ComcatAccessor {
 			return result;
 		}
 
+		// If using the query cache, pass thru the cache
+		// (queries with a product type are not cached, because an incremental fetch
+		// cannot distinguish a deleted product from a deleted event)
+
+		if (f_query_cache && productType == null) {
+			return visit_cached (visitor, exclude_id, startTime, endTime,
+				minDepth, maxDepth, region, wrapLon, extendedInfo,
+				minMag, includeDeleted, limit_per_call, max_calls);
+		}
+
 		// Pass thru to superclass
 
 		return super.visitEventList (visitor, exclude_id, startTime, endTime,
 			minDepth, maxDepth, region, wrapLon, extendedInfo,
 			minMag, productType, includeDeleted, limit_per_call, max_calls);
 	}
+
+
+
+
+	// Visit a list of events, using the query cache.
+	// Parameters are the same as visitEventList, with productType == null.
+	// If the cache has a result for the same query (except possibly a different end time),
+	// then only the changes since the last fetch are requested from Comcat.  Otherwise, or if
+	// this accessor requires authoritative data, the full result is requested from Comcat and
+	// stored in the cache.
+	// Afterwards, the http status list contains the statuses of all the Comcat calls.
+	// The visitor receives copies of the cached ruptures, so it may modify them.
+
+	protected int visit_cached (ComcatVisitor visitor, String exclude_id, long startTime, long endTime,
+			double minDepth, double maxDepth, ComcatRegion region, boolean wrapLon, boolean extendedInfo,
+			double minMag, boolean includeDeleted, int limit_per_call, int max_calls) {
+
+		// Effective end time
+
+		long time_now = System.currentTimeMillis();
+		long eff_end = ((endTime == startTime) ? time_now : endTime);
+
+		// Look up the query
+
+		String key = ComcatQueryCache.make_key (service_key, exclude_id, startTime,
+			minDepth, maxDepth, region, wrapLon, extendedInfo, minMag, null, includeDeleted);
+
+		ComcatQueryCache.Entry entry = (f_query_cache_authoritative ? query_cache.lookup_refetch (key) : query_cache.lookup (key, time_now));
+
+		// If not found, do a full fetch
+
+		if (entry == null) {
+			final LinkedHashMap<String, ComcatQueryCache.CachedEvent> events = new LinkedHashMap<String, ComcatQueryCache.CachedEvent>();
+
+			ComcatVisitor collector = new ComcatVisitor() {
+				@Override
+				public int visit (ObsEqkRupture rup, JsonEvent geojson) {
+					events.put (rup.getEventId(), new ComcatQueryCache.CachedEvent (rup, geojson));
+					return 0;
+				}
+			};
+
+			super.visitEventList (collector, exclude_id, startTime, eff_end,
+				minDepth, maxDepth, region, wrapLon, extendedInfo,
+				minMag, null, includeDeleted, limit_per_call, max_calls);
+
+			entry = query_cache.store_full (key, events, eff_end, time_now);
+		}
+
+		// Otherwise, do an incremental fetch
+
+		else {
+			final List<ComcatQueryCache.CachedEvent> updates = new ArrayList<ComcatQueryCache.CachedEvent>();
+			ArrayList<Integer> statuses = new ArrayList<Integer>();
+
+			ComcatVisitor collector = new ComcatVisitor() {
+				@Override
+				public int visit (ObsEqkRupture rup, JsonEvent geojson) {
+					updates.add (new ComcatQueryCache.CachedEvent (rup, geojson));
+					return 0;
+				}
+			};
+
+			// Events updated since the last fetch, including deletions.
+			// Any event with origin time after the update time was necessarily created after
+			// the update time, so if the covered window extends past the update time, then
+			// this query can cover the entire requested window.
+			// This query is not filtered by region, depth, or magnitude, so that it returns
+			// events that were revised so they no longer match;  the cache applies the filters.
+
+			long updated_after = entry.last_fetch - ComcatQueryCache.UPDATE_MARGIN;
+			boolean f_gap = (eff_end > entry.covered_end && entry.covered_end < updated_after);
+			long update_end = (f_gap ? entry.covered_end : eff_end);
+
+			query_updated_after = updated_after;
+			try {
+				super.visitEventList (collector, exclude_id, startTime, Math.max (startTime + 1L, update_end),
+					DEFAULT_MIN_DEPTH, DEFAULT_MAX_DEPTH, new SphRegionWorld(), wrapLon, extendedInfo,
+					COMCAT_NO_MIN_MAG, null, true, limit_per_call, max_calls);
+			} finally {
+				query_updated_after = 0L;
+			}
+			statuses.addAll (http_statuses);
+
+			// All events in the part of the window not covered before
+
+			if (f_gap) {
+				super.visitEventList (collector, exclude_id, entry.covered_end + 1L, eff_end,
+					minDepth, maxDepth, region, wrapLon, extendedInfo,
+					minMag, null, includeDeleted, limit_per_call, max_calls);
+				statuses.addAll (http_statuses);
+			}
+
+			http_statuses.clear();
+			http_statuses.addAll (statuses);
+
+			entry = query_cache.store_incremental (key, entry, updates, !includeDeleted,
+				minDepth, maxDepth, region, minMag, eff_end, time_now);
+		}
+
+		// Visit the events in the requested window
+
+		int result = 0;
+
+		for (ComcatQueryCache.CachedEvent ev : ComcatQueryCache.get_events (entry, startTime, eff_end)) {
+			result = visitor.visit (ComcatQueryCache.copy_rupture (ev.rup), ev.geojson);
+			if (result != 0) {
+				break;
+			}
+		}
+
+		return result;
+	}
 	
 
 
@@ -558,6 +760,12 @@ public class ComcatOAFAccessor extends ComcatAccessor {
 		List<JsonEvent> events = null;
 		HealthMonitor health_monitor = get_comcat_health_monitor();
 
+		// If the query cache is doing an incremental fetch, request only updated events
+
+		if (query_updated_after > 0L) {
+			query.setUpdatedAfter (new Date (query_updated_after));
+		}
+
 		// Perform Comcat query
 
 		try {
@@ -2342,6 +2550,127 @@ public class ComcatOAFAccessor extends ComcatAccessor {
 
 
 
+		// Subcommand : Test #19
+		// Command format:
+		//  test19  event_id  min_days  max_days  radius_km  min_mag  n_repeat
+		// Fetch information for an event.
+		// Then fetch the event list for a circle surrounding the hypocenter,
+		// for the specified interval in days after the origin time (or up to now if
+		// max_days is 0), excluding the event itself, n_repeat times using the query cache.
+		// The first query is a full fetch, and later queries are incremental.
+		// Then fetch the same list without the query cache, and check the results are the same.
+		// Displays the times, http statuses, and query cache statistics.
+		// The query cache must be enabled, with -Doafcomcatcache=on.
+
+		if (args[0].equalsIgnoreCase ("test19")) {
+
+			// Six additional arguments
+
+			if (args.length != 7) {
+				System.err.println ("ComcatOAFAccessor : Invalid 'test19' subcommand");
+				return;
+			}
+
+			try {
+
+				String event_id = args[1];
+				double min_days = Double.parseDouble (args[2]);
+				double max_days = Double.parseDouble (args[3]);
+				double radius_km = Double.parseDouble (args[4]);
+				double min_mag = Double.parseDouble (args[5]);
+				int n_repeat = Integer.parseInt (args[6]);
+
+				// Create the accessor
+
+				ComcatOAFAccessor accessor = new ComcatOAFAccessor();
+
+				if (default_query_cache_size <= 0) {
+					System.out.println ("Query cache is disabled by -Doafcomcatcache");
+				}
+
+				// Get the rupture
+
+				ObsEqkRupture rup = accessor.fetchEvent (event_id, false, true);
+
+				if (rup == null) {
+					System.out.println ("Null return from fetchEvent");
+					System.out.println ("http_status = " + accessor.get_http_status_code());
+					return;
+				}
+
+				System.out.println (ComcatOAFAccessor.rupToString (rup));
+
+				String rup_event_id = rup.getEventId();
+				long rup_time = rup.getOriginTime();
+				Location hypo = rup.getHypocenterLocation();
+
+				// Construct the Region and times
+
+				SphRegionCircle region = new SphRegionCircle (new SphLatLon(hypo), radius_km);
+
+				long startTime = rup_time + (long)(min_days*day_millis);
+				long endTime = ((max_days < 1.0e-6) ? startTime : (rup_time + (long)(max_days*day_millis)));
+
+				double minDepth = DEFAULT_MIN_DEPTH;
+				double maxDepth = DEFAULT_MAX_DEPTH;
+				boolean wrapLon = false;
+				boolean extendedInfo = true;
+
+				// Repeated queries using the cache
+
+				get_query_cache().reset_stats();
+				ObsEqkRupList cached_list = null;
+
+				for (int n = 0; n < n_repeat; ++n) {
+					accessor.set_query_cache_enabled (true);
+					long t0 = System.currentTimeMillis();
+					cached_list = accessor.fetchEventList (rup_event_id, startTime, endTime,
+							minDepth, maxDepth, region, wrapLon, extendedInfo, min_mag);
+					long t1 = System.currentTimeMillis();
+
+					System.out.println ("Cached query " + n + ": events = " + cached_list.size() + ", time = " + (t1 - t0) + " ms");
+					int n_status = accessor.get_http_status_count();
+					for (int i = 0; i < n_status; ++i) {
+						System.out.println ("http_status[" + i + "] = " + accessor.get_http_status_code(i));
+					}
+				}
+
+				System.out.println ("Query cache: " + get_query_cache().get_stats_string());
+
+				// Query without the cache
+
+				accessor.set_query_cache_enabled (false);
+				long t0 = System.currentTimeMillis();
+				ObsEqkRupList direct_list = accessor.fetchEventList (rup_event_id, startTime, endTime,
+						minDepth, maxDepth, region, wrapLon, extendedInfo, min_mag);
+				long t1 = System.currentTimeMillis();
+
+				System.out.println ("Direct query: events = " + direct_list.size() + ", time = " + (t1 - t0) + " ms");
+
+				// Compare, as sets of ids and magnitudes (an open end time may add events to the direct query)
+
+				if (cached_list != null) {
+					Map<String, Double> cached_map = new HashMap<String, Double>();
+					for (ObsEqkRupture r : cached_list) {
+						cached_map.put (r.getEventId(), r.getMag());
+					}
+					Map<String, Double> direct_map = new HashMap<String, Double>();
+					for (ObsEqkRupture r : direct_list) {
+						direct_map.put (r.getEventId(), r.getMag());
+					}
+					System.out.println ("Results identical = " + cached_map.equals (direct_map));
+				}
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
 		// Unrecognized subcommand.
 
 		System.err.println ("ComcatOAFAccessor : Unrecognized subcommand : " + args[0]);
@@ -0,0 +1,522 @@
+package org.opensha.oaf.comcat;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opensha.commons.geo.Location;
+import org.opensha.commons.param.Parameter;
+import org.opensha.commons.param.impl.StringParameter;
+import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupture;
+
+import org.opensha.commons.data.comcat.ComcatRegion;
+import gov.usgs.earthquake.event.JsonEvent;
+
+
+// Cache of Comcat event list queries, supporting incremental refresh.
+//
+// Forecasts for an aftershock sequence repeatedly query Comcat for the same region, start
+// time, and magnitude range, with an end time that advances each time.  Without a cache, each
+// query downloads the entire sequence again.  This cache holds the result of the previous
+// query, so that a repeated query only needs to fetch:
+//  - Events in the previously covered time window that have been updated since the previous
+//    fetch (using the Comcat updatedafter parameter), which picks up new, modified, and
+//    deleted events.  This query is not restricted by region, depth, or magnitude, so that it
+//    also picks up events that have been revised so they no longer match the query;  those
+//    events are removed from the cached result.
+//  - All events in the part of the time window that was not previously covered.
+// The updates are merged into the cached result.
+//
+// An entry is identified by a key string, which contains all the query parameters except the
+// end time.  Each entry records the end of the time window it covers, the time of the last
+// fetch, and the time of the last full (non-incremental) fetch.  An entry is refreshed with a
+// full fetch when it gets older than the maximum incremental age, so that any change missed
+// by the incremental queries is eventually corrected.  (A change can be missed if Comcat does
+// not report it as an update, for example a deletion that is not reported.)
+//
+// An accessor that needs authoritative results can request a full fetch on every query;
+// its result refreshes the cache entry.
+//
+// The cache is bounded both in the number of entries and the total number of cached events.
+// When either limit is exceeded, the least recently used entries are evicted.
+//
+// Threading: All methods are synchronized, and can be called from multiple threads.
+// Entries are never modified after they are stored; a refresh stores a new entry.
+// Cached ruptures must not be given to callers directly, because a caller could modify them;
+// use copy_rupture.  Cached geojson objects are shared, and must not be modified.
+
+public class ComcatQueryCache {
+
+	//----- Parameters -----
+
+	// Default maximum number of entries.
+
+	public static final int DEF_MAX_ENTRIES = 200;
+
+	// Default maximum total number of cached events.
+
+	public static final long DEF_MAX_EVENTS = 2000000L;
+
+	// Default maximum age of an entry since its last full fetch, in milliseconds (1 hour).
+
+	public static final long DEF_MAX_INCREMENTAL_AGE = 3600000L;
+
+	// Margin subtracted from the last fetch time when requesting updates, in milliseconds (5 minutes).
+	// This allows for clock differences and for Comcat's update latency.
+
+	public static final long UPDATE_MARGIN = 300000L;
+
+	// Current limits.
+
+	private int max_entries;
+	private long max_events;
+	private long max_incremental_age;
+
+
+
+
+	//----- Cached events -----
+
+	// One cached event.
+
+	public static class CachedEvent {
+
+		// The rupture.
+
+		public ObsEqkRupture rup;
+
+		// The geojson, can be null.
+
+		public JsonEvent geojson;
+
+		public CachedEvent (ObsEqkRupture rup, JsonEvent geojson) {
+			this.rup = rup;
+			this.geojson = geojson;
+		}
+	}
+
+
+
+
+	// One cache entry.
+
+	public static class Entry {
+
+		// The events, indexed by event id, in the order received from Comcat.
+
+		public LinkedHashMap<String, CachedEvent> events;
+
+		// The end of the time window covered by the events, in milliseconds since the epoch.
+
+		public long covered_end;
+
+		// The wall-clock time when the last fetch began, in milliseconds since the epoch.
+
+		public long last_fetch;
+
+		// The wall-clock time when the last full fetch began, in milliseconds since the epoch.
+
+		public long last_full_fetch;
+
+		public Entry (LinkedHashMap<String, CachedEvent> events, long covered_end, long last_fetch, long last_full_fetch) {
+			this.events = events;
+			this.covered_end = covered_end;
+			this.last_fetch = last_fetch;
+			this.last_full_fetch = last_full_fetch;
+		}
+	}
+
+
+
+
+	//----- Cache contents -----
+
+	// The entries, in access order (least recently used first).
+
+	private LinkedHashMap<String, Entry> entries;
+
+	// Total number of cached events.
+
+	private long total_events;
+
+
+
+
+	//----- Statistics -----
+
+	// Number of lookups that found a usable entry (incremental fetch).
+
+	private final AtomicLong stat_hits = new AtomicLong (0L);
+
+	// Number of lookups that required a full fetch.
+
+	private final AtomicLong stat_misses = new AtomicLong (0L);
+
+	// Number of full fetches requested by accessors that need authoritative data.
+
+	private final AtomicLong stat_refetch = new AtomicLong (0L);
+
+	// Number of full fetches due to an entry exceeding the maximum incremental age.
+
+	private final AtomicLong stat_expired = new AtomicLong (0L);
+
+	// Number of entries evicted.
+
+	private final AtomicLong stat_evictions = new AtomicLong (0L);
+
+	// Number of events received from full fetches.
+
+	private final AtomicLong stat_full_events = new AtomicLong (0L);
+
+	// Number of events received from incremental fetches.
+
+	private final AtomicLong stat_incr_events = new AtomicLong (0L);
+
+	// Number of events removed because Comcat reported them deleted.
+
+	private final AtomicLong stat_deleted = new AtomicLong (0L);
+
+	// Number of events removed because they were revised so they no longer match the query.
+
+	private final AtomicLong stat_unmatched = new AtomicLong (0L);
+
+
+
+
+	//----- Construction -----
+
+	// Create an empty cache with the default limits.
+
+	public ComcatQueryCache () {
+		max_entries = DEF_MAX_ENTRIES;
+		max_events = DEF_MAX_EVENTS;
+		max_incremental_age = DEF_MAX_INCREMENTAL_AGE;
+		entries = new LinkedHashMap<String, Entry> (16, 0.75f, true);
+		total_events = 0L;
+	}
+
+
+
+
+	//----- Keys -----
+
+	// Make the key for a query.
+	// The key contains all the query parameters except the end time.
+
+	public static String make_key (String service_key, String exclude_id, long startTime,
+			double minDepth, double maxDepth, ComcatRegion region, boolean wrapLon, boolean extendedInfo,
+			double minMag, String productType, boolean includeDeleted) {
+
+		StringBuilder sb = new StringBuilder();
+		sb.append (service_key);
+		sb.append ("|").append (exclude_id);
+		sb.append ("|").append (startTime);
+		sb.append ("|").append (minDepth);
+		sb.append ("|").append (maxDepth);
+		sb.append ("|").append (wrapLon);
+		sb.append ("|").append (extendedInfo);
+		sb.append ("|").append (minMag);
+		sb.append ("|").append (productType);
+		sb.append ("|").append (includeDeleted);
+		sb.append ("|").append (region.getClass().getName());
+		sb.append ("|").append (region.toString());
+		return sb.toString();
+	}
+
+
+
+
+	//----- Operations -----
+
+
+
+
+	// Look up an entry.
+	// Parameters:
+	//  key = Query key.
+	//  time_now = Current wall-clock time.
+	// Returns the entry, or null if there is no usable entry.
+	// An entry that has exceeded the maximum incremental age is removed and null is returned.
+	// Updates the hit/miss statistics.
+
+	public synchronized Entry lookup (String key, long time_now) {
+		Entry entry = entries.get (key);
+
+		if (entry != null && time_now - entry.last_full_fetch > max_incremental_age) {
+			remove_entry (key);
+			entry = null;
+			stat_expired.incrementAndGet();
+		}
+
+		if (entry == null) {
+			stat_misses.incrementAndGet();
+		} else {
+			stat_hits.incrementAndGet();
+		}
+		return entry;
+	}
+
+
+
+
+	// Look up an entry for an accessor that needs authoritative data.
+	// Parameters:
+	//  key = Query key.
+	// Always returns null, so the caller does a full fetch and stores it with store_full.
+	// Updates the refetch statistics.
+
+	public synchronized Entry lookup_refetch (String key) {
+		stat_refetch.incrementAndGet();
+		return null;
+	}
+
+
+
+
+	// Make a copy of a cached rupture, to give to a caller.
+	// The copy has the same event id, time, hypocenter, magnitude, and extended information.
+// (Extended information is held in string parameters, see ComcatLocalCatalogEntry.get_eqk_rupture.)
+	// (Locations are immutable, so the hypocenter is shared.)
+
+	public static ObsEqkRupture copy_rupture (ObsEqkRupture rup) {
+		Location hypo = rup.getHypocenterLocation();
+		ObsEqkRupture result = new ObsEqkRupture (rup.getEventId(), rup.getOriginTime(), hypo, rup.getMag());
+		ListIterator<Parameter<?>> iter = rup.getAddedParametersIterator();
+		if (iter != null) {
+			while (iter.hasNext()) {
+				Parameter<?> param = iter.next();
+				Object value = param.getValue();
+				result.addParameter (new StringParameter (param.getName(), ((value == null) ? null : value.toString())));
+			}
+		}
+		return result;
+	}
+
+
+
+
+	// Store the result of a full fetch.
+	// Parameters:
+	//  key = Query key.
+	//  events = The events, which must not be modified after this call.
+	//  covered_end = End of the time window covered.
+	//  fetch_time = Wall-clock time when the fetch began.
+	// Returns the new entry.
+
+	public synchronized Entry store_full (String key, LinkedHashMap<String, CachedEvent> events, long covered_end, long fetch_time) {
+		stat_full_events.addAndGet (events.size());
+		Entry entry = new Entry (events, covered_end, fetch_time, fetch_time);
+		put_entry (key, entry);
+		return entry;
+	}
+
+
+
+
+	// Merge the result of an incremental fetch and store it.
+	// Parameters:
+	//  key = Query key.
+	//  old_entry = The entry obtained from lookup.
+	//  updates = Events returned by the incremental queries, in the order received.
+	//  f_remove_deleted = True to remove events that Comcat reports as deleted.
+	//  minDepth, maxDepth, region, minMag = Query filters, see matches_query.
+	//  covered_end = End of the time window now covered.
+	//  fetch_time = Wall-clock time when the incremental fetch began.
+	// Returns the new entry.
+	// Updated events replace the cached copies in place, and new events are appended.
+	// Updated events that no longer match the query filters are removed.
+
+	public synchronized Entry store_incremental (String key, Entry old_entry, List<CachedEvent> updates,
+			boolean f_remove_deleted, double minDepth, double maxDepth, ComcatRegion region, double minMag,
+			long covered_end, long fetch_time) {
+
+		stat_incr_events.addAndGet (updates.size());
+
+		LinkedHashMap<String, CachedEvent> events = new LinkedHashMap<String, CachedEvent> (old_entry.events);
+
+		for (CachedEvent ev : updates) {
+			String id = ev.rup.getEventId();
+			if (f_remove_deleted && is_deleted (ev)) {
+				if (events.remove (id) != null) {
+					stat_deleted.incrementAndGet();
+				}
+			} else if (!( matches_query (ev, minDepth, maxDepth, region, minMag) )) {
+				if (events.remove (id) != null) {
+					stat_unmatched.incrementAndGet();
+				}
+			} else {
+				events.put (id, ev);
+			}
+		}
+
+		Entry entry = new Entry (events, Math.max (covered_end, old_entry.covered_end), fetch_time, old_entry.last_full_fetch);
+		put_entry (key, entry);
+		return entry;
+	}
+
+
+
+
+	// Return true if the event matches the query filters.
+	// Parameters:
+	//  ev = The event.
+	//  minDepth = Minimum depth, in km.
+	//  maxDepth = Maximum depth, in km.
+	//  region = Region, which must contain the hypocenter.
+	//  minMag = Minimum magnitude.
+	// This applies the same filters that Comcat applies to an event list query, so that the
+	// results of an unfiltered incremental query can be merged into a filtered cached result.
+
+	public static boolean matches_query (CachedEvent ev, double minDepth, double maxDepth, ComcatRegion region, double minMag) {
+		Location hypo = ev.rup.getHypocenterLocation();
+		if (hypo == null) {
+			return false;
+		}
+		return ev.rup.getMag() >= minMag
+			&& region.contains (hypo.getLatitude(), hypo.getLongitude())
+			&& hypo.getDepth() >= minDepth
+			&& hypo.getDepth() <= maxDepth;
+	}
+
+
+
+
+	// Return true if Comcat reports the event as deleted.
+
+	public static boolean is_deleted (CachedEvent ev) {
+		if (ev.geojson == null) {
+			return false;
+		}
+		String status = GeoJsonUtils.getStatus (ev.geojson);
+		return status != null && status.equalsIgnoreCase ("deleted");
+	}
+
+
+
+
+	// Get the events in an entry within a time range.
+	// Parameters:
+	//  entry = The entry.
+	//  startTime = Start of time range.
+	//  endTime = End of time range (inclusive).
+	// Returns a list of the events.
+
+	public static List<CachedEvent> get_events (Entry entry, long startTime, long endTime) {
+		List<CachedEvent> result = new ArrayList<CachedEvent>();
+		for (CachedEvent ev : entry.events.values()) {
+			long t = ev.rup.getOriginTime();
+			if (t >= startTime && t <= endTime) {
+				result.add (ev);
+			}
+		}
+		return result;
+	}
+
+
+
+
+	// Remove all entries.
+
+	public synchronized void clear () {
+		entries.clear();
+		total_events = 0L;
+		return;
+	}
+
+
+
+
+	// Add or replace an entry, and evict entries if needed.
+
+	private void put_entry (String key, Entry entry) {
+		remove_entry (key);
+		entries.put (key, entry);
+		total_events += entry.events.size();
+
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while ((entries.size() > max_entries || total_events > max_events) && it.hasNext()) {
+			Map.Entry<String, Entry> me = it.next();
+			if (me.getValue() == entry) {
+				break;		// never evict the entry just stored
+			}
+			total_events -= me.getValue().events.size();
+			it.remove();
+			stat_evictions.incrementAndGet();
+		}
+		return;
+	}
+
+
+
+
+	// Remove an entry, if it exists.
+
+	private void remove_entry (String key) {
+		Entry old = entries.remove (key);
+		if (old != null) {
+			total_events -= old.events.size();
+		}
+		return;
+	}
+
+
+
+
+	//----- Limits and statistics -----
+
+	public synchronized void set_limits (int the_max_entries, long the_max_events, long the_max_incremental_age) {
+		max_entries = the_max_entries;
+		max_events = the_max_events;
+		max_incremental_age = the_max_incremental_age;
+		return;
+	}
+
+	public synchronized int get_entry_count () {
+		return entries.size();
+	}
+
+	public synchronized long get_total_events () {
+		return total_events;
+	}
+
+	public final long get_hits () {
+		return stat_hits.get();
+	}
+
+	public final long get_misses () {
+		return stat_misses.get();
+	}
+
+	public void reset_stats () {
+		stat_hits.set (0L);
+		stat_misses.set (0L);
+		stat_refetch.set (0L);
+		stat_expired.set (0L);
+		stat_evictions.set (0L);
+		stat_full_events.set (0L);
+		stat_incr_events.set (0L);
+		stat_deleted.set (0L);
+		stat_unmatched.set (0L);
+		return;
+	}
+
+	public String get_stats_string () {
+		return "hits = " + stat_hits.get()
+			+ ", misses = " + stat_misses.get()
+			+ ", refetch = " + stat_refetch.get()
+			+ ", expired = " + stat_expired.get()
+			+ ", evictions = " + stat_evictions.get()
+			+ ", full_events = " + stat_full_events.get()
+			+ ", incr_events = " + stat_incr_events.get()
+			+ ", deleted = " + stat_deleted.get()
+			+ ", unmatched = " + stat_unmatched.get()
+			+ ", entries = " + get_entry_count()
+			+ ", cached_events = " + get_total_events();
+	}
+
+}
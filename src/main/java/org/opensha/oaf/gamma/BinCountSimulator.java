@@ -0,0 +1,282 @@
+package org.opensha.oaf.gamma;
+
+import java.util.Arrays;
+
+import org.opensha.oaf.comcat.ComcatOAFAccessor;
+import org.opensha.oaf.rj.AftershockStatsCalc;
+
+import org.opensha.oaf.oetas.OERandomGenerator;
+
+
+/**
+ * Direct simulation of aftershock counts in advisory windows and magnitude bins.
+ *
+ * LogLikeSet needs, for each simulation, only the number of aftershocks in each
+ * advisory window and magnitude bin.  Instead of simulating a catalog and then counting
+ * the aftershocks in each bin, this class draws the counts directly.
+ *
+ * The simulation time range is partitioned into elementary intervals at every advisory
+ * window boundary, and the magnitude range is partitioned into elementary bands at every
+ * magnitude bin (and at the mainshock magnitude, if simulations with an aftershock larger
+ * than the mainshock are discarded).  For an R&J model the aftershocks form a Poisson process,
+ * so the number of aftershocks in each (interval, band) cell is an independent Poisson
+ * random variable, whose mean is the R&J expected count in the interval thinned by the
+ * Gutenberg-Richter fraction in the band.  The count for a window and magnitude bin is
+ * then a sum over cells.
+ *
+ * The result has the same distribution as counting a catalog from
+ * AftershockStatsCalc.simAftershockSequence with constant magnitude of completeness,
+ * except that simAftershockSequence caps the number of aftershocks in each of its internal
+ * time steps.  The cost per simulation does not depend on the number of aftershocks.
+ *
+ * After construction, the object is read-only, so it can be shared by several threads,
+ * each with its own random generator and count array.
+ */
+public class BinCountSimulator {
+
+	//----- Parameters -----
+
+	// Mainshock magnitude.
+
+	private double magMain;
+
+	// Gutenberg-Richter b-value.
+
+	private double b;
+
+	// Catalog minimum magnitude, which is the smallest magnitude bin.
+
+	private double magCat;
+
+	// True to discard simulations with an aftershock larger than the mainshock.
+
+	private boolean f_discard;
+
+
+
+
+	//----- Elementary cells -----
+
+	// Elementary interval boundaries, in days; interval i runs from t_bound[i] to t_bound[i+1].
+
+	private double[] t_bound;
+
+	// Number of elementary intervals.
+
+	private int num_int;
+
+	// For each advisory window, the range of elementary intervals it contains, from win_int_lo (inclusive) to win_int_hi (exclusive).
+
+	private int[] win_int_lo;
+	private int[] win_int_hi;
+
+	// Elementary band lower limits, in increasing order; band j runs from mag_level[j] to mag_level[j+1], and the last band is unbounded.
+
+	private double[] mag_level;
+
+	// Number of elementary bands.
+
+	private int num_band;
+
+	// Fraction of aftershocks with magnitude >= magCat that fall in each band.
+
+	private double[] band_frac;
+
+	// For each magnitude bin, the first elementary band it contains (the bin contains all bands from there up).
+
+	private int[] bin_band_lo;
+
+	// The first band that lies above the mainshock magnitude, or num_band if none.
+
+	private int main_band;
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	// Set up the elementary cells.
+	// Parameters:
+	//  gamma_config = Configuration information.
+	//  forecast_lag = Forecast lag, in milliseconds.
+	//  the_magMain = Mainshock magnitude.
+	//  the_b = Gutenberg-Richter b-value.
+	// Time range and magnitude bins are the same as LogLikeSet uses for catalog simulations.
+
+	public BinCountSimulator (GammaConfig gamma_config, long forecast_lag, double the_magMain, double the_b) {
+		magMain = the_magMain;
+		b = the_b;
+		magCat = gamma_config.adv_min_mag_bins[0];
+		f_discard = gamma_config.discard_sim_with_large_as;
+
+		int num_adv_win = gamma_config.adv_window_count;
+		int num_mag_bin = gamma_config.adv_min_mag_bin_count;
+
+		// Simulation time range, in days
+
+		double tMinDays = ((double)(gamma_config.sim_start_off)) / ComcatOAFAccessor.day_millis;
+		double tMaxDays = ((double)(gamma_config.max_forecast_lag + gamma_config.max_adv_window_end_off)) / ComcatOAFAccessor.day_millis;
+
+		// Window limits, clipped to the simulation time range
+
+		double[] win_lo = new double[num_adv_win];
+		double[] win_hi = new double[num_adv_win];
+		for (int i_adv_win = 0; i_adv_win < num_adv_win; ++i_adv_win) {
+			win_lo[i_adv_win] = Math.min (tMaxDays, Math.max (tMinDays, ((double)(forecast_lag + gamma_config.adv_window_start_offs[i_adv_win])) / ComcatOAFAccessor.day_millis));
+			win_hi[i_adv_win] = Math.min (tMaxDays, Math.max (tMinDays, ((double)(forecast_lag + gamma_config.adv_window_end_offs[i_adv_win])) / ComcatOAFAccessor.day_millis));
+		}
+
+		// Elementary interval boundaries are the distinct window limits and the simulation limits
+
+		double[] bounds = new double[2 * num_adv_win + 2];
+		bounds[0] = tMinDays;
+		bounds[1] = tMaxDays;
+		for (int i_adv_win = 0; i_adv_win < num_adv_win; ++i_adv_win) {
+			bounds[2 * i_adv_win + 2] = win_lo[i_adv_win];
+			bounds[2 * i_adv_win + 3] = win_hi[i_adv_win];
+		}
+		t_bound = distinct_sorted (bounds);
+		num_int = t_bound.length - 1;
+
+		win_int_lo = new int[num_adv_win];
+		win_int_hi = new int[num_adv_win];
+		for (int i_adv_win = 0; i_adv_win < num_adv_win; ++i_adv_win) {
+			win_int_lo[i_adv_win] = Arrays.binarySearch (t_bound, win_lo[i_adv_win]);
+			win_int_hi[i_adv_win] = Math.max (win_int_lo[i_adv_win], Arrays.binarySearch (t_bound, win_hi[i_adv_win]));
+		}
+
+		// Elementary band levels are the distinct magnitude bins, not below magCat, and the mainshock magnitude if discarding
+
+		double[] levels = new double[num_mag_bin + 1];
+		for (int i_mag_bin = 0; i_mag_bin < num_mag_bin; ++i_mag_bin) {
+			levels[i_mag_bin] = Math.max (magCat, gamma_config.adv_min_mag_bins[i_mag_bin]);
+		}
+		levels[num_mag_bin] = (f_discard ? Math.max (magCat, magMain) : magCat);
+		mag_level = distinct_sorted (levels);
+		num_band = mag_level.length;
+
+		band_frac = new double[num_band];
+		for (int j = 0; j < num_band; ++j) {
+			double frac_lo = Math.pow (10.0, -b * (mag_level[j] - magCat));
+			double frac_hi = ((j + 1 < num_band) ? Math.pow (10.0, -b * (mag_level[j + 1] - magCat)) : 0.0);
+			band_frac[j] = frac_lo - frac_hi;
+		}
+
+		bin_band_lo = new int[num_mag_bin];
+		for (int i_mag_bin = 0; i_mag_bin < num_mag_bin; ++i_mag_bin) {
+			bin_band_lo[i_mag_bin] = Arrays.binarySearch (mag_level, Math.max (magCat, gamma_config.adv_min_mag_bins[i_mag_bin]));
+		}
+
+		main_band = (f_discard ? Arrays.binarySearch (mag_level, Math.max (magCat, magMain)) : num_band);
+	}
+
+
+
+
+	// Return the distinct values of an array, in increasing order.
+
+	private static double[] distinct_sorted (double[] x) {
+		double[] y = Arrays.copyOf (x, x.length);
+		Arrays.sort (y);
+		int n = 0;
+		for (int i = 0; i < y.length; ++i) {
+			if (n == 0 || y[i] != y[n - 1]) {
+				y[n++] = y[i];
+			}
+		}
+		return Arrays.copyOf (y, n);
+	}
+
+
+
+
+	//----- Simulation -----
+
+
+
+
+	// Sample from a Poisson distribution, allowing a mean of zero.
+
+	private static int poisson_sample (OERandomGenerator rangen, double mean) {
+		if (!( mean > 0.0 )) {
+			return 0;
+		}
+		return rangen.poisson_sample (mean);
+	}
+
+
+
+
+	// Make a workspace array for simulate, dimension [number of intervals][number of bands].
+
+	public int[][] make_workspace () {
+		return new int[num_int][num_band];
+	}
+
+
+
+
+	// Simulate the bin counts for one set of R&J parameters.
+	// Parameters:
+	//  rangen = Random number generator.
+	//  a = R&J productivity.
+	//  p = Omori p-value.
+	//  c = Omori c-value.
+	//  cell_count = Workspace, as returned by make_workspace.
+	//  bin_count = Array to receive the counts, dimension [adv_window_count][adv_min_mag_bin_count].
+	// Returns true if the simulation is accepted, false if it is discarded because it
+	// contains an aftershock larger than the mainshock (in which case bin_count is not filled).
+
+	public boolean simulate (OERandomGenerator rangen, double a, double p, double c, int[][] cell_count, int[][] bin_count) {
+
+		// Expected number of aftershocks with magnitude >= magCat in each interval
+
+		double[] int_mean = new double[num_int];
+		for (int i = 0; i < num_int; ++i) {
+			int_mean[i] = AftershockStatsCalc.getExpectedNumEvents (a, b, magMain, magCat, p, c, t_bound[i], t_bound[i + 1]);
+		}
+
+		// First draw the bands above the mainshock, and discard if any aftershock is there
+
+		for (int i = 0; i < num_int; ++i) {
+			for (int j = main_band; j < num_band; ++j) {
+				cell_count[i][j] = poisson_sample (rangen, int_mean[i] * band_frac[j]);
+				if (cell_count[i][j] > 0) {
+					return false;
+				}
+			}
+		}
+
+		// Draw the remaining bands, accumulating from the top band down so each entry is the count at or above its level
+
+		for (int i = 0; i < num_int; ++i) {
+			int cum = 0;
+			for (int j = num_band - 1; j >= 0; --j) {
+				if (j < main_band) {
+					cell_count[i][j] = poisson_sample (rangen, int_mean[i] * band_frac[j]);
+				}
+				cum += cell_count[i][j];
+				cell_count[i][j] = cum;
+			}
+		}
+
+		// Sum the intervals in each window
+
+		for (int i_adv_win = 0; i_adv_win < win_int_lo.length; ++i_adv_win) {
+			for (int i_mag_bin = 0; i_mag_bin < bin_band_lo.length; ++i_mag_bin) {
+				int j = bin_band_lo[i_mag_bin];
+				int total = 0;
+				for (int i = win_int_lo[i_adv_win]; i < win_int_hi[i_adv_win]; ++i) {
+					total += cell_count[i][j];
+				}
+				bin_count[i_adv_win][i_mag_bin] = total;
+			}
+		}
+
+		return true;
+	}
+
+}
@@ -0,0 +1,483 @@
+package org.opensha.oaf.gamma;
+
+import java.util.List;
+import java.util.ArrayList;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import org.opensha.oaf.comcat.ComcatOAFAccessor;
+
+import org.opensha.oaf.aafs.ServerConfig;
+import org.opensha.oaf.aafs.ForecastMainshock;
+
+import org.opensha.oaf.util.AutoExecutorService;
+import org.opensha.oaf.util.MarshalImpDataReader;
+import org.opensha.oaf.util.MarshalImpDataWriter;
+
+
+/**
+ * Parallel, checkpointed runner for the gamma test.
+ *
+ * This computes the EqkForecastSet for each event in a list, and sums them into a
+ * total EqkForecastSet, producing the same result as the gamma_table command.
+ *
+ * Events are processed in parallel.  Each worker thread has its own GammaConfig,
+ * so that each thread has its own random number generator.
+ *
+ * Aftershocks are read from the local catalog selected in the server configuration,
+ * rather than from Comcat.  The local catalog is loaded once and shared by all threads.
+ * It is an error if no local catalog is configured.
+ *
+ * If a checkpoint file is given, then the EqkForecastSet for each event is appended
+ * to the file as soon as it is computed.  When a run starts, any events already in the
+ * checkpoint file are loaded instead of being recomputed, so an interrupted run resumes
+ * where it left off.  The checkpoint file is a binary marshaled file, containing one
+ * top-level map for each event, with the index and id of the event.  A partial record
+ * at the end of the file (from an interrupted write) is discarded.
+ *
+ * Events are summed into the total in the order they appear in the list, as each
+ * event becomes available, so at most the out-of-order events are held in memory.
+ * If an event fails, its slot is skipped and merging continues with the following
+ * events, so one failure does not hold the remaining events in memory.  The failures
+ * are reported at the end of the run.  The total is then incomplete, and the run can
+ * be repeated to retry the failed events.
+ */
+public class GammaBatchRunner {
+
+	//----- Configuration -----
+
+	// The number of threads to use.
+
+	private int num_threads;
+
+	// The checkpoint filename, or null if none.
+
+	private String checkpoint_filename;
+
+
+
+
+	//----- Results -----
+
+	// Configuration used for summing the events.
+
+	private GammaConfig gamma_config;
+
+	// The list of event ids.
+
+	private List<String> event_ids;
+
+	// Total earthquake forecast set.
+
+	private EqkForecastSet total;
+
+	// The number of events computed in this run.
+
+	private int events_computed;
+
+	// The number of events loaded from the checkpoint file.
+
+	private int events_resumed;
+
+	// The list of event ids that failed.
+
+	private List<String> failed_ids;
+
+
+
+
+	//----- Merge state -----
+
+	// The index of the next event to sum into the total.
+
+	private int next_merge;
+
+	// Events that are available but not yet summed, indexed by position in the event list.
+
+	private EqkForecastSet[] pending;
+
+	// True for each event that is available, either computed or loaded from the checkpoint.
+
+	private boolean[] f_done;
+
+	// True for each event that failed, whose slot is skipped when merging.
+
+	private boolean[] f_failed;
+
+	// The checkpoint output stream and writer, or null if no checkpoint file.
+
+	private DataOutputStream checkpoint_out;
+	private MarshalImpDataWriter checkpoint_writer;
+
+
+
+
+	//----- Construction -----
+
+	// Create a runner.
+	// Parameters:
+	//  the_num_threads = Number of threads to use, or 0 to use the default number of threads.
+	//  the_checkpoint_filename = Checkpoint filename, or null if none.
+
+	public GammaBatchRunner (int the_num_threads, String the_checkpoint_filename) {
+		num_threads = ((the_num_threads > 0) ? the_num_threads : AutoExecutorService.get_default_num_threads());
+		checkpoint_filename = the_checkpoint_filename;
+
+		gamma_config = null;
+		event_ids = null;
+		total = null;
+		events_computed = 0;
+		events_resumed = 0;
+		failed_ids = new ArrayList<String>();
+	}
+
+
+
+
+	// Get the configuration used for summing the events.
+
+	public GammaConfig get_gamma_config () {
+		return gamma_config;
+	}
+
+	// Get the total earthquake forecast set.
+
+	public EqkForecastSet get_total () {
+		return total;
+	}
+
+	// Get the number of events computed in this run.
+
+	public int get_events_computed () {
+		return events_computed;
+	}
+
+	// Get the number of events loaded from the checkpoint file.
+
+	public int get_events_resumed () {
+		return events_resumed;
+	}
+
+	// Get the list of event ids that failed.
+
+	public List<String> get_failed_ids () {
+		return failed_ids;
+	}
+
+	// Return true if all events were summed into the total.
+
+	public boolean is_complete () {
+		return failed_ids.isEmpty() && event_ids != null && next_merge == event_ids.size();
+	}
+
+
+
+
+	//----- Checkpoint -----
+
+
+
+
+	// Load the checkpoint file, if it exists, and open it for appending.
+	// Records are validated against the event list.
+	// The file is rewritten with the valid records, which removes any partial record at the end.
+
+	private void open_checkpoint () throws IOException {
+		if (checkpoint_filename == null) {
+			return;
+		}
+
+		// Read all complete records
+
+		List<Integer> loaded = new ArrayList<Integer>();
+
+		if ((new File (checkpoint_filename)).exists()) {
+			try (
+				MarshalImpDataReader reader = new MarshalImpDataReader (checkpoint_filename, true);
+			){
+				for (;;) {
+					int index;
+					String event_id;
+					EqkForecastSet eqk_forecast_set;
+					try {
+						reader.unmarshalMapBegin (null);
+						index = reader.unmarshalInt ("event_index");
+						event_id = reader.unmarshalString ("event_id");
+						eqk_forecast_set = EqkForecastSet.unmarshal_poly (reader, "eqk_forecast_set");
+						reader.unmarshalMapEnd ();
+					}
+					catch (Exception e) {
+						break;		// end of file, or partial record
+					}
+
+					if (!( index >= 0 && index < event_ids.size() && event_ids.get(index).equals (event_id) )) {
+						throw new RuntimeException ("GammaBatchRunner.open_checkpoint: Checkpoint file does not match event list: index = " + index + ", event_id = " + event_id);
+					}
+					if (!( f_done[index] )) {
+						f_done[index] = true;
+						pending[index] = eqk_forecast_set;
+						loaded.add (index);
+					}
+				}
+			}
+		}
+
+		// Rewrite the file with the valid records, using a temporary file so no records are lost if interrupted
+
+		String temp_filename = checkpoint_filename + ".tmp";
+
+		checkpoint_out = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (temp_filename)));
+		checkpoint_writer = new MarshalImpDataWriter (checkpoint_out, true);
+
+		for (int index : loaded) {
+			write_checkpoint (index, pending[index]);
+		}
+
+		close_checkpoint();
+		Files.move (Paths.get (temp_filename), Paths.get (checkpoint_filename), StandardCopyOption.REPLACE_EXISTING);
+
+		// Open the file for appending
+
+		checkpoint_out = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (checkpoint_filename, true)));
+		checkpoint_writer = new MarshalImpDataWriter (checkpoint_out, true);
+
+		events_resumed = loaded.size();
+		return;
+	}
+
+
+
+
+	// Write one record to the checkpoint file, and flush it.
+	// Must be called while synchronized, or before threads are started.
+
+	private void write_checkpoint (int index, EqkForecastSet eqk_forecast_set) throws IOException {
+		if (checkpoint_writer == null) {
+			return;
+		}
+		checkpoint_writer.marshalMapBegin (null);
+		checkpoint_writer.marshalInt ("event_index", index);
+		checkpoint_writer.marshalString ("event_id", event_ids.get(index));
+		EqkForecastSet.marshal_poly (checkpoint_writer, "eqk_forecast_set", eqk_forecast_set);
+		checkpoint_writer.marshalMapEnd ();
+		checkpoint_out.flush();
+		return;
+	}
+
+
+
+
+	// Close the checkpoint file.
+
+	private void close_checkpoint () throws IOException {
+		if (checkpoint_writer != null) {
+			checkpoint_writer.close();
+			checkpoint_writer = null;
+			checkpoint_out = null;
+		}
+		return;
+	}
+
+
+
+
+	//----- Merging -----
+
+
+
+
+	// Sum all available events at the front of the list into the total.
+	// Failed events at the front of the list are skipped.
+	// Must be called while synchronized, or before threads are started.
+
+	private void merge_available () {
+		while (next_merge < event_ids.size() && (pending[next_merge] != null || f_failed[next_merge])) {
+			if (pending[next_merge] != null) {
+				total.add_from (gamma_config, pending[next_merge], gamma_config.eqk_summation_randomize);
+				pending[next_merge] = null;
+			}
+			++next_merge;
+		}
+		return;
+	}
+
+
+
+
+	// Called by a worker thread when an event has been computed.
+
+	private synchronized void event_completed (int index, EqkForecastSet eqk_forecast_set) throws IOException {
+		++events_computed;
+		f_done[index] = true;
+		pending[index] = eqk_forecast_set;
+		write_checkpoint (index, eqk_forecast_set);
+		merge_available();
+		return;
+	}
+
+
+
+
+	// Called by a worker thread when an event has failed.
+	// The failure is recorded, and merging continues past the event's slot.
+
+	private synchronized void event_failed (int index, Exception e) {
+		f_failed[index] = true;
+		failed_ids.add (event_ids.get(index));
+		System.out.println ("Event " + (index + 1) + " failed: " + event_ids.get(index));
+		e.printStackTrace (System.out);
+		merge_available();
+		return;
+	}
+
+
+
+
+	//----- Execution -----
+
+
+
+
+	// Process a list of events.
+	// Parameters:
+	//  the_event_ids = List of event ids.
+	// On return, the total contains the sum over all events, if is_complete() returns true.
+
+	public void run (List<String> the_event_ids) {
+
+		// The local catalog is required, so that no Comcat calls are made
+
+		ServerConfig server_config = new ServerConfig();
+		if (server_config.get_locat_filenames() == null || server_config.get_locat_filenames().isEmpty()) {
+			throw new RuntimeException ("GammaBatchRunner.run: No local catalog is configured");
+		}
+		ComcatOAFAccessor.load_local_catalog();
+
+		// Initialize
+
+		event_ids = new ArrayList<String> (the_event_ids);
+		final int num_events = event_ids.size();
+
+		gamma_config = new GammaConfig();
+		total = new EqkForecastSet();
+		total.zero_init (gamma_config, gamma_config.eqk_summation_count);
+
+		events_computed = 0;
+		events_resumed = 0;
+		failed_ids = new ArrayList<String>();
+		next_merge = 0;
+		pending = new EqkForecastSet[num_events];
+		f_done = new boolean[num_events];
+		f_failed = new boolean[num_events];
+
+		try {
+
+			// Resume from the checkpoint
+
+			open_checkpoint();
+			merge_available();
+
+			if (checkpoint_filename != null) {
+				System.out.println ("Events loaded from checkpoint = " + events_resumed);
+			}
+
+			// Counter used by threads to claim events
+
+			final AtomicInteger next_event = new AtomicInteger (0);
+
+			// The task, which processes events until all are claimed
+
+			Runnable task = new Runnable() {
+				@Override
+				public void run () {
+					GammaConfig worker_config = new GammaConfig();
+					for (int index = next_event.getAndIncrement(); index < num_events; index = next_event.getAndIncrement()) {
+						if (f_done[index]) {
+							continue;
+						}
+						String the_event_id = event_ids.get(index);
+						System.out.println ("Processing event " + (index + 1) + ": " + the_event_id);
+						try {
+
+							// Fetch the mainshock info
+
+							ForecastMainshock fcmain = new ForecastMainshock();
+							fcmain.setup_mainshock_only (the_event_id);
+
+							// Compute models
+
+							EqkForecastSet eqk_forecast_set = new EqkForecastSet();
+							eqk_forecast_set.run_simulations (worker_config,
+								worker_config.simulation_count, fcmain, false);
+
+							event_completed (index, eqk_forecast_set);
+						}
+						catch (Exception e) {
+							event_failed (index, e);
+						}
+					}
+				}
+			};
+
+			// Run the task in the executor threads and in this thread
+
+			int threads = Math.max (1, Math.min (num_threads, num_events - events_resumed));
+
+			if (threads <= 1) {
+				task.run();
+			}
+			else {
+				try (
+					AutoExecutorService auto_executor = new AutoExecutorService (threads - 1);
+				) {
+					ExecutorService executor = auto_executor.get_executor();
+					List<Future<?>> futures = new ArrayList<Future<?>>();
+					for (int n = 1; n < threads; ++n) {
+						futures.add (executor.submit (task));
+					}
+
+					task.run();
+
+					for (Future<?> future : futures) {
+						future.get();
+					}
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException ("GammaBatchRunner.run: Interrupted while processing events", e);
+		}
+		catch (Exception e) {
+			throw new RuntimeException ("GammaBatchRunner.run: Exception while processing events", e);
+		}
+		finally {
+			try {
+				close_checkpoint();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+
+		// Report failures (the caller can list them with get_failed_ids)
+
+		if (!( failed_ids.isEmpty() )) {
+			System.out.println ("Events failed = " + failed_ids.size() + ", events summed = " + (num_events - failed_ids.size()));
+		}
+
+		return;
+	}
+
+}
@@ -406,6 +406,164 @@ public class GammaCmd {
 
 
 
+	// cmd_batch_gamma_table - Write the gamma table for a list of earthquakes, using parallel threads and a checkpoint file.
+	// Command format:
+	//  batch_gamma_table  log_filename  event_list_filename  gamma_table_filename  checkpoint_filename  num_threads
+	// Read the list of events, and for each event compute the log-likelihoods and event counts.
+	// Sum over all events, and write the combined tables.
+	// The result is the same as gamma_table, except that events are processed in parallel
+	// using num_threads threads (0 for the default number of threads), and aftershocks are
+	// read from the local catalog rather than from Comcat.
+	// Each event's results are appended to the checkpoint file.  If the checkpoint file exists,
+	// events already in it are not recomputed, so an interrupted run can be resumed by repeating
+	// the command.  Use "-" for checkpoint_filename to run without a checkpoint file.
+	// If any event fails, the tables are not written, and the command can be repeated to retry.
+	//
+	// Usage requirements:
+	// Set up ServerConfig.json to read from a local catalog, with "locat_filenames".
+	// Set up ActionConfig.json to contain the desired forecast advisory windows and magnitude bins.
+	// Typical ActionConfig.json setup is:
+	//  "adv_min_mag_bins": [ 5.00, 6.00, 7.00 ],
+	//  "adv_window_start_offs": [ "P0D", "P0D", "P0D", "P0D", "-P365D" ],
+	//  "adv_window_end_offs": [ "P1D", "P7D", "P30D", "P365D", "P0D" ],
+	//  "adv_window_names": [ "1 Day", "1 Week", "1 Month", "1 Year", "Retro" ],
+
+	public static void cmd_batch_gamma_table(String[] args) {
+
+		// 5 additional arguments
+
+		if (args.length != 6) {
+			System.err.println ("GammaCmd : Invalid 'batch_gamma_table' subcommand");
+			return;
+		}
+
+		String log_filename = args[1];
+
+		// Redirect to the log file
+
+		try (
+
+			// Console redirection and log
+
+			ConsoleRedirector con_red = ConsoleRedirector.make_redirector (
+				new BufferedOutputStream (new FileOutputStream (log_filename)), true, true);
+
+		){
+
+			try {
+
+				// Parse arguments
+
+				String event_list_filename = args[2];
+				String gamma_table_filename = args[3];
+				String checkpoint_filename = args[4];
+				if (checkpoint_filename.equals ("-")) {
+					checkpoint_filename = null;
+				}
+				int num_threads = Integer.parseInt (args[5]);
+
+				// Say hello
+
+				System.out.println ("Command line:");
+				System.out.println (String.join ("  ", args));
+				System.out.println ("");
+
+				System.out.println ("Event list filename: " + event_list_filename);
+				System.out.println ("Gamma table filename: " + gamma_table_filename);
+				System.out.println ("Checkpoint filename: " + ((checkpoint_filename == null) ? "<none>" : checkpoint_filename));
+				System.out.println ("Number of threads: " + num_threads);
+				System.out.println ("");
+
+				// Adjust verbosity
+
+				ComcatOAFAccessor.load_local_catalog();	// So catalog in use is displayed
+				AftershockVerbose.set_verbose_mode (false);
+				System.out.println ("");
+
+				// Read the list of events
+
+				List<String> event_ids = new ArrayList<String>();
+
+				try (
+					Scanner scanner = new Scanner (new BufferedReader (new FileReader (event_list_filename)));
+				){
+					while (scanner.hasNext()) {
+						event_ids.add (scanner.next());
+					}
+				}
+
+				// Run the events
+
+				GammaBatchRunner runner = new GammaBatchRunner (num_threads, checkpoint_filename);
+				runner.run (event_ids);
+
+				System.out.println (runner.get_gamma_config().toString());
+				System.out.println ("");
+
+				// If any event failed, report them and stop
+
+				if (!( runner.is_complete() )) {
+					System.out.println ("");
+					System.out.println ("Events failed = " + runner.get_failed_ids().size());
+					for (String failed_id : runner.get_failed_ids()) {
+						System.out.println ("  " + failed_id);
+					}
+					System.out.println ("Gamma table not written, repeat the command to retry the failed events");
+				}
+
+				// Otherwise, write the tables
+
+				else {
+
+					// Open the output file
+
+					try (
+						Writer writer = new BufferedWriter (new FileWriter (gamma_table_filename));
+					){
+						// Compute the gamma table and statistics table
+
+						EqkForecastSet total = runner.get_total();
+						String gamma_table = total.single_event_gamma_to_string (runner.get_gamma_config());
+						String stats_table = total.compute_count_stats_to_string (runner.get_gamma_config());
+
+						// Write to file
+
+						writer.write (gamma_table);
+						writer.write ("\n");
+						writer.write (stats_table);
+					}
+				}
+
+				// Display the result
+
+				System.out.println ("");
+				System.out.println ("Events processed = " + event_ids.size());
+				System.out.println ("Events computed = " + runner.get_events_computed());
+				System.out.println ("Events loaded from checkpoint = " + runner.get_events_resumed());
+
+			}
+
+			// Report any uncaught exceptions
+
+			catch (Exception e) {
+				System.out.println ("cmd_batch_gamma_table had an exception");
+				e.printStackTrace();
+			}
+		}
+
+		// Report any uncaught exceptions
+
+		catch (Exception e) {
+			System.out.println ("cmd_batch_gamma_table had an exception");
+			e.printStackTrace();
+		}
+
+		return;
+	}
+
+
+
+
 	// cmd_zepi_gamma_table - Write the gamma table for a list of earthquakes,
 	// using zero epistemic uncertainty when running simulations.
 	// Command format:
@@ -2501,6 +2659,33 @@ public class GammaCmd {
 			return;
 
 
+		// Subcommand : cmd_batch_gamma_table
+		// Command format:
+		//  batch_gamma_table  log_filename  event_list_filename  gamma_table_filename  checkpoint_filename  num_threads
+		// Read the list of events, and for each event compute the log-likelihoods and event counts.
+		// Sum over all events, and write the combined tables.
+		// Events are processed in parallel using num_threads threads (0 for default), reading
+		// aftershocks from the local catalog.  Results are saved in the checkpoint file, so an
+		// interrupted run can be resumed.  Use "-" for checkpoint_filename if no checkpoint file.
+		//
+		// Usage requirements:
+		// Set up ServerConfig.json to read from a local catalog, with "locat_filenames".
+		// Set up ActionConfig.json to contain the desired forecast advisory windows and magnitude bins.
+		// Typical ActionConfig.json setup is:
+		//  "adv_min_mag_bins": [ 5.00, 6.00, 7.00 ],
+		//  "adv_window_start_offs": [ "P0D", "P0D", "P0D", "P0D", "-P365D" ],
+		//  "adv_window_end_offs": [ "P1D", "P7D", "P30D", "P365D", "P0D" ],
+		//  "adv_window_names": [ "1 Day", "1 Week", "1 Month", "1 Year", "Retro" ],
+
+		case "batch_gamma_table":
+			try {
+				cmd_batch_gamma_table(args);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			return;
+
+
 		// Subcommand : cmd_zepi_gamma_table
 		// Command format:
 		//  gamma_table  log_filename  event_list_filename  gamma_table_filename
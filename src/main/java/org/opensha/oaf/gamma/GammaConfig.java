@@ -113,6 +113,32 @@ public class GammaConfig {
 
 	public int bayesian_min_aftershocks;
 
+	// True to simulate bin counts directly with BinCountSimulator, false to simulate and count catalogs.
+
+	public boolean direct_simulation;
+
+	// Number of threads to use for direct simulations.
+
+	public int simulation_threads;
+
+
+
+
+	//----- Defaults -----
+
+	// The default for direct_simulation.
+	// It is selected by the system property "oafgammasim", which can be "direct" or "catalog".
+	// The default is catalog, so the gamma test uses AftershockStatsCalc.simAftershockSequence
+	// unless direct simulation is requested.
+
+	public static final boolean default_direct_simulation = SimpleUtils.is_property_value ("oafgammasim", "direct");
+
+	// The default for simulation_threads.
+	// It is selected by the system property "oafgammathreads", which can be an integer >= 1,
+	// or "default" to use AutoExecutorService.get_default_num_threads.  The default is 1.
+
+	public static final int default_simulation_threads = SimpleUtils.get_property_num_threads ("oafgammathreads", 1);
+
 
 
 
@@ -163,6 +189,8 @@ public class GammaConfig {
 		no_epistemic_uncertainty = false;
 		seq_spec_min_aftershocks = 1;
 		bayesian_min_aftershocks = 0;
+		direct_simulation = default_direct_simulation;
+		simulation_threads = default_simulation_threads;
 	}
 
 
@@ -242,6 +270,8 @@ public class GammaConfig {
 		result.append ("no_epistemic_uncertainty = " + no_epistemic_uncertainty + "\n");
 		result.append ("seq_spec_min_aftershocks = " + seq_spec_min_aftershocks + "\n");
 		result.append ("bayesian_min_aftershocks = " + bayesian_min_aftershocks + "\n");
+		result.append ("direct_simulation = " + direct_simulation + "\n");
+		result.append ("simulation_threads = " + simulation_threads + "\n");
 
 		return result.toString();
 	}
@@ -1,8 +1,13 @@
 package org.opensha.oaf.gamma;
 
 import java.util.List;
+import java.util.ArrayList;
 import java.util.Arrays;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupList;
 import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupture;
 
@@ -16,7 +21,10 @@ import org.opensha.oaf.aafs.ForecastMainshock;
 import org.opensha.oaf.aafs.ForecastParameters;
 import org.opensha.oaf.aafs.ForecastResults;
 
+import org.opensha.oaf.oetas.OERandomGenerator;
+
 import org.opensha.oaf.util.SimpleUtils;
+import org.opensha.oaf.util.AutoExecutorService;
 import org.opensha.oaf.util.MarshalReader;
 import org.opensha.oaf.util.MarshalWriter;
 import org.opensha.oaf.util.MarshalException;
@@ -88,6 +96,12 @@ public class LogLikeSet {
 	
 	private int[][] obs_event_count;
 
+	// Number of simulations discarded by the last call to run_simulations, because
+	// they contained an aftershock larger than the mainshock.
+	// This is for testing, and is not marshaled.
+
+	private int num_discarded;
+
 
 
 
@@ -104,6 +118,7 @@ public class LogLikeSet {
 		sim_event_count = null;
 		obs_log_like = null;
 		obs_event_count = null;
+		num_discarded = 0;
 	}
 
 
@@ -130,6 +145,7 @@ public class LogLikeSet {
 		// Adjust zero flag
 
 		is_zero = false;
+		num_discarded = 0;
 
 		// Number of advisory windows and magnitude bins
 
@@ -166,6 +182,13 @@ public class LogLikeSet {
 			}
 		}
 
+		// If selected, simulate the bin counts directly
+
+		if (gamma_config.direct_simulation) {
+			run_direct_simulations (gamma_config, fcmain, model, prob_dist_set, verbose);
+			return;
+		}
+
 		// Loop to compute simulations
 
 		int i_sim = 0;
@@ -209,6 +232,7 @@ public class LogLikeSet {
 			// If the simulation has an aftershock larger than the mainshock, discard it
 
 			if (gamma_config.discard_sim_with_large_as && max_mag > magMain) {
+				++num_discarded;
 				if (verbose) {
 					System.out.println ("Discarding simulation, max_mag = " + max_mag);
 				}
@@ -242,6 +266,137 @@ public class LogLikeSet {
 
 
 
+	// Minimum number of simulations per thread, for using multiple threads.
+
+	private static final int MIN_SIM_PER_THREAD = 100;
+
+
+
+
+	// Run simulations by drawing the bin counts directly, without simulating catalogs.
+	// Parameters:
+	//  gamma_config = Configuration information.
+	//  fcmain = Mainshock information.
+	//  model = RJ aftershock model, including transient data.
+	//  prob_dist_set = Probability distribution of the model.
+	//  verbose = True to write output for each simulation.
+	// The arrays must already be allocated, and forecast_lag and num_sim must be set.
+	// Simulations are run in parallel, using up to gamma_config.simulation_threads threads.
+	// Simulation i_sim uses stream i_sim of a counter-based random generator, so each
+	// simulation has an independent random stream, and the results do not depend on the
+	// number of threads.
+
+	private void run_direct_simulations (final GammaConfig gamma_config, ForecastMainshock fcmain,
+		final RJ_AftershockModel model, final ProbDistSet prob_dist_set, final boolean verbose) {
+
+		// Number of advisory windows and magnitude bins
+
+		final int num_adv_win = gamma_config.adv_window_count;
+		final int num_mag_bin = gamma_config.adv_min_mag_bin_count;
+
+		// The simulator, and the master seed for the random streams
+
+		final BinCountSimulator simulator = new BinCountSimulator (gamma_config, forecast_lag, fcmain.mainshock_mag, model.get_b());
+		final long master_seed = OERandomGenerator.make_master_seed();
+
+		// Sample once so the model's cumulative distribution is built before threads start
+
+		double[] apc_init = new double[3];
+		model.sample_apc (0.5, apc_init);
+
+		// Counter used by threads to claim simulations, and counter of discarded simulations
+
+		final AtomicInteger next_sim = new AtomicInteger (0);
+		final AtomicInteger discard_count = new AtomicInteger (0);
+
+		// The task, which runs simulations until all are claimed
+
+		Runnable task = new Runnable() {
+			@Override
+			public void run () {
+				OERandomGenerator rangen = new OERandomGenerator (master_seed, 0L);
+				int[][] cell_count = simulator.make_workspace();
+				int[][] bin_count = new int[num_adv_win][num_mag_bin];
+				double[] apcval = new double[3];
+
+				for (int i_sim = next_sim.getAndIncrement(); i_sim < num_sim; i_sim = next_sim.getAndIncrement()) {
+					rangen.set_stream (master_seed, (long)i_sim);
+
+					// Sample a/p/c parameters and simulate, until a simulation is not discarded
+
+					for (;;) {
+						model.sample_apc (rangen.uniform_sample (0.0, 1.0), apcval);
+						if (simulator.simulate (rangen, apcval[0], apcval[1], apcval[2], cell_count, bin_count)) {
+							break;
+						}
+						discard_count.incrementAndGet();
+						if (verbose) {
+							System.out.println ("Discarding simulation " + i_sim);
+						}
+					}
+
+					// Compute the log-likelihoods for the simulated counts
+
+					double[][] log_like = prob_dist_set.compute_log_like (gamma_config, bin_count);
+
+					for (int i_adv_win = 0; i_adv_win < num_adv_win; ++i_adv_win) {
+						for (int i_mag_bin = 0; i_mag_bin < num_mag_bin; ++i_mag_bin) {
+							sim_event_count[i_adv_win][i_mag_bin][i_sim] = bin_count[i_adv_win][i_mag_bin];
+							sim_log_like[i_adv_win][i_mag_bin][i_sim] = log_like[i_adv_win][i_mag_bin];
+						}
+					}
+
+					if (verbose) {
+						System.out.println ("Simulation " + i_sim + ", count = " + bin_count[0][0]);
+					}
+				}
+			}
+		};
+
+		// The number of threads to use, at least one
+
+		int threads = Math.max (1, Math.min (gamma_config.simulation_threads, num_sim / MIN_SIM_PER_THREAD));
+
+		// If single-threaded, just run it
+
+		if (threads <= 1) {
+			task.run();
+			num_discarded = discard_count.get();
+			return;
+		}
+
+		// Run the task in the executor threads and in this thread
+
+		try (
+			AutoExecutorService auto_executor = new AutoExecutorService (threads - 1);
+		) {
+			ExecutorService executor = auto_executor.get_executor();
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int n = 1; n < threads; ++n) {
+				futures.add (executor.submit (task));
+			}
+
+			task.run();
+
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException ("LogLikeSet.run_direct_simulations: Interrupted while running simulations", e);
+		}
+		catch (Exception e) {
+			throw new RuntimeException ("LogLikeSet.run_direct_simulations: Exception while running simulations", e);
+		}
+
+		num_discarded = discard_count.get();
+		return;
+	}
+
+
+
+
 	// Allocate and zero-initialize all arrays.
 	// Parameters:
 	//  gamma_config = Configuration information.
@@ -258,6 +413,7 @@ public class LogLikeSet {
 		// Adjust zero flag
 
 		is_zero = true;
+		num_discarded = 0;
 
 		// Number of advisory windows and magnitude bins
 
@@ -1108,6 +1264,115 @@ public class LogLikeSet {
 
 
 
+	// Test routine, to compare direct simulation of bin counts with simulation of catalogs.
+	// Parameters are the same as run_simulations.
+	// Simulations are run both ways for the same model.  For each advisory window and
+	// magnitude bin, this displays the mean count from each method, the difference of the
+	// means in units of its standard error, and the standard deviation from each method.
+	// It also displays the fraction of simulations accepted by each method.
+	// If the two methods agree, the differences should mostly be less than 2 or 3 in magnitude.
+	// They can differ when simAftershockSequence hits its cap on the number of aftershocks
+	// in a time step, which happens only for very productive models.
+
+	private static void compare_direct_to_catalog (GammaConfig gamma_config, long the_forecast_lag, int the_num_sim,
+		ForecastMainshock fcmain, RJ_AftershockModel model, List<ObsEqkRupture> all_aftershocks, boolean verbose) {
+
+		// Number of advisory windows and magnitude bins
+
+		int num_adv_win = gamma_config.adv_window_count;
+		int num_mag_bin = gamma_config.adv_min_mag_bin_count;
+
+		// Run simulations both ways
+
+		boolean saved_direct_simulation = gamma_config.direct_simulation;
+
+		LogLikeSet catalog_set = new LogLikeSet();
+		LogLikeSet direct_set = new LogLikeSet();
+
+		long catalog_time;
+		long direct_time;
+
+		try {
+			gamma_config.direct_simulation = false;
+			catalog_time = System.currentTimeMillis();
+			catalog_set.run_simulations (gamma_config, the_forecast_lag, the_num_sim,
+				fcmain, model, all_aftershocks, verbose);
+			catalog_time = System.currentTimeMillis() - catalog_time;
+
+			gamma_config.direct_simulation = true;
+			direct_time = System.currentTimeMillis();
+			direct_set.run_simulations (gamma_config, the_forecast_lag, the_num_sim,
+				fcmain, model, all_aftershocks, verbose);
+			direct_time = System.currentTimeMillis() - direct_time;
+		}
+		finally {
+			gamma_config.direct_simulation = saved_direct_simulation;
+		}
+
+		// Display acceptance rates and times
+
+		System.out.println (
+			"catalog: accepted = " + the_num_sim + ",  "
+			+ "discarded = " + catalog_set.num_discarded + ",  "
+			+ "rate = " + String.format ("%.4f", ((double)the_num_sim) / ((double)(the_num_sim + catalog_set.num_discarded))) + ",  "
+			+ "time = " + catalog_time + " ms"
+		);
+		System.out.println (
+			"direct:  accepted = " + the_num_sim + ",  "
+			+ "discarded = " + direct_set.num_discarded + ",  "
+			+ "rate = " + String.format ("%.4f", ((double)the_num_sim) / ((double)(the_num_sim + direct_set.num_discarded))) + ",  "
+			+ "time = " + direct_time + " ms"
+		);
+		System.out.println ("");
+
+		// Display mean counts
+
+		for (int i_adv_win = 0; i_adv_win < num_adv_win; ++i_adv_win) {
+			for (int i_mag_bin = 0; i_mag_bin < num_mag_bin; ++i_mag_bin) {
+				int[] catalog_counts = catalog_set.sim_event_count[i_adv_win][i_mag_bin];
+				int[] direct_counts = direct_set.sim_event_count[i_adv_win][i_mag_bin];
+
+				double catalog_mean = 0.0;
+				double direct_mean = 0.0;
+				for (int i_sim = 0; i_sim < the_num_sim; ++i_sim) {
+					catalog_mean += (double)(catalog_counts[i_sim]);
+					direct_mean += (double)(direct_counts[i_sim]);
+				}
+				catalog_mean /= ((double)the_num_sim);
+				direct_mean /= ((double)the_num_sim);
+
+				double catalog_var = 0.0;
+				double direct_var = 0.0;
+				for (int i_sim = 0; i_sim < the_num_sim; ++i_sim) {
+					double dc = ((double)(catalog_counts[i_sim])) - catalog_mean;
+					double dd = ((double)(direct_counts[i_sim])) - direct_mean;
+					catalog_var += dc * dc;
+					direct_var += dd * dd;
+				}
+				catalog_var /= ((double)Math.max (1, the_num_sim - 1));
+				direct_var /= ((double)Math.max (1, the_num_sim - 1));
+
+				double std_err = Math.sqrt ((catalog_var + direct_var) / ((double)the_num_sim));
+				double z = ((std_err > 0.0) ? ((direct_mean - catalog_mean) / std_err) : 0.0);
+
+				System.out.println (
+					gamma_config.adv_window_names[i_adv_win] + ",  "
+					+ "mag = " + gamma_config.adv_min_mag_bins[i_mag_bin] + ",  "
+					+ "cm = " + String.format ("%.3f", catalog_mean) + ",  "
+					+ "dm = " + String.format ("%.3f", direct_mean) + ",  "
+					+ "z = " + String.format ("%.2f", z) + ",  "
+					+ "csd = " + String.format ("%.3f", Math.sqrt (catalog_var)) + ",  "
+					+ "dsd = " + String.format ("%.3f", Math.sqrt (direct_var))
+				);
+			}
+		}
+		
+		return;
+	}
+
+
+
+
 	// Test routine, to compute and show cumulative probabilities for a model.
 	// Parameters are the same as run_simulations.
 
@@ -1711,6 +1976,97 @@ public class LogLikeSet {
 
 
 
+		// Subcommand : Test #5
+		// Command format:
+		//  test5  event_id  forecast_lag  num_sim  discard_large_as
+		// Compute models for the given event at the given forecast lag.
+		// The forecast_lag is given in java.time.Duration format.
+		// For each model, run simulations both by simulating catalogs and by simulating
+		// bin counts directly, and compare the mean counts and acceptance rates.
+
+		if (args[0].equalsIgnoreCase ("test5")) {
+
+			// Four additional arguments
+
+			if (args.length != 5) {
+				System.err.println ("LogLikeSet : Invalid 'test5' subcommand");
+				return;
+			}
+
+			String the_event_id = args[1];
+			long the_forecast_lag = SimpleUtils.string_to_duration (args[2]);
+			int the_num_sim = Integer.parseInt (args[3]);
+			boolean discard_large_as = Boolean.parseBoolean (args[4]);
+
+			// Get configuration
+
+			GammaConfig gamma_config = new GammaConfig();
+			gamma_config.discard_sim_with_large_as = discard_large_as;
+
+			// Fetch the mainshock info
+
+			ForecastMainshock fcmain = new ForecastMainshock();
+			fcmain.setup_mainshock_only (the_event_id);
+
+			System.out.println ("");
+			System.out.println (fcmain.toString());
+
+			// Get parameters
+
+			ForecastParameters params = new ForecastParameters();
+			params.fetch_all_params (the_forecast_lag, fcmain, null);
+
+			// Get results
+
+			ForecastResults results = new ForecastResults();
+			results.calc_all (fcmain.mainshock_time + the_forecast_lag, ForecastResults.ADVISORY_LAG_WEEK, "", fcmain, params, true);
+
+			if (!( results.generic_result_avail
+				&& results.seq_spec_result_avail
+				&& results.bayesian_result_avail )) {
+				throw new RuntimeException ("LogLikeSet: Failed to compute aftershock models");
+			}
+
+			// Get catalog of all aftershocks
+
+			List<ObsEqkRupture> all_aftershocks = GammaUtils.get_all_aftershocks (gamma_config, fcmain);
+
+			System.out.println ("");
+			System.out.println ("Total number of aftershocks = " + all_aftershocks.size());
+
+			// Generic model
+
+			System.out.println ("");
+			System.out.println ("Generic model, forecast_lag = " + SimpleUtils.duration_to_string_2 (the_forecast_lag));
+			System.out.println ("");
+
+			compare_direct_to_catalog (gamma_config, the_forecast_lag, the_num_sim,
+				fcmain, results.generic_model, all_aftershocks, false);
+
+			// Sequence specific model
+
+			System.out.println ("");
+			System.out.println ("Sequence specific model, forecast_lag = " + SimpleUtils.duration_to_string_2 (the_forecast_lag));
+			System.out.println ("");
+
+			compare_direct_to_catalog (gamma_config, the_forecast_lag, the_num_sim,
+				fcmain, results.seq_spec_model, all_aftershocks, false);
+
+			// Bayesian model
+
+			System.out.println ("");
+			System.out.println ("Bayesian model, forecast_lag = " + SimpleUtils.duration_to_string_2 (the_forecast_lag));
+			System.out.println ("");
+
+			compare_direct_to_catalog (gamma_config, the_forecast_lag, the_num_sim,
+				fcmain, results.bayesian_model, all_aftershocks, false);
+
+			return;
+		}
+
+
+
+
 		// Unrecognized subcommand.
 
 		System.err.println ("LogLikeSet : Unrecognized subcommand : " + args[0]);
@@ -0,0 +1,194 @@
+package org.opensha.oaf.oetas;
+
+
+// Ensemble accumulator that carries accumulation over more than one ensemble.
+//
+// This wraps another accumulator, so that it can accumulate catalogs from several
+// successive runs of OEEnsembleGenerator.  The first call to begin_accumulation is
+// passed to the wrapped accumulator, with the total capacity needed for all the runs.
+// Later calls to begin_accumulation are ignored.  While holding, calls to
+// end_accumulation are ignored, so the wrapped accumulator stays open for the next
+// run.  When not holding, end_accumulation is passed to the wrapped accumulator.
+//
+// OESimulator uses this to feed the catalogs of the final ranging pass into the
+// accumulator of the main simulation.
+//
+// Threading: The control methods follow the rules of OEEnsembleAccumulator.
+
+public class OEAccumCarryOver implements OEEnsembleAccumulator, OEEnsembleConvergence.Monitor {
+
+	//----- Contents -----
+
+	// The wrapped accumulator.
+
+	private OEEnsembleAccumulator accumulator;
+
+	// The total capacity needed for all runs.
+
+	private int total_capacity;
+
+	// True if accumulation has begun in the wrapped accumulator.
+
+	private boolean f_begun;
+
+	// True if end_accumulation should be ignored.
+
+	private boolean f_hold;
+
+	// The number of catalogs carried over from previous runs.
+
+	private int carried_count;
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	// Create a wrapper, initially holding.
+	// Parameters:
+	//  the_accumulator = The accumulator to wrap.
+	//  the_total_capacity = The total number of catalogs that will be accumulated in all runs.
+
+	public OEAccumCarryOver (OEEnsembleAccumulator the_accumulator, int the_total_capacity) {
+		if (the_accumulator == null) {
+			throw new IllegalArgumentException ("OEAccumCarryOver: No accumulator supplied");
+		}
+		accumulator = the_accumulator;
+		total_capacity = the_total_capacity;
+		f_begun = false;
+		f_hold = true;
+		carried_count = 0;
+	}
+
+
+
+
+	// Get the wrapped accumulator.
+
+	public final OEEnsembleAccumulator get_accumulator () {
+		return accumulator;
+	}
+
+
+
+
+	// Set the hold flag.
+	// If true, end_accumulation is ignored.
+
+	public final OEAccumCarryOver set_hold (boolean the_f_hold) {
+		f_hold = the_f_hold;
+		return this;
+	}
+
+
+
+
+	// Add to the number of catalogs carried over from previous runs.
+
+	public final void add_carried_count (int count) {
+		carried_count += count;
+		return;
+	}
+
+
+
+
+	// Get the number of catalogs carried over from previous runs.
+
+	public final int get_carried_count () {
+		return carried_count;
+	}
+
+
+
+
+	//----- Implementation of OEEnsembleAccumulator -----
+
+
+
+
+	// Make a catalog consumer.
+
+	@Override
+	public OECatalogConsumer make_consumer () {
+		return accumulator.make_consumer();
+	}
+
+
+
+
+	// Begin accumulating catalogs.
+	// Only the first call is passed to the wrapped accumulator.
+
+	@Override
+	public void begin_accumulation (int capacity) {
+		if (!( f_begun )) {
+			accumulator.begin_accumulation (Math.max (capacity, total_capacity));
+			f_begun = true;
+		} else if (carried_count + capacity > total_capacity) {
+			total_capacity = carried_count + capacity;
+			accumulator.increase_capacity (total_capacity);
+		}
+		return;
+	}
+
+
+
+
+	// Increase the capacity of the accumulator.
+
+	@Override
+	public void increase_capacity (int capacity) {
+		if (carried_count + capacity > total_capacity) {
+			total_capacity = carried_count + capacity;
+			accumulator.increase_capacity (total_capacity);
+		}
+		return;
+	}
+
+
+
+
+	// End accumulating catalogs.
+	// Ignored while holding.
+
+	@Override
+	public void end_accumulation () {
+		if (!( f_hold )) {
+			accumulator.end_accumulation();
+		}
+		return;
+	}
+
+
+
+
+	// Return true if the wrapped accumulator's consumers can consume a streamed catalog.
+
+	@Override
+	public boolean is_streamable () {
+		return accumulator.is_streamable();
+	}
+
+
+
+
+	//----- Implementation of OEEnsembleConvergence.Monitor -----
+
+
+
+
+	// Measure the Monte Carlo error of the results accumulated so far.
+
+	@Override
+	public void measure_convergence (OEEnsembleConvergence conv) {
+		if (accumulator instanceof OEEnsembleConvergence.Monitor) {
+			((OEEnsembleConvergence.Monitor)accumulator).measure_convergence (conv);
+		}
+		return;
+	}
+
+}
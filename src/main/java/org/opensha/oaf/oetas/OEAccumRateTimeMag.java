@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 
 import org.opensha.oaf.util.MarshalReader;
 import org.opensha.oaf.util.MarshalWriter;
@@ -56,7 +57,7 @@ import static org.opensha.oaf.oetas.OECatalogParams.MAG_ADJ_SEED_EST;
 // is a count of events in the catalog.  The shifted Poisson distributions
 // are stacked by summing their probability density functions.
 
-public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadoutTimeMag {
+public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadoutTimeMag, OEEnsembleConvergence.Monitor {
 
 	//----- Code options -----
 
@@ -163,7 +164,7 @@ public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadout
 		}
 
 
-		// Closing puts this accumulator on the avaiability queue.
+		// Closing puts this accumulator on the avaiability queue, or releases its shard.
 
 		@Override
 		public void close() {
@@ -212,6 +213,7 @@ public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadout
 
 		public EnsembleAccum () {
 			f_open = true;
+			shard_index = -1;
 
 			acc_size = 0;
 
@@ -248,6 +250,14 @@ public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadout
 		}
 
 
+		//--- Sharding ---
+
+
+		// Index of this accumulator in the shard set, or -1 if not a shard.
+
+		public int shard_index;
+
+
 		//--- Post-accumulation functions ---
 
 
@@ -266,6 +276,18 @@ public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadout
 		}
 
 
+		// Estimate the memory used by this accumulator, in bytes.
+
+		public final long estimate_bytes () {
+			long result = 64L + 16L + (4L * acc_live_counts.length);
+			result += OEStackedPoisson.estimate_acc_array_bytes (acc_distribution);
+			if (f_acc_cat_size) {
+				result += OEStackedPoisson.estimate_acc_array_bytes (acc_cat_size_dist);
+			}
+			return result;
+		}
+
+
 		// Cumulate the distributions.
 
 		public final void cumulate () {
@@ -562,13 +584,58 @@ public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadout
 	private EnsembleAccum total_acc;
 
 	// The list of available partial accumulators.
+	// This is null when using shards.
 
 	private ConcurrentLinkedQueue<EnsembleAccum> partial_acc_list;
 
+	// The shard set, or null if partial accumulators are kept on the queue.
+	// After accumulation ends, this is retained (empty) so its statistics can be read.
+
+	private OEAccumShardSet<EnsembleAccum> shard_set;
+
+	// The number of shards to use, or 0 to keep partial accumulators on the queue.
+
+	private int shard_count;
+
+	// Executor used for the reduction of shards, or null to reduce in the calling thread.
+
+	private Executor shard_executor;
+
+
+	// Operations on shards.
+
+	private class EnsembleShardOps implements OEAccumShardSet.ShardOps<EnsembleAccum> {
+
+		@Override
+		public EnsembleAccum make_shard (int shard_index) {
+			EnsembleAccum acc = new EnsembleAccum();
+			acc.shard_index = shard_index;
+			return acc;
+		}
+
+		@Override
+		public void combine_shards (EnsembleAccum dest, EnsembleAccum src) {
+			dest.combine_with (src);
+			return;
+		}
+
+		@Override
+		public long estimate_shard_bytes (EnsembleAccum shard) {
+			return shard.estimate_bytes();
+		}
+	}
+
 
 	// Get or make a partial accumulator.
+	// Parameters:
+	//  home = Home shard index for the consumer, used only when sharding.
 
-	private EnsembleAccum get_partial_acc () {
+	private EnsembleAccum get_partial_acc (int home) {
+		if (shard_set != null) {
+			EnsembleAccum acc = shard_set.get_shard (shard_set.claim_shard (home % shard_set.get_shard_count()));
+			acc.open();
+			return acc;
+		}
 		EnsembleAccum acc = partial_acc_list.poll();
 		if (acc == null) {
 			return new EnsembleAccum();
@@ -578,9 +645,24 @@ public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadout
 	}
 
 
-	// Release a partial accumulator, and put it back on the queue.
+	// Get a home shard index for a new consumer.
+	// Returns -1 if not using shards.
+
+	private int next_partial_acc_home () {
+		if (shard_set != null) {
+			return shard_set.next_home();
+		}
+		return -1;
+	}
+
+
+	// Release a partial accumulator, and put it back on the queue or release its shard.
 
 	private void release_partial_acc (EnsembleAccum acc) {
+		if (shard_set != null) {
+			shard_set.release_shard (acc.shard_index);
+			return;
+		}
 		partial_acc_list.add (acc);
 		return;
 	}
@@ -590,6 +672,17 @@ public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadout
 
 	private void totalize_partial_acc () {
 
+		// If using shards, combine with a tree reduction
+
+		if (shard_set != null) {
+			total_acc = shard_set.reduce (shard_executor);
+			if (total_acc == null) {
+				total_acc = new EnsembleAccum();
+			}
+			total_acc.shard_index = -1;
+			return;
+		}
+
 		// Get the first accumulator off the list
 
 		total_acc = partial_acc_list.poll();
@@ -614,6 +707,23 @@ public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadout
 	}
 
 
+	// Make a total of all partial accumulators, leaving the partial accumulators unchanged.
+	// The returned accumulator is newly allocated, and is not cumulated.
+	// Threading: No consumers can be open.
+
+	private EnsembleAccum snapshot_partial_acc () {
+		EnsembleAccum snapshot = new EnsembleAccum();
+		if (shard_set != null) {
+			shard_set.combine_into (snapshot);
+		} else {
+			for (EnsembleAccum acc : partial_acc_list) {
+				snapshot.combine_with (acc);
+			}
+		}
+		return snapshot;
+	}
+
+
 
 
 	//----- Construction -----
@@ -641,6 +751,9 @@ public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadout
 
 		total_acc = null;
 		partial_acc_list = null;
+		shard_set = null;
+		shard_count = 0;
+		shard_executor = null;
 
 		return;
 	}
@@ -715,6 +828,9 @@ public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadout
 
 		total_acc = null;
 		partial_acc_list = null;
+		shard_set = null;
+		shard_count = 0;
+		shard_executor = null;
 
 		return;
 	}
@@ -742,6 +858,77 @@ public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadout
 
 
 
+	// Set the sharding options.
+	// Parameters:
+	//  the_shard_count = Number of shards, or 0 to keep partial accumulators on a queue.
+	//  the_shard_executor = Executor used to combine shards in parallel, or null to combine
+	//                       them in the calling thread.
+	// When sharding, a fixed number of partial accumulators (typically one per thread) are
+	// re-used for all catalogs, and are combined by a parallel tree reduction at the end of
+	// accumulation.  When not sharding, partial accumulators are created as needed (at most
+	// one per simultaneously open consumer), and are combined serially.
+	// Note: This should be called after setup() and before begin_accumulation().
+
+	public final void set_sharding (int the_shard_count, Executor the_shard_executor) {
+		if (the_shard_count < 0) {
+			throw new IllegalArgumentException ("OEAccumRateTimeMag.set_sharding: Invalid shard count: the_shard_count = " + the_shard_count);
+		}
+		shard_count = the_shard_count;
+		shard_executor = the_shard_executor;
+		return;
+	}
+
+
+
+
+	// Get the number of shards, or 0 if not using shards.
+
+	public final int get_shard_count () {
+		return shard_count;
+	}
+
+
+
+
+	// Get the number of shards that were used, or 0 if not using shards.
+	// This is available after accumulation ends.
+
+	public final int get_shard_used_count () {
+		if (shard_set == null) {
+			return 0;
+		}
+		return shard_set.get_reduced_count();
+	}
+
+
+
+
+	// Get the estimated memory per shard, in bytes, or 0L if not using shards.
+	// This is available after accumulation ends.
+
+	public final long get_shard_bytes () {
+		if (shard_set == null) {
+			return 0L;
+		}
+		return shard_set.get_shard_bytes();
+	}
+
+
+
+
+	// Get a one-line string describing the shard memory usage.
+
+	public final String shard_status_string () {
+		if (shard_set == null) {
+			return "OEAccumRateTimeMag: Not using shards";
+		}
+		return String.format ("OEAccumRateTimeMag: shard_count = %d, used = %d, bytes per shard = %d, total bytes = %d",
+			shard_count, get_shard_used_count(), get_shard_bytes(), get_shard_bytes() * get_shard_used_count());
+	}
+
+
+
+
 	//----- Consumers -----
 
 
@@ -787,6 +974,12 @@ public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadout
 
 		protected boolean f_open;
 
+		// The home shard for this consumer, or -1 if not assigned yet.
+		// It is assigned when the first catalog is accumulated, so consumers made before
+		// accumulation begins still get distinct home shards.
+
+		protected int acc_shard_home;
+
 		//----- Accumulators, for the entire catalog -----
 
 		// The accumulated counts, for the entire catalog.
@@ -2042,10 +2235,23 @@ public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadout
 
 
 
+		// Get the home shard for this consumer, assigning it if needed.
+
+		protected final int get_acc_shard_home () {
+			if (acc_shard_home < 0) {
+				acc_shard_home = next_partial_acc_home();
+			}
+			return acc_shard_home;
+		}
+
+
+
+
 		// Default constructor.
 
 		public ConsumerBase () {
 			f_open = false;
+			acc_shard_home = -1;
 
 			csr_counts = new int[time_bins][mag_bins];
 			csr_expected = new double[time_bins][mag_bins];
@@ -2151,7 +2357,7 @@ public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadout
 				// Get an accumulator
 
 				try (
-					EnsembleAccum ens_accum = get_partial_acc();
+					EnsembleAccum ens_accum = get_partial_acc (get_acc_shard_home());
 				) {
 
 					// Accumulate counted time bins and number of catalogs
@@ -2568,7 +2774,13 @@ public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadout
 		// Initialize the accumulators
 
 		total_acc = null;
-		partial_acc_list = new ConcurrentLinkedQueue<EnsembleAccum>();
+		if (shard_count > 0) {
+			partial_acc_list = null;
+			shard_set = new OEAccumShardSet<EnsembleAccum> (shard_count, new EnsembleShardOps());
+		} else {
+			partial_acc_list = new ConcurrentLinkedQueue<EnsembleAccum>();
+			shard_set = null;
+		}
 
 		return;
 	}
@@ -2618,6 +2830,61 @@ public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadout
 
 
 
+	// Return true if this accumulator's consumers can consume a streamed catalog.
+	// The consumers store results only in end_catalog, and do not use catalog sizes.
+
+	@Override
+	public boolean is_streamable () {
+		return true;
+	}
+
+
+
+
+	//----- Implementation of OEEnsembleConvergence.Monitor -----
+
+
+
+
+	// Measure the Monte Carlo error of the results accumulated so far.
+	// Parameters:
+	//  conv = Convergence object, which receives the measurements.
+	// The partial accumulators are combined into a temporary total, which is
+	// read out the same way as the final total.
+
+	@Override
+	public void measure_convergence (OEEnsembleConvergence conv) {
+
+		// Make and cumulate the snapshot
+
+		EnsembleAccum snapshot = snapshot_partial_acc();
+		snapshot.cumulate();
+
+		// Check probabilities
+
+		int[][] bin_size = snapshot.get_bin_size();
+		conv.check_prob_array (snapshot.get_prob_occur(), bin_size);
+
+		// Check fractiles
+
+		double[][] check_fractiles = conv.get_check_fractiles (snapshot.acc_size);
+		if (check_fractiles != null) {
+			for (int k = 0; k < check_fractiles[1].length; ++k) {
+				conv.check_fractile_array (
+					snapshot.get_fractile (check_fractiles[0][k]),
+					snapshot.get_fractile (check_fractiles[1][k]),
+					snapshot.get_fractile (check_fractiles[2][k]),
+					bin_size
+				);
+			}
+		}
+
+		return;
+	}
+
+
+
+
 	//----- Readout functions -----
 
 
@@ -3210,6 +3477,18 @@ public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadout
 	// a single earthquake.
 
 	public static void typical_test_run_mt (OECatalogParams test_cat_params, double mag_main, int rate_acc_meth, double the_upfill_sec_reduce, int num_cats, int num_threads, long max_runtime) {
+		typical_test_run_mt (test_cat_params, mag_main, rate_acc_meth, the_upfill_sec_reduce, num_cats, num_threads, max_runtime, 0);
+		return;
+	}
+
+
+
+
+	// Perform a typical test run, multi-threaded version, with optional sharding.
+	// Parameters are the same as above, plus:
+	//  shard_count = Number of shards, or 0 to not use shards, or -1 to use one shard per thread.
+
+	public static void typical_test_run_mt (OECatalogParams test_cat_params, double mag_main, int rate_acc_meth, double the_upfill_sec_reduce, int num_cats, int num_threads, long max_runtime, int shard_count) {
 
 		// Say hello
 
@@ -3288,12 +3567,29 @@ public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadout
 		// Generate the catalogs
 
 		long progress_time = 10000L;
-		ensemble_generator.generate_all_catalogs (ensemble_params, num_threads, max_runtime, progress_time);
+		if (shard_count == 0) {
+			ensemble_generator.generate_all_catalogs (ensemble_params, num_threads, max_runtime, progress_time);
+		}
+
+		// Otherwise, make an executor, and use it for both generation and shard reduction
+
+		else {
+			try (
+				AutoExecutorService auto_executor = new AutoExecutorService (num_threads);
+			) {
+				int actual_shard_count = ((shard_count < 0) ? auto_executor.get_num_threads (actual_num_threads) : shard_count);
+				time_mag_accum.set_sharding (actual_shard_count, auto_executor.get_executor());
+				ensemble_generator.generate_all_catalogs (ensemble_params, auto_executor, max_runtime, progress_time);
+			}
+		}
 
 		// Display results
 
 		System.out.println (time_mag_accum.typical_test_outputs_to_string());
 
+		System.out.println ();
+		System.out.println (time_mag_accum.shard_status_string());
+
 		return;
 	}
 
@@ -4310,6 +4606,130 @@ public class OEAccumRateTimeMag implements OEEnsembleAccumulator, OEAccumReadout
 
 
 
+		// Subcommand : Test #11
+		// Command format:
+		//  test11  n  p  c  b  alpha  gen_size_target  gen_count_max  mag_main  tbegin  rate_acc_meth  num_cats
+		//         mag_min_sim  mag_max_sim  mag_min_lo  mag_min_hi  mag_excess  duration  upfill_sec_reduce  num_threads  max_runtime  shard_count
+		// Build a catalog with the given parameter, using multiple threads.
+		// The "n" is the branch ratio; "a" is computed from it.
+		// Then display the accumulated fractiles and probability of occurrence.
+		// Note that max_runtime must be -1 if no runtime limit is desired.
+		// Same as test #10 except uses shards, with the given shard count (-1 = one per thread).
+		// Then display the shard memory usage.
+
+		if (args[0].equalsIgnoreCase ("test11")) {
+
+			// 21 additional arguments
+
+			if (args.length != 22) {
+				System.err.println ("OEAccumRateTimeMag : Invalid 'test11' subcommand");
+				return;
+			}
+
+			try {
+
+				double n = Double.parseDouble (args[1]);
+				double p = Double.parseDouble (args[2]);
+				double c = Double.parseDouble (args[3]);
+				double b = Double.parseDouble (args[4]);
+				double alpha = Double.parseDouble (args[5]);
+				int gen_size_target = Integer.parseInt (args[6]);
+				int gen_count_max = Integer.parseInt (args[7]);
+				double mag_main = Double.parseDouble (args[8]);
+				double the_tbegin = Double.parseDouble (args[9]);
+				int the_rate_acc_meth = Integer.parseInt (args[10]);
+				int num_cats = Integer.parseInt (args[11]);
+				double the_mag_min_sim = Double.parseDouble (args[12]);
+				double the_mag_max_sim = Double.parseDouble (args[13]);
+				double the_mag_min_lo = Double.parseDouble (args[14]);
+				double the_mag_min_hi = Double.parseDouble (args[15]);
+				double the_mag_excess = Double.parseDouble (args[16]);
+				double duration = Double.parseDouble (args[17]);
+				double the_upfill_sec_reduce = Double.parseDouble (args[18]);
+				int num_threads = Integer.parseInt (args[19]);
+				long max_runtime = Long.parseLong (args[20]);
+				int shard_count = Integer.parseInt (args[21]);
+
+				// Say hello
+
+				System.out.println ("Generating catalog with given parameters");
+				System.out.println ("n = " + n);
+				System.out.println ("p = " + p);
+				System.out.println ("c = " + c);
+				System.out.println ("b = " + b);
+				System.out.println ("alpha = " + alpha);
+				System.out.println ("gen_size_target = " + gen_size_target);
+				System.out.println ("gen_count_max = " + gen_count_max);
+				System.out.println ("mag_main = " + mag_main);
+				System.out.println ("the_tbegin = " + the_tbegin);
+				System.out.println ("the_rate_acc_meth = " + the_rate_acc_meth);
+				System.out.println ("num_cats = " + num_cats);
+				System.out.println ("the_mag_min_sim = " + the_mag_min_sim);
+				System.out.println ("the_mag_max_sim = " + the_mag_max_sim);
+				System.out.println ("the_mag_min_lo = " + the_mag_min_lo);
+				System.out.println ("the_mag_min_hi = " + the_mag_min_hi);
+				System.out.println ("the_mag_excess = " + the_mag_excess);
+				System.out.println ("duration = " + duration);
+				System.out.println ("the_upfill_sec_reduce = " + the_upfill_sec_reduce);
+				System.out.println ("num_threads = " + num_threads);
+				System.out.println ("max_runtime = " + max_runtime);
+				System.out.println ("shard_count = " + shard_count);
+
+				// Set up catalog parameters
+
+				double a = 0.0;			// for the moment
+				OECatalogParams test_cat_params = (new OECatalogParams()).set_to_typical (
+					a,
+					p,
+					c,
+					b,
+					alpha,
+					gen_size_target,
+					gen_count_max
+				);
+
+				// Compute productivity "a" for the given branch ratio
+
+				System.out.println ();
+				System.out.println ("Branch ratio calculation");
+
+				a = OEStatsCalc.calc_inv_branch_ratio (n, test_cat_params);
+				test_cat_params.a = a;
+				System.out.println ("a = " + a);
+
+				// Recompute branch ratio to check it agrees with input
+
+				double n_2 = OEStatsCalc.calc_branch_ratio (test_cat_params);
+				System.out.println ("n_2 = " + n_2);
+
+				// Adjust forecast time
+
+				test_cat_params.tbegin = the_tbegin;
+				test_cat_params.tend = the_tbegin + duration;
+
+				// Set magnitude tanges and excess
+
+				test_cat_params.mag_min_sim = the_mag_min_sim;
+				test_cat_params.mag_max_sim = the_mag_max_sim;
+				test_cat_params.mag_min_lo = the_mag_min_lo;
+				test_cat_params.mag_min_hi = the_mag_min_hi;
+
+				test_cat_params.mag_excess = the_mag_excess;
+
+				// Do the test run
+
+				typical_test_run_mt (test_cat_params, mag_main, the_rate_acc_meth, the_upfill_sec_reduce, num_cats, num_threads, max_runtime, shard_count);
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
 		// Unrecognized subcommand.
 
 		System.err.println ("OEAccumRateTimeMag : Unrecognized subcommand : " + args[0]);
@@ -6,6 +6,7 @@ import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 
 import org.opensha.oaf.util.MarshalReader;
 import org.opensha.oaf.util.MarshalWriter;
@@ -130,7 +131,7 @@ public class OEAccumSeedEstRanging implements OEEnsembleAccumulator, OEAccumRead
 		}
 
 
-		// Closing puts this accumulator on the avaiability queue.
+		// Closing puts this accumulator on the avaiability queue, or releases its shard.
 
 		@Override
 		public void close() {
@@ -164,6 +165,7 @@ public class OEAccumSeedEstRanging implements OEEnsembleAccumulator, OEAccumRead
 
 		public EnsembleAccum () {
 			f_open = true;
+			shard_index = -1;
 
 			acc_size = 0;
 
@@ -183,6 +185,14 @@ public class OEAccumSeedEstRanging implements OEEnsembleAccumulator, OEAccumRead
 		}
 
 
+		//--- Sharding ---
+
+
+		// Index of this accumulator in the shard set, or -1 if not a shard.
+
+		public int shard_index;
+
+
 		//--- Post-accumulation functions ---
 
 
@@ -195,6 +205,13 @@ public class OEAccumSeedEstRanging implements OEEnsembleAccumulator, OEAccumRead
 		}
 
 
+		// Estimate the memory used by this accumulator, in bytes.
+
+		public final long estimate_bytes () {
+			return 64L + OEStackedPoisson.estimate_acc_array_bytes (acc_distribution);
+		}
+
+
 		// Cumulate the distributions.
 
 		public final void cumulate () {
@@ -433,13 +450,58 @@ public class OEAccumSeedEstRanging implements OEEnsembleAccumulator, OEAccumRead
 	private EnsembleAccum total_acc;
 
 	// The list of available partial accumulators.
+	// This is null when using shards.
 
 	private ConcurrentLinkedQueue<EnsembleAccum> partial_acc_list;
 
+	// The shard set, or null if partial accumulators are kept on the queue.
+	// After accumulation ends, this is retained (empty) so its statistics can be read.
+
+	private OEAccumShardSet<EnsembleAccum> shard_set;
+
+	// The number of shards to use, or 0 to keep partial accumulators on the queue.
+
+	private int shard_count;
+
+	// Executor used for the reduction of shards, or null to reduce in the calling thread.
+
+	private Executor shard_executor;
+
+
+	// Operations on shards.
+
+	private class EnsembleShardOps implements OEAccumShardSet.ShardOps<EnsembleAccum> {
+
+		@Override
+		public EnsembleAccum make_shard (int shard_index) {
+			EnsembleAccum acc = new EnsembleAccum();
+			acc.shard_index = shard_index;
+			return acc;
+		}
+
+		@Override
+		public void combine_shards (EnsembleAccum dest, EnsembleAccum src) {
+			dest.combine_with (src);
+			return;
+		}
+
+		@Override
+		public long estimate_shard_bytes (EnsembleAccum shard) {
+			return shard.estimate_bytes();
+		}
+	}
+
 
 	// Get or make a partial accumulator.
+	// Parameters:
+	//  home = Home shard index for the consumer, used only when sharding.
 
-	private EnsembleAccum get_partial_acc () {
+	private EnsembleAccum get_partial_acc (int home) {
+		if (shard_set != null) {
+			EnsembleAccum acc = shard_set.get_shard (shard_set.claim_shard (home % shard_set.get_shard_count()));
+			acc.open();
+			return acc;
+		}
 		EnsembleAccum acc = partial_acc_list.poll();
 		if (acc == null) {
 			return new EnsembleAccum();
@@ -449,9 +511,24 @@ public class OEAccumSeedEstRanging implements OEEnsembleAccumulator, OEAccumRead
 	}
 
 
-	// Release a partial accumulator, and put it back on the queue.
+	// Get a home shard index for a new consumer.
+	// Returns -1 if not using shards.
+
+	private int next_partial_acc_home () {
+		if (shard_set != null) {
+			return shard_set.next_home();
+		}
+		return -1;
+	}
+
+
+	// Release a partial accumulator, and put it back on the queue or release its shard.
 
 	private void release_partial_acc (EnsembleAccum acc) {
+		if (shard_set != null) {
+			shard_set.release_shard (acc.shard_index);
+			return;
+		}
 		partial_acc_list.add (acc);
 		return;
 	}
@@ -461,6 +538,17 @@ public class OEAccumSeedEstRanging implements OEEnsembleAccumulator, OEAccumRead
 
 	private void totalize_partial_acc () {
 
+		// If using shards, combine with a tree reduction
+
+		if (shard_set != null) {
+			total_acc = shard_set.reduce (shard_executor);
+			if (total_acc == null) {
+				total_acc = new EnsembleAccum();
+			}
+			total_acc.shard_index = -1;
+			return;
+		}
+
 		// Get the first accumulator off the list
 
 		total_acc = partial_acc_list.poll();
@@ -507,6 +595,9 @@ public class OEAccumSeedEstRanging implements OEEnsembleAccumulator, OEAccumRead
 
 		total_acc = null;
 		partial_acc_list = null;
+		shard_set = null;
+		shard_count = 0;
+		shard_executor = null;
 
 		return;
 	}
@@ -579,6 +670,9 @@ public class OEAccumSeedEstRanging implements OEEnsembleAccumulator, OEAccumRead
 
 		total_acc = null;
 		partial_acc_list = null;
+		shard_set = null;
+		shard_count = 0;
+		shard_executor = null;
 
 		return;
 	}
@@ -586,6 +680,77 @@ public class OEAccumSeedEstRanging implements OEEnsembleAccumulator, OEAccumRead
 
 
 
+	// Set the sharding options.
+	// Parameters:
+	//  the_shard_count = Number of shards, or 0 to keep partial accumulators on a queue.
+	//  the_shard_executor = Executor used to combine shards in parallel, or null to combine
+	//                       them in the calling thread.
+	// When sharding, a fixed number of partial accumulators (typically one per thread) are
+	// re-used for all catalogs, and are combined by a parallel tree reduction at the end of
+	// accumulation.  When not sharding, partial accumulators are created as needed (at most
+	// one per simultaneously open consumer), and are combined serially.
+	// Note: This should be called after setup() and before begin_accumulation().
+
+	public final void set_sharding (int the_shard_count, Executor the_shard_executor) {
+		if (the_shard_count < 0) {
+			throw new IllegalArgumentException ("OEAccumSeedEstRanging.set_sharding: Invalid shard count: the_shard_count = " + the_shard_count);
+		}
+		shard_count = the_shard_count;
+		shard_executor = the_shard_executor;
+		return;
+	}
+
+
+
+
+	// Get the number of shards, or 0 if not using shards.
+
+	public final int get_shard_count () {
+		return shard_count;
+	}
+
+
+
+
+	// Get the number of shards that were used, or 0 if not using shards.
+	// This is available after accumulation ends.
+
+	public final int get_shard_used_count () {
+		if (shard_set == null) {
+			return 0;
+		}
+		return shard_set.get_reduced_count();
+	}
+
+
+
+
+	// Get the estimated memory per shard, in bytes, or 0L if not using shards.
+	// This is available after accumulation ends.
+
+	public final long get_shard_bytes () {
+		if (shard_set == null) {
+			return 0L;
+		}
+		return shard_set.get_shard_bytes();
+	}
+
+
+
+
+	// Get a one-line string describing the shard memory usage.
+
+	public final String shard_status_string () {
+		if (shard_set == null) {
+			return "OEAccumSeedEstRanging: Not using shards";
+		}
+		return String.format ("OEAccumSeedEstRanging: shard_count = %d, used = %d, bytes per shard = %d, total bytes = %d",
+			shard_count, get_shard_used_count(), get_shard_bytes(), get_shard_bytes() * get_shard_used_count());
+	}
+
+
+
+
 	//----- Consumers -----
 
 
@@ -606,6 +771,12 @@ public class OEAccumSeedEstRanging implements OEEnsembleAccumulator, OEAccumRead
 
 		protected boolean f_open;
 
+		// The home shard for this consumer, or -1 if not assigned yet.
+		// It is assigned when the first catalog is accumulated, so consumers made before
+		// accumulation begins still get distinct home shards.
+
+		protected int acc_shard_home;
+
 		//----- Accumulators, for the entire catalog -----
 
 		// The accumulated expected values, for the entire catalog.
@@ -776,10 +947,23 @@ public class OEAccumSeedEstRanging implements OEEnsembleAccumulator, OEAccumRead
 
 
 
+		// Get the home shard for this consumer, assigning it if needed.
+
+		protected final int get_acc_shard_home () {
+			if (acc_shard_home < 0) {
+				acc_shard_home = next_partial_acc_home();
+			}
+			return acc_shard_home;
+		}
+
+
+
+
 		// Default constructor.
 
 		public ConsumerBase () {
 			f_open = false;
+			acc_shard_home = -1;
 
 			csr_expected = new double[gen_bins][mag_bins];
 
@@ -871,7 +1055,7 @@ public class OEAccumSeedEstRanging implements OEEnsembleAccumulator, OEAccumRead
 				// Get an accumulator
 
 				try (
-					EnsembleAccum ens_accum = get_partial_acc();
+					EnsembleAccum ens_accum = get_partial_acc (get_acc_shard_home());
 				) {
 
 					// Count the catalog
@@ -1081,7 +1265,13 @@ public class OEAccumSeedEstRanging implements OEEnsembleAccumulator, OEAccumRead
 		// Initialize the accumulators
 
 		total_acc = null;
-		partial_acc_list = new ConcurrentLinkedQueue<EnsembleAccum>();
+		if (shard_count > 0) {
+			partial_acc_list = null;
+			shard_set = new OEAccumShardSet<EnsembleAccum> (shard_count, new EnsembleShardOps());
+		} else {
+			partial_acc_list = new ConcurrentLinkedQueue<EnsembleAccum>();
+			shard_set = null;
+		}
 
 		return;
 	}
@@ -1131,6 +1321,17 @@ public class OEAccumSeedEstRanging implements OEEnsembleAccumulator, OEAccumRead
 
 
 
+	// Return true if this accumulator's consumers can consume a streamed catalog.
+	// The consumers store results only in end_catalog, and do not use catalog sizes.
+
+	@Override
+	public boolean is_streamable () {
+		return true;
+	}
+
+
+
+
 	//----- Readout functions -----
 
 
@@ -0,0 +1,386 @@
+package org.opensha.oaf.oetas;
+
+import java.util.ArrayList;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+// A fixed set of shards for an ensemble accumulator.
+//
+// An ensemble accumulator keeps partial results (shards) so that threads can accumulate
+// catalogs without contending for a single set of accumulators.  This class holds a fixed
+// number of shards, which are re-used for all the catalogs in the ensemble.  Each consumer
+// has a home shard.  To accumulate a catalog, the consumer claims its home shard, or if that
+// is busy then the next free shard, and releases it when done.  Claiming a shard is a single
+// compare-and-set, so when there are no more consumers than shards, each consumer always
+// gets its own shard without waiting.  Shards are created when first claimed, so memory is
+// proportional to the number of shards actually used, and never exceeds the shard count.
+//
+// At the end of accumulation, the shards are combined by a tree reduction.  In each round,
+// shard i is combined with shard i + stride, for every i that is a multiple of 2*stride,
+// and the combinations within a round are done in parallel.  The pairing depends only on
+// the number of shards, so the order of floating-point additions does not depend on the
+// number of threads doing the reduction.
+//
+// Threading: claim_shard, release_shard, and next_home can be called simultaneously from
+// multiple threads.  reduce and combine_into must be called when no shards are claimed.
+
+public class OEAccumShardSet<T> {
+
+	//----- Shard operations -----
+
+	// Interface for the operations on shards, supplied by the accumulator.
+
+	public static interface ShardOps<T> {
+
+		// Make a new shard, with zero contents.
+		// Parameters:
+		//  shard_index = Index of the shard within the set.
+
+		public T make_shard (int shard_index);
+
+		// Combine two shards, adding the contents of src into dest.
+
+		public void combine_shards (T dest, T src);
+
+		// Estimate the memory used by a shard, in bytes.
+
+		public long estimate_shard_bytes (T shard);
+	}
+
+
+
+
+	//----- Contents -----
+
+	// The shard operations.
+
+	private ShardOps<T> ops;
+
+	// The number of shards.
+
+	private int shard_count;
+
+	// The shards, each element is null if the shard has not been created.
+
+	private AtomicReferenceArray<T> shards;
+
+	// Flags indicating if each shard is claimed, 0 = free, 1 = claimed.
+
+	private AtomicIntegerArray claimed;
+
+	// Counter used to assign home shards.
+
+	private AtomicInteger home_counter;
+
+	// The estimated memory per shard, in bytes, or 0L if not known yet.
+
+	private long shard_bytes;
+
+	// The number of shards combined in the last reduction.
+
+	private int reduced_count;
+
+
+
+
+	//----- Access -----
+
+
+
+
+	// Get the number of shards.
+
+	public final int get_shard_count () {
+		return shard_count;
+	}
+
+
+
+
+	// Get the number of shards that have been created.
+
+	public final int get_used_count () {
+		int result = 0;
+		for (int i = 0; i < shard_count; ++i) {
+			if (shards.get (i) != null) {
+				++result;
+			}
+		}
+		return result;
+	}
+
+
+
+
+	// Get the estimated memory per shard, in bytes.
+	// Returns 0L if no shard has been created.
+
+	public final long get_shard_bytes () {
+		if (shard_bytes == 0L) {
+			for (int i = 0; i < shard_count; ++i) {
+				T shard = shards.get (i);
+				if (shard != null) {
+					shard_bytes = ops.estimate_shard_bytes (shard);
+					break;
+				}
+			}
+		}
+		return shard_bytes;
+	}
+
+
+
+
+	// Get the estimated total memory used by all created shards, in bytes.
+
+	public final long get_total_bytes () {
+		return get_shard_bytes() * get_used_count();
+	}
+
+
+
+
+	// Get the number of shards combined in the last reduction.
+
+	public final int get_reduced_count () {
+		return reduced_count;
+	}
+
+
+
+
+	//----- Claiming -----
+
+
+
+
+	// Get a home shard index for a new consumer.
+	// Consecutive calls return consecutive indexes, wrapping around after the last shard.
+
+	public final int next_home () {
+		int n = home_counter.getAndIncrement();
+		return Math.floorMod (n, shard_count);
+	}
+
+
+
+
+	// Claim a shard, creating it if necessary.
+	// Parameters:
+	//  home = The home shard index, as returned by next_home.
+	// Returns the index of the claimed shard.
+	// If the home shard is busy, the following shards are tried in turn.  If all
+	// shards are busy, this waits until one is released.
+
+	public final int claim_shard (int home) {
+		for (;;) {
+			for (int k = 0; k < shard_count; ++k) {
+				int i = home + k;
+				if (i >= shard_count) {
+					i -= shard_count;
+				}
+				if (claimed.get (i) == 0 && claimed.compareAndSet (i, 0, 1)) {
+					if (shards.get (i) == null) {
+						shards.set (i, ops.make_shard (i));
+					}
+					return i;
+				}
+			}
+			Thread.yield();
+		}
+	}
+
+
+
+
+	// Get a shard that has been claimed.
+
+	public final T get_shard (int shard_index) {
+		return shards.get (shard_index);
+	}
+
+
+
+
+	// Release a claimed shard.
+
+	public final void release_shard (int shard_index) {
+		claimed.set (shard_index, 0);
+		return;
+	}
+
+
+
+
+	//----- Reduction -----
+
+
+
+
+	// Combine all the shards into one.
+	// Parameters:
+	//  executor = Executor used to run combinations in parallel, or null to run all
+	//             combinations in the calling thread.
+	// Returns the combined shard, or null if no shard was created.
+	// The returned object is one of the shards; the other shards are released,
+	// so after this call the shard set is empty.
+
+	public final T reduce (Executor executor) {
+
+		// Collect the shards that exist
+
+		final ArrayList<T> list = new ArrayList<T>();
+		for (int i = 0; i < shard_count; ++i) {
+			T shard = shards.get (i);
+			if (shard != null) {
+				list.add (shard);
+			}
+		}
+
+		reduced_count = list.size();
+		get_shard_bytes();
+
+		if (list.isEmpty()) {
+			return null;
+		}
+
+		// Tree reduction
+
+		final int n = list.size();
+		for (int stride = 1; stride < n; stride *= 2) {
+			final int step = 2 * stride;
+			final int pairs = (n - stride + step - 1) / step;
+
+			// If only one pair, or no executor, combine in this thread
+
+			if (pairs == 1 || executor == null) {
+				for (int i = 0; i + stride < n; i += step) {
+					ops.combine_shards (list.get (i), list.get (i + stride));
+				}
+				continue;
+			}
+
+			// Run all pairs except the first in the executor, and the first pair in this thread
+
+			final CountDownLatch latch = new CountDownLatch (pairs - 1);
+			final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+			for (int i = step; i + stride < n; i += step) {
+				final T dest = list.get (i);
+				final T src = list.get (i + stride);
+				Runnable task = new Runnable() {
+					@Override
+					public void run () {
+						try {
+							ops.combine_shards (dest, src);
+						} catch (Throwable e) {
+							failure.compareAndSet (null, e);
+						} finally {
+							latch.countDown();
+						}
+					}
+				};
+				try {
+					executor.execute (task);
+				} catch (RejectedExecutionException e) {
+					task.run();
+				}
+			}
+
+			ops.combine_shards (list.get (0), list.get (stride));
+
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException ("OEAccumShardSet.reduce: Interrupted while waiting for reduction", e);
+			}
+
+			if (failure.get() != null) {
+				throw new RuntimeException ("OEAccumShardSet.reduce: Exception during reduction", failure.get());
+			}
+		}
+
+		// Empty the set
+
+		for (int i = 0; i < shard_count; ++i) {
+			shards.set (i, null);
+			claimed.set (i, 0);
+		}
+
+		return list.get (0);
+	}
+
+
+
+
+	// Combine all the shards into a separate accumulator, leaving the shards unchanged.
+	// Parameters:
+	//  dest = Destination, which receives the contents of all the shards.
+	// This is used to examine the results accumulated so far, while accumulation continues.
+	// The combinations are done in the calling thread, in order of shard index.
+
+	public final void combine_into (T dest) {
+		for (int i = 0; i < shard_count; ++i) {
+			T shard = shards.get (i);
+			if (shard != null) {
+				ops.combine_shards (dest, shard);
+			}
+		}
+		return;
+	}
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	// Create an empty shard set.
+	// Parameters:
+	//  shard_count = Number of shards, must be >= 1.
+	//  ops = Operations on shards.
+
+	public OEAccumShardSet (int shard_count, ShardOps<T> ops) {
+		if (shard_count < 1) {
+			throw new IllegalArgumentException ("OEAccumShardSet: Invalid shard count: shard_count = " + shard_count);
+		}
+		if (ops == null) {
+			throw new IllegalArgumentException ("OEAccumShardSet: No shard operations supplied");
+		}
+		this.ops = ops;
+		this.shard_count = shard_count;
+		this.shards = new AtomicReferenceArray<T> (shard_count);
+		this.claimed = new AtomicIntegerArray (shard_count);
+		this.home_counter = new AtomicInteger (0);
+		this.shard_bytes = 0L;
+		this.reduced_count = 0;
+	}
+
+
+
+
+	// Display a summary of our contents.
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+
+		result.append ("OEAccumShardSet:" + "\n");
+		result.append ("shard_count = " + shard_count + "\n");
+		result.append ("used_count = " + get_used_count() + "\n");
+		result.append ("reduced_count = " + reduced_count + "\n");
+		result.append ("shard_bytes = " + get_shard_bytes() + "\n");
+
+		return result.toString();
+	}
+
+}
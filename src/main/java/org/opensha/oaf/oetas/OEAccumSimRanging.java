@@ -651,6 +651,17 @@ public class OEAccumSimRanging implements OEEnsembleAccumulator, OEAccumReadoutR
 
 
 
+	// Return true if this accumulator's consumers can consume a streamed catalog.
+	// The consumers store results only in end_catalog, and do not use catalog sizes.
+
+	@Override
+	public boolean is_streamable () {
+		return true;
+	}
+
+
+
+
 	//----- Readout functions -----
 
 
@@ -37,7 +37,7 @@ import static org.opensha.oaf.oetas.OERupture.RUPPAR_SEED;
 // This version accommodates catalogs with variable length, and that yield
 // a variable number of catalogs per bin.
 
-public class OEAccumVarTimeMag implements OEEnsembleAccumulator, OEAccumReadoutTimeMag {
+public class OEAccumVarTimeMag implements OEEnsembleAccumulator, OEAccumReadoutTimeMag, OEEnsembleConvergence.Monitor {
 
 	//----- Control variables -----
 
@@ -1177,6 +1177,78 @@ public class OEAccumVarTimeMag implements OEEnsembleAccumulator, OEAccumReadoutT
 
 
 
+	// Return true if this accumulator's consumers can consume a streamed catalog.
+	// The consumers store results only in end_catalog, and do not use catalog sizes.
+
+	@Override
+	public boolean is_streamable () {
+		return true;
+	}
+
+
+
+
+	//----- Implementation of OEEnsembleConvergence.Monitor -----
+
+
+
+
+	// Measure the Monte Carlo error of the results accumulated so far.
+	// Parameters:
+	//  conv = Convergence object, which receives the measurements.
+	// Each column is copied and sorted, so the accumulated counts are not changed.
+
+	@Override
+	public void measure_convergence (OEEnsembleConvergence conv) {
+
+		// Number of catalogs so far
+
+		final int n = acc_catix.get();
+
+		// Fractiles to check
+
+		final double[][] check_fractiles = conv.get_check_fractiles (n);
+		final int num_frac = ((check_fractiles == null) ? 0 : check_fractiles[1].length);
+
+		// Arrays to receive probabilities and fractiles
+
+		final double[][] prob_occur = new double[time_bins][mag_bins];
+		final int[][] bin_size = new int[time_bins][mag_bins];
+		final int[][][][] frac_values = new int[3][num_frac][time_bins][mag_bins];
+
+		// Read out each column from a sorted copy
+
+		final int[] column = new int[n];
+
+		for (int time_ix = 0; time_ix < time_bins; ++time_ix) {
+			for (int mag_ix = 0; mag_ix < mag_bins; ++mag_ix) {
+				System.arraycopy (acc_counts[time_ix][mag_ix], 0, column, 0, n);
+				Arrays.sort (column);
+				int hi = OEArraysCalc.bsearch_array (column, OMIT_BIN - 1, 0, n);
+				bin_size[time_ix][mag_ix] = hi;
+				prob_occur[time_ix][mag_ix] = OEArraysCalc.probex_array (column, 0, 0, hi);
+				for (int j = 0; j < 3; ++j) {
+					for (int k = 0; k < num_frac; ++k) {
+						frac_values[j][k][time_ix][mag_ix] = OEArraysCalc.fractile_array (column, check_fractiles[j][k], 0, hi);
+					}
+				}
+			}
+		}
+
+		// Check probabilities and fractiles
+
+		conv.check_prob_array (prob_occur, bin_size);
+
+		for (int k = 0; k < num_frac; ++k) {
+			conv.check_fractile_array (frac_values[0][k], frac_values[1][k], frac_values[2][k], bin_size);
+		}
+
+		return;
+	}
+
+
+
+
 	//----- Readout functions -----
 
 
@@ -174,4 +174,12 @@ public interface OECatalogBuilder extends OECatalogView {
 
 	public void set_cat_result_code (int result_code);
 
+	// Return true if the builder no longer needs the rest of the catalog.
+	// The generator checks this between generations, and stops generating if it is true.
+	// The default is false.
+
+	public default boolean is_cat_abandoned () {
+		return false;
+	}
+
 }
@@ -1,5 +1,13 @@
 package org.opensha.oaf.oetas;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opensha.oaf.util.AutoExecutorService;
+
 import static org.opensha.oaf.oetas.OEConstants.TINY_OMORI_RATE;
 import static org.opensha.oaf.oetas.OEConstants.SMALL_EXPECTED_COUNT;
 
@@ -19,6 +27,21 @@ import static org.opensha.oaf.oetas.OECatalogParams.MAG_ADJ_SEED_EST;
 //
 // Only one thread at a time can use one of these objects.
 //
+// Parallel mode: If an executor is supplied (see set_par_options), then any
+// generation with at least par_gen_threshold children has its child sampling
+// split into chunks, each covering a contiguous range of parents.  Each chunk
+// has its own random generator, split from the catalog's random generator, and
+// writes its children into its own buffer.  The chunks are run by the calling
+// thread together with helper tasks submitted to the executor, and then the
+// buffers are copied into the catalog in chunk order.  The result depends only
+// on the catalog's random seed, not on how the chunks were scheduled.  The calling
+// thread runs any chunks the helpers have not claimed, so the generator works
+// (without speedup) even if no executor thread is available.  Once all chunks are
+// claimed, any helper tasks that have not started are cancelled, so they do not
+// wait in the executor queue holding references to the chunk buffers.  This bounds
+// the time taken by a single explosive catalog, which would otherwise hold up the
+// completion of an ensemble.
+//
 // After a catalog has been generated, this object can be re-used
 // to generate another catalog.
 
@@ -30,6 +53,20 @@ public class OECatalogGenerator {
 
 	private static final int DEF_WORKSPACE_CAPACITY = 1000;
 
+	// Default minimum generation size for parallel child sampling.
+
+	public static final int DEF_PAR_GEN_THRESHOLD = 200000;
+
+	// Minimum number of children in a chunk for parallel child sampling.
+
+	private static final int PAR_MIN_CHUNK_SIZE = 20000;
+
+	// Maximum number of chunks for parallel child sampling.
+	// Note: The number of chunks does not depend on the number of threads, so that the
+	// catalog generated from a given random seed does not depend on the number of threads.
+
+	private static final int PAR_MAX_CHUNKS = 64;
+
 
 
 
@@ -112,6 +149,388 @@ public class OECatalogGenerator {
 
 	private int[] work_child_count;
 
+	// Sampler for child times, set up for each parent.
+
+	private OERandomGenerator.OmoriShiftedSampler work_omori_sampler;
+
+	// Sampler for child magnitudes, set up for each generation.
+
+	private OERandomGenerator.GRSampler work_gr_sampler;
+
+
+
+
+	//----- Parallel child sampling -----
+
+	// Executor for helper tasks, or null if parallel child sampling is disabled.
+
+	private ExecutorService par_executor;
+
+	// Number of helper tasks to submit for each parallel generation.
+
+	private int par_helper_count;
+
+	// Minimum number of children for a generation to use parallel child sampling.
+
+	private int par_gen_threshold;
+
+	// Time, x, and y of each rupture in the current generation that has children.
+	// Allocated when first needed, with length workspace_capacity.
+
+	private double[] par_parent_t_day;
+	private double[] par_parent_x_km;
+	private double[] par_parent_y_km;
+
+	// Chunk buffers, re-used for each parallel generation.
+
+	private ParChunk[] par_chunks;
+
+
+
+
+	// Buffer for one chunk of parallel child sampling.
+
+	private static final class ParChunk {
+
+		// Range of parent indexes in the current generation, lo <= j < hi.
+
+		public int parent_lo;
+		public int parent_hi;
+
+		// Random generator for this chunk.
+
+		public OERandomGenerator chunk_rangen;
+
+		// Samplers for child times and magnitudes.
+
+		public final OERandomGenerator.OmoriShiftedSampler omori_sampler = new OERandomGenerator.OmoriShiftedSampler();
+		public final OERandomGenerator.GRSampler gr_sampler = new OERandomGenerator.GRSampler();
+
+		// The children generated, and the number of them.
+
+		public int out_count;
+		public double[] out_t_day;
+		public double[] out_rup_mag;
+		public double[] out_k_prod;
+		public int[] out_parent;
+
+		// Set up for a range of parents, with the given maximum number of children.
+
+		public void setup (int parent_lo, int parent_hi, int max_children, OERandomGenerator chunk_rangen) {
+			this.parent_lo = parent_lo;
+			this.parent_hi = parent_hi;
+			this.chunk_rangen = chunk_rangen;
+			this.out_count = 0;
+			if (out_t_day == null || out_t_day.length < max_children) {
+				int cap = Math.max (max_children, 1024);
+				out_t_day = new double[cap];
+				out_rup_mag = new double[cap];
+				out_k_prod = new double[cap];
+				out_parent = new int[cap];
+			}
+			return;
+		}
+	}
+
+
+
+
+	// A parallel generation.
+	// A new object is created for each generation, so that a helper task which starts
+	// late (after the generation is complete) finds no chunks to claim.
+
+	private final class ParJob implements Runnable {
+
+		// Parameters of the generation.
+
+		private final int chunk_count;
+		private final double eff_tend;
+		private final double stop_time;
+		private final double stop_time_minus_epsilon;
+
+		// Index of the next chunk to claim.
+
+		private final AtomicInteger next_chunk;
+
+		// Counts down as chunks are completed.
+
+		private final CountDownLatch done_latch;
+
+		// The first exception thrown by a chunk, or null if none.
+
+		private volatile Throwable chunk_error;
+
+		public ParJob (int chunk_count, double eff_tend, double stop_time, double stop_time_minus_epsilon) {
+			this.chunk_count = chunk_count;
+			this.eff_tend = eff_tend;
+			this.stop_time = stop_time;
+			this.stop_time_minus_epsilon = stop_time_minus_epsilon;
+			this.next_chunk = new AtomicInteger (0);
+			this.done_latch = new CountDownLatch (chunk_count);
+			this.chunk_error = null;
+		}
+
+		// Claim and run chunks until there are none left.
+		// Threading: Called by the calling thread and by helper tasks.
+
+		@Override
+		public void run () {
+			for (int k = next_chunk.getAndIncrement(); k < chunk_count; k = next_chunk.getAndIncrement()) {
+				try {
+					if (chunk_error == null) {
+						sample_chunk (par_chunks[k]);
+					}
+				} catch (Throwable e) {
+					if (chunk_error == null) {
+						chunk_error = e;
+					}
+				} finally {
+					done_latch.countDown();
+				}
+			}
+			return;
+		}
+
+		// Wait until all chunks are completed.
+
+		public void await_done () {
+			boolean f_waiting = true;
+			while (f_waiting) {
+				try {
+					done_latch.await();
+					f_waiting = false;
+				}
+				catch (InterruptedException e) {
+					f_waiting = true;
+				}
+			}
+			return;
+		}
+
+		// Sample the children for one chunk.
+		// This follows the sequential code in calc_next_gen, except that the children
+		// are written to the chunk buffer.
+
+		private void sample_chunk (ParChunk chunk) {
+			final OERandomGenerator chunk_rangen = chunk.chunk_rangen;
+			int out_count = 0;
+
+			chunk.gr_sampler.setup (
+				cat_params.b,				// b
+				next_gen_info.gen_mag_min,	// m1
+				next_gen_info.gen_mag_max	// m2
+				);
+
+			for (int cur_j_rup = chunk.parent_lo; cur_j_rup < chunk.parent_hi; ++cur_j_rup) {
+
+				// Get the child count, and check it's non-zero
+
+				int child_count = work_child_count[cur_j_rup];
+				if (child_count > 0) {
+
+					// If the rupture is more than epsilon before the stop time ...
+
+					double t0 = par_parent_t_day[cur_j_rup];
+					if (t0 < stop_time_minus_epsilon) {
+
+						// Set up the time sampler for this parent
+
+						chunk.omori_sampler.setup (
+							cat_params.p,			// p
+							cat_params.c,			// c
+							t0,						// t0
+							cat_params.tbegin,		// t1
+							eff_tend				// t2
+							);
+
+						// Loop over children
+
+						for (int n = 0; n < child_count; ++n) {
+
+							// Assign a time to this child
+
+							double t_day = chunk_rangen.omori_sample_shifted (chunk.omori_sampler);
+
+							// If the child time is before the stop time ...
+
+							if (t_day < stop_time) {
+
+								// Assign a magnitude and productivity to this child
+
+								double rup_mag = chunk_rangen.gr_sample (chunk.gr_sampler);
+
+								chunk.out_t_day[out_count] = t_day;
+								chunk.out_rup_mag[out_count] = rup_mag;
+								chunk.out_k_prod[out_count] = OEStatsCalc.calc_k_corr (
+									rup_mag,				// m0
+									cat_params,				// cat_params
+									next_gen_info			// gen_info
+									);
+								chunk.out_parent[out_count] = cur_j_rup;
+								++out_count;
+							}
+						}
+					}
+				}
+			}
+
+			chunk.out_count = out_count;
+			return;
+		}
+	}
+
+
+
+
+	// Set options for parallel child sampling.
+	// Parameters:
+	//  par_executor = Executor for helper tasks, or null to disable parallel child sampling.
+	//  par_helper_count = Number of helper tasks to submit for each parallel generation, must be >= 1.
+	//  par_gen_threshold = Minimum number of children for a generation to use parallel child sampling.
+	// The executor should not be the one running the catalog generation loops, because
+	// then helper tasks cannot start until a loop finishes.  OEEnsembleGenerator uses a
+	// separate executor for helper tasks.
+
+	public void set_par_options (ExecutorService par_executor, int par_helper_count, int par_gen_threshold) {
+		if (par_executor != null) {
+			if (!( par_helper_count >= 1 )) {
+				throw new IllegalArgumentException ("OECatalogGenerator.set_par_options: Invalid helper count: par_helper_count = " + par_helper_count);
+			}
+			if (!( par_gen_threshold >= 1 )) {
+				throw new IllegalArgumentException ("OECatalogGenerator.set_par_options: Invalid generation threshold: par_gen_threshold = " + par_gen_threshold);
+			}
+		}
+		this.par_executor = par_executor;
+		this.par_helper_count = par_helper_count;
+		this.par_gen_threshold = par_gen_threshold;
+		return;
+	}
+
+
+
+
+	// Sample the children of the current generation in parallel, and add them to the catalog.
+	// Parameters:
+	//  cur_i_gen = Index of the current generation.
+	//  cur_gen_size = Size of the current generation.
+	//  next_gen_size = Number of children distributed over parents in work_child_count.
+	//  eff_tend = Effective end time.
+	//  stop_time = Stop time, children at or after this time are discarded.
+	//  stop_time_minus_epsilon = Stop time minus epsilon, parents at or after this time have no children.
+	// Returns the number of ruptures added to the catalog.
+	// The next generation must be open.
+
+	private int par_sample_children (int cur_i_gen, int cur_gen_size, int next_gen_size,
+			double eff_tend, double stop_time, double stop_time_minus_epsilon) {
+
+		// Ensure parent arrays are large enough
+
+		if (par_parent_t_day == null || par_parent_t_day.length < cur_gen_size) {
+			par_parent_t_day = new double[workspace_capacity];
+			par_parent_x_km = new double[workspace_capacity];
+			par_parent_y_km = new double[workspace_capacity];
+		}
+
+		// Get time and location of each parent, so the chunks don't need the catalog builder
+
+		for (int cur_j_rup = 0; cur_j_rup < cur_gen_size; ++cur_j_rup) {
+			if (work_child_count[cur_j_rup] > 0) {
+				cat_builder.get_rup_time_x_y (cur_i_gen, cur_j_rup, cur_rup);
+				par_parent_t_day[cur_j_rup] = cur_rup.t_day;
+				par_parent_x_km[cur_j_rup] = cur_rup.x_km;
+				par_parent_y_km[cur_j_rup] = cur_rup.y_km;
+			}
+		}
+
+		// Number of chunks, and target number of children per chunk
+
+		int target_chunks = Math.max (2, Math.min (PAR_MAX_CHUNKS, next_gen_size / PAR_MIN_CHUNK_SIZE));
+		int target_size = (next_gen_size + target_chunks - 1) / target_chunks;
+
+		if (par_chunks == null || par_chunks.length < target_chunks) {
+			ParChunk[] new_chunks = new ParChunk[target_chunks];
+			for (int k = 0; k < target_chunks; ++k) {
+				new_chunks[k] = ((par_chunks != null && k < par_chunks.length) ? par_chunks[k] : new ParChunk());
+			}
+			par_chunks = new_chunks;
+		}
+
+		// Divide the parents into chunks with approximately equal numbers of children,
+		// giving each chunk a random generator split from the catalog's generator
+
+		int chunk_count = 0;
+		int parent_lo = 0;
+		int chunk_children = 0;
+
+		for (int cur_j_rup = 0; cur_j_rup < cur_gen_size; ++cur_j_rup) {
+			chunk_children += work_child_count[cur_j_rup];
+			if (cur_j_rup + 1 == cur_gen_size || (chunk_children >= target_size && chunk_count + 1 < target_chunks)) {
+				par_chunks[chunk_count].setup (parent_lo, cur_j_rup + 1, chunk_children, rangen.split_rangen());
+				++chunk_count;
+				parent_lo = cur_j_rup + 1;
+				chunk_children = 0;
+			}
+		}
+
+		// Run the chunks, using helper tasks and this thread
+
+		ParJob job = new ParJob (chunk_count, eff_tend, stop_time, stop_time_minus_epsilon);
+
+		int helper_count = Math.min (par_helper_count, chunk_count - 1);
+		Future<?>[] helpers = new Future<?>[helper_count];
+		try {
+			for (int n = 0; n < helper_count; ++n) {
+				helpers[n] = par_executor.submit (job);
+			}
+		} catch (RejectedExecutionException e) {
+			// If the executor is not accepting tasks, this thread runs the remaining chunks
+		}
+
+		job.run();
+
+		// All chunks are now claimed, so cancel any helpers that have not started
+		// (a helper that is running is not interrupted, and we wait for its chunk below)
+
+		for (int n = 0; n < helper_count; ++n) {
+			if (helpers[n] != null) {
+				helpers[n].cancel (false);
+				helpers[n] = null;
+			}
+		}
+
+		job.await_done();
+
+		if (job.chunk_error != null) {
+			throw new RuntimeException ("OECatalogGenerator.par_sample_children: Exception during parallel child sampling", job.chunk_error);
+		}
+
+		// Copy the children into the catalog, in chunk order
+
+		int actual_gen_size = 0;
+
+		for (int k = 0; k < chunk_count; ++k) {
+			ParChunk chunk = par_chunks[k];
+			for (int n = 0; n < chunk.out_count; ++n) {
+				int cur_j_rup = chunk.out_parent[n];
+				next_rup.t_day = chunk.out_t_day[n];
+				next_rup.rup_mag = chunk.out_rup_mag[n];
+				next_rup.k_prod = chunk.out_k_prod[n];
+				next_rup.rup_parent = cur_j_rup;
+
+				// Since this is temporal ETAS, just copy the parent coordinates
+
+				next_rup.x_km = par_parent_x_km[cur_j_rup];
+				next_rup.y_km = par_parent_y_km[cur_j_rup];
+
+				cat_builder.add_rup (next_rup);
+			}
+			actual_gen_size += chunk.out_count;
+			chunk.chunk_rangen = null;
+		}
+
+		return actual_gen_size;
+	}
+
 
 
 
@@ -135,6 +554,16 @@ public class OECatalogGenerator {
 		workspace_capacity = DEF_WORKSPACE_CAPACITY;
 		work_omori_rate = new double[workspace_capacity];
 		work_child_count = new int[workspace_capacity];
+		work_omori_sampler = new OERandomGenerator.OmoriShiftedSampler();
+		work_gr_sampler = new OERandomGenerator.GRSampler();
+
+		par_executor = null;
+		par_helper_count = 1;
+		par_gen_threshold = DEF_PAR_GEN_THRESHOLD;
+		par_parent_t_day = null;
+		par_parent_x_km = null;
+		par_parent_y_km = null;
+		par_chunks = null;
 		return;
 	}
 
@@ -637,6 +1066,12 @@ public class OECatalogGenerator {
 					}
 				}
 			}
+
+			// If the builder abandoned the catalog because of the stop, don't make the generation
+
+			if (cat_builder.is_cat_abandoned()) {
+				return 0;
+			}
 		}
 
 		//--- Generate child earthquakes in the next generation
@@ -664,30 +1099,43 @@ public class OECatalogGenerator {
 
 		int actual_gen_size = 0;
 
-		// Scan the current generation ...
+		// If the generation is large enough, sample the children in parallel
 
-		for (int cur_j_rup = 0; cur_j_rup < cur_gen_size; ++cur_j_rup) {
+		if (par_executor != null && next_gen_size >= par_gen_threshold) {
+			actual_gen_size = par_sample_children (cur_i_gen, cur_gen_size, next_gen_size,
+					eff_tend, stop_time, stop_time_minus_epsilon);
+		}
 
-			// Get the child count, and check it's non-zero
+		// Otherwise, scan the current generation ...
 
-			int child_count = work_child_count[cur_j_rup];
-			if (child_count > 0) {
+		else {
 
-				// Get the rupture in the current generation, time and location only
+			// Set up the magnitude sampler for the next generation
 
-				cat_builder.get_rup_time_x_y (cur_i_gen, cur_j_rup, cur_rup);
+			work_gr_sampler.setup (
+				cat_params.b,				// b
+				next_gen_info.gen_mag_min,	// m1
+				next_gen_info.gen_mag_max	// m2
+				);
 
-				// If the rupture is more than epsilon before the stop time ...
+			for (int cur_j_rup = 0; cur_j_rup < cur_gen_size; ++cur_j_rup) {
 
-				if (cur_rup.t_day < stop_time_minus_epsilon) {
+				// Get the child count, and check it's non-zero
 
-					// Loop over children
+				int child_count = work_child_count[cur_j_rup];
+				if (child_count > 0) {
 
-					for (int n = 0; n < child_count; ++n) {
-				
-						// Assign a time to this child
+					// Get the rupture in the current generation, time and location only
+
+					cat_builder.get_rup_time_x_y (cur_i_gen, cur_j_rup, cur_rup);
 
-						next_rup.t_day = rangen.omori_sample_shifted (
+					// If the rupture is more than epsilon before the stop time ...
+
+					if (cur_rup.t_day < stop_time_minus_epsilon) {
+
+						// Set up the time sampler for this parent
+
+						work_omori_sampler.setup (
 							cat_params.p,			// p
 							cat_params.c,			// c
 							cur_rup.t_day,			// t0
@@ -695,43 +1143,48 @@ public class OECatalogGenerator {
 							eff_tend				// t2
 							);
 
-						// If the child time is before the stop time ...
+						// Loop over children
+
+						for (int n = 0; n < child_count; ++n) {
+				
+							// Assign a time to this child
+
+							next_rup.t_day = rangen.omori_sample_shifted (work_omori_sampler);
+
+							// If the child time is before the stop time ...
 
-						if (next_rup.t_day < stop_time) {
+							if (next_rup.t_day < stop_time) {
 
-							// Assign a magnitude to this child
+								// Assign a magnitude to this child
 
-							next_rup.rup_mag = rangen.gr_sample (
-								cat_params.b,				// b
-								next_gen_info.gen_mag_min,	// m1
-								next_gen_info.gen_mag_max	// m2
-								);
+								next_rup.rup_mag = rangen.gr_sample (work_gr_sampler);
 
-							// Assign a productivity to this child
+								// Assign a productivity to this child
 
-							next_rup.k_prod = OEStatsCalc.calc_k_corr (
-								next_rup.rup_mag,		// m0
-								cat_params,				// cat_params
-								next_gen_info			// gen_info
-								);
+								next_rup.k_prod = OEStatsCalc.calc_k_corr (
+									next_rup.rup_mag,		// m0
+									cat_params,				// cat_params
+									next_gen_info			// gen_info
+									);
 
-							// Assign a parent to this child
+								// Assign a parent to this child
 
-							next_rup.rup_parent = cur_j_rup;
+								next_rup.rup_parent = cur_j_rup;
 
-							// Assign coordinates to this child
-							// (Since this is temporal ETAS, just copy the parent coordinates)
+								// Assign coordinates to this child
+								// (Since this is temporal ETAS, just copy the parent coordinates)
 
-							next_rup.x_km = cur_rup.x_km;
-							next_rup.y_km = cur_rup.y_km;
+								next_rup.x_km = cur_rup.x_km;
+								next_rup.y_km = cur_rup.y_km;
 
-							// Save the rupture
+								// Save the rupture
 
-							cat_builder.add_rup (next_rup);
+								cat_builder.add_rup (next_rup);
 
-							// Count it
+								// Count it
 
-							++actual_gen_size;
+								++actual_gen_size;
+							}
 						}
 					}
 				}
@@ -990,6 +1443,7 @@ public class OECatalogGenerator {
 	// you must call cat_builder.begin_catalog() and create the first
 	// generation to seed the catalog.
 	// Note: This function calls cat_builder.end_catalog();
+	// Note: Generation stops early if the builder abandons the catalog (see OECatalogBuilder.is_cat_abandoned).
 
 	public int calc_all_gen () {
 
@@ -1002,7 +1456,7 @@ public class OECatalogGenerator {
 
 		if (cat_params.gen_count_max > 1) {		// don't do this if caller is requesting seeds only
 			int gen_size = cat_builder.get_gen_size (0);
-			while (gen_size > 0) {
+			while (gen_size > 0 && !( cat_builder.is_cat_abandoned() )) {
 				gen_size = calc_next_gen();
 			}
 		}
@@ -1115,6 +1569,11 @@ public class OECatalogGenerator {
 			return OERandomGenerator.omori_rescale_shifted (p, c, t0, t1, t2, u);
 		}
 		@Override
+		public double omori_sample_shifted (OmoriShiftedSampler sampler) {
+			double u = 0.0;
+			return sampler.rescale (u);
+		}
+		@Override
 		public double background_sample (double t1, double t2) {
 			return Math.min (t1, t2);
 		}
@@ -2810,6 +3269,158 @@ public class OECatalogGenerator {
 
 
 
+		// Subcommand : Test #11
+		// Command format:
+		//  test11  n  p  c  b  alpha  gen_size_target  gen_count_max  mag_main  seed  num_threads  par_gen_threshold
+		// Build a catalog with the given parameters, using the given random seed,
+		// with parallel child sampling for generations of at least par_gen_threshold children.
+		// The "n" is the branch ratio; "a" is computed from it.
+		// The catalog is built twice, once with a single helper thread and once with num_threads
+		// helper threads, and the two catalogs are checked to be identical.
+		// Then display the catalog summary and generation list, and the build times.
+
+		if (args[0].equalsIgnoreCase ("test11")) {
+
+			// 11 additional arguments
+
+			if (args.length != 12) {
+				System.err.println ("OECatalogGenerator : Invalid 'test11' subcommand");
+				return;
+			}
+
+			try {
+
+				double n = Double.parseDouble (args[1]);
+				double p = Double.parseDouble (args[2]);
+				double c = Double.parseDouble (args[3]);
+				double b = Double.parseDouble (args[4]);
+				double alpha = Double.parseDouble (args[5]);
+				int gen_size_target = Integer.parseInt (args[6]);
+				int gen_count_max = Integer.parseInt (args[7]);
+				double mag_main = Double.parseDouble (args[8]);
+				long seed = Long.parseLong (args[9]);
+				int num_threads = Integer.parseInt (args[10]);
+				int par_gen_threshold = Integer.parseInt (args[11]);
+
+				// Say hello
+
+				System.out.println ("Generating catalog with parallel child sampling");
+				System.out.println ("n = " + n);
+				System.out.println ("p = " + p);
+				System.out.println ("c = " + c);
+				System.out.println ("b = " + b);
+				System.out.println ("alpha = " + alpha);
+				System.out.println ("gen_size_target = " + gen_size_target);
+				System.out.println ("gen_count_max = " + gen_count_max);
+				System.out.println ("mag_main = " + mag_main);
+				System.out.println ("seed = " + seed);
+				System.out.println ("num_threads = " + num_threads);
+				System.out.println ("par_gen_threshold = " + par_gen_threshold);
+
+				// Set up catalog parameters
+
+				double a = 0.0;			// for the moment
+				OECatalogParams test_cat_params = (new OECatalogParams()).set_to_typical (
+					a,
+					p,
+					c,
+					b,
+					alpha,
+					gen_size_target,
+					gen_count_max
+				);
+
+				// Compute productivity "a" for the given branch ratio
+
+				a = OEStatsCalc.calc_inv_branch_ratio (n, test_cat_params);
+				test_cat_params.a = a;
+				System.out.println ("a = " + a);
+
+				// Generate the catalog for each helper count
+
+				int[] helper_counts = {1, num_threads};
+				String[] summaries = new String[helper_counts.length];
+
+				for (int pass = 0; pass < helper_counts.length; ++pass) {
+
+					OERandomGenerator rangen = new OERandomGenerator (seed);
+					OECatalogStorage cat_storage = new OECatalogStorage();
+
+					// Seed the catalog with the mainshock
+
+					cat_storage.begin_catalog (test_cat_params);
+
+					OEGenerationInfo test_gen_info = (new OEGenerationInfo()).set (
+						test_cat_params.mref,	// gen_mag_min
+						test_cat_params.msup	// gen_mag_max
+					);
+
+					cat_storage.begin_generation (test_gen_info);
+
+					OERupture mainshock_rup = new OERupture();
+
+					double k_prod = OEStatsCalc.calc_k_corr (
+						mag_main,			// m0
+						test_cat_params,	// cat_params
+						test_gen_info		// gen_info
+					);
+
+					mainshock_rup.set (
+						0.0,			// t_day
+						mag_main,		// rup_mag
+						k_prod,			// k_prod
+						RUPPAR_SEED,	// rup_parent
+						0.0,			// x_km
+						0.0				// y_km
+					);
+
+					cat_storage.add_rup (mainshock_rup);
+
+					cat_storage.end_generation();
+
+					// Generate the catalog with parallel child sampling
+
+					long t0;
+					long t1;
+
+					try (
+						AutoExecutorService auto_executor = new AutoExecutorService (helper_counts[pass]);
+					){
+						OECatalogGenerator cat_generator = new OECatalogGenerator();
+						cat_generator.set_par_options (auto_executor.get_executor(), helper_counts[pass], par_gen_threshold);
+						cat_generator.setup (rangen, cat_storage, false);
+
+						t0 = System.currentTimeMillis();
+						cat_generator.calc_all_gen();
+						t1 = System.currentTimeMillis();
+					}
+
+					summaries[pass] = cat_storage.summary_and_gen_list_string();
+
+					System.out.println ();
+					System.out.println ("Helper threads = " + helper_counts[pass] + ", generation time = " + (t1 - t0) + " ms, catalog size = " + cat_storage.size());
+				}
+
+				// Display catalog summary and generation list
+
+				System.out.println ();
+				System.out.println ("Catalog summary...");
+				System.out.println ();
+				System.out.println (summaries[0]);
+
+				System.out.println ();
+				System.out.println ("Catalogs identical = " + summaries[1].equals (summaries[0]));
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
 		// Unrecognized subcommand.
 
 		System.err.println ("OECatalogGenerator : Unrecognized subcommand : " + args[0]);
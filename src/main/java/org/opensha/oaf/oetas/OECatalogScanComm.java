@@ -49,14 +49,17 @@ public class OECatalogScanComm {
 	public boolean f_result_success;
 
 	// Number of ruptures in the catalog.
+	// This is -1 if the catalog is being streamed (see setup_cat_for_stream).
 
 	public int cat_size;
 
 	// Number of ruptures in the catalog, excluding seed ruptures.
+	// This is -1 if the catalog is being streamed.
 
 	public int cat_etas_size;
 
 	// Number of ruptures in the catalog before the stop time.
+	// This is -1 if the catalog is being streamed.
 
 	public int cat_valid_size;
 
@@ -247,6 +250,43 @@ public class OECatalogScanComm {
 
 
 
+	// Set up per-catalog data for a catalog that is streamed while it is generated.
+	// Parameters:
+	//  view = Catalog view, which need only contain the catalog parameters.
+	// The catalog is assumed to run to completion, so the stop time is HUGE_TIME_DAYS
+	// and the result code is CAT_RESULT_OK.  The catalog sizes are not yet known,
+	// and are set to -1.  If the catalog stops early, the stream must be abandoned.
+
+	public void setup_cat_for_stream (OECatalogView view, OERandomGenerator the_rangen) {
+
+		// Get catalog parameters
+
+		view.get_cat_params (cat_params);
+
+		// Save the random number generator
+
+		rangen = the_rangen;
+
+		// Assume the catalog runs to completion
+
+		cat_stop_time = OEConstants.HUGE_TIME_DAYS;
+		f_early_stop = false;
+
+		cat_result_code = OEConstants.CAT_RESULT_OK;
+		f_result_success = OEConstants.is_cat_result_success (cat_result_code);
+
+		// Sizes are unknown
+
+		cat_size = -1;
+		cat_etas_size = -1;
+		cat_valid_size = -1;
+
+		return;
+	}
+
+
+
+
 	// Set up per-generation data from a catalog view.
 	// Parameters:
 	//  view = Catalog view.
@@ -83,6 +83,14 @@ public class OECatalogScanner implements OECatalogExaminer {
 
 	private int[] work_child_count;
 
+	// Sampler for sterile rupture times, set up for each parent.
+
+	private OERandomGenerator.OmoriShiftedSampler work_omori_sampler;
+
+	// Sampler for sterile rupture magnitudes.
+
+	private OERandomGenerator.GRSampler work_gr_sampler;
+
 
 
 
@@ -121,6 +129,8 @@ public class OECatalogScanner implements OECatalogExaminer {
 		workspace_capacity = DEF_WORKSPACE_CAPACITY;
 		work_omori_rate = new double[workspace_capacity];
 		work_child_count = new int[workspace_capacity];
+		work_omori_sampler = new OERandomGenerator.OmoriShiftedSampler();
+		work_gr_sampler = new OERandomGenerator.GRSampler();
 
 		// Not open
 
@@ -245,6 +255,41 @@ public class OECatalogScanner implements OECatalogExaminer {
 			consumer.begin_catalog (comm);
 		}
 
+		// Scan the seed generation
+
+		scan_seed_gen (view);
+
+		// Loop over ETAS generations...
+
+		for (int i_gen = 1; i_gen < view.get_gen_count(); ++i_gen) {
+
+			// Scan the generation
+
+			scan_etas_gen (view, i_gen);
+		}
+
+		// Tell the consumers we are ending a catalog
+
+		for (OECatalogConsumer consumer : consumers) {
+			consumer.end_catalog (comm);
+		}
+
+		// Forget retained objects
+
+		comm.forget();
+
+		return;
+	}
+
+
+
+
+	// Scan the seed generation, generation 0.
+	// Parameters:
+	//  view = Catalog view.
+
+	private void scan_seed_gen (OECatalogView view) {
+
 		// Set up the per-generation information for the seeds
 
 		comm.setup_gen_from_view (view, 0);
@@ -281,56 +326,135 @@ public class OECatalogScanner implements OECatalogExaminer {
 			consumer.end_seed_generation (comm);
 		}
 
-		// Loop over ETAS generations...
+		return;
+	}
 
-		for (int i_gen = 1; i_gen < view.get_gen_count(); ++i_gen) {
 
-			// Set up the per-generation information
 
-			comm.setup_gen_from_view (view, i_gen);
 
-			// Tell the consumers we are beginning the generation
+	// Scan an ETAS generation.
+	// Parameters:
+	//  view = Catalog view.
+	//  i_gen = Generation number, must be >= 1.
+	// The view must contain generations i_gen and i_gen - 1, the latter being
+	// needed to calculate sterile ruptures.
 
-			for (OECatalogConsumer consumer : consumers) {
-				consumer.begin_generation (comm);
-			}
+	private void scan_etas_gen (OECatalogView view, int i_gen) {
+
+		// Set up the per-generation information
 
-			// Loop over ruptures in the generation
+		comm.setup_gen_from_view (view, i_gen);
 
-			for (int j_rup = 0; j_rup < comm.gen_size; ++j_rup) {
+		// Tell the consumers we are beginning the generation
+
+		for (OECatalogConsumer consumer : consumers) {
+			consumer.begin_generation (comm);
+		}
+
+		// Loop over ruptures in the generation
+
+		for (int j_rup = 0; j_rup < comm.gen_size; ++j_rup) {
 		
-				// Set up the per-rupture information
+			// Set up the per-rupture information
 
-				comm.setup_rup_from_view (view, j_rup);
+			comm.setup_rup_from_view (view, j_rup);
 
-				// If it is a valid rupture (before the stop time) ...
+			// If it is a valid rupture (before the stop time) ...
 
-				if (comm.f_valid_rup) {
+			if (comm.f_valid_rup) {
 
-					// Pass rupture to the consumers
+				// Pass rupture to the consumers
 
-					for (OECatalogConsumer consumer : consumers) {
-						consumer.next_rup (comm);
-					}
+				for (OECatalogConsumer consumer : consumers) {
+					consumer.next_rup (comm);
 				}
 			}
+		}
 
-			// If sterile ruptures are needed ...
+		// If sterile ruptures are needed ...
 
-			if (comm.is_sterile_mag()) {
+		if (comm.is_sterile_mag()) {
 
-				// Calculate the sterile ruptures
+			// Calculate the sterile ruptures
 
-				calc_sterile_rups (view);
-			}
+			calc_sterile_rups (view);
+		}
 
-			// Tell the consumers we are ending the generation
+		// Tell the consumers we are ending the generation
 
-			for (OECatalogConsumer consumer : consumers) {
-				consumer.end_generation (comm);
-			}
+		for (OECatalogConsumer consumer : consumers) {
+			consumer.end_generation (comm);
 		}
 
+		return;
+	}
+
+
+
+
+	//----- Streaming -----
+	//
+	// A catalog can be scanned while it is being generated, one generation at a time,
+	// so that the entire catalog never needs to be in memory.  See OECatalogStreamStorage.
+	// The sequence of calls is begin_stream, then scan_stream_gen for each generation in
+	// order, then end_stream.  The scanner must be open.
+	//
+	// Streaming assumes the catalog runs to completion (see OECatalogScanComm.setup_cat_for_stream).
+	// If it does not, call abort_stream instead of end_stream.  The consumers then do not
+	// receive end_catalog, and the catalog is discarded when the consumers are closed.
+	// This requires that all accumulators support streaming (see OEEnsembleAccumulator.is_streamable).
+
+
+
+
+	// Begin scanning a streamed catalog.
+	// Parameters:
+	//  view = Catalog view, which need only contain the catalog parameters.
+	//  rangen = Random number generator to use.
+
+	public void begin_stream (OECatalogView view, OERandomGenerator rangen) {
+
+		// Set up the per-catalog information
+
+		comm.setup_cat_for_stream (view, rangen);
+
+		// Tell the consumers we are beginning a catalog
+
+		for (OECatalogConsumer consumer : consumers) {
+			consumer.begin_catalog (comm);
+		}
+
+		return;
+	}
+
+
+
+
+	// Scan one generation of a streamed catalog.
+	// Parameters:
+	//  view = Catalog view.
+	//  i_gen = Generation number.
+	// Generations must be scanned in order, beginning with generation 0.
+	// The view must contain generations i_gen and i_gen - 1.  The view must
+	// also contain the generation info for i_gen + 1, and the generation count
+	// must be i_gen + 1 if and only if generation i_gen is the final generation.
+
+	public void scan_stream_gen (OECatalogView view, int i_gen) {
+		if (i_gen == 0) {
+			scan_seed_gen (view);
+		} else {
+			scan_etas_gen (view, i_gen);
+		}
+		return;
+	}
+
+
+
+
+	// End scanning a streamed catalog.
+
+	public void end_stream () {
+
 		// Tell the consumers we are ending a catalog
 
 		for (OECatalogConsumer consumer : consumers) {
@@ -347,6 +471,21 @@ public class OECatalogScanner implements OECatalogExaminer {
 
 
 
+	// Abandon scanning a streamed catalog.
+	// The consumers do not receive end_catalog, so the catalog is not accumulated.
+
+	public void abort_stream () {
+
+		// Forget retained objects
+
+		comm.forget();
+
+		return;
+	}
+
+
+
+
 	// Calculate the sterile ruptures, and send them to the consumers.
 	// Parameters:
 	//  view = Catalog view.
@@ -479,6 +618,14 @@ public class OECatalogScanner implements OECatalogExaminer {
 
 		// Scan the current generation ...
 
+		// Set up the magnitude sampler for sterile ruptures
+
+		work_gr_sampler.setup (
+			comm.cat_params.b,			// b
+			comm.sterile_mag,			// m1
+			comm.gen_info.gen_mag_min	// m2
+			);
+
 		for (int cur_j_rup = 0; cur_j_rup < cur_gen_size; ++cur_j_rup) {
 
 			// Get the child count, and check it's non-zero
@@ -494,27 +641,27 @@ public class OECatalogScanner implements OECatalogExaminer {
 
 				if (cur_rup.t_day < stop_time_minus_epsilon) {
 
+					// Set up the time sampler for this parent
+
+					work_omori_sampler.setup (
+						comm.cat_params.p,			// p
+						comm.cat_params.c,			// c
+						cur_rup.t_day,				// t0
+						comm.cat_params.tbegin,		// t1
+						eff_tend					// t2
+						);
+
 					// Loop over children
 
 					for (int n = 0; n < child_count; ++n) {
 				
 						// Assign a time to this child
 
-						comm.rup.t_day = comm.rangen.omori_sample_shifted (
-							comm.cat_params.p,			// p
-							comm.cat_params.c,			// c
-							cur_rup.t_day,				// t0
-							comm.cat_params.tbegin,		// t1
-							eff_tend					// t2
-							);
+						comm.rup.t_day = comm.rangen.omori_sample_shifted (work_omori_sampler);
 
 						// Assign a magnitude to this child
 
-						comm.rup.rup_mag = comm.rangen.gr_sample (
-							comm.cat_params.b,			// b
-							comm.sterile_mag,			// m1
-							comm.gen_info.gen_mag_min	// m2
-							);
+						comm.rup.rup_mag = comm.rangen.gr_sample (work_gr_sampler);
 
 						// Assign a productivity to this child, zero for sterile
 
@@ -0,0 +1,942 @@
+package org.opensha.oaf.oetas;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+
+
+// Class to hold a window of an Operational ETAS catalog, while streaming it to a scanner.
+//
+// This is a catalog builder that passes each generation to a catalog scanner as soon as
+// it is known not to be the final generation, which is when the first rupture of the
+// following generation is added.  The final generation is passed to the scanner when the
+// catalog is ended.  So, the consumers receive the catalog while it is being generated,
+// and once streaming has begun only the two most recent generations are kept in memory.
+//
+// The consumers must be given the stop time when the catalog begins, which is not known
+// until the catalog ends.  So, scanning is held back until the catalog contains at least
+// hold_size ruptures.  Until then, all generations are kept.  If the catalog ends while it
+// is being held back, it is scanned in full with its actual stop time and result code, so
+// small catalogs that stop early are accumulated without being regenerated.  If the catalog
+// reaches hold_size ruptures without having stopped, the stream begins, with the assumption
+// that the catalog will run to completion.  If the catalog stopped while being held back,
+// the stream never begins, and the catalog is held (and bounded by its stop time) until it ends.
+//
+// If the generator sets a stop time or a non-success result code after the stream has begun,
+// then the stream is abandoned (see OECatalogScanner.abort_stream).  What happens next depends
+// on whether the catalog is still entirely in memory:
+//
+// - While the catalog contains no more than retain_size ruptures, no storage is released, so the
+//   generated catalog is kept.  Generation continues (bounded by the stop time), and when the
+//   catalog ends it is scanned in full with its actual stop time and result code, the same as
+//   a catalog that was held back.  So the catalog does not need to be regenerated.
+//
+// - Otherwise, the catalog is marked abandoned so that the generator stops at once (see
+//   OECatalogBuilder.is_cat_abandoned).  The caller can then regenerate the catalog into an
+//   OECatalogStorage and scan it normally.  See OEEnsembleGenerator for an example.
+//
+// When a generation is scanned, the scanner needs the generation and its parents.
+// The generator needs only the generation it is currently reading (and, when stopping
+// early, the most recent non-empty generation).  After a generation is scanned, if the
+// catalog contains more than retain_size ruptures, the storage for generations before
+// its parents is released and re-used.
+//
+// Per-generation information is kept for all generations, but it is small.  Attempting
+// to read a rupture in a generation that is not in the window throws an exception.
+
+public class OECatalogStreamStorage implements OECatalogBuilder {
+
+	//----- Per-Catalog storage -----
+
+	// Parameters for this catalog.
+
+	private OECatalogParams cat_params;
+
+	// Time at which the catalog stops, defaults to HUGE_TIME_DAYS.
+
+	private double cat_stop_time;
+
+	// Catalog result code, defaults to CAT_RESULT_OK.
+
+	private int cat_result_code;
+
+	// True if a stop time or a non-success result code has been set.
+
+	private boolean f_cat_stopped;
+
+
+
+
+	//----- Per-Generation storage -----
+
+	// The current number of generations.
+
+	private int gen_count;
+
+	// The capacity of the per-generation arrays.
+
+	private int gen_capacity;
+
+	// The initial capacity.
+
+	private static final int INIT_GEN_CAPACITY = 128;
+
+	// Per-generation array containing the number of ruptures in the generation.
+
+	private int[] gen_size;
+
+	// Per-generation array containing the number of ruptures in the generation before the stop time.
+
+	private int[] gen_valid_size;
+
+	// Per-generation array containing the minimum magnitude for the generation.
+
+	private double[] gen_mag_min;
+
+	// Per-generation array containing the maximum magnitude for the generation.
+
+	private double[] gen_mag_max;
+
+	// Per-generation array containing the rupture storage for the generation,
+	// or null if the generation has no ruptures or is not in the window.
+
+	private GenRows[] gen_rows;
+
+
+	// Ensure there is sufficient capacity for per-generation storage.
+
+	private void ensure_capacity_gen () {
+		if (gen_count > gen_capacity) {
+			do {
+				gen_capacity = gen_capacity * 2;
+			} while (gen_count > gen_capacity);
+
+			gen_size = Arrays.copyOf (gen_size, gen_capacity);
+			gen_valid_size = Arrays.copyOf (gen_valid_size, gen_capacity);
+			gen_mag_min = Arrays.copyOf (gen_mag_min, gen_capacity);
+			gen_mag_max = Arrays.copyOf (gen_mag_max, gen_capacity);
+			gen_rows = Arrays.copyOf (gen_rows, gen_capacity);
+		}
+		return;
+	}
+
+
+
+
+	//----- Per-Rupture storage -----
+
+	// The current total number of ruptures.
+
+	private int rup_count;
+
+	// The number of ruptures before the stop time, valid after the catalog is ended.
+
+	private int rup_valid_count;
+
+	// The initial capacity of the storage for one generation.
+
+	private static final int INIT_ROWS_CAPACITY = 1024;
+
+	// Rupture storage for one generation.
+
+	private static class GenRows {
+
+		// The capacity.
+
+		public int capacity;
+
+		// Rupture time, in days, indexed by rupture number within the generation.
+
+		public double[] t_day;
+
+		// Rupture magnitude.
+
+		public double[] rup_mag;
+
+		// Productivity "k" value.
+
+		public double[] k_prod;
+
+		// The parent rupture number, relative to the start of the prior generation.
+
+		public int[] rup_parent;
+
+		// The x coordinate, in km.
+
+		public double[] x_km;
+
+		// The y coordinate, in km.
+
+		public double[] y_km;
+
+		// Constructor allocates the initial capacity.
+
+		public GenRows () {
+			capacity = INIT_ROWS_CAPACITY;
+			t_day = new double[INIT_ROWS_CAPACITY];
+			rup_mag = new double[INIT_ROWS_CAPACITY];
+			k_prod = new double[INIT_ROWS_CAPACITY];
+			rup_parent = new int[INIT_ROWS_CAPACITY];
+			x_km = new double[INIT_ROWS_CAPACITY];
+			y_km = new double[INIT_ROWS_CAPACITY];
+		}
+
+		// Ensure there is sufficient capacity.
+		// Parameters:
+		//  size = Number of ruptures needed.
+
+		public void ensure_capacity (int size) {
+			if (size > capacity) {
+				do {
+					capacity = capacity * 2;
+				} while (size > capacity);
+
+				t_day = Arrays.copyOf (t_day, capacity);
+				rup_mag = Arrays.copyOf (rup_mag, capacity);
+				k_prod = Arrays.copyOf (k_prod, capacity);
+				rup_parent = Arrays.copyOf (rup_parent, capacity);
+				x_km = Arrays.copyOf (x_km, capacity);
+				y_km = Arrays.copyOf (y_km, capacity);
+			}
+			return;
+		}
+	}
+
+	// Rupture storage that has been released, available for re-use.
+
+	private ArrayList<GenRows> free_rows;
+
+
+	// Get the rupture storage for a generation.
+	// Throws an exception if the generation is not in the window.
+
+	private GenRows get_rows (int i_gen) {
+		GenRows rows = gen_rows[i_gen];
+		if (rows == null) {
+			throw new IllegalStateException ("OECatalogStreamStorage.get_rows: Generation is not in the window: i_gen = " + i_gen + ", gen_count = " + gen_count);
+		}
+		return rows;
+	}
+
+
+	// Take rupture storage for a generation, re-using released storage if possible.
+
+	private void take_rows (int i_gen) {
+		int n = free_rows.size();
+		gen_rows[i_gen] = ((n > 0) ? free_rows.remove (n - 1) : new GenRows());
+		return;
+	}
+
+
+	// Release the rupture storage for all generations before the given generation.
+
+	private void release_rows_before (int i_gen) {
+		while (window_lo < i_gen) {
+			if (gen_rows[window_lo] != null) {
+				free_rows.add (gen_rows[window_lo]);
+				gen_rows[window_lo] = null;
+			}
+			++window_lo;
+		}
+		return;
+	}
+
+
+
+
+	//----- Streaming -----
+
+	// The scanner to receive the stream, or null if not streaming.
+
+	private OECatalogScanner scanner;
+
+	// The random number generator to use for scanning.
+
+	private OERandomGenerator scan_rangen;
+
+	// True if the stream has begun, that is, the scanner has received begin_stream.
+
+	private boolean f_stream_begun;
+
+	// True if the stream was abandoned because the catalog did not run to completion,
+	// and the catalog was not retained, so it must be regenerated.
+
+	private boolean f_aborted;
+
+	// True if the stream was abandoned, and the retained catalog was scanned in full.
+
+	private boolean f_rescanned;
+
+	// The number of generations that have been scanned.
+
+	private int scanned_gen_count;
+
+	// The first generation whose rupture storage has not been released.
+
+	private int window_lo;
+
+	// The number of ruptures to hold before beginning the stream.
+
+	private int hold_size;
+
+	// The default number of ruptures to hold before beginning the stream.
+	// Each held rupture takes about 44 bytes.
+
+	public static final int DEF_HOLD_SIZE = 100000;
+
+	// The maximum number of ruptures to retain while streaming, so that a catalog which stops
+	// early after its stream has begun can be scanned without being regenerated.
+
+	private int retain_size;
+
+	// The default number of ruptures to retain while streaming (about 22 MB).
+
+	public static final int DEF_RETAIN_SIZE = 500000;
+
+
+	// Abandon the stream, if it has begun.
+	// If the entire catalog is still in memory, it is held until it ends and then scanned in full.
+	// Otherwise, the catalog is abandoned.
+
+	private void abort_stream () {
+		if (f_stream_begun) {
+			scanner.abort_stream();
+			f_stream_begun = false;
+			if (window_lo == 0) {
+				f_rescanned = true;
+			} else {
+				scanner = null;
+				scan_rangen = null;
+				f_aborted = true;
+			}
+		}
+		return;
+	}
+
+
+	// Begin the stream, and scan all complete generations.
+	// Parameters:
+	//  i_gen = The generation being begun, all prior generations are complete.
+
+	private void begin_stream (int i_gen) {
+		scanner.begin_stream (this, scan_rangen);
+		f_stream_begun = true;
+		scan_to (i_gen);
+		return;
+	}
+
+
+	// Scan generations up to (but not including) the given generation,
+	// and release storage that is no longer needed.
+
+	private void scan_to (int i_gen) {
+		while (scanned_gen_count < i_gen) {
+			scanner.scan_stream_gen (this, scanned_gen_count);
+			++scanned_gen_count;
+		}
+
+		// The generator needs the last scanned generation, as the parents of generation i_gen,
+		// and earlier generations are retained while the catalog is small enough
+
+		if (rup_count > retain_size) {
+			release_rows_before (scanned_gen_count - 1);
+		}
+		return;
+	}
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	// Clear to default values, and perform initial memory allocation.
+	// Any previously-allocated memory is discarded.
+
+	public final void clear () {
+		cat_params.clear();
+		cat_stop_time = OEConstants.HUGE_TIME_DAYS;
+		cat_result_code = OEConstants.CAT_RESULT_OK;
+		f_cat_stopped = false;
+
+		gen_count = 0;
+		gen_capacity = INIT_GEN_CAPACITY;
+		gen_size = new int[INIT_GEN_CAPACITY];
+		gen_valid_size = new int[INIT_GEN_CAPACITY];
+		gen_mag_min = new double[INIT_GEN_CAPACITY];
+		gen_mag_max = new double[INIT_GEN_CAPACITY];
+		gen_rows = new GenRows[INIT_GEN_CAPACITY];
+
+		rup_count = 0;
+		rup_valid_count = 0;
+		free_rows = new ArrayList<GenRows>();
+
+		scanner = null;
+		scan_rangen = null;
+		f_stream_begun = false;
+		f_aborted = false;
+		f_rescanned = false;
+		scanned_gen_count = 0;
+		window_lo = 0;
+		hold_size = DEF_HOLD_SIZE;
+		retain_size = DEF_RETAIN_SIZE;
+		return;
+	}
+
+
+
+
+	// Default constructor.
+
+	public OECatalogStreamStorage () {
+		cat_params = new OECatalogParams();
+		clear();
+	}
+
+
+
+
+	// Set the number of ruptures to hold before beginning the stream.
+	// A larger value means fewer catalogs need to be regenerated, at the cost of memory.
+	// A value of zero begins the stream when the seed generation is complete.
+
+	public void set_hold_size (int the_hold_size) {
+		hold_size = the_hold_size;
+		return;
+	}
+
+
+
+
+	// Set the maximum number of ruptures to retain while streaming.
+	// A catalog that stops early after its stream has begun needs to be regenerated only if
+	// it has more than this number of ruptures when it stops.  A larger value means fewer
+	// catalogs need to be regenerated, at the cost of memory.  A value of zero retains nothing.
+
+	public void set_retain_size (int the_retain_size) {
+		retain_size = the_retain_size;
+		return;
+	}
+
+
+
+
+	// Set up to stream the next catalog.
+	// Parameters:
+	//  the_scanner = Scanner to receive the catalog, which must be open.
+	//  the_scan_rangen = Random number generator to use for scanning.
+	// This must be called before each catalog is begun.  Before the catalog is ended,
+	// the scanner receives either begin_stream, scan_stream_gen for each generation,
+	// and end_stream; or begin_stream, scan_stream_gen for some generations, and abort_stream;
+	// or (if the catalog was held back) scan for the entire catalog; or (if the catalog was
+	// retained) begin_stream, scan_stream_gen for some generations, abort_stream, and scan
+	// for the entire catalog.
+	// Note: The scanning random number generator should not be the one used by the catalog
+	// generator, because scanning is interleaved with generation.
+
+	public void set_stream (OECatalogScanner the_scanner, OERandomGenerator the_scan_rangen) {
+		scanner = the_scanner;
+		scan_rangen = the_scan_rangen;
+		f_stream_begun = false;
+		f_aborted = false;
+		f_rescanned = false;
+		return;
+	}
+
+
+
+
+	// Return true if the stream for the most recent catalog was abandoned, and not retained.
+	// If so, the consumers did not receive the catalog, and it must be scanned by other means.
+
+	public final boolean is_stream_aborted () {
+		return f_aborted;
+	}
+
+
+
+
+	// Return true if the stream for the most recent catalog was abandoned, but the catalog
+	// was retained and scanned in full, so the consumers received it.
+
+	public final boolean is_stream_rescanned () {
+		return f_rescanned;
+	}
+
+
+
+
+	//----- Implementation of OECatalogView -----
+
+
+
+
+	// Get parameters for the catalog.
+	// Parameters:
+	//  cat_params = Structure to receive the catalog parameters.
+
+	@Override
+	public void get_cat_params (OECatalogParams cat_params) {
+		cat_params.copy_from (this.cat_params);
+		return;
+	}
+
+
+
+
+	// Get the total number of ruptures in the catalog.
+
+	@Override
+	public int size () {
+		return rup_count;
+	}
+
+
+
+
+	// Get the total number of ruptures in the catalog, excluding seed ruptures.
+
+	@Override
+	public int etas_size () {
+		if (gen_count < 1) {
+			return rup_count;
+		}
+		return rup_count - gen_size[0];
+	}
+
+
+
+
+	// Get the total number of ruptures in the catalog before the stop time.
+	// This is available after the catalog is ended.
+
+	@Override
+	public int valid_size () {
+		return rup_valid_count;
+	}
+
+
+
+
+	// Get the number of generations in the catalog.
+
+	@Override
+	public int get_gen_count () {
+		return gen_count;
+	}
+
+
+
+
+	// Get the number of ruptures in the i-th generation.
+	// Parameters:
+	//  i_gen = Generation number.
+
+	@Override
+	public int get_gen_size (int i_gen) {
+		return gen_size[i_gen];
+	}
+
+
+
+
+	// Get the number of ruptures in the i-th generation before the stop time.
+	// Parameters:
+	//  i_gen = Generation number.
+	// While the catalog is being built, this equals the number of ruptures;
+	// it is adjusted when the catalog is ended, if the catalog stopped early.
+
+	@Override
+	public int get_gen_valid_size (int i_gen) {
+		return gen_valid_size[i_gen];
+	}
+
+
+
+
+	// Get information about the i-th generation in the catalog.
+	// Parameters:
+	//  i_gen = Generation number.
+	//  gen_info = Structure to receive the generation information.
+
+	@Override
+	public void get_gen_info (int i_gen, OEGenerationInfo gen_info) {
+		gen_info.set (
+			gen_mag_min[i_gen],
+			gen_mag_max[i_gen]
+		);
+		return;
+	}
+
+
+
+
+	// Get the j-th rupture in the i-th generation in the catalog.
+	// Parameters:
+	//  i_gen = Generation number.
+	//  j_rup = Rupture number, within the generation.
+	//  rup = Structure to receive the rupture information.
+
+	@Override
+	public void get_rup_full (int i_gen, int j_rup, OERupture rup) {
+		GenRows rows = get_rows (i_gen);
+
+		rup.set (
+			rows.t_day[j_rup],
+			rows.rup_mag[j_rup],
+			rows.k_prod[j_rup],
+			rows.rup_parent[j_rup],
+			rows.x_km[j_rup],
+			rows.y_km[j_rup]
+		);
+
+		return;
+	}
+
+
+
+
+	// Get the time of the j-th rupture in the i-th generation in the catalog.
+	// Parameters:
+	//  i_gen = Generation number.
+	//  j_rup = Rupture number, within the generation.
+	//  rup = Structure to receive the rupture information.
+	// This function fills in rup.t_day.
+	// Other fields may or may not be modified.
+
+	@Override
+	public void get_rup_time (int i_gen, int j_rup, final OERupture rup) {
+		GenRows rows = get_rows (i_gen);
+
+		rup.t_day = rows.t_day[j_rup];
+
+		return;
+	}
+
+
+
+
+	// Get the time and productivity of the j-th rupture in the i-th generation in the catalog.
+	// Parameters:
+	//  i_gen = Generation number.
+	//  j_rup = Rupture number, within the generation.
+	//  rup = Structure to receive the rupture information.
+	// This function fills in rup.t_day and rup.k_prod.
+	// Other fields may or may not be modified.
+
+	@Override
+	public void get_rup_time_prod (int i_gen, int j_rup, final OERupture rup) {
+		GenRows rows = get_rows (i_gen);
+
+		rup.t_day = rows.t_day[j_rup];
+		rup.k_prod = rows.k_prod[j_rup];
+
+		return;
+	}
+
+
+
+
+	// Get the time and location of the j-th rupture in the i-th generation in the catalog.
+	// Parameters:
+	//  i_gen = Generation number.
+	//  j_rup = Rupture number, within the generation.
+	//  rup = Structure to receive the rupture information.
+	// This function fills in rup.t_day, rup.x_km, and rup.y_km.
+	// Other fields may or may not be modified.
+
+	@Override
+	public void get_rup_time_x_y (int i_gen, int j_rup, final OERupture rup) {
+		GenRows rows = get_rows (i_gen);
+
+		rup.t_day = rows.t_day[j_rup];
+		rup.x_km = rows.x_km[j_rup];
+		rup.y_km = rows.y_km[j_rup];
+
+		return;
+	}
+
+
+
+
+	// Get the time at which the catalog stops.
+	// The return value need not satisfy stop_time <= cat_params.tend; however,
+	// the catalog does not extend past cat_params.tend regardless of stop_time.
+	// If stop_time < cat_params.tend, then the catalog ended before the full time interval.
+
+	@Override
+	public double get_cat_stop_time () {
+		return cat_stop_time;
+	}
+
+
+
+
+	// Get the catalog result code, see OEConstants.CAT_RESULT_XXXX.
+
+	@Override
+	public int get_cat_result_code () {
+		return cat_result_code;
+	}
+
+
+
+
+	//----- Implementation of OECatalogBuilder -----
+
+
+
+
+	// Begin construction of a catalog.
+	// Parameters:
+	//  cat_params = Parameters to use for this catalog.
+	// If a stream has been set up, the scanner is not told to begin the catalog
+	// until the catalog has reached the hold size.
+
+	@Override
+	public void begin_catalog (OECatalogParams cat_params) {
+
+		// Re-initialize, re-using existing memory
+
+		cat_stop_time = OEConstants.HUGE_TIME_DAYS;
+		cat_result_code = OEConstants.CAT_RESULT_OK;
+		f_cat_stopped = false;
+		release_rows_before (gen_count);
+		gen_count = 0;
+		rup_count = 0;
+		rup_valid_count = 0;
+		scanned_gen_count = 0;
+		window_lo = 0;
+		f_stream_begun = false;
+		f_aborted = false;
+		f_rescanned = false;
+
+		// Save the parameters
+
+		this.cat_params.copy_from (cat_params);
+		return;
+	}
+
+
+
+
+	// End construction of a catalog.
+	// If streaming, the remaining generation is scanned and the scanner is told to end the catalog.
+	// If the catalog was held back, the scanner scans the entire catalog.
+
+	@Override
+	public void end_catalog () {
+
+		// Remove any trailing zero-size generations, but not the seed generation
+
+		while (gen_count > 1 && gen_size[gen_count - 1] == 0) {
+			--gen_count;
+		}
+
+		// Assume all ruptures are valid
+
+		rup_valid_count = rup_count;
+
+		// If stop time is before end time, then the catalog ended early, so count the ruptures before the stop time
+		// (all generations are present unless the stream was abandoned without being retained, in which case
+		// the catalog is discarded)
+
+		if (cat_stop_time < cat_params.tend) {
+			rup_valid_count = 0;
+			for (int i_gen = 0; i_gen < gen_count; ++i_gen) {
+				GenRows rows = gen_rows[i_gen];
+				if (rows != null) {
+					int count = 0;
+					for (int j_rup = 0; j_rup < gen_size[i_gen]; ++j_rup) {
+						if (rows.t_day[j_rup] < cat_stop_time) {
+							++count;
+						}
+					}
+					gen_valid_size[i_gen] = count;
+				}
+				rup_valid_count += gen_valid_size[i_gen];
+			}
+		}
+
+		// If streaming ...
+
+		if (scanner != null) {
+			if (gen_count < 1) {
+				throw new IllegalStateException ("OECatalogStreamStorage.end_catalog: Empty catalog");
+			}
+
+			// If the stream has begun, scan the final generation(s) and end the stream
+
+			if (f_stream_begun) {
+				scan_to (gen_count);
+				scanner.end_stream();
+			}
+
+			// Otherwise, the catalog was held back or retained, so scan it with its actual stop time
+
+			else {
+				scanner.scan (this, scan_rangen);
+			}
+
+			scanner = null;
+			scan_rangen = null;
+			f_stream_begun = false;
+		}
+
+		return;
+	}
+
+
+
+
+	// Begin a new generation of a catalog.
+	// Parameters:
+	//  gen_info = Structure containing the generation information to set.
+	// This method increments the number of generations, and creates a
+	// new empty generation.
+	// Note: The generation does not take storage until its first rupture is added.
+
+	@Override
+	public void begin_generation (OEGenerationInfo gen_info) {
+
+		// Get the index of the new generation
+
+		int i_gen = gen_count;
+
+		// Count the new generation, and allocate storage if needed
+
+		++gen_count;
+		ensure_capacity_gen();
+
+		// Zero size, and save generation information
+
+		gen_size[i_gen] = 0;
+		gen_valid_size[i_gen] = 0;
+		gen_mag_min[i_gen] = gen_info.gen_mag_min;
+		gen_mag_max[i_gen] = gen_info.gen_mag_max;
+		gen_rows[i_gen] = null;
+
+		return;
+	}
+
+
+
+
+	// End a generation of a catalog.
+
+	@Override
+	public void end_generation () {
+		return;
+	}
+
+
+
+
+	// Add a rupture to the current generation of a catalog.
+	// Parameters:
+	//  rup = Structure containing the rupture information to set.
+	// Note: Ruptures can only be added to the generation currently being built.
+	// Note: This function does not retain rup; it copies the contents.
+
+	@Override
+	public void add_rup (OERupture rup) {
+
+		// Get the current generation, and the index of the new rupture
+
+		int i_gen = gen_count - 1;
+		int index = gen_size[i_gen];
+
+		// If this is the first rupture in the generation ...
+
+		if (index == 0) {
+
+			// The prior generations are now known to be complete ...
+
+			if (scanner != null) {
+
+				// If streaming, scan them while their parents are still in the window
+
+				if (f_stream_begun) {
+					scan_to (i_gen);
+				}
+
+				// Otherwise, if the catalog has reached the hold size and has not stopped, begin streaming
+
+				else if (rup_count >= hold_size && !( f_cat_stopped )) {
+					begin_stream (i_gen);
+				}
+			}
+
+			// Take storage for the generation
+
+			take_rows (i_gen);
+		}
+
+		// Count the new rupture, and allocate storage if needed
+		// (the valid size is adjusted when the catalog ends, if it stopped early)
+
+		++rup_count;
+		gen_size[i_gen] = index + 1;
+		gen_valid_size[i_gen] = index + 1;
+		GenRows rows = gen_rows[i_gen];
+		rows.ensure_capacity (index + 1);
+
+		// Save rupture information
+
+		rows.t_day[index] = rup.t_day;
+		rows.rup_mag[index] = rup.rup_mag;
+		rows.k_prod[index] = rup.k_prod;
+		rows.rup_parent[index] = rup.rup_parent;
+		rows.x_km[index] = rup.x_km;
+		rows.y_km[index] = rup.y_km;
+
+		return;
+	}
+
+
+
+
+	// Set the time at which the catalog stops.
+	// Defaults to HUGE_TIME_DAYS if it is never set.
+	// If stop_time < cat_params.tend, then the catalog ended before the full time interval.
+	// Setting a stop time after the stream has begun abandons the stream.
+
+	@Override
+	public void set_cat_stop_time (double stop_time) {
+		abort_stream();
+		f_cat_stopped = true;
+		cat_stop_time = stop_time;
+		return;
+	}
+
+
+
+
+	// Set the catalog result code, CAT_RESULT_OK indicates success.
+	// Defaults to CAT_RESULT_OK if it is never set.
+	// Setting a result code other than CAT_RESULT_OK after the stream has begun abandons the stream.
+
+	@Override
+	public void set_cat_result_code (int result_code) {
+		if (result_code != OEConstants.CAT_RESULT_OK) {
+			abort_stream();
+			f_cat_stopped = true;
+		}
+		cat_result_code = result_code;
+		return;
+	}
+
+
+
+
+	// Return true if the builder no longer needs the rest of the catalog.
+	// This is true after the stream is abandoned without being retained, because the catalog
+	// must be regenerated.
+
+	@Override
+	public boolean is_cat_abandoned () {
+		return f_aborted;
+	}
+
+}
@@ -686,6 +686,24 @@ public class OEConstants {
 
 
 
+	// Options to select the method used to store and apply Omori matrices, when fitting parameters.
+
+	public static final int OMAT_METH_MIN = 1;				// Minimum value.
+	public static final int OMAT_METH_DENSE = 1;			// Dense triangular matrices of exact Omori values.
+	public static final int OMAT_METH_EXPSUM = 2;			// Sum-of-exponentials approximation, with near-linear time and memory.
+	public static final int OMAT_METH_FLOAT = 3;			// Dense triangular matrices in single precision, stored in contiguous blocks.
+	public static final int OMAT_METH_MAX = 3;				// Maximum value.
+
+	// Default value of the option to select the Omori matrix method (OMAT_METH_XXXX).
+
+	public static final int DEF_OMAT_METH = 1;		// OMAT_METH_DENSE
+
+	// Default relative tolerance for approximate Omori matrix methods.
+
+	public static final double DEF_OMAT_TOL = 1.0e-6;
+
+
+
 	// Default minimum magnitude range above magnitude of completeness, for parameter fitting.
 
 	public static final double DEF_FMAG_ABOVE_MAG_CAT = 4.0;
@@ -0,0 +1,222 @@
+package org.opensha.oaf.oetas;
+
+import cern.jet.random.tdouble.engine.DoubleRandomEngine;
+
+
+// Counter-based splittable random number engine.
+//
+// This engine produces the sequence
+//
+//   x[n] = mix64 (key + n*gamma),  n = 1, 2, 3, ...
+//
+// where key is a 64-bit value, gamma is an odd 64-bit value, and mix64 is a
+// bijective 64-bit mixing function.  This is the SplitMix64 construction used by
+// java.util.SplittableRandom, and it passes the standard statistical test suites.
+//
+// The (key, gamma) pair identifies a stream.  A stream can be obtained in two ways:
+//
+// - From a master seed and a stream index (set_stream).  This is used to give each
+//   catalog in an ensemble its own stream, identified by the catalog index, so that the
+//   ensemble does not depend on which thread generates which catalog.
+//
+// - By splitting an existing stream (split_engine).  The new stream's key and gamma are
+//   drawn from the existing stream, so the result is determined by the existing stream's state.
+//
+// Because the value at position n is a function of n, setting up a stream costs only a few
+// arithmetic operations, in contrast to the Mersenne twister which must fill a 624-word state.
+//
+// This class extends the Colt engine class, so that it can drive the Colt distributions.
+// The next-value functions are overridden to produce values directly from 64-bit outputs.
+//
+// Only one thread at a time can use one of these objects.
+
+public final class OECounterRandomEngine extends DoubleRandomEngine {
+
+	//----- Constants -----
+
+	// The golden ratio gamma, used to derive keys and gammas from seeds.
+
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	// Scale factors to convert integers to floating-point values in (0, 1).
+
+	private static final double DOUBLE_UNIT = 0x1.0p-52;
+
+	// For floats, only 23 bits are used, so that adding 0.5 is exact and the result is at most 1 - 2^-24.
+
+	private static final float FLOAT_UNIT = 0x1.0p-23f;
+
+
+
+
+	//----- State -----
+
+	// The key for this stream.
+
+	private long key;
+
+	// The gamma for this stream, which must be odd.
+
+	private long gamma;
+
+	// The current value of key + n*gamma.
+
+	private long counter;
+
+
+
+
+	//----- Mixing functions -----
+
+
+
+
+	// Mixing function, which is a bijection on 64-bit values.
+	// This is the variant 13 finalizer from David Stafford's study of MurmurHash3 mixers,
+	// which is also used by java.util.SplittableRandom.
+
+	private static long mix64 (long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+
+
+
+	// Mixing function that produces a gamma value.
+	// The result is odd, and has enough bit transitions to avoid poor-quality streams.
+
+	private static long mix_gamma (long z) {
+		z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+		z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		z = (z ^ (z >>> 33)) | 1L;
+		int n = Long.bitCount (z ^ (z >>> 1));
+		return (n < 24) ? (z ^ 0xAAAAAAAAAAAAAAAAL) : z;
+	}
+
+
+
+
+	//----- Stream selection -----
+
+
+
+
+	// Select the stream for the given master seed and stream index.
+	// Each (master_seed, stream_index) pair selects a different stream.
+
+	public void set_stream (long master_seed, long stream_index) {
+		long h = mix64 (master_seed + GOLDEN_GAMMA);
+		long s = h + (stream_index + 1L) * GOLDEN_GAMMA;
+		key = mix64 (s);
+		gamma = mix_gamma (s + GOLDEN_GAMMA);
+		counter = key;
+		return;
+	}
+
+
+
+
+	// Make a new engine, whose stream is split from this engine's stream.
+	// This advances this engine's stream by two positions.
+
+	public OECounterRandomEngine split_engine () {
+		OECounterRandomEngine result = new OECounterRandomEngine();
+		result.key = next_long();
+		result.gamma = mix_gamma (next_long());
+		result.counter = result.key;
+		return result;
+	}
+
+
+
+
+	// Get the next 64-bit value.
+
+	public long next_long () {
+		counter += gamma;
+		return mix64 (counter);
+	}
+
+
+
+
+	//----- Colt engine functions -----
+
+
+
+
+	// Return a 32-bit random integer.
+
+	@Override
+	public int nextInt () {
+		return (int)(next_long() >>> 32);
+	}
+
+
+
+
+	// Return a 64-bit random integer.
+
+	@Override
+	public long nextLong () {
+		return next_long();
+	}
+
+
+
+
+	// Return a random double in the open interval (0, 1), with 52 bits of resolution.
+
+	@Override
+	public double nextDouble () {
+		return (((double)(next_long() >>> 12)) + 0.5) * DOUBLE_UNIT;
+	}
+
+
+
+
+	// Return a random double in the open interval (0, 1).
+	// This is the function used by the Colt distributions.
+
+	@Override
+	public double raw () {
+		return (((double)(next_long() >>> 12)) + 0.5) * DOUBLE_UNIT;
+	}
+
+
+
+
+	// Return a random float in the open interval (0, 1).
+
+	@Override
+	public float nextFloat () {
+		return (((float)(next_long() >>> 41)) + 0.5f) * FLOAT_UNIT;
+	}
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	// Make an engine for stream 0 of master seed 0.
+	// Usually followed by a call to set_stream.
+
+	public OECounterRandomEngine () {
+		set_stream (0L, 0L);
+	}
+
+
+
+
+	// Make an engine for the given master seed and stream index.
+
+	public OECounterRandomEngine (long master_seed, long stream_index) {
+		set_stream (master_seed, stream_index);
+	}
+
+}
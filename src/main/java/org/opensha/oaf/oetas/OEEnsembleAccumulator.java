@@ -66,4 +66,19 @@ public interface OEEnsembleAccumulator {
 
 	public void end_accumulation ();
 
+
+	//----- Streaming -----
+
+	// Return true if this accumulator's consumers can consume a streamed catalog.
+	// A streamed catalog is scanned while it is being generated (see OECatalogStreamStorage).
+	// To support streaming, a consumer must:
+	// - Not use the catalog sizes in OECatalogScanComm, which are -1 when streaming.
+	// - Store results into the accumulator only in end_catalog, so that a catalog
+	//   abandoned before end_catalog is discarded when the consumer is closed.
+	// The default is false.
+
+	public default boolean is_streamable () {
+		return false;
+	}
+
 }
@@ -0,0 +1,487 @@
+package org.opensha.oaf.oetas;
+
+import java.util.Arrays;
+
+
+// Class to test convergence of an ensemble of operational ETAS catalogs.
+//
+// When convergence testing is enabled, OEEnsembleGenerator generates catalogs in
+// rounds, and between rounds asks each accumulator that implements the Monitor
+// interface to measure the Monte Carlo error of its results.  Generation stops when
+// the error in every time/magnitude bin is within tolerance, or when the configured
+// number of catalogs has been generated, whichever comes first.
+//
+// Two errors are measured in each bin:
+//
+// - The standard error of the probability of occurrence, sqrt(p*(1-p)/n), where p is
+//   the probability of one or more ruptures and n is the number of catalogs
+//   contributing to the bin.  This must be <= prob_tol.
+//
+// - For each checked fractile q, the half-width of a confidence interval for the
+//   fractile, obtained from the order statistics: the fractile values at q - z*s and
+//   q + z*s, where s = sqrt(q*(1-q)/n).  This must be <= max(frac_abs_tol, frac_rel_tol*v),
+//   where v is the fractile value.  The reported fractile error is the largest ratio
+//   of half-width to tolerance, so a value <= 1.0 means the fractiles are converged.
+//
+// Because catalog number i always uses random stream i, the catalogs generated in
+// rounds are the same as the first catalogs of a non-adaptive run with the same seed.
+
+public class OEEnsembleConvergence {
+
+	//----- Parameters -----
+
+	// Default tolerance for the standard error of probabilities.
+
+	public static final double DEF_PROB_TOL = 0.005;
+
+	// Default relative tolerance for fractile half-widths.
+
+	public static final double DEF_FRAC_REL_TOL = 0.10;
+
+	// Default absolute tolerance for fractile half-widths, in number of ruptures.
+
+	public static final double DEF_FRAC_ABS_TOL = 1.0;
+
+	// Default number of standard deviations for the fractile confidence interval.
+
+	public static final double DEF_FRAC_Z = 1.96;
+
+	// Default fractiles to check.
+
+	public static final double[] DEF_FRACTILES = {0.025, 0.5, 0.975};
+
+	// Default minimum number of catalogs before the first check.
+
+	public static final int DEF_MIN_CATALOGS = 1000;
+
+	// Default minimum number of catalogs between checks.
+
+	public static final int DEF_CHECK_INTERVAL = 500;
+
+	// Default growth of the number of catalogs between checks, as a fraction of the catalogs so far.
+
+	public static final double DEF_CHECK_GROWTH = 0.25;
+
+
+	// Tolerance for the standard error of probabilities.
+
+	public double prob_tol;
+
+	// Relative tolerance for fractile half-widths.
+
+	public double frac_rel_tol;
+
+	// Absolute tolerance for fractile half-widths.
+
+	public double frac_abs_tol;
+
+	// Number of standard deviations for the fractile confidence interval.
+
+	public double frac_z;
+
+	// Fractiles to check, or null or empty to check only probabilities.
+
+	public double[] fractiles;
+
+	// Minimum number of catalogs before the first check.
+
+	public int min_catalogs;
+
+	// Minimum number of catalogs between checks.
+
+	public int check_interval;
+
+	// Growth of the number of catalogs between checks, as a fraction of the catalogs so far.
+	// Checking at geometrically increasing intervals keeps the cost of the checks, and of
+	// idling threads between rounds, a small fraction of the total.
+
+	public double check_growth;
+
+
+
+
+	//----- Results -----
+
+	// Number of checks performed.
+
+	public int check_count;
+
+	// Number of catalogs at the most recent check.
+
+	public int check_catalogs;
+
+	// Largest probability standard error at the most recent check.
+
+	public double achieved_prob_se;
+
+	// Largest ratio of fractile half-width to tolerance at the most recent check.
+
+	public double achieved_frac_err;
+
+	// Number of bins that failed the tolerance at the most recent check.
+
+	public int failed_bins;
+
+	// True if the most recent check found convergence.
+
+	public boolean f_converged;
+
+
+
+
+	//----- Monitor -----
+
+	// Interface implemented by accumulators that can measure their convergence.
+
+	public static interface Monitor {
+
+		// Measure the Monte Carlo error of the results accumulated so far.
+		// Parameters:
+		//  conv = Convergence object, which receives the measurements through
+		//         check_prob_array and check_fractile_array.
+		// Threading: Called from the main thread between rounds, when no consumers are open.
+		// The accumulator must not change its accumulated results.
+
+		public void measure_convergence (OEEnsembleConvergence conv);
+	}
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	// Set to default values.
+
+	public final OEEnsembleConvergence set_default () {
+		prob_tol = DEF_PROB_TOL;
+		frac_rel_tol = DEF_FRAC_REL_TOL;
+		frac_abs_tol = DEF_FRAC_ABS_TOL;
+		frac_z = DEF_FRAC_Z;
+		fractiles = Arrays.copyOf (DEF_FRACTILES, DEF_FRACTILES.length);
+		min_catalogs = DEF_MIN_CATALOGS;
+		check_interval = DEF_CHECK_INTERVAL;
+		check_growth = DEF_CHECK_GROWTH;
+		clear_results();
+		return this;
+	}
+
+
+
+
+	// Clear the results.
+
+	public final void clear_results () {
+		check_count = 0;
+		check_catalogs = 0;
+		achieved_prob_se = 0.0;
+		achieved_frac_err = 0.0;
+		failed_bins = 0;
+		f_converged = false;
+		return;
+	}
+
+
+
+
+	// Default constructor.
+
+	public OEEnsembleConvergence () {
+		set_default();
+	}
+
+
+
+
+	// Set the tolerances.
+
+	public final OEEnsembleConvergence set_tolerances (double the_prob_tol, double the_frac_rel_tol, double the_frac_abs_tol) {
+		prob_tol = the_prob_tol;
+		frac_rel_tol = the_frac_rel_tol;
+		frac_abs_tol = the_frac_abs_tol;
+		return this;
+	}
+
+
+
+
+	// Set the fractiles to check.
+
+	public final OEEnsembleConvergence set_fractiles (double[] the_fractiles) {
+		fractiles = ((the_fractiles == null) ? null : Arrays.copyOf (the_fractiles, the_fractiles.length));
+		return this;
+	}
+
+
+
+
+	// Set the check schedule.
+
+	public final OEEnsembleConvergence set_schedule (int the_min_catalogs, int the_check_interval, double the_check_growth) {
+		min_catalogs = the_min_catalogs;
+		check_interval = the_check_interval;
+		check_growth = the_check_growth;
+		return this;
+	}
+
+
+
+
+	// Make a convergence object from a specification string.
+	// Parameters:
+	//  spec = Specification string.
+	// Returns null if convergence testing is disabled.
+	// The string can be:
+	//  "off" = Disabled.
+	//  "on" = Enabled with default tolerances.
+	//  "prob_tol" = Enabled with the given probability tolerance.
+	//  "prob_tol,frac_rel_tol" = Enabled with the given probability and fractile tolerances.
+	//  "prob_tol,frac_rel_tol,min_catalogs" = Also give the minimum number of catalogs.
+	// Throws an exception if the string is invalid.
+
+	public static OEEnsembleConvergence make_from_spec (String spec) {
+		String s = spec.trim();
+		if (s.isEmpty() || s.equalsIgnoreCase ("off")) {
+			return null;
+		}
+		OEEnsembleConvergence conv = new OEEnsembleConvergence();
+		if (s.equalsIgnoreCase ("on")) {
+			return conv;
+		}
+		String[] w = s.split (",");
+		if (w.length > 3) {
+			throw new IllegalArgumentException ("OEEnsembleConvergence.make_from_spec: Invalid specification: " + spec);
+		}
+		conv.prob_tol = Double.parseDouble (w[0].trim());
+		if (w.length >= 2) {
+			conv.frac_rel_tol = Double.parseDouble (w[1].trim());
+		}
+		if (w.length >= 3) {
+			conv.min_catalogs = Integer.parseInt (w[2].trim());
+		}
+		if (!( conv.prob_tol > 0.0 && conv.frac_rel_tol > 0.0 && conv.min_catalogs > 0 )) {
+			throw new IllegalArgumentException ("OEEnsembleConvergence.make_from_spec: Invalid specification: " + spec);
+		}
+		return conv;
+	}
+
+
+
+
+	//----- Schedule -----
+
+
+
+
+	// Get the end of the next round of catalogs.
+	// Parameters:
+	//  n_done = Number of catalogs generated so far.
+	//  num_catalogs = Maximum number of catalogs.
+	// Returns the number of catalogs that should have been generated at the end of the next round.
+
+	public final int next_round_end (int n_done, int num_catalogs) {
+		long n_end;
+		if (n_done < min_catalogs) {
+			n_end = min_catalogs;
+		} else {
+			n_end = (long)n_done + Math.max ((long)check_interval, (long)(((double)n_done) * check_growth));
+		}
+		return (int)Math.min (n_end, (long)num_catalogs);
+	}
+
+
+
+
+	//----- Measurement -----
+
+
+
+
+	// Begin a check.
+	// Parameters:
+	//  n_catalogs = Number of catalogs generated so far.
+
+	public final void begin_check (int n_catalogs) {
+		++check_count;
+		check_catalogs = n_catalogs;
+		achieved_prob_se = 0.0;
+		achieved_frac_err = 0.0;
+		failed_bins = 0;
+		f_converged = false;
+		return;
+	}
+
+
+
+
+	// End a check, and return true if converged.
+
+	public final boolean end_check () {
+		f_converged = (failed_bins == 0);
+		return f_converged;
+	}
+
+
+
+
+	// Return true if the most recent check found convergence.
+
+	public final boolean is_converged () {
+		return f_converged;
+	}
+
+
+
+
+	// Get the fractiles that bound the confidence interval for each checked fractile.
+	// Parameters:
+	//  n = Number of catalogs.
+	// Returns an array of dimension r[3][fractiles.length], where r[0] contains the lower
+	// fractiles, r[1] contains the checked fractiles, and r[2] contains the upper fractiles.
+	// Returns null if no fractiles are being checked.
+
+	public final double[][] get_check_fractiles (int n) {
+		if (fractiles == null || fractiles.length == 0) {
+			return null;
+		}
+		double[][] result = new double[3][fractiles.length];
+		for (int k = 0; k < fractiles.length; ++k) {
+			double q = fractiles[k];
+			double dq = frac_z * Math.sqrt (q * (1.0 - q) / ((double)Math.max (n, 1)));
+			result[0][k] = Math.max (0.0, q - dq);
+			result[1][k] = q;
+			result[2][k] = Math.min (1.0, q + dq);
+		}
+		return result;
+	}
+
+
+
+
+	// Check the probability of occurrence in one bin.
+	// Parameters:
+	//  prob = Probability of one or more ruptures.
+	//  n = Number of catalogs contributing to the bin.
+
+	public final void check_prob (double prob, int n) {
+		if (n <= 0) {
+			return;
+		}
+		double se = Math.sqrt (Math.max (0.0, prob * (1.0 - prob)) / ((double)n));
+		achieved_prob_se = Math.max (achieved_prob_se, se);
+		if (se > prob_tol) {
+			++failed_bins;
+		}
+		return;
+	}
+
+
+
+
+	// Check one fractile in one bin.
+	// Parameters:
+	//  lo = Fractile value at the lower end of the confidence interval.
+	//  mid = Fractile value.
+	//  hi = Fractile value at the upper end of the confidence interval.
+
+	public final void check_fractile (double lo, double mid, double hi) {
+		double tol = Math.max (frac_abs_tol, frac_rel_tol * mid);
+		double err = 0.5 * (hi - lo) / tol;
+		achieved_frac_err = Math.max (achieved_frac_err, err);
+		if (err > 1.0) {
+			++failed_bins;
+		}
+		return;
+	}
+
+
+
+
+	// Check the probabilities of occurrence.
+	// Parameters:
+	//  prob_occur = Probability of occurrence, dimension prob_occur[time_bins][mag_bins].
+	//  bin_size = Number of catalogs contributing to each bin, dimension bin_size[time_bins][mag_bins].
+
+	public final void check_prob_array (double[][] prob_occur, int[][] bin_size) {
+		for (int time_ix = 0; time_ix < prob_occur.length; ++time_ix) {
+			for (int mag_ix = 0; mag_ix < prob_occur[time_ix].length; ++mag_ix) {
+				check_prob (prob_occur[time_ix][mag_ix], bin_size[time_ix][mag_ix]);
+			}
+		}
+		return;
+	}
+
+
+
+
+	// Check one fractile.
+	// Parameters:
+	//  lo = Fractile values at the lower end of the confidence interval, dimension lo[time_bins][mag_bins].
+	//  mid = Fractile values, dimension mid[time_bins][mag_bins].
+	//  hi = Fractile values at the upper end of the confidence interval, dimension hi[time_bins][mag_bins].
+	//  bin_size = Number of catalogs contributing to each bin, dimension bin_size[time_bins][mag_bins].
+	// Bins with no catalogs are not checked.
+
+	public final void check_fractile_array (int[][] lo, int[][] mid, int[][] hi, int[][] bin_size) {
+		for (int time_ix = 0; time_ix < mid.length; ++time_ix) {
+			for (int mag_ix = 0; mag_ix < mid[time_ix].length; ++mag_ix) {
+				if (bin_size[time_ix][mag_ix] > 0) {
+					check_fractile ((double)(lo[time_ix][mag_ix]), (double)(mid[time_ix][mag_ix]), (double)(hi[time_ix][mag_ix]));
+				}
+			}
+		}
+		return;
+	}
+
+
+
+
+	//----- Display -----
+
+
+
+
+	// Get a one-line summary of the results.
+
+	public final String result_string () {
+		return String.format ("%s after %d catalogs (%d checks): max prob std err = %.5f (tol %.5f), max fractile err/tol = %.3f, failed bins = %d",
+			(f_converged ? "Converged" : "Not converged"),
+			check_catalogs,
+			check_count,
+			achieved_prob_se,
+			prob_tol,
+			achieved_frac_err,
+			failed_bins);
+	}
+
+
+
+
+	// Display our contents.
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+
+		result.append ("OEEnsembleConvergence:" + "\n");
+		result.append ("prob_tol = " + prob_tol + "\n");
+		result.append ("frac_rel_tol = " + frac_rel_tol + "\n");
+		result.append ("frac_abs_tol = " + frac_abs_tol + "\n");
+		result.append ("frac_z = " + frac_z + "\n");
+		result.append ("fractiles = " + ((fractiles == null) ? "null" : Arrays.toString (fractiles)) + "\n");
+		result.append ("min_catalogs = " + min_catalogs + "\n");
+		result.append ("check_interval = " + check_interval + "\n");
+		result.append ("check_growth = " + check_growth + "\n");
+		result.append ("check_count = " + check_count + "\n");
+		result.append ("check_catalogs = " + check_catalogs + "\n");
+		result.append ("achieved_prob_se = " + achieved_prob_se + "\n");
+		result.append ("achieved_frac_err = " + achieved_frac_err + "\n");
+		result.append ("failed_bins = " + failed_bins + "\n");
+		result.append ("f_converged = " + f_converged + "\n");
+
+		return result.toString();
+	}
+
+}
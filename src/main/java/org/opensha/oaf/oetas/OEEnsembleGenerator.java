@@ -4,7 +4,6 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
 
-import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -47,6 +46,106 @@ public class OEEnsembleGenerator implements SimpleThreadTarget {
 	}
 
 
+	// Minimum generation size for parallel child sampling within a catalog, or -1 to disable.
+	// See OECatalogGenerator for a description of parallel child sampling.
+
+	private int par_gen_threshold = OECatalogGenerator.DEF_PAR_GEN_THRESHOLD;
+
+
+	// Set the minimum generation size for parallel child sampling within a catalog, or -1 to disable.
+	// Threading: Should be called from the main thread before starting.
+
+	public final OEEnsembleGenerator set_par_gen_threshold (int the_par_gen_threshold) {
+		if (!( the_par_gen_threshold >= 1 || the_par_gen_threshold == -1 )) {
+			throw new IllegalArgumentException ("OEEnsembleGenerator.set_par_gen_threshold: Invalid threshold: the_par_gen_threshold = " + the_par_gen_threshold);
+		}
+		par_gen_threshold = the_par_gen_threshold;
+		return this;
+	}
+
+
+	// Master seed for the random number streams, or 0L to choose a new master seed for each ensemble.
+	// Each catalog is generated using the counter-based random stream whose index is the catalog
+	// number, so the ensemble is determined by the master seed, regardless of the number of threads
+	// or the order in which the threads process catalogs.
+
+	private long fixed_master_seed = 0L;
+
+
+	// Set the master seed for the random number streams, or 0L to choose a new master seed for each ensemble.
+	// Threading: Should be called from the main thread before starting.
+
+	public final OEEnsembleGenerator set_master_seed (long the_master_seed) {
+		fixed_master_seed = the_master_seed;
+		return this;
+	}
+
+
+	// The master seed used for the current or most recent ensemble.
+
+	private long run_master_seed = 0L;
+
+
+	// Get the master seed used for the most recent ensemble.
+	// Threading: This function may only be called from the main thread after termination.
+
+	public final long get_master_seed () {
+		return run_master_seed;
+	}
+
+
+	// Convergence test, or null to always generate the requested number of catalogs.
+	// See OEEnsembleConvergence for a description of convergence testing.
+
+	private OEEnsembleConvergence convergence = null;
+
+
+	// Set the convergence test, or null to always generate the requested number of catalogs.
+	// The results of the test are stored in the supplied object.
+	// Threading: Should be called from the main thread before starting.
+
+	public final OEEnsembleGenerator set_convergence (OEEnsembleConvergence the_convergence) {
+		convergence = the_convergence;
+		return this;
+	}
+
+
+	// Get the convergence test, or null if none.
+
+	public final OEEnsembleConvergence get_convergence () {
+		return convergence;
+	}
+
+
+
+	// True to stream each catalog to the accumulators while it is generated.
+	// See OECatalogStreamStorage for a description of streaming.  Streaming is used only
+	// if all the accumulators support it (see OEEnsembleAccumulator.is_streamable).
+	// A catalog that stops early after its stream has begun is kept in memory and scanned in
+	// full when it ends, if it is small enough to have been retained;  otherwise it is abandoned
+	// as soon as it stops, and is regenerated into full storage.  Small catalogs are held back
+	// until they end, so they can stop early without being scanned twice.
+	// When streaming, catalogs are scanned with a separate random number stream, so the
+	// sterile ruptures differ from a non-streaming run with the same master seed.
+
+	private boolean f_streaming = default_streaming;
+
+
+	// Set the streaming option.
+	// Threading: Should be called from the main thread before starting.
+
+	public final OEEnsembleGenerator set_streaming (boolean the_f_streaming) {
+		f_streaming = the_f_streaming;
+		return this;
+	}
+
+
+	// The default streaming option.
+	// The default is false.  It can be set true with the system property oafstream=on.
+
+	public static final boolean default_streaming = SimpleUtils.is_property_value ("oafstream", "on");
+
+
 
 
 	//----- Status messages -----
@@ -63,6 +162,10 @@ public class OEEnsembleGenerator implements SimpleThreadTarget {
 
 	private static final String PMFMT_TIMEOUT = "Reached time limit after generating %C ETAS catalogs in %E seconds";
 
+	// Progress message format for convergence.
+
+	private static final String PMFMT_CONVERGED = "Converged after generating %C ETAS catalogs in %E seconds";
+
 	// Progress message format for abort.
 
 	private static final String PMFMT_ABORT = "Aborted because of error after generating %C ETAS catalogs in %E seconds";
@@ -89,6 +192,61 @@ public class OEEnsembleGenerator implements SimpleThreadTarget {
 
 	private SimpleThreadLoopResult loop_result = new SimpleThreadLoopResult();
 
+	// Executor for parallel child sampling helper tasks, or null if disabled.
+	// This is separate from the executor running the generator threads, so that helper
+	// tasks can start while all the generator threads are busy.  It has one thread
+	// fewer than the generator executor, and its threads are idle except while some
+	// catalog has a generation large enough for parallel child sampling.
+
+	private ExecutorService par_executor = null;
+
+	// Number of helper tasks for parallel child sampling.
+
+	private int par_helper_count = 1;
+
+	// The number of catalogs generated, in all rounds.
+
+	private int catalog_count = 0;
+
+	// True if catalogs are being streamed in the current run.
+
+	private boolean run_streaming = false;
+
+	// The number of streamed catalogs that had to be regenerated because they stopped early.
+	// Each one costs the generation time up to the stop, in addition to the regeneration.
+
+	private AtomicInteger stream_regen_count = new AtomicInteger();
+
+	// The number of streamed catalogs that stopped early and were rescanned from memory.
+
+	private AtomicInteger stream_rescan_count = new AtomicInteger();
+
+
+	// Get the number of streamed catalogs that had to be regenerated.
+	// Threading: This function may only be called from the main thread after termination.
+
+	public final int get_stream_regen_count () {
+		return stream_regen_count.get();
+	}
+
+
+	// Get the number of streamed catalogs that were rescanned from memory.
+	// Threading: This function may only be called from the main thread after termination.
+
+	public final int get_stream_rescan_count () {
+		return stream_rescan_count.get();
+	}
+
+
+	// Make the part of the status message that reports streaming, or an empty string if not streaming.
+
+	private String stream_status_string () {
+		if (!( run_streaming )) {
+			return "";
+		}
+		return "; streamed catalogs rescanned = " + stream_rescan_count.get() + ", regenerated = " + stream_regen_count.get();
+	}
+
 
 
 
@@ -136,9 +294,9 @@ public class OEEnsembleGenerator implements SimpleThreadTarget {
 	@Override
 	public void thread_entry (SimpleThreadManager thread_manager, int thread_number) throws Exception {
 
-		// Get the random number generator
+		// Make the random number generator, which is switched to the catalog's stream for each catalog
 
-		OERandomGenerator rangen = OERandomGenerator.get_thread_rangen();
+		OERandomGenerator rangen = new OERandomGenerator (run_master_seed, 0L);
 
 		// Create a seeder for our initializer, which we re-use for each catalog
 
@@ -158,14 +316,73 @@ public class OEEnsembleGenerator implements SimpleThreadTarget {
 
 		OECatalogStorage cat_storage = new OECatalogStorage();
 
+		// If streaming, allocate the stream storage and the scanning random number generator
+
+		OECatalogStreamStorage stream_storage = null;
+		OERandomGenerator scan_rangen = null;
+
+		if (run_streaming) {
+			stream_storage = new OECatalogStreamStorage();
+			scan_rangen = new OERandomGenerator (run_master_seed, 0L);
+		}
+
 		// Allocate a generator, which we re-use for each catalog
 
 		OECatalogGenerator cat_generator = new OECatalogGenerator();
+		cat_generator.set_par_options (par_executor, par_helper_count, par_gen_threshold);
 
 		// Loop until loop completed or prompt termination is requested
 
 		for (int index = loop_helper.get_loop_index(); index >= 0; index = loop_helper.get_next_index()) {
 
+			// If streaming ...
+
+			if (run_streaming) {
+
+				// Select the random number streams for this catalog, using negative indexes for scanning
+
+				rangen.set_stream (run_master_seed, (long)index);
+				scan_rangen.set_stream (run_master_seed, -1L - (long)index);
+
+				// Open the consumers, and generate the catalog while streaming it to the consumers
+
+				cat_scanner.open();
+				stream_storage.set_stream (cat_scanner, scan_rangen);
+				seed_and_generate (seeder, seed_comm, stream_storage, cat_generator, rangen);
+
+				// If the catalog was streamed, held back, or retained to completion, close the consumers and we're done
+
+				if (!( stream_storage.is_stream_aborted() )) {
+					if (stream_storage.is_stream_rescanned()) {
+						stream_rescan_count.incrementAndGet();
+					}
+					cat_scanner.close();
+					continue;
+				}
+
+				// Close the consumers, which discards the partial catalog
+				// (generation stopped as soon as the stream was abandoned)
+
+				cat_scanner.close();
+				stream_regen_count.incrementAndGet();
+
+				// Regenerate the catalog from the start of its stream, and scan it normally
+
+				rangen.set_stream (run_master_seed, (long)index);
+				scan_rangen.set_stream (run_master_seed, -1L - (long)index);
+
+				seed_and_generate (seeder, seed_comm, cat_storage, cat_generator, rangen);
+
+				cat_scanner.open();
+				cat_scanner.scan (cat_storage, scan_rangen);
+				cat_scanner.close();
+				continue;
+			}
+
+			// Select the random number stream for this catalog
+
+			rangen.set_stream (run_master_seed, (long)index);
+
 			// Set up the seeder communication area
 
 			seed_comm.setup_seed_comm (cat_storage, rangen);
@@ -213,6 +430,35 @@ public class OEEnsembleGenerator implements SimpleThreadTarget {
 
 
 
+	// Seed and generate one catalog.
+	// Parameters:
+	//  seeder = Seeder to use.
+	//  seed_comm = Seeder communication area.
+	//  cat_builder = Catalog builder to receive the catalog.
+	//  cat_generator = Catalog generator.
+	//  rangen = Random number generator, set to the catalog's stream.
+
+	private void seed_and_generate (OECatalogSeeder seeder, OECatalogSeedComm seed_comm,
+			OECatalogBuilder cat_builder, OECatalogGenerator cat_generator, OERandomGenerator rangen) {
+
+		// Seed the catalog
+
+		seed_comm.setup_seed_comm (cat_builder, rangen);
+		seeder.open();
+		seeder.seed_catalog (seed_comm);
+		seeder.close();
+
+		// Calculate all generations and end the catalog
+
+		cat_generator.setup (rangen, cat_builder, false);
+		cat_generator.calc_all_gen();
+		cat_generator.forget();
+		return;
+	}
+
+
+
+
 	//----- Service functions -----
 
 
@@ -235,6 +481,21 @@ public class OEEnsembleGenerator implements SimpleThreadTarget {
 
 		ensemble_params = the_ensemble_params;
 
+		// Choose the master seed
+
+		run_master_seed = ((fixed_master_seed == 0L) ? OERandomGenerator.make_master_seed() : fixed_master_seed);
+
+		// Use streaming if requested and all the accumulators support it
+
+		run_streaming = f_streaming;
+		for (OEEnsembleAccumulator accumulator : ensemble_params.accumulators) {
+			if (!( accumulator.is_streamable() )) {
+				run_streaming = false;
+			}
+		}
+		stream_regen_count.set (0);
+		stream_rescan_count.set (0);
+
 		// Begin initialization
 
 		ensemble_params.initializer.begin_initialization();
@@ -255,7 +516,7 @@ public class OEEnsembleGenerator implements SimpleThreadTarget {
 	// Threading: This function may only be called from the main thread after termination.
 
 	public final int get_catalog_count () {
-		return loop_helper.get_completions();
+		return catalog_count;
 	}
 
 
@@ -324,6 +585,138 @@ public class OEEnsembleGenerator implements SimpleThreadTarget {
 
 
 
+	// Run the loop for all catalogs, in a single round.
+	// Returns the number of catalogs generated, or -1 if thread abort.
+
+	private int run_single_loop (AutoExecutorService executor, long max_runtime, long progress_time) {
+
+		int ncat_gen = 0;
+
+		// Run the loop
+
+		loop_helper.run_loop (this, executor, 0, ensemble_params.num_catalogs, max_runtime, progress_time);
+
+		// Capture the result
+
+		loop_result.accum_loop (loop_helper);
+		catalog_count = loop_helper.get_completions();
+
+		// Check for thread abort
+
+		if (loop_helper.is_abort()) {
+			System.out.println (loop_helper.get_abort_message_string());
+			status_msg = loop_helper.make_progress_message (PMFMT_ABORT) + stream_status_string();
+			System.out.println (status_msg);
+			ncat_gen = -1;
+		}
+
+		// Otherwise, check for timeout
+
+		else if (loop_helper.is_incomplete()) {
+			status_msg = loop_helper.make_progress_message (PMFMT_TIMEOUT) + stream_status_string();
+			System.out.println (status_msg);
+			ncat_gen = catalog_count;
+		}
+
+		// Otherwise, normal termination
+
+		else {
+			status_msg = loop_helper.make_progress_message (PMFMT_DONE) + stream_status_string();
+			System.out.println (status_msg);
+			ncat_gen = catalog_count;
+		}
+
+		return ncat_gen;
+	}
+
+
+
+
+	// Run the loop in rounds, testing convergence between rounds.
+	// Returns the number of catalogs generated, or -1 if thread abort.
+	// Each round generates the next range of catalog indexes, so the catalogs are the
+	// same as in a single round.  Between rounds no consumers are open, so accumulators
+	// can measure their results.  Stops when converged, when all catalogs are generated,
+	// or on timeout or abort.
+
+	private int run_converging_loop (AutoExecutorService executor, long max_runtime, long progress_time) {
+
+		int ncat_gen = 0;
+		String pm_fmt = PMFMT_DONE;
+
+		final long start_time = System.currentTimeMillis();
+		final int num_catalogs = ensemble_params.num_catalogs;
+		convergence.clear_results();
+		catalog_count = 0;
+
+		for (;;) {
+
+			// Remaining runtime for this round
+
+			long round_runtime = max_runtime;
+			if (max_runtime >= 0L) {
+				round_runtime = Math.max (0L, max_runtime - (System.currentTimeMillis() - start_time));
+			}
+
+			// Run the next round
+
+			int n_end = convergence.next_round_end (catalog_count, num_catalogs);
+			loop_helper.run_loop (this, executor, catalog_count, n_end, round_runtime, progress_time);
+
+			loop_result.accum_loop (loop_helper);
+			catalog_count += loop_helper.get_completions();
+
+			// Check for thread abort
+
+			if (loop_helper.is_abort()) {
+				System.out.println (loop_helper.get_abort_message_string());
+				pm_fmt = PMFMT_ABORT;
+				break;
+			}
+
+			// Check for timeout
+
+			if (loop_helper.is_incomplete()) {
+				pm_fmt = PMFMT_TIMEOUT;
+				break;
+			}
+
+			// Check for all catalogs generated
+
+			if (catalog_count >= num_catalogs) {
+				pm_fmt = PMFMT_DONE;
+				break;
+			}
+
+			// Measure convergence
+
+			convergence.begin_check (catalog_count);
+			for (OEEnsembleAccumulator accumulator : ensemble_params.accumulators) {
+				if (accumulator instanceof OEEnsembleConvergence.Monitor) {
+					((OEEnsembleConvergence.Monitor)accumulator).measure_convergence (convergence);
+				}
+			}
+			if (convergence.end_check()) {
+				pm_fmt = PMFMT_CONVERGED;
+				break;
+			}
+		}
+
+		// Make the status message, with totals over all rounds
+
+		status_msg = pm_fmt
+			.replace ("%C", Integer.toString (catalog_count))
+			.replace ("%E", String.format ("%.1f", ((double)(System.currentTimeMillis() - start_time)) / 1000.0))
+			+ "; " + convergence.result_string() + stream_status_string();
+		System.out.println (status_msg);
+
+		ncat_gen = (loop_helper.is_abort() ? -1 : catalog_count);
+		return ncat_gen;
+	}
+
+
+
+
 	// Generate all the catalogs.
 	// Parameters:
 	//  the_ensemble_params = The ensemble parameters.
@@ -341,6 +734,7 @@ public class OEEnsembleGenerator implements SimpleThreadTarget {
 		// No status
 
 		status_msg = PMFMT_NONE;
+		catalog_count = 0;
 
 		// No result
 
@@ -350,37 +744,38 @@ public class OEEnsembleGenerator implements SimpleThreadTarget {
 
 		pre_launch (the_ensemble_params);
 
-		// Run the loop
+		// Set up parallel child sampling, with one helper for each other generator thread
 
-		loop_helper.run_loop (this, executor, 0, ensemble_params.num_catalogs, max_runtime, progress_time);
+		int num_threads = executor.get_num_threads (Runtime.getRuntime().availableProcessors());
+		boolean f_par_gen = (par_gen_threshold > 0 && num_threads > 1);
 
-		// Capture the result
-
-		loop_result.accum_loop (loop_helper);
-
-		// Check for thread abort
-
-		if (loop_helper.is_abort()) {
-			System.out.println (loop_helper.get_abort_message_string());
-			status_msg = loop_helper.make_progress_message (PMFMT_ABORT);
-			System.out.println (status_msg);
-			ncat_gen = -1;
-		}
+		try (
 
-		// Otherwise, check for timeout
+			// Create the executor for helper tasks, if needed
 
-		else if (loop_helper.is_incomplete()) {
-			status_msg = loop_helper.make_progress_message (PMFMT_TIMEOUT);
-			System.out.println (status_msg);
-			ncat_gen = loop_helper.get_completions();
+			AutoExecutorService par_auto_executor = (f_par_gen ? new AutoExecutorService (num_threads - 1) : null);
+		){
+			if (f_par_gen) {
+				par_executor = par_auto_executor.get_executor();
+				par_helper_count = num_threads - 1;
+			} else {
+				par_executor = null;
+				par_helper_count = 1;
+			}
+
+			// Run the loop, in rounds if testing convergence
+
+			if (convergence == null) {
+				ncat_gen = run_single_loop (executor, max_runtime, progress_time);
+			} else {
+				ncat_gen = run_converging_loop (executor, max_runtime, progress_time);
+			}
 		}
+		finally {
 
-		// Otherwise, normal termination
+			// Parallel child sampling is no longer permitted
 
-		else {
-			status_msg = loop_helper.make_progress_message (PMFMT_DONE);
-			System.out.println (status_msg);
-			ncat_gen = loop_helper.get_completions();
+			par_executor = null;
 		}
 
 		// Post-termination operations
@@ -12,6 +12,7 @@ import cern.jet.random.tdouble.Poisson;
 import cern.jet.random.tdouble.DoubleUniform;
 
 import org.opensha.oaf.util.TestMode;
+import org.opensha.oaf.util.SimpleUtils;
 import static org.opensha.oaf.util.SimpleUtils.rndd;
 
 import static org.opensha.oaf.oetas.OEConstants.C_LOG_10;	// natural logarithm of 10
@@ -28,6 +29,16 @@ import static org.opensha.oaf.oetas.OEConstants.BKGD_TIME_DAYS_CHECK;	// use x <
 // * Holds the underlying pseudo random number generator.
 // * Provides a separate instance for each thread.
 // * Contains functions to generate the random distributions required for ETAS.
+//
+// There are two choices of underlying generator (the "backend"):
+// * The Colt Mersenne twister, seeded from a global seed sequence.  This is the backend
+//   selected by the constructors that take zero or one arguments.
+// * A counter-based splittable generator (see OECounterRandomEngine), which supplies a
+//   separate stream for each (master seed, stream index) pair.  This is the backend selected
+//   by the two-argument constructor, or by calling set_stream.  Because each stream is
+//   determined by its index, a computation that assigns a stream index to each unit of work
+//   (such as each catalog in an ensemble) produces the same results regardless of which
+//   thread performs which unit of work.  Setting up a stream is very fast.
 
 public class OERandomGenerator {
 
@@ -35,7 +46,12 @@ public class OERandomGenerator {
 
 	// The underlying PRNG, from which all distributions are obtained.
 
-	DoubleMersenneTwister prng_engine;
+	DoubleRandomEngine prng_engine;
+
+	// The counter-based engine, if it is the underlying PRNG, or null if not.
+	// When non-null, this is the same object as prng_engine.
+
+	OECounterRandomEngine counter_engine;
 
 	// Generates uniformly distributed random numbers.
 
@@ -109,7 +125,40 @@ public class OERandomGenerator {
 		// Mersenne twister with the given seed
 
 		int mt_seed = (int)seed;
-		prng_engine = new DoubleMersenneTwister (mt_seed);
+		counter_engine = null;
+		set_engine (new DoubleMersenneTwister (mt_seed));
+	}
+
+
+
+
+	// Constructor sets up the generators using a counter-based stream.
+	// Parameters:
+	//  master_seed = Master seed.
+	//  stream_index = Index of the stream within the master seed.
+
+	public OERandomGenerator (long master_seed, long stream_index) {
+		counter_engine = new OECounterRandomEngine (master_seed, stream_index);
+		set_engine (counter_engine);
+	}
+
+
+
+
+	// Constructor sets up the generators using the given counter-based engine.
+
+	private OERandomGenerator (OECounterRandomEngine the_counter_engine) {
+		counter_engine = the_counter_engine;
+		set_engine (counter_engine);
+	}
+
+
+
+
+	// Set up the distributions to use the given underlying PRNG.
+
+	private void set_engine (DoubleRandomEngine engine) {
+		prng_engine = engine;
 
 		// Uniform random number generator
 		// (We set limits to 0.0 and 1.0, but these are changed as needed)
@@ -120,6 +169,70 @@ public class OERandomGenerator {
 		// (We set the mean to 1.0, but this is changed as needed)
 
 		gen_poisson = new Poisson (1.0, prng_engine);
+		return;
+	}
+
+
+
+
+	// Select a counter-based stream.
+	// Parameters:
+	//  master_seed = Master seed.
+	//  stream_index = Index of the stream within the master seed.
+	// If this generator uses the Mersenne twister, it is switched to the counter-based
+	// backend.  Otherwise, only the stream is changed, which requires no allocation.
+	// After this call, the sequence of random values is determined by the arguments.
+
+	public void set_stream (long master_seed, long stream_index) {
+		if (counter_engine == null) {
+			counter_engine = new OECounterRandomEngine (master_seed, stream_index);
+			set_engine (counter_engine);
+		} else {
+			counter_engine.set_stream (master_seed, stream_index);
+		}
+		return;
+	}
+
+
+
+
+	// Return true if this generator uses the counter-based backend.
+
+	public final boolean is_counter_based () {
+		return counter_engine != null;
+	}
+
+
+
+
+	// Get a master seed for counter-based streams.
+	// This is drawn from the same global seed sequence as the Mersenne twister seeds,
+	// so in test mode it is determined by the test-mode random seed.
+
+	public static long make_master_seed () {
+		return get_next_seed();
+	}
+
+
+
+
+	// Make a new random generator, whose seed is drawn from this generator.
+	// The new generator produces a stream that is statistically independent of this one,
+	// and that is fully determined by the state of this generator, so a computation that
+	// splits its work across several generators is reproducible from the original seed.
+	// This can be used to give each piece of a computation its own generator, so the pieces
+	// can run in separate threads in any order.
+	// The new generator uses the same backend as this generator.
+
+	public OERandomGenerator split_rangen () {
+		if (counter_engine != null) {
+			return new OERandomGenerator (counter_engine.split_engine());
+		}
+		int split_seed = prng_engine.nextInt();
+		if (split_seed == 0) {
+			split_seed = 123456789;
+		}
+		return new OERandomGenerator ((long)split_seed);
 	}
 
 
@@ -181,6 +294,9 @@ public class OERandomGenerator {
 	//  mean = The mean of the Poisson distribution.
 
 	public int poisson_sample (double mean) {
+		if (f_fast_samplers) {
+			return fast_poisson_sample (mean);
+		}
 		return gen_poisson.nextInt (mean);
 	}
 
@@ -202,7 +318,7 @@ public class OERandomGenerator {
 
 		// Evaluate the Poisson distribution
 
-		int x = gen_poisson.nextInt (mean);
+		int x = (f_fast_samplers ? fast_poisson_sample (mean) : gen_poisson.nextInt (mean));
 
 		// Get the cap as approximately the mean plus 10 sigma;
 		// the extra +1.0 below ensures that the result is not
@@ -224,7 +340,12 @@ public class OERandomGenerator {
 	//  u2 = Upper limit, must satisfy u1 <= u2.
 
 	public double uniform_sample (double u1, double u2) {
-		double u = gen_uniform.nextDoubleFromTo (u1, u2);
+		double u;
+		if (counter_engine != null) {
+			u = u1 + ((u2 - u1) * counter_engine.raw());	// avoids dispatch through the Colt distribution
+		} else {
+			u = gen_uniform.nextDoubleFromTo (u1, u2);
+		}
 
 		// Force result to lie between u1 and u2
 
@@ -1375,6 +1496,412 @@ public class OERandomGenerator {
 
 
 
+	//----- Fast samplers -----
+
+
+
+
+	// True to use the fast Poisson sampler, false to use the Colt Poisson distribution.
+	// The fast sampler is used unless the system property oafrangen is set to "colt",
+	// for example by passing -Doafrangen=colt to the JVM.  Both samplers produce the
+	// Poisson distribution exactly (to within floating-point rounding), but they
+	// consume random numbers differently, so they produce different catalogs from
+	// the same seed.
+
+	public static final boolean f_fast_samplers = !SimpleUtils.is_property_value ("oafrangen", "colt");
+
+
+	// Means below this value use table inversion, means at or above use PTRS.
+	// (PTRS requires a mean of at least 10.)
+
+	private static final double POIS_TABLE_MAX_MEAN = 12.0;
+
+	// Means above this value are passed to the Colt sampler, to avoid integer overflow.
+
+	private static final double POIS_FAST_MAX_MEAN = 1.0e9;
+
+	// Size of the inversion table.
+	// For means below POIS_TABLE_MAX_MEAN, the probability of a value at or beyond
+	// the end of the table is less than 1e-24.
+
+	private static final int POIS_TABLE_SIZE = 64;
+
+	// Number of entries in the log-factorial table.
+
+	private static final int LOG_FACT_TABLE_SIZE = 256;
+
+	// Table of log(k!) for 0 <= k < LOG_FACT_TABLE_SIZE.
+
+	private static final double[] LOG_FACT_TABLE = make_log_fact_table();
+
+	private static double[] make_log_fact_table () {
+		double[] result = new double[LOG_FACT_TABLE_SIZE];
+		result[0] = 0.0;
+		for (int k = 1; k < LOG_FACT_TABLE_SIZE; ++k) {
+			result[k] = result[k - 1] + Math.log ((double)k);
+		}
+		return result;
+	}
+
+	// Half the natural logarithm of 2*pi.
+
+	private static final double HALF_LOG_2PI = 0.9189385332046728;
+
+
+	// Inversion table state: the mean the table was built for (NaN if none), the cumulative
+	// probabilities built so far, the number of entries built, and the last probability.
+	// The table is extended only as far as needed by the samples drawn, so changing the mean
+	// costs no more than a sequential search.
+
+	private double pois_table_mean = Double.NaN;
+	private final double[] pois_table_cdf = new double[POIS_TABLE_SIZE];
+	private int pois_table_len = 0;
+	private double pois_table_pmf = 0.0;
+
+	// PTRS state: the mean the constants were computed for (NaN if none), and the constants.
+
+	private double ptrs_mean = Double.NaN;
+	private double ptrs_log_mean;
+	private double ptrs_a;
+	private double ptrs_b;
+	private double ptrs_log_inv_alpha;
+	private double ptrs_vr;
+
+
+
+
+	// Get a uniform random number in the open interval (0, 1), directly from the engine.
+
+	private double next_raw () {
+		if (counter_engine != null) {
+			return counter_engine.raw();
+		}
+		return prng_engine.raw();
+	}
+
+
+
+
+	// Calculate log(k!).
+	// Uses a table for small k, and the Stirling series for large k (relative error
+	// well below double precision for k >= LOG_FACT_TABLE_SIZE).
+
+	public static double log_factorial (int k) {
+		if (k < LOG_FACT_TABLE_SIZE) {
+			return LOG_FACT_TABLE[k];
+		}
+		final double x = ((double)k) + 1.0;
+		final double rx2 = 1.0 / (x * x);
+		return ((x - 0.5) * Math.log(x)) - x + HALF_LOG_2PI
+			+ ((((rx2 / 1260.0) - (1.0 / 360.0)) * rx2 + (1.0 / 12.0)) / x);
+	}
+
+
+
+
+	// Sample from a Poisson distribution, using the fast samplers.
+	// Parameters:
+	//  mean = The mean of the Poisson distribution.
+	// Small means use inversion with a cached table of cumulative probabilities.
+	// Large means use the PTRS transformed rejection method of Hormann (1993),
+	// "The transformed rejection method for generating Poisson random variables,"
+	// Insurance: Mathematics and Economics 12, 39-45.
+	// No memory is allocated.
+
+	public int fast_poisson_sample (double mean) {
+
+		// Invalid or very large means go to the Colt sampler
+
+		if (!( mean > 0.0 && mean <= POIS_FAST_MAX_MEAN )) {
+			return gen_poisson.nextInt (mean);
+		}
+
+		// Small means use table inversion
+
+		if (mean < POIS_TABLE_MAX_MEAN) {
+
+			// Start a new table if the mean has changed
+
+			if (mean != pois_table_mean) {
+				pois_table_mean = mean;
+				pois_table_pmf = Math.exp (-mean);
+				pois_table_cdf[0] = pois_table_pmf;
+				pois_table_len = 1;
+			}
+
+			final double u = next_raw();
+
+			// Search the part of the table already built
+
+			for (int k = 0; k < pois_table_len; ++k) {
+				if (u <= pois_table_cdf[k]) {
+					return k;
+				}
+			}
+
+			// Extend the table until it covers u
+
+			while (pois_table_len < POIS_TABLE_SIZE) {
+				final int k = pois_table_len;
+				pois_table_pmf *= (mean / ((double)k));
+				pois_table_cdf[k] = pois_table_cdf[k - 1] + pois_table_pmf;
+				pois_table_len = k + 1;
+				if (u <= pois_table_cdf[k]) {
+					return k;
+				}
+			}
+
+			// Rounding left u above the last cumulative probability
+
+			return POIS_TABLE_SIZE - 1;
+		}
+
+		// Large means use PTRS, first computing constants if the mean has changed
+
+		if (mean != ptrs_mean) {
+			ptrs_mean = mean;
+			ptrs_log_mean = Math.log (mean);
+			ptrs_b = 0.931 + (2.53 * Math.sqrt (mean));
+			ptrs_a = -0.059 + (0.02483 * ptrs_b);
+			ptrs_log_inv_alpha = Math.log (1.1239 + (1.1328 / (ptrs_b - 3.4)));
+			ptrs_vr = 0.9277 - (3.6224 / (ptrs_b - 2.0));
+		}
+
+		for (;;) {
+			final double u = next_raw() - 0.5;
+			final double v = next_raw();
+			final double us = 0.5 - Math.abs (u);
+			final double kd = Math.floor ((((2.0 * ptrs_a / us) + ptrs_b) * u) + mean + 0.43);
+
+			// Immediate acceptance in the central region
+
+			if (us >= 0.07 && v <= ptrs_vr) {
+				return (int)kd;
+			}
+
+			// Immediate rejection
+
+			if (kd < 0.0 || (us < 0.013 && v > us)) {
+				continue;
+			}
+
+			// Acceptance test
+
+			final int k = (int)kd;
+			if (Math.log (v) + ptrs_log_inv_alpha - Math.log ((ptrs_a / (us * us)) + ptrs_b)
+				<= (-mean) + (kd * ptrs_log_mean) - log_factorial (k)) {
+				return k;
+			}
+		}
+	}
+
+
+
+
+	// Sampler for the shifted Omori distribution, with constants cached for one parent.
+	// Sampling children of a single parent (the same p, c, t0, t1, t2) with
+	// omori_sample_shifted(p, c, t0, t1, t2) repeats two logarithm/exponential evaluations
+	// per child that depend only on the parent.  This object computes them once, in setup,
+	// leaving two evaluations per child.  The results are bitwise identical to
+	// omori_rescale_shifted for the same u.
+	// Objects of this class are re-usable, and are not thread-safe.
+
+	public static final class OmoriShiftedSampler {
+
+		// Sampling method.
+
+		private static final int OSS_FIXED = 0;		// always return t_hi
+		private static final int OSS_UNIFORM = 1;	// uniform between t_lo and t_hi
+		private static final int OSS_OMORI = 2;		// Omori between t_lo and t_hi
+
+		private int oss_kind;
+
+		// Lower and upper limits of the result.
+
+		private double t_lo;
+		private double t_hi;
+
+		// Constants for the Omori distribution, see omori_rescale_raw.
+
+		private double w;
+		private double q;
+		private double lnr;
+		private double qlnr;
+		private double em1_qlnr;
+		private boolean f_series;
+
+		// Set up for the given parameters.
+		// Parameters are the same as omori_rescale_shifted.
+
+		public OmoriShiftedSampler setup (double p, double c, double t0, double t1, double t2) {
+
+			// Case where earthquake is a background source
+
+			if (t0 <= BKGD_TIME_DAYS_CHECK) {
+				t_hi = t2;
+				if (t2 <= t1) {
+					oss_kind = OSS_FIXED;
+				} else {
+					oss_kind = OSS_UNIFORM;
+					t_lo = t1;
+				}
+			}
+
+			// Case where earthquake is before start of time interval
+
+			else if (t0 <= t1) {
+				t_hi = t2;
+				if (t2 <= t1) {
+					oss_kind = OSS_FIXED;
+				} else {
+					oss_kind = OSS_OMORI;
+					t_lo = t1;
+					setup_raw (p, t1 - t0 + c, t2 - t1);
+				}
+			}
+
+			// Otherwise, earthquake is within the time interval
+
+			else {
+				t_hi = t2;
+				if (t2 <= t0) {
+					oss_kind = OSS_FIXED;
+				} else {
+					oss_kind = OSS_OMORI;
+					t_lo = t0;
+					setup_raw (p, c, t2 - t0);
+				}
+			}
+
+			return this;
+		}
+
+		// Set up the constants for omori_rescale_raw.
+
+		private void setup_raw (double p, double the_w, double tr) {
+			w = the_w;
+			q = 1.0 - p;
+			lnr = Math.log1p(tr/w);
+			qlnr = q*lnr;
+			f_series = (Math.abs(qlnr) <= 0.01);
+			em1_qlnr = (f_series ? 0.0 : Math.expm1(qlnr));
+			return;
+		}
+
+		// Rescale a uniform random number u to a time, as in omori_rescale_shifted.
+
+		public double rescale (double u) {
+			double t;
+
+			switch (oss_kind) {
+
+			default:
+				t = t_hi;
+				break;
+
+			case OSS_UNIFORM:
+				t = ((t_hi - t_lo)*u) + t_lo;
+				break;
+
+			case OSS_OMORI: {
+				double y;
+				if (f_series) {
+					final double c1 = (1.0 - u)/2.0;
+					final double c2 = ((2.0*u - 3.0)*u + 1.0)/6.0;
+					final double c3 = (((-6.0*u + 12.0)*u - 7.0)*u + 1.0)/24.0;
+					y = (((c3*qlnr + c2)* qlnr + c1)*qlnr + 1.0)*u*lnr;
+				} else {
+					y = Math.log1p(em1_qlnr*u)/q;
+				}
+				t = Math.expm1(y)*w + t_lo;
+			}
+			break;
+			}
+
+			// Force result to lie between t_lo and t_hi
+
+			if (oss_kind != OSS_FIXED) {
+				if (t > t_hi) {
+					t = t_hi;
+				}
+				if (t < t_lo) {
+					t = t_lo;
+				}
+			}
+
+			return t;
+		}
+	}
+
+
+
+
+	// Sample from a shifted Omori distribution, using a sampler set up for the parent.
+	// Produces the same results as omori_sample_shifted(p, c, t0, t1, t2) with the
+	// parameters passed to sampler.setup.
+
+	public double omori_sample_shifted (OmoriShiftedSampler sampler) {
+		double u = uniform_sample (0.0, 1.0);
+		return sampler.rescale (u);
+	}
+
+
+
+
+	// Sampler for the Gutenberg-Richter distribution, with constants cached for one magnitude range.
+	// The results are bitwise identical to gr_rescale for the same u.
+	// Objects of this class are re-usable, and are not thread-safe.
+
+	public static final class GRSampler {
+
+		private double m1;
+		private double m2;
+		private double beta;
+		private double em1;
+
+		// Set up for the given parameters.
+		// Parameters are the same as gr_rescale.
+
+		public GRSampler setup (double b, double the_m1, double the_m2) {
+			m1 = the_m1;
+			m2 = the_m2;
+			beta = C_LOG_10 * b;
+			em1 = Math.expm1(-beta*(m2 - m1));
+			return this;
+		}
+
+		// Rescale a uniform random number u to a magnitude, as in gr_rescale.
+
+		public double rescale (double u) {
+			double m = m1 - (Math.log1p(u*em1) / beta);
+
+			// Force result to lie between m1 and m2
+
+			if (m > m2) {
+				m = m2;
+			}
+			if (m < m1) {
+				m = m1;
+			}
+
+			return m;
+		}
+	}
+
+
+
+
+	// Sample from a Gutenberg-Richter distribution, using a sampler set up for the magnitude range.
+	// Produces the same results as gr_sample(b, m1, m2) with the parameters passed to sampler.setup.
+
+	public double gr_sample (GRSampler sampler) {
+		double u = uniform_sample (0.0, 1.0);
+		return sampler.rescale (u);
+	}
+
+
+
+
 	//----- Testing -----
 
 
@@ -2148,6 +2675,284 @@ public class OERandomGenerator {
 
 
 
+		// Subcommand : Test #12
+		// Command format:
+		//  test12  master_seed  n
+		// Compare the Mersenne twister and counter-based backends.
+		// For each backend, time n uniform samples, n Poisson samples with mean 3.7,
+		// and n Omori samples, and display the sample means.
+		// Then check that a counter-based stream is reproduced exactly when it is re-selected.
+
+		if (args[0].equalsIgnoreCase ("test12")) {
+
+			// 2 additional arguments
+
+			if (args.length != 3) {
+				System.err.println ("OERandomGenerator : Invalid 'test12' subcommand");
+				return;
+			}
+
+			try {
+
+				long master_seed = Long.parseLong (args[1]);
+				int n = Integer.parseInt(args[2]);
+
+				// Say hello
+
+				System.out.println ("Comparing random generator backends");
+				System.out.println ("master_seed = " + master_seed);
+				System.out.println ("n = " + n);
+
+				// Generators for each backend
+
+				OERandomGenerator[] rangens = new OERandomGenerator[2];
+				rangens[0] = new OERandomGenerator (master_seed);
+				rangens[1] = new OERandomGenerator (master_seed, 0L);
+				String[] names = {"Mersenne twister", "Counter-based"};
+
+				for (int pass = 0; pass < 2; ++pass) {
+					for (int k = 0; k < rangens.length; ++k) {
+						OERandomGenerator rangen = rangens[k];
+
+						long t0 = System.nanoTime();
+						double sum_u = 0.0;
+						for (int i = 0; i < n; ++i) {
+							sum_u += rangen.uniform_sample (0.0, 1.0);
+						}
+						long t1 = System.nanoTime();
+						long sum_p = 0L;
+						for (int i = 0; i < n; ++i) {
+							sum_p += rangen.poisson_sample (3.7);
+						}
+						long t2 = System.nanoTime();
+						double sum_t = 0.0;
+						for (int i = 0; i < n; ++i) {
+							sum_t += rangen.omori_sample_shifted (1.1, 0.01, 0.0, 0.0, 365.0);
+						}
+						long t3 = System.nanoTime();
+
+						System.out.println ();
+						System.out.println (names[k] + ", pass " + pass + ":");
+						System.out.println ("uniform: mean = " + (sum_u / n) + ", time = " + ((t1 - t0) / 1000000L) + " ms");
+						System.out.println ("poisson: mean = " + (((double)sum_p) / n) + ", time = " + ((t2 - t1) / 1000000L) + " ms");
+						System.out.println ("omori: mean = " + (sum_t / n) + ", time = " + ((t3 - t2) / 1000000L) + " ms");
+					}
+				}
+
+				// Check that streams are reproducible
+
+				OERandomGenerator rangen_a = new OERandomGenerator (master_seed, 17L);
+				OERandomGenerator rangen_b = new OERandomGenerator (master_seed, 5L);
+				double first_a = rangen_a.uniform_sample (0.0, 1.0);
+				for (int i = 0; i < 1000; ++i) {
+					rangen_b.uniform_sample (0.0, 1.0);
+				}
+				rangen_b.set_stream (master_seed, 17L);
+				double first_b = rangen_b.uniform_sample (0.0, 1.0);
+
+				System.out.println ();
+				System.out.println ("Stream reproduced = " + (first_a == first_b));
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #13
+		// Command format:
+		//  test13  seed  mean  n
+		// Draw n samples from a Poisson distribution with the given mean, using the fast
+		// sampler and the Colt sampler, and compare each histogram to the exact distribution
+		// with a chi-square statistic.  Also display the time taken by each sampler.
+		// Bins with expected count less than 5 are merged into the tails.
+
+		if (args[0].equalsIgnoreCase ("test13")) {
+
+			// 3 additional arguments
+
+			if (args.length != 4) {
+				System.err.println ("OERandomGenerator : Invalid 'test13' subcommand");
+				return;
+			}
+
+			try {
+
+				long seed = Long.parseLong (args[1]);
+				double mean = Double.parseDouble (args[2]);
+				int n = Integer.parseInt(args[3]);
+
+				// Say hello
+
+				System.out.println ("Comparing Poisson samplers");
+				System.out.println ("seed = " + seed);
+				System.out.println ("mean = " + mean);
+				System.out.println ("n = " + n);
+
+				OERandomGenerator rangen = new OERandomGenerator (seed, 0L);
+
+				// Exact probabilities, over a range of about 12 sigma around the mean
+
+				int kmax = (int)Math.ceil (mean + 12.0 * Math.sqrt (mean) + 12.0);
+				double[] prob = new double[kmax + 1];
+				for (int k = 0; k <= kmax; ++k) {
+					prob[k] = Math.exp ((-mean) + (((double)k) * Math.log (mean)) - log_factorial (k));
+				}
+
+				// Histograms
+
+				for (int meth = 0; meth < 2; ++meth) {
+					long[] hist = new long[kmax + 1];
+					long t0 = System.nanoTime();
+					for (int i = 0; i < n; ++i) {
+						int k = ((meth == 0) ? rangen.fast_poisson_sample (mean) : rangen.gen_poisson.nextInt (mean));
+						hist[Math.min (k, kmax)]++;
+					}
+					long t1 = System.nanoTime();
+
+					// Chi-square statistic, merging bins with small expected counts
+
+					double chi2 = 0.0;
+					int bins = 0;
+					double exp_acc = 0.0;
+					long obs_acc = 0L;
+					for (int k = 0; k <= kmax; ++k) {
+						exp_acc += prob[k] * n;
+						obs_acc += hist[k];
+						if (exp_acc >= 5.0 || k == kmax) {
+							chi2 += (obs_acc - exp_acc) * (obs_acc - exp_acc) / Math.max (exp_acc, 1.0e-300);
+							++bins;
+							exp_acc = 0.0;
+							obs_acc = 0L;
+						}
+					}
+
+					System.out.println ();
+					System.out.println (((meth == 0) ? "Fast" : "Colt") + " sampler: chi2 = " + rndd (chi2) + ", degrees of freedom = " + (bins - 1)
+						+ ", time = " + ((t1 - t0) / 1000000L) + " ms");
+				}
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #14
+		// Command format:
+		//  test14  seed  n
+		// Check that the cached Omori and Gutenberg-Richter samplers produce the same
+		// results as omori_rescale_shifted and gr_rescale, for n random choices of parameters,
+		// and time the cached and uncached versions for 100 children per parent.
+
+		if (args[0].equalsIgnoreCase ("test14")) {
+
+			// 2 additional arguments
+
+			if (args.length != 3) {
+				System.err.println ("OERandomGenerator : Invalid 'test14' subcommand");
+				return;
+			}
+
+			try {
+
+				long seed = Long.parseLong (args[1]);
+				int n = Integer.parseInt(args[2]);
+
+				// Say hello
+
+				System.out.println ("Checking cached Omori and Gutenberg-Richter samplers");
+				System.out.println ("seed = " + seed);
+				System.out.println ("n = " + n);
+
+				OERandomGenerator rangen = new OERandomGenerator (seed, 0L);
+				OmoriShiftedSampler omori_sampler = new OmoriShiftedSampler();
+				GRSampler gr_sampler = new GRSampler();
+
+				// Check for identical results
+
+				long omori_mismatch = 0L;
+				long gr_mismatch = 0L;
+
+				for (int i = 0; i < n; ++i) {
+					double p = rangen.uniform_sample (0.5, 2.0);
+					if (i % 4 == 0) {
+						p = 1.0 + rangen.uniform_sample (-1.0e-3, 1.0e-3);	// exercise the series expansion
+					}
+					double c = Math.pow (10.0, rangen.uniform_sample (-5.0, 0.0));
+					double t1 = rangen.uniform_sample (0.0, 10.0);
+					double t2 = t1 + rangen.uniform_sample (0.0, 365.0);
+					double t0 = rangen.uniform_sample (-10.0, t2 + 1.0);
+					if (i % 7 == 0) {
+						t0 = BKGD_TIME_DAYS;
+					}
+					double u = rangen.uniform_sample (0.0, 1.0);
+
+					omori_sampler.setup (p, c, t0, t1, t2);
+					if (Double.doubleToLongBits (omori_sampler.rescale (u)) != Double.doubleToLongBits (omori_rescale_shifted (p, c, t0, t1, t2, u))) {
+						++omori_mismatch;
+					}
+
+					double b = rangen.uniform_sample (0.5, 1.5);
+					double m1 = rangen.uniform_sample (2.0, 4.0);
+					double m2 = m1 + rangen.uniform_sample (0.0, 6.0);
+
+					gr_sampler.setup (b, m1, m2);
+					if (Double.doubleToLongBits (gr_sampler.rescale (u)) != Double.doubleToLongBits (gr_rescale (b, m1, m2, u))) {
+						++gr_mismatch;
+					}
+				}
+
+				System.out.println ();
+				System.out.println ("Omori mismatches = " + omori_mismatch);
+				System.out.println ("G-R mismatches = " + gr_mismatch);
+
+				// Timing, with 100 children per parent
+
+				for (int pass = 0; pass < 2; ++pass) {
+					double sink = 0.0;
+					long t0 = System.nanoTime();
+					for (int i = 0; i < n; ++i) {
+						double tp = 0.001 * i;
+						for (int j = 0; j < 100; ++j) {
+							sink += rangen.omori_sample_shifted (1.08, 0.002, tp, 0.0, 365.0);
+							sink += rangen.gr_sample (1.0, 3.0, 9.5);
+						}
+					}
+					long t1 = System.nanoTime();
+					for (int i = 0; i < n; ++i) {
+						double tp = 0.001 * i;
+						omori_sampler.setup (1.08, 0.002, tp, 0.0, 365.0);
+						gr_sampler.setup (1.0, 3.0, 9.5);
+						for (int j = 0; j < 100; ++j) {
+							sink += rangen.omori_sample_shifted (omori_sampler);
+							sink += rangen.gr_sample (gr_sampler);
+						}
+					}
+					long t2 = System.nanoTime();
+
+					System.out.println ();
+					System.out.println ("Pass " + pass + ": uncached time = " + ((t1 - t0) / 1000000L) + " ms, cached time = " + ((t2 - t1) / 1000000L) + " ms, sink = " + sink);
+				}
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
 		// Unrecognized subcommand.
 
 		System.err.println ("OERandomGenerator : Unrecognized subcommand : " + args[0]);
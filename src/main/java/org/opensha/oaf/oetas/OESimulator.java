@@ -57,6 +57,16 @@ public class OESimulator {
 
 	public SimpleExecTimer sim_exec_timer;
 
+	// The convergence test for the simulation, or null to generate the configured number of catalogs.
+	// On return, it contains the results of the convergence test.
+
+	public OEEnsembleConvergence sim_convergence;
+
+	// True to reuse the catalogs of the final ranging pass in the simulation, if the range did not change.
+	// Only trial simulation ranging (RANGING_METH_SIM) generates complete catalogs that can be reused.
+
+	public boolean sim_reuse_ranging;
+
 	//----- Outputs -----
 
 	// The accumulator that holds the results of all the simulations.
@@ -81,6 +91,11 @@ public class OESimulator {
 
 	public OEEnsembleAccumulator range_accumulator;
 
+	// The simulation accumulator holding the catalogs of the final ranging pass, or null if none.
+	// It is set up by the ranging when sim_reuse_ranging is true, and the range did not change.
+
+	private OEAccumCarryOver carry_accumulator;
+
 	// The loop result.
 
 	private SimpleThreadLoopResult loop_result = new SimpleThreadLoopResult();
@@ -100,6 +115,8 @@ public class OESimulator {
 		sim_parameters = null;
 		sim_executor = null;
 		sim_exec_timer = null;
+		sim_convergence = make_default_convergence();
+		sim_reuse_ranging = default_reuse_ranging;
 
 		sim_accumulator = null;
 		sim_forecast_grid = null;
@@ -107,6 +124,7 @@ public class OESimulator {
 		sim_count = 0;
 
 		range_accumulator = null;
+		carry_accumulator = null;
 		return;
 	}
 
@@ -122,6 +140,49 @@ public class OESimulator {
 
 
 
+	//----- Convergence test -----
+
+	// The default convergence test specification.
+	// The default is "off".  It can be changed with the system property oafsimconv,
+	// whose value is a specification as described in OEEnsembleConvergence.make_from_spec.
+
+	public static final String default_convergence_spec = select_convergence_spec();
+
+	// Select the default convergence test specification.
+
+	private static String select_convergence_spec () {
+		String result = "off";
+		String s = SimpleUtils.get_property_string ("oafsimconv");
+		if (s != null) {
+			try {
+				OEEnsembleConvergence.make_from_spec (s);	// validate
+				result = s;
+			} catch (Exception e) {
+				result = "off";
+			}
+		}
+		return result;
+	}
+
+	// Make the default convergence test, or null if convergence testing is disabled by default.
+
+	public static OEEnsembleConvergence make_default_convergence () {
+		return OEEnsembleConvergence.make_from_spec (default_convergence_spec);
+	}
+
+
+
+
+	//----- Reuse of ranging catalogs -----
+
+	// The default for reusing the catalogs of the final ranging pass.
+	// The default is false.  It can be set true with the system property oafsimreuse=on.
+
+	public static final boolean default_reuse_ranging = SimpleUtils.is_property_value ("oafsimreuse", "on");
+
+
+
+
 	//----- Execution -----
 
 
@@ -207,6 +268,58 @@ public class OESimulator {
 
 
 
+	// Allocate and set up the accumulator for the simulation.
+	// Parameters:
+	//  time_values = Time values that delimit the time bins.
+	//  mag_values = Magnitude values that delimit the magnitude bins.
+
+	private OEEnsembleAccumulator make_sim_accumulator (double[] time_values, double[] mag_values) {
+
+		OEEnsembleAccumulator result = null;
+
+		switch (sim_parameters.sim_accum_selection) {
+
+		default:
+			throw new IllegalArgumentException ("OESimulator.make_sim_accumulator: Invalid accumulator selection: sim_accum_selection = " + sim_parameters.sim_accum_selection);
+
+		case OEConstants.SEL_ACCUM_CUM_TIME_MAG: {
+			System.out.println ("Using accumulator: OEAccumCumTimeMag");
+			System.out.println ("Accumulator option: " + sim_parameters.sim_accum_option + " (" + OEConstants.get_infill_method_as_string(sim_parameters.sim_accum_option) + ")");
+			OEAccumCumTimeMag accum = new OEAccumCumTimeMag();
+			accum.setup (sim_parameters.sim_accum_option, time_values, mag_values);
+			result = accum;
+		}
+		break;
+
+		case OEConstants.SEL_ACCUM_VAR_TIME_MAG: {
+			System.out.println ("Using accumulator: OEAccumVarTimeMag");
+			System.out.println ("Accumulator option: " + sim_parameters.sim_accum_option + " (" + OEConstants.get_infill_method_as_string(sim_parameters.sim_accum_option) + ")");
+			OEAccumVarTimeMag accum = new OEAccumVarTimeMag();
+			accum.setup (sim_parameters.sim_accum_option, time_values, mag_values);
+			result = accum;
+		}
+		break;
+
+		case OEConstants.SEL_ACCUM_RATE_TIME_MAG: {
+			System.out.println ("Using accumulator: OEAccumRateTimeMag");
+			System.out.println ("Accumulator option: " + sim_parameters.sim_accum_option + " (" + OEConstants.get_rate_acc_meth_as_string(sim_parameters.sim_accum_option) + ")");
+			System.out.println ("Accumulator parameter (upfill_sec_reduce): " + sim_parameters.sim_accum_param_1);
+			OEAccumRateTimeMag accum = new OEAccumRateTimeMag();
+			accum.setup (null, sim_parameters.sim_accum_option, time_values, mag_values);
+			accum.set_upfill_sec_reduce (sim_parameters.sim_accum_param_1);
+			accum.set_sharding (sim_executor.get_num_threads (Runtime.getRuntime().availableProcessors()), sim_executor.get_executor());
+			result = accum;
+		}
+		break;
+
+		}
+
+		return result;
+	}
+
+
+
+
 	// Run the simulation.
 	// Throws exception in case of failure.
 
@@ -255,57 +368,41 @@ public class OESimulator {
 		sim_catalog_range.clip_tend (time_values[time_values.length - 1]);
 		sim_initializer.set_range (sim_catalog_range);
 
-		// Allocate and set up the desired accumulator
+		// Allocate and set up the desired accumulator, or use the one that holds the final ranging pass
 
-		switch (sim_parameters.sim_accum_selection) {
-
-		default:
-			throw new IllegalArgumentException ("OESimulator.do_run_simulation: Invalid accumulator selection: sim_accum_selection = " + sim_parameters.sim_accum_selection);
-
-		case OEConstants.SEL_ACCUM_CUM_TIME_MAG: {
-			System.out.println ("Using accumulator: OEAccumCumTimeMag");
-			System.out.println ("Accumulator option: " + sim_parameters.sim_accum_option + " (" + OEConstants.get_infill_method_as_string(sim_parameters.sim_accum_option) + ")");
-			OEAccumCumTimeMag accum = new OEAccumCumTimeMag();
-			accum.setup (sim_parameters.sim_accum_option, time_values, mag_values);
-			sim_accumulator = accum;
-		}
-		break;
-
-		case OEConstants.SEL_ACCUM_VAR_TIME_MAG: {
-			System.out.println ("Using accumulator: OEAccumVarTimeMag");
-			System.out.println ("Accumulator option: " + sim_parameters.sim_accum_option + " (" + OEConstants.get_infill_method_as_string(sim_parameters.sim_accum_option) + ")");
-			OEAccumVarTimeMag accum = new OEAccumVarTimeMag();
-			accum.setup (sim_parameters.sim_accum_option, time_values, mag_values);
-			sim_accumulator = accum;
-		}
-		break;
-
-		case OEConstants.SEL_ACCUM_RATE_TIME_MAG: {
-			System.out.println ("Using accumulator: OEAccumRateTimeMag");
-			System.out.println ("Accumulator option: " + sim_parameters.sim_accum_option + " (" + OEConstants.get_rate_acc_meth_as_string(sim_parameters.sim_accum_option) + ")");
-			System.out.println ("Accumulator parameter (upfill_sec_reduce): " + sim_parameters.sim_accum_param_1);
-			OEAccumRateTimeMag accum = new OEAccumRateTimeMag();
-			accum.setup (null, sim_parameters.sim_accum_option, time_values, mag_values);
-			accum.set_upfill_sec_reduce (sim_parameters.sim_accum_param_1);
-			sim_accumulator = accum;
-		}
-		break;
+		OEEnsembleAccumulator sim_accum_entry;
+		int carried_count = 0;
 
+		if (carry_accumulator != null) {
+			carried_count = carry_accumulator.get_carried_count();
+			System.out.println ("Reusing " + carried_count + " catalogs from the final ranging pass");
+			sim_accumulator = carry_accumulator.get_accumulator();
+			carry_accumulator.set_hold (false);
+			sim_accum_entry = carry_accumulator;
+			carry_accumulator = null;
+		} else {
+			sim_accumulator = make_sim_accumulator (time_values, mag_values);
+			sim_accum_entry = sim_accumulator;
 		}
 
 		// Create the list of accumulators
 
 		ArrayList<OEEnsembleAccumulator> accumulators = new ArrayList<OEEnsembleAccumulator>();
-		accumulators.add (sim_accumulator);
+		accumulators.add (sim_accum_entry);
 
-		// Set up the ensemble parameters
+		// The number of catalogs not already accumulated, which is zero if the
+		// final ranging pass supplied all of them (at least one if none were supplied)
+
+		int new_catalogs = Math.max ((carried_count > 0) ? 0 : 1, sim_parameters.sim_num_catalogs - carried_count);
+
+		// Set up the ensemble parameters, for the catalogs not already accumulated
 
 		OEEnsembleParams ensemble_params = new OEEnsembleParams();
 
 		ensemble_params.set (
 			sim_initializer,					// initializer
 			accumulators,						// accumulators
-			sim_parameters.sim_num_catalogs		// num_catalogs
+			new_catalogs						// num_catalogs
 		);
 
 		// Create the ensemble generator
@@ -316,11 +413,43 @@ public class OESimulator {
 
 		ensemble_generator.set_upstream_loop_result (loop_result);
 
-		// Generate the catalogs
+		// If testing convergence, check the advisory fractiles
 
-		int catalog_count = ensemble_generator.generate_all_catalogs (ensemble_params, sim_executor, max_runtime, progress_time);
+		if (sim_convergence != null) {
+			double[] adv_fractiles = sim_forecast_grid.getFractileProbabilities();
+			if (adv_fractiles != null) {
+				sim_convergence.set_fractiles (adv_fractiles);
+			}
+			ensemble_generator.set_convergence (sim_convergence);
+			System.out.println ();
+			System.out.println ("Convergence test: prob_tol = " + sim_convergence.prob_tol
+				+ ", frac_rel_tol = " + sim_convergence.frac_rel_tol
+				+ ", frac_abs_tol = " + sim_convergence.frac_abs_tol
+				+ ", min_catalogs = " + sim_convergence.min_catalogs);
+		}
+
+		// Generate the catalogs, or if none are needed just finish the accumulation of the carried catalogs
+
+		int catalog_count;
+
+		if (new_catalogs > 0) {
+			catalog_count = ensemble_generator.generate_all_catalogs (ensemble_params, sim_executor, max_runtime, progress_time);
+			if (catalog_count >= 0) {
+				catalog_count += carried_count;
+			}
+		} else {
+			System.out.println ("No further catalogs are needed");
+			sim_accum_entry.end_accumulation();
+			catalog_count = carried_count;
+		}
 		sim_count = catalog_count;
 
+		// Report accumulator memory usage
+
+		if (sim_accumulator instanceof OEAccumRateTimeMag) {
+			System.out.println (((OEAccumRateTimeMag)sim_accumulator).shard_status_string());
+		}
+
 		// Accumulate loop results
 
 		//loop_result.accum_from (ensemble_generator.get_loop_result());
@@ -333,7 +462,9 @@ public class OESimulator {
 			throw new OESimThreadAbortException ("OESimulator.do_run_simulation: " + msg + ": " + ensemble_generator.get_status_msg());
 		}
 
-		if (catalog_count < sim_parameters.sim_min_num_catalogs) {
+		// Note: A converged ensemble is accepted even if it has fewer than the minimum number of catalogs
+
+		if (catalog_count < sim_parameters.sim_min_num_catalogs && !( sim_convergence != null && sim_convergence.is_converged() )) {
 			String msg = "Simulation failed due to insufficient number of catalogs generated within time limit: obtained = " + catalog_count + ", required = " + sim_parameters.sim_min_num_catalogs;
 			System.out.println (msg);
 			throw new OESimTimeoutException ("OESimulator.do_run_simulation: " + msg + ": " + ensemble_generator.get_status_msg());
@@ -381,6 +512,10 @@ public class OESimulator {
 
 	private void do_run_ranging () throws OEException {
 
+		// No catalogs carried over to the simulation yet
+
+		carry_accumulator = null;
+
 		// Switch on ranging method
 
 		switch (sim_parameters.range_method) {
@@ -464,6 +599,16 @@ public class OESimulator {
 			return;
 		}
 
+		// If reusing ranging catalogs, get the time and magnitude bins for the simulation
+
+		final double[] sim_time_values = (sim_reuse_ranging ? sim_forecast_grid.get_time_values (t_forecast) : null);
+		final double[] sim_mag_values = (sim_reuse_ranging ? sim_forecast_grid.get_mag_values() : null);
+
+		// The simulation accumulator and range for the final ranging pass, if reusing ranging catalogs
+
+		OEAccumCarryOver final_carry = null;
+		OECatalogRange final_range = null;
+
 		// Loop for ranging attempts
 
 		int attempt = 0;
@@ -532,10 +677,25 @@ public class OESimulator {
 
 			}
 
+			// If reusing ranging catalogs, and this could be the final pass (which requires a prior attempt),
+			// also accumulate the catalogs for the simulation
+
+			OEAccumCarryOver pass_carry = null;
+			OECatalogRange pass_range = null;
+
+			if (sim_reuse_ranging && attempt > 1) {
+				System.out.println ("Accumulating catalogs for possible reuse in the simulation");
+				pass_carry = new OEAccumCarryOver (make_sim_accumulator (sim_time_values, sim_mag_values), sim_parameters.sim_num_catalogs);
+				pass_range = (new OECatalogRange()).copy_from (sim_catalog_range);
+			}
+
 			// Create the list of accumulators
 
 			ArrayList<OEEnsembleAccumulator> accumulators = new ArrayList<OEEnsembleAccumulator>();
 			accumulators.add (range_accumulator);
+			if (pass_carry != null) {
+				accumulators.add (pass_carry);
+			}
 
 			// Set up the ensemble parameters
 
@@ -643,6 +803,11 @@ public class OESimulator {
 					r = 0.10;
 				} else if (attempt > 1 && r >= 0.80 && r <= 1.20) {
 					f_ranging = false;
+					if (pass_carry != null) {
+						pass_carry.add_carried_count (catalog_count);
+						final_carry = pass_carry;
+						final_range = pass_range;
+					}
 				}
 
 				// If still ranging, rescale the minimum magnitude ...
@@ -722,6 +887,22 @@ public class OESimulator {
 
 		//range_accumulator = null;
 
+		// If reusing ranging catalogs, the final pass can be used if the simulation range
+		// (which is clipped to the forecast time bins) is the same as the final pass range
+
+		if (final_carry != null) {
+			OECatalogRange check_range = (new OECatalogRange()).copy_from (sim_catalog_range);
+			check_range.clip_tend (sim_time_values[sim_time_values.length - 1]);
+			if (check_range.check_range_equal (final_range)) {
+				System.out.println ();
+				System.out.println ("Catalogs from the final ranging pass will be reused in the simulation: count = " + final_carry.get_carried_count());
+				carry_accumulator = final_carry;
+			} else {
+				System.out.println ();
+				System.out.println ("Catalogs from the final ranging pass cannot be reused, because the range changed");
+			}
+		}
+
 		// Say goodbye
 
 		System.out.println ();
@@ -872,6 +1053,7 @@ public class OESimulator {
 			the_mag_values = (OEDiscreteRange.makeLinear (mag_range_size, mag_range_min, mag_range_max)).get_range_array();
 
 			accum.setup (null, sim_parameters.ranv2_accum_option, the_tint_br, the_derate_br, the_gen_values, the_mag_values);
+			accum.set_sharding (sim_executor.get_num_threads (Runtime.getRuntime().availableProcessors()), sim_executor.get_executor());
 			range_accumulator = accum;
 		}
 		break;
@@ -907,6 +1089,12 @@ public class OESimulator {
 
 		int catalog_count = ensemble_generator.generate_all_catalogs (ensemble_params, sim_executor, max_runtime, progress_time);
 
+		// Report accumulator memory usage
+
+		if (range_accumulator instanceof OEAccumSeedEstRanging) {
+			System.out.println (((OEAccumSeedEstRanging)range_accumulator).shard_status_string());
+		}
+
 		// Accumulate loop results
 
 		//loop_result.accum_from (ensemble_generator.get_loop_result());
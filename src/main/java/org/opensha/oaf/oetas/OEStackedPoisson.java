@@ -1906,6 +1906,16 @@ public class OEStackedPoisson {
 
 
 
+		// Estimate the memory used by this accumulator, in bytes.
+		// Note: Assumes 16 bytes of header per object or array.
+
+		public final long estimate_acc_bytes () {
+			return 56L + 16L + (8L * prob_dist.length);
+		}
+
+
+
+
 		// Combine this accumulator with another accumulator.
 		// All probabilities from the other accumulator are added to this accumulator.
 
@@ -2272,6 +2282,31 @@ public class OEStackedPoisson {
 
 
 
+	// Estimate the memory used by an array of accumulators, in bytes.
+	// Parameters:
+	//  src = 1D or 2D array of accumulators.
+	// Note: Assumes 16 bytes of header per object or array, and 8 bytes per reference.
+
+	public static long estimate_acc_array_bytes (Accumulator[] src) {
+		long result = 16L + (8L * src.length);
+		for (int m = 0; m < src.length; ++m) {
+			result += src[m].estimate_acc_bytes();
+		}
+		return result;
+	}
+
+
+	public static long estimate_acc_array_bytes (Accumulator[][] src) {
+		long result = 16L + (8L * src.length);
+		for (int m = 0; m < src.length; ++m) {
+			result += estimate_acc_array_bytes (src[m]);
+		}
+		return result;
+	}
+
+
+
+
 	// Combine each accumulator in an array of accumulators with another accumulator.
 	// Parameters:
 	//  dest = 1D or 2D array of accumulators to receive the combination.
@@ -41,6 +41,8 @@ import org.opensha.oaf.oetas.fit.OEDisc2History;
 import org.opensha.oaf.oetas.fit.OEDisc2InitFitInfo;
 import org.opensha.oaf.oetas.fit.OEDisc2InitVoxBuilder;
 import org.opensha.oaf.oetas.fit.OEDisc2InitVoxSet;
+import org.opensha.oaf.oetas.fit.OEDisc2OmatArchive;
+import org.opensha.oaf.oetas.fit.OEDisc2OmatArchiveStore;
 import org.opensha.oaf.oetas.fit.OEDiscFGHParams;
 import org.opensha.oaf.oetas.fit.OEGridParams;
 import org.opensha.oaf.oetas.fit.OEGridOptions;
@@ -248,6 +250,11 @@ public class OEExecEnvironment {
 
 	public final SimpleThreadLoopResult sim_perf_data = new SimpleThreadLoopResult();;
 
+	// Key identifying the earthquake sequence, used to keep Omori matrices between fits for
+	// incremental refitting (see OEDisc2OmatArchiveStore), or null if not requested.
+
+	public String omat_archive_key = null;
+
 
 	//--- Filenames for test outputs
 
@@ -1291,6 +1298,17 @@ public class OEExecEnvironment {
 
 		fitter.set_grid_options (grid_options);
 
+		// Set up incremental refitting, using the Omori matrices kept from the last fit for this sequence
+
+		OEDisc2OmatArchiveStore omat_archive_store = OEDisc2OmatArchiveStore.get_global_store();
+		OEDisc2OmatArchive omat_next_archive = null;
+
+		if (omat_archive_key != null && omat_archive_store.is_enabled()) {
+			OEDisc2OmatArchive omat_prior_archive = omat_archive_store.take (omat_archive_key);
+			omat_next_archive = new OEDisc2OmatArchive (history, omat_archive_store.get_max_bytes());
+			fitter.set_omat_archive (omat_prior_archive, omat_next_archive);
+		}
+
 		// Display fitter info
 
 		System.out.println();
@@ -1338,11 +1356,46 @@ public class OEExecEnvironment {
 		System.out.println();
 		System.out.println (voxel_builder.toString());
 
+		// Choose the number of threads so the estimated memory fits in the available heap
+
+		AutoExecutorService fit_executor = exec_timer.get_executor();
+		int exec_num_threads = fit_executor.get_num_threads (AutoExecutorService.get_default_num_threads());
+		long avail_memory = SimpleUtils.get_available_memory();
+		if (omat_next_archive != null && avail_memory != Long.MAX_VALUE) {
+			avail_memory = Math.max (0L, avail_memory - omat_archive_store.get_max_bytes());
+		}
+		int mem_num_threads = voxel_builder.calc_mem_num_threads (exec_num_threads, avail_memory);
+
+		System.out.println();
+		System.out.println ("Fitting memory estimate: " + fitter.memory_estimate_string());
+		System.out.println ("Fitting memory estimate: total = " + (voxel_builder.estimate_memory_bytes (mem_num_threads) / 1048576L) + " M for " + mem_num_threads + " threads, available = "
+			+ ((avail_memory == Long.MAX_VALUE) ? "unlimited" : ((avail_memory / 1048576L) + " M")));
+
 		// Build the voxels (throw exception if error or timeout)
 
 		voxel_builder.set_upstream_loop_result (fit_perf_data);
 
-		voxel_builder.build_voxels (exec_timer);
+		if (mem_num_threads < exec_num_threads) {
+
+			// Use a smaller executor while fitting, then restore the original executor
+
+			System.out.println ("Reducing number of fitting threads from " + exec_num_threads + " to " + mem_num_threads + " because of memory");
+
+			try (
+				AutoExecutorService mem_executor = new AutoExecutorService (mem_num_threads);
+			) {
+				exec_timer.set_executor (mem_executor);
+				try {
+					voxel_builder.build_voxels (exec_timer);
+				} finally {
+					exec_timer.set_executor (fit_executor);
+				}
+			}
+		}
+
+		else {
+			voxel_builder.build_voxels (exec_timer);
+		}
 
 		// Get and display the performance data
 
@@ -1351,6 +1404,16 @@ public class OEExecEnvironment {
 		System.out.println();
 		System.out.println (fit_perf_data.toString());
 
+		// Keep the Omori matrices for the next fit for this sequence
+
+		if (omat_next_archive != null) {
+			omat_archive_store.put (omat_archive_key, omat_next_archive);
+
+			System.out.println();
+			System.out.println (omat_next_archive.toString());
+			System.out.println ("Omori matrix archive store: " + omat_archive_store.get_stats_string());
+		}
+
 		// Get the fitting information
 
 		fit_info = voxel_set.get_fit_info();
@@ -30,6 +30,12 @@ import static org.opensha.oaf.oetas.OEConstants.LMR_OPT_MCT_MAG_MAX;		// 2 = Fro
 import static org.opensha.oaf.oetas.OEConstants.LMR_OPT_MAGCAT_INFINITY;	// 3 = From catalog magnitude of completeness to infinity.
 import static org.opensha.oaf.oetas.OEConstants.LMR_OPT_MAGCAT_MAG_MAX;		// 4 = From catalog magnitude of completeness to maximum simulation magnitude.
 
+import static org.opensha.oaf.oetas.OEConstants.OMAT_METH_DENSE;		// 1 = Dense triangular Omori matrices.
+import static org.opensha.oaf.oetas.OEConstants.OMAT_METH_EXPSUM;		// 2 = Sum-of-exponentials Omori matrices.
+import static org.opensha.oaf.oetas.OEConstants.OMAT_METH_FLOAT;		// 3 = Dense Omori matrices in single precision.
+import static org.opensha.oaf.oetas.OEConstants.DEF_OMAT_METH;			// Default method for Omori matrices.
+import static org.opensha.oaf.oetas.OEConstants.DEF_OMAT_TOL;			// Default relative tolerance for sum-of-exponentials.
+
 
 // Discretized rupture history, parameter fitting with extended sources.
 // Author: Michael Barall 11/15/2022.
@@ -388,10 +394,39 @@ public class OEDisc2ExtFit {
 	private boolean f_intensity;
 
 	// Options for the parameter grid.
-	// This is not used in this code, but is available to downstream code.
+	// This code uses only the Omori matrix method and tolerance;  the rest is available to downstream code.
 
 	private OEGridOptions grid_options;
 
+	// Method used to represent Omori matrices, OMAT_METH_XXXX (taken from grid_options).
+
+	private int omat_meth;
+
+	// Relative tolerance for the sum-of-exponentials method (taken from grid_options).
+
+	private double omat_tol;
+
+	// Archive of Omori matrices from a prior fit, to copy unchanged rows from, or null if none.
+
+	private OEDisc2OmatArchive omat_prior_archive;
+
+	// Archive to receive the Omori matrices built by this fit, or null if none.
+
+	private OEDisc2OmatArchive omat_next_archive;
+
+	// Number of leading ruptures that are the same in our history and the prior archive's history.
+
+	private int omat_match_rup_count;
+
+	// Number of leading interval endpoints that are the same in our history and the prior archive's history.
+
+	private int omat_match_int_time_count;
+
+	// When saving sum-of-exponentials factors to an archive, the approximation is made valid over
+	// this multiple of the history span, so that it can be re-used by the next fit.
+
+	private static final double XS_ARCHIVE_SPAN_FACTOR = 2.0;
+
 
 
 
@@ -1290,17 +1325,25 @@ public class OEDisc2ExtFit {
 
 			final int rupture_count = history.rupture_count;
 
-			// Allocate the triangular array
+			// Row lengths of the triangular array
 
-			omat_rup_targ_rup_src = new double[rupture_count][];
+			final int[] row_len = new int[rupture_count];
 			for (int i_t_rup = 0; i_t_rup < rupture_count; ++i_t_rup) {
 				if (i_t_rup >= targ_rup_begin && i_t_rup < targ_rup_end) {
-					omat_rup_targ_rup_src[i_t_rup] = new double[i_t_rup];
+					row_len[i_t_rup] = i_t_rup;
 				} else {
-					omat_rup_targ_rup_src[i_t_rup] = new double[0];
+					row_len[i_t_rup] = 0;
 				}
 			}
 
+			// Allocate the triangular array
+
+			if (f_compact) {
+				cmat_rup_targ_rup_src = new OEFloatRowMatrix (row_len);
+			} else {
+				omat_rup_targ_rup_src = alloc_jagged (row_len);
+			}
+
 			return;
 		}
 
@@ -1312,6 +1355,13 @@ public class OEDisc2ExtFit {
 			final int rupture_count = history.rupture_count;
 			final OERupture[] a_rupture_obj = history.a_rupture_obj;
 
+			// Source times, in an array for the fitting kernels
+
+			final double[] a_rupture_t_day = new double[rupture_count];
+			for (int i_s_rup = 0; i_s_rup < rupture_count; ++i_s_rup) {
+				a_rupture_t_day[i_s_rup] = a_rupture_obj[i_s_rup].t_day;
+			}
+
 			// Build the triangular array
 
 			for (int i_t_rup = 0; i_t_rup < rupture_count; ++i_t_rup) {
@@ -1322,18 +1372,24 @@ public class OEDisc2ExtFit {
 
 				// Build the row containing all sources for this target
 
-				final double[] omat_row = omat_rup_targ_rup_src[i_t_rup];
-				final int row_len = omat_row.length;
+				final double[] omat_row = (f_compact ? cs_scratch : omat_rup_targ_rup_src[i_t_rup]);
+				final int row_len = (f_compact ? cmat_rup_targ_rup_src.get_row_len (i_t_rup) : omat_row.length);
 
-				for (int i_s_rup = 0; i_s_rup < row_len; ++i_s_rup) {
+				// Copy the row from the prior fit if the target and all its sources are unchanged,
+				// otherwise build the row containing all sources for this target
 
-					// Get the time for this source
+				if (!( xr_prior != null && i_t_rup < omat_match_rup_count
+					&& xr_copy_row (xr_prior.omat_rup_targ_rup_src, xr_prior.cmat_rup_targ_rup_src, i_t_rup, omat_row, row_len) )) {
 
-					final double s = a_rupture_obj[i_s_rup].t_day;
+					// Omori value for each source, omat_row[i_s_rup] = (t + c - s)^(-p)
 
-					// Omori value
-				
-					omat_row[i_s_rup] = Math.pow(t_plus_c - s, -p);
+					OEFitKernels.pow_diff (omat_row, t_plus_c, a_rupture_t_day, -p, row_len);
+				}
+
+				// Store the row if using single precision
+
+				if (f_compact) {
+					cmat_rup_targ_rup_src.set_row (i_t_rup, omat_row);
 				}
 			}
 
@@ -1364,6 +1420,20 @@ public class OEDisc2ExtFit {
 				final double[] x2,
 				final double[] d ) {
 
+			// Sum-of-exponentials case
+
+			if (f_expsum && f_omat_rup_targ_rup_src) {
+				xs_apply_rup_targ_rup_src (y1, y2, x1, x2, d);
+				return;
+			}
+
+			// Single-precision case
+
+			if (cmat_rup_targ_rup_src != null) {
+				cs_apply_rup_targ_rup_src (y1, y2, x1, x2, d);
+				return;
+			}
+
 			// Zero-matrix case
 
 			if (omat_rup_targ_rup_src == null) {
@@ -1378,17 +1448,12 @@ public class OEDisc2ExtFit {
 			// Non-zero matrix
 
 			final int i_top = omat_rup_targ_rup_src.length;
+			final double[] sums = new double[2];
 			for (int i = 0; i < i_top; ++i) {
-				double sum1 = 0.0;
-				double sum2 = 0.0;
 				final double[] row = omat_rup_targ_rup_src[i];
-				final int j_top = row.length;
-				for (int j = 0; j < j_top; ++j) {
-					sum1 += (row[j] * x1[j]);
-					sum2 += (row[j] * x2[j]);
-				}
-				y1[i] = sum1 * d[i];
-				y2[i] = sum2 * d[i];
+				OEFitKernels.dot (sums, row, x1, x2, row.length);
+				y1[i] = sums[0] * d[i];
+				y2[i] = sums[1] * d[i];
 			}
 			return;
 		}
@@ -1427,17 +1492,25 @@ public class OEDisc2ExtFit {
 			final int rupture_count = history.rupture_count;
 			final int[] a_rupture_int_time_index = history.a_rupture_int_time_index;
 
-			// Allocate the triangular array
+			// Row lengths of the triangular array
 
-			omat_rup_targ_int_src = new double[rupture_count][];
+			final int[] row_len = new int[rupture_count];
 			for (int i_t_rup = 0; i_t_rup < rupture_count; ++i_t_rup) {
 				if (i_t_rup >= targ_rup_begin && i_t_rup < targ_rup_end) {
-					omat_rup_targ_int_src[i_t_rup] = new double[a_rupture_int_time_index[i_t_rup]];
+					row_len[i_t_rup] = a_rupture_int_time_index[i_t_rup];
 				} else {
-					omat_rup_targ_int_src[i_t_rup] = new double[0];
+					row_len[i_t_rup] = 0;
 				}
 			}
 
+			// Allocate the triangular array
+
+			if (f_compact) {
+				cmat_rup_targ_int_src = new OEFloatRowMatrix (row_len);
+			} else {
+				omat_rup_targ_int_src = alloc_jagged (row_len);
+			}
+
 			return;
 		}
 
@@ -1456,22 +1529,32 @@ public class OEDisc2ExtFit {
 
 				// Get the time for this target, using the matching interval time
 
-				final double[] omat_row = omat_rup_targ_int_src[i_t_rup];
-				final int row_len = omat_row.length;
+				final double[] omat_row = (f_compact ? cs_scratch : omat_rup_targ_int_src[i_t_rup]);
+				final int row_len = (f_compact ? cmat_rup_targ_int_src.get_row_len (i_t_rup) : omat_row.length);
 				final double t_plus_c = a_rupture_int_time_value[i_t_rup] + c;
 
-				// Build the row containing all sources for this target
+				// Copy the row from the prior fit if the target and all its sources are unchanged,
+				// otherwise build the row containing all sources for this target
 
-				for (int i_s_int = 0; i_s_int < row_len; ++i_s_int) {
+				if (!( xr_prior != null && i_t_rup < omat_match_rup_count && row_len < omat_match_int_time_count
+					&& xr_copy_row (xr_prior.omat_rup_targ_int_src, xr_prior.cmat_rup_targ_int_src, i_t_rup, omat_row, row_len) )) {
+					for (int i_s_int = 0; i_s_int < row_len; ++i_s_int) {
 
-					// Get the time for this source
+						// Get the time for this source
 
-					final double s1 = a_interval_time[i_s_int];
-					final double s2 = a_interval_time[i_s_int + 1];
+						final double s1 = a_interval_time[i_s_int];
+						final double s2 = a_interval_time[i_s_int + 1];
 
-					// Omori value
+						// Omori value
 				
-					omat_row[i_s_int] = OEOmoriCalc.omext_single_integral (p, t_plus_c - s2, s2 - s1);
+						omat_row[i_s_int] = OEOmoriCalc.omext_single_integral (p, t_plus_c - s2, s2 - s1);
+					}
+				}
+
+				// Store the row if using single precision
+
+				if (f_compact) {
+					cmat_rup_targ_int_src.set_row (i_t_rup, omat_row);
 				}
 			}
 
@@ -1506,6 +1589,20 @@ public class OEDisc2ExtFit {
 				final double[] o2,
 				final double[] d ) {
 
+			// Sum-of-exponentials case
+
+			if (f_expsum && f_omat_rup_targ_int_src) {
+				xs_apply_rup_targ_int_src (y1, y2, x1, x2, o1, o2, d);
+				return;
+			}
+
+			// Single-precision case
+
+			if (cmat_rup_targ_int_src != null) {
+				cs_apply_rup_targ_int_src (y1, y2, x1, x2, o1, o2, d);
+				return;
+			}
+
 			// Zero-matrix case
 
 			if (omat_rup_targ_int_src == null) {
@@ -1520,17 +1617,12 @@ public class OEDisc2ExtFit {
 			// Non-zero matrix
 
 			final int i_top = omat_rup_targ_int_src.length;
+			final double[] sums = new double[2];
 			for (int i = 0; i < i_top; ++i) {
-				double sum1 = 0.0;
-				double sum2 = 0.0;
 				final double[] row = omat_rup_targ_int_src[i];
-				final int j_top = row.length;
-				for (int j = 0; j < j_top; ++j) {
-					sum1 += (row[j] * x1[j]);
-					sum2 += (row[j] * x2[j]);
-				}
-				y1[i] = sum1 * d[i] + o1[i];
-				y2[i] = sum2 * d[i] + o2[i];
+				OEFitKernels.dot (sums, row, x1, x2, row.length);
+				y1[i] = sums[0] * d[i] + o1[i];
+				y2[i] = sums[1] * d[i] + o2[i];
 			}
 			return;
 		}
@@ -1571,6 +1663,20 @@ public class OEDisc2ExtFit {
 				final double[] o3,
 				final double[] d ) {
 
+			// Sum-of-exponentials case
+
+			if (f_expsum && f_omat_rup_targ_int_src) {
+				xs_apply_rup_targ_int_src (y1, y2, y3, x1, x2, x3, o1, o2, o3, d);
+				return;
+			}
+
+			// Single-precision case
+
+			if (cmat_rup_targ_int_src != null) {
+				cs_apply_rup_targ_int_src (y1, y2, y3, x1, x2, x3, o1, o2, o3, d);
+				return;
+			}
+
 			// Zero-matrix case
 
 			if (omat_rup_targ_int_src == null) {
@@ -1586,20 +1692,13 @@ public class OEDisc2ExtFit {
 			// Non-zero matrix
 
 			final int i_top = omat_rup_targ_int_src.length;
+			final double[] sums = new double[3];
 			for (int i = 0; i < i_top; ++i) {
-				double sum1 = 0.0;
-				double sum2 = 0.0;
-				double sum3 = 0.0;
 				final double[] row = omat_rup_targ_int_src[i];
-				final int j_top = row.length;
-				for (int j = 0; j < j_top; ++j) {
-					sum1 += (row[j] * x1[j]);
-					sum2 += (row[j] * x2[j]);
-					sum3 += (row[j] * x3[j]);
-				}
-				y1[i] = sum1 * d[i] + o1[i];
-				y2[i] = sum2 * d[i] + o2[i];
-				y3[i] = sum3 * d[i] + o3[i];
+				OEFitKernels.dot (sums, row, x1, x2, x3, row.length);
+				y1[i] = sums[0] * d[i] + o1[i];
+				y2[i] = sums[1] * d[i] + o2[i];
+				y3[i] = sums[2] * d[i] + o3[i];
 			}
 			return;
 		}
@@ -1639,15 +1738,23 @@ public class OEDisc2ExtFit {
 			final int[] a_rupture_int_time_index = history.a_rupture_int_time_index;
 			final int interval_count = history.interval_count;
 
-			// Allocate the triangular array
+			// Row lengths of the triangular array
 
-			omat_int_targ_rup_src = new double[interval_count][];
+			final int[] row_len = new int[interval_count];
 			int n = 0;
 			for (int i_t_int = 0; i_t_int < interval_count; ++i_t_int) {
 				while (n < rupture_count && a_rupture_int_time_index[n] <= i_t_int) {
 					++n;
 				}
-				omat_int_targ_rup_src[i_t_int] = new double[n];
+				row_len[i_t_int] = n;
+			}
+
+			// Allocate the triangular array
+
+			if (f_compact) {
+				cmat_int_targ_rup_src = new OEFloatRowMatrix (row_len);
+			} else {
+				omat_int_targ_rup_src = alloc_jagged (row_len);
 			}
 
 			return;
@@ -1668,39 +1775,49 @@ public class OEDisc2ExtFit {
 
 				// Get the time for this target, using the matching interval time
 
-				final double[] omat_row = omat_int_targ_rup_src[i_t_int];
-				final int row_len = omat_row.length;
+				final double[] omat_row = (f_compact ? cs_scratch : omat_int_targ_rup_src[i_t_int]);
+				final int row_len = (f_compact ? cmat_int_targ_rup_src.get_row_len (i_t_int) : omat_row.length);
 
 				final double t1 = a_interval_time[i_t_int];
 				final double t1_plus_c = t1 + c;
 				final double t2 = a_interval_time[i_t_int + 1];
 				final double t2_minus_t1 = t2 - t1;
 
-				// Build the row containing all sources for this target
+				// Copy the row from the prior fit if the target and all its sources are unchanged,
+				// otherwise build the row containing all sources for this target
 
-				for (int i_s_rup = 0; i_s_rup < row_len; ++i_s_rup) {
+				if (!( xr_prior != null && i_t_int + 1 < omat_match_int_time_count && row_len <= omat_match_rup_count
+					&& xr_copy_row (xr_prior.omat_int_targ_rup_src, xr_prior.cmat_int_targ_rup_src, i_t_int, omat_row, row_len) )) {
+					for (int i_s_rup = 0; i_s_rup < row_len; ++i_s_rup) {
 
-					// Get the time for this source, using the matching interval time
+						// Get the time for this source, using the matching interval time
 
-					final double s = a_rupture_int_time_value[i_s_rup];
+						final double s = a_rupture_int_time_value[i_s_rup];
 
-					// Omori value, wource before the interval
+						// Omori value, wource before the interval
 				
-					if (s <= t1) {
-						omat_row[i_s_rup] = OEOmoriCalc.omext_single_density_integral (p, t1_plus_c - s, t2_minus_t1);
-					}
+						if (s <= t1) {
+							omat_row[i_s_rup] = OEOmoriCalc.omext_single_density_integral (p, t1_plus_c - s, t2_minus_t1);
+						}
 
-					// Omori value, source within the interval
+						// Omori value, source within the interval
 
-					else {
-						double t2_minus_s = t2 - s;
-						if (t2_minus_s > TINY_DURATION_DAYS) {
-							omat_row[i_s_rup] = (t2_minus_s / t2_minus_t1) * OEOmoriCalc.omext_single_density_integral (p, c, t2_minus_s);
-						} else {
-							omat_row[i_s_rup] = 0.0;
+						else {
+							double t2_minus_s = t2 - s;
+							if (t2_minus_s > TINY_DURATION_DAYS) {
+								omat_row[i_s_rup] = (t2_minus_s / t2_minus_t1) * OEOmoriCalc.omext_single_density_integral (p, c, t2_minus_s);
+							} else {
+								omat_row[i_s_rup] = 0.0;
+							}
 						}
 					}
 				}
+
+				// Store the row if using single precision
+
+				if (f_compact) {
+					cmat_int_targ_rup_src.set_row (i_t_int, omat_row);
+				}
 			}
 
 			return;
@@ -1740,6 +1857,20 @@ public class OEDisc2ExtFit {
 				final double[] dy,
 				final double[] dz ) {
 
+			// Sum-of-exponentials case
+
+			if (f_expsum && f_omat_int_targ_rup_src) {
+				xs_apply_int_targ_rup_src (y1, y2, z1, z2, x1, x2, dy, dz);
+				return;
+			}
+
+			// Single-precision case
+
+			if (cmat_int_targ_rup_src != null) {
+				cs_apply_int_targ_rup_src (y1, y2, z1, z2, x1, x2, dy, dz);
+				return;
+			}
+
 			// Zero-matrix case
 
 			if (omat_int_targ_rup_src == null) {
@@ -1758,15 +1889,12 @@ public class OEDisc2ExtFit {
 			final int i_top = omat_int_targ_rup_src.length;
 			double total1 = 0.0;
 			double total2 = 0.0;
+			final double[] sums = new double[2];
 			for (int i = 0; i < i_top; ++i) {
-				double sum1 = 0.0;
-				double sum2 = 0.0;
 				final double[] row = omat_int_targ_rup_src[i];
-				final int j_top = row.length;
-				for (int j = 0; j < j_top; ++j) {
-					sum1 += (row[j] * x1[j]);
-					sum2 += (row[j] * x2[j]);
-				}
+				OEFitKernels.dot (sums, row, x1, x2, row.length);
+				final double sum1 = sums[0];
+				final double sum2 = sums[1];
 				y1[i] = sum1 * dy[i];
 				y2[i] = sum2 * dy[i];
 				total1 += (sum1 * dz[i]);
@@ -1820,11 +1948,19 @@ public class OEDisc2ExtFit {
 
 			final int interval_count = history.interval_count;
 
-			// Allocate the triangular array
+			// Row lengths of the triangular array
 
-			omat_int_targ_int_src = new double[interval_count][];
+			final int[] row_len = new int[interval_count];
 			for (int i_t_int = 0; i_t_int < interval_count; ++i_t_int) {
-				omat_int_targ_int_src[i_t_int] = new double[i_t_int];
+				row_len[i_t_int] = i_t_int;
+			}
+
+			// Allocate the triangular array
+
+			if (f_compact) {
+				cmat_int_targ_int_src = new OEFloatRowMatrix (row_len);
+			} else {
+				omat_int_targ_int_src = alloc_jagged (row_len);
 			}
 
 			// Allocate the self array
@@ -1848,24 +1984,34 @@ public class OEDisc2ExtFit {
 
 				// Get the time for this target, using the matching interval time
 
-				final double[] omat_row = omat_int_targ_int_src[i_t_int];
-				final int row_len = omat_row.length;
+				final double[] omat_row = (f_compact ? cs_scratch : omat_int_targ_int_src[i_t_int]);
+				final int row_len = (f_compact ? cmat_int_targ_int_src.get_row_len (i_t_int) : omat_row.length);
 
 				final double t1_plus_c = a_interval_time[i_t_int] + c;
 				final double t2_minus_t1 = a_interval_time[i_t_int + 1] - a_interval_time[i_t_int];
 
-				// Build the row containing all sources for this target
+				// Copy the row from the prior fit if the target and all its sources are unchanged,
+				// otherwise build the row containing all sources for this target
 
-				for (int i_s_int = 0; i_s_int < row_len; ++i_s_int) {
+				if (!( xr_prior != null && i_t_int + 1 < omat_match_int_time_count
+					&& xr_copy_row (xr_prior.omat_int_targ_int_src, xr_prior.cmat_int_targ_int_src, i_t_int, omat_row, row_len) )) {
+					for (int i_s_int = 0; i_s_int < row_len; ++i_s_int) {
 
-					// Get the time for this source
+						// Get the time for this source
 
-					final double s1 = a_interval_time[i_s_int];
-					final double s2 = a_interval_time[i_s_int + 1];
+						final double s1 = a_interval_time[i_s_int];
+						final double s2 = a_interval_time[i_s_int + 1];
 
-					// Omori value
+						// Omori value
 				
-					omat_row[i_s_int] = OEOmoriCalc.omext_double_density_integral (p, t1_plus_c - s2, s2 - s1, t2_minus_t1);
+						omat_row[i_s_int] = OEOmoriCalc.omext_double_density_integral (p, t1_plus_c - s2, s2 - s1, t2_minus_t1);
+					}
+				}
+
+				// Store the row if using single precision
+
+				if (f_compact) {
+					cmat_int_targ_int_src.set_row (i_t_int, omat_row);
 				}
 
 				// Build the self entry
@@ -1877,31 +2023,1339 @@ public class OEDisc2ExtFit {
 		}
 
 
-		// Function to apply the matrix.
-		// Parameters:
-		//  y1 = Target vector #1, length = interval_count.
-		//  y2 = Target vector #2, length = interval_count.
-		//  z1 = Target scalar #1, length = 1.
-		//  z2 = Target scalar #2, length = 1.
-		//  x1 = Source vector #1, length = interval_count.
-		//  x2 = Source vector #2, length = interval_count.
-		//  o1 = Source scalar offset #1, length = 1.
-		//  o2 = Source scalar offset #2, length = 1.
-		//  dy = Target scaling vector for y, length = interval_count.
-		//  dz = Target scaling vector for z, length = interval_count.
-		//  s = Scale factor.
-		// Performs the operations (with m denoting omat_int_targ_int_src and v denoting omat_self_int_src):
-		//   y1[i] = (SUM(m[i][j] * y1[j]) * dy[i] + x1[i]) * s * (1 + v[i] * dy[i] * s);
-		//   y2[i] = (SUM(m[i][j] * y2[j]) * dy[i] + x2[i]) * s * (1 + v[i] * dy[i] * s);
-		// where the sum is over j satisfying 0 <= j < m[i].length, for i satisfying 0 <= i <= m.length.
-		// Because the formulas are a recurrence, they must be evaluated sequentially in increasing i.
-		//   z1[0] = SUM((SUM(m[i][j] * y1[j]) + y1[i] * v[i]) * dz[i]) + o1[0]
-		//   z2[0] = SUM((SUM(m[i][j] * y2[j]) + y2[i] * v[i]) * dz[i]) + o2[0]
-		// where the inner sum is over j satisfying 0 <= j < m[i].length, and the outer sum is
-		// over i satisfying 0 <= i <= m.length.  Because the formulas refer to y1[i] and y2[i],
-		// the y values must be computed first.
+		// Function to apply the matrix.
+		// Parameters:
+		//  y1 = Target vector #1, length = interval_count.
+		//  y2 = Target vector #2, length = interval_count.
+		//  z1 = Target scalar #1, length = 1.
+		//  z2 = Target scalar #2, length = 1.
+		//  x1 = Source vector #1, length = interval_count.
+		//  x2 = Source vector #2, length = interval_count.
+		//  o1 = Source scalar offset #1, length = 1.
+		//  o2 = Source scalar offset #2, length = 1.
+		//  dy = Target scaling vector for y, length = interval_count.
+		//  dz = Target scaling vector for z, length = interval_count.
+		//  s = Scale factor.
+		// Performs the operations (with m denoting omat_int_targ_int_src and v denoting omat_self_int_src):
+		//   y1[i] = (SUM(m[i][j] * y1[j]) * dy[i] + x1[i]) * s * (1 + v[i] * dy[i] * s);
+		//   y2[i] = (SUM(m[i][j] * y2[j]) * dy[i] + x2[i]) * s * (1 + v[i] * dy[i] * s);
+		// where the sum is over j satisfying 0 <= j < m[i].length, for i satisfying 0 <= i <= m.length.
+		// Because the formulas are a recurrence, they must be evaluated sequentially in increasing i.
+		//   z1[0] = SUM((SUM(m[i][j] * y1[j]) + y1[i] * v[i]) * dz[i]) + o1[0]
+		//   z2[0] = SUM((SUM(m[i][j] * y2[j]) + y2[i] * v[i]) * dz[i]) + o2[0]
+		// where the inner sum is over j satisfying 0 <= j < m[i].length, and the outer sum is
+		// over i satisfying 0 <= i <= m.length.  Because the formulas refer to y1[i] and y2[i],
+		// the y values must be computed first.
+
+		public final void apply_omat_int_targ_int_src (
+				final double[] y1,
+				final double[] y2,
+				final double[] z1,
+				final double[] z2,
+				final double[] x1,
+				final double[] x2,
+				final double[] o1,
+				final double[] o2,
+				final double[] dy,
+				final double[] dz,
+				final double s) {
+
+			// Sum-of-exponentials case
+
+			if (f_expsum && f_omat_int_targ_int_src) {
+				xs_apply_int_targ_int_src (y1, y2, z1, z2, x1, x2, o1, o2, dy, dz, s);
+				return;
+			}
+
+			// Single-precision case
+
+			if (cmat_int_targ_int_src != null) {
+				cs_apply_int_targ_int_src (y1, y2, z1, z2, x1, x2, o1, o2, dy, dz, s);
+				return;
+			}
+
+			// Zero-matrix case
+
+			if (omat_int_targ_int_src == null) {
+				final int ii_top = history.interval_count;
+				for (int ii = 0; ii < ii_top; ++ii) {
+					y1[ii] = x1[ii] * s;
+					y2[ii] = x2[ii] * s;
+				}
+				z1[0] = o1[0];
+				z2[0] = o2[0];
+				return;
+			}
+
+			// Non-zero matrix
+
+			final int i_top = omat_int_targ_int_src.length;
+
+			// Accumulators across all targets for scalar output
+
+			double total1 = 0.0;
+			double total2 = 0.0;
+
+			final double[] sums = new double[2];
+
+			// For each target...
+
+			for (int i = 0; i < i_top; ++i) {
+
+				// Propagate from prior outputs
+
+				final double[] row = omat_int_targ_int_src[i];
+				OEFitKernels.dot (sums, row, y1, y2, row.length);
+				final double sum1 = sums[0];
+				final double sum2 = sums[1];
+
+				// Vector output
+
+				final double self = omat_self_int_src[i];
+
+				y1[i] = (sum1 * dy[i] + x1[i]) * s * (self * dy[i] * s + 1.0);
+				y2[i] = (sum2 * dy[i] + x2[i]) * s * (self * dy[i] * s + 1.0);
+
+				// Scalar output
+
+				total1 += ((y1[i] * self + sum1) * dz[i]);
+				total2 += ((y2[i] * self + sum2) * dz[i]);
+			}
+
+			// Total scalar output
+
+			z1[0] = total1 + o1[0];
+			z2[0] = total2 + o2[0];
+			return;
+		}
+
+
+		// Function to apply the matrix.
+		// Parameters:
+		//  y1 = Target vector #1, length = interval_count.
+		//  y2 = Target vector #2, length = interval_count.
+		//  y3 = Target vector #3, length = interval_count.
+		//  z1 = Target scalar #1, length = 1.
+		//  z2 = Target scalar #2, length = 1.
+		//  z3 = Target scalar #3, length = 1.
+		//  x1 = Source vector #1, length = interval_count.
+		//  x2 = Source vector #2, length = interval_count.
+		//  x3 = Source vector #3, length = interval_count.
+		//  o1 = Source scalar offset #1, length = 1.
+		//  o2 = Source scalar offset #2, length = 1.
+		//  o3 = Source scalar offset #3, length = 1.
+		//  dy = Target scaling vector for y, length = interval_count.
+		//  dz = Target scaling vector for z, length = interval_count.
+		//  s = Scale factor.
+		// Performs the operations (with m denoting omat_int_targ_int_src and v denoting omat_self_int_src):
+		//   y1[i] = (SUM(m[i][j] * y1[j]) * dy[i] + x1[i]) * s * (1 + v[i] * dy[i] * s);
+		//   y2[i] = (SUM(m[i][j] * y2[j]) * dy[i] + x2[i]) * s * (1 + v[i] * dy[i] * s);
+		//   y3[i] = (SUM(m[i][j] * y3[j]) * dy[i] + x3[i]) * s * (1 + v[i] * dy[i] * s);
+		// where the sum is over j satisfying 0 <= j < m[i].length, for i satisfying 0 <= i <= m.length.
+		// Because the formulas are a recurrence, they must be evaluated sequentially in increasing i.
+		//   z1[0] = SUM((SUM(m[i][j] * y1[j]) + y1[i] * v[i]) * dz[i]) + o1[0]
+		//   z2[0] = SUM((SUM(m[i][j] * y2[j]) + y2[i] * v[i]) * dz[i]) + o2[0]
+		//   z3[0] = SUM((SUM(m[i][j] * y3[j]) + y3[i] * v[i]) * dz[i]) + o3[0]
+		// where the inner sum is over j satisfying 0 <= j < m[i].length, and the outer sum is
+		// over i satisfying 0 <= i <= m.length.  Because the formulas refer to y1[i] and y2[i] and y3[i],
+		// the y values must be computed first.
+
+		public final void apply_omat_int_targ_int_src (
+				final double[] y1,
+				final double[] y2,
+				final double[] y3,
+				final double[] z1,
+				final double[] z2,
+				final double[] z3,
+				final double[] x1,
+				final double[] x2,
+				final double[] x3,
+				final double[] o1,
+				final double[] o2,
+				final double[] o3,
+				final double[] dy,
+				final double[] dz,
+				final double s) {
+
+			// Sum-of-exponentials case
+
+			if (f_expsum && f_omat_int_targ_int_src) {
+				xs_apply_int_targ_int_src (y1, y2, y3, z1, z2, z3, x1, x2, x3, o1, o2, o3, dy, dz, s);
+				return;
+			}
+
+			// Single-precision case
+
+			if (cmat_int_targ_int_src != null) {
+				cs_apply_int_targ_int_src (y1, y2, y3, z1, z2, z3, x1, x2, x3, o1, o2, o3, dy, dz, s);
+				return;
+			}
+
+			// Zero-matrix case
+
+			if (omat_int_targ_int_src == null) {
+				final int ii_top = history.interval_count;
+				for (int ii = 0; ii < ii_top; ++ii) {
+					y1[ii] = x1[ii] * s;
+					y2[ii] = x2[ii] * s;
+					y3[ii] = x3[ii] * s;
+				}
+				z1[0] = o1[0];
+				z2[0] = o2[0];
+				z3[0] = o3[0];
+				return;
+			}
+
+			// Non-zero matrix
+
+			final int i_top = omat_int_targ_int_src.length;
+
+			// Accumulators across all targets for scalar output
+
+			double total1 = 0.0;
+			double total2 = 0.0;
+			double total3 = 0.0;
+
+			final double[] sums = new double[3];
+
+			// For each target...
+
+			for (int i = 0; i < i_top; ++i) {
+
+				// Propagate from prior outputs
+
+				final double[] row = omat_int_targ_int_src[i];
+				OEFitKernels.dot (sums, row, y1, y2, y3, row.length);
+				final double sum1 = sums[0];
+				final double sum2 = sums[1];
+				final double sum3 = sums[2];
+
+				// Vector output
+
+				final double self = omat_self_int_src[i];
+				final double r = s * (self * dy[i] * s + 1.0);
+
+				y1[i] = (sum1 * dy[i] + x1[i]) * r;
+				y2[i] = (sum2 * dy[i] + x2[i]) * r;
+				y3[i] = (sum3 * dy[i] + x3[i]) * r;
+
+				// Scalar output
+
+				total1 += ((y1[i] * self + sum1) * dz[i]);
+				total2 += ((y2[i] * self + sum2) * dz[i]);
+				total3 += ((y3[i] * self + sum3) * dz[i]);
+			}
+
+			// Total scalar output
+
+			z1[0] = total1 + o1[0];
+			z2[0] = total2 + o2[0];
+			z3[0] = total3 + o3[0];
+			return;
+		}
+
+
+
+
+		//----- Incremental refitting -----
+
+
+
+
+		// Archived matrices from the prior fit for the current (p, c), or null if none.
+		// This is set only while omat_build is running, and only if the prior fit used the same method.
+
+		private OEDisc2OmatArchive.Entry xr_prior;
+
+		// Number of rows copied from the prior fit, during the current build.
+
+		private long xr_rows_copied;
+
+
+		// Copy a row from an archived matrix, if it has the expected length.
+		// Parameters:
+		//  prior_mat = Archived matrix in double precision, can be null.
+		//  prior_cmat = Archived matrix in single precision, can be null.
+		//  i = Row index.
+		//  omat_row = Array to receive the row, length >= row_len.
+		//  row_len = Expected row length.
+		// Returns true if the row was copied.
+		// The archived matrix is the one in the same representation as this object.
+		// The caller must check that the target and all sources are unchanged.
+
+		private boolean xr_copy_row (final double[][] prior_mat, final OEFloatRowMatrix prior_cmat, final int i, final double[] omat_row, final int row_len) {
+
+			// Single precision, the row is converted back to double exactly, so storing it again gives the same floats
+
+			if (f_compact) {
+				if (prior_cmat == null || i >= prior_cmat.get_row_count() || prior_cmat.get_row_len (i) != row_len) {
+					return false;
+				}
+				prior_cmat.get_row (i, omat_row);
+				++xr_rows_copied;
+				return true;
+			}
+
+			// Double precision
+
+			if (prior_mat == null || i >= prior_mat.length) {
+				return false;
+			}
+			final double[] prior_row = prior_mat[i];
+			if (prior_row == null || prior_row.length != row_len) {
+				return false;
+			}
+			System.arraycopy (prior_row, 0, omat_row, 0, row_len);
+			++xr_rows_copied;
+			return true;
+		}
+
+
+		// Copy the first len elements of an array, for saving in the archive.
+
+		private double[] xr_copy_array (final double[] x, final int len) {
+			if (x == null) {
+				return null;
+			}
+			return Arrays.copyOf (x, len);
+		}
+
+
+		// Begin a build, looking up the archived matrices from the prior fit.
+
+		private void xr_begin_build () {
+			xr_prior = null;
+			xr_rows_copied = 0L;
+
+			if (omat_prior_archive != null) {
+				final OEDisc2OmatArchive.Entry entry = omat_prior_archive.get_entry (p, c);
+				if (entry != null && entry.omat_meth == omat_meth) {
+					xr_prior = entry;
+				}
+			}
+			return;
+		}
+
+
+		// End a build, saving matrices to the next archive and recording statistics.
+		// Matrices are saved in the representation used by this object.
+		// The archive copies the dense or single-precision matrices, if it has room for them.
+
+		private void xr_end_build () {
+
+			// Save to the next archive
+
+			if (omat_next_archive != null) {
+				final OEDisc2OmatArchive.Entry entry = new OEDisc2OmatArchive.Entry();
+				entry.omat_meth = omat_meth;
+
+				if (f_expsum) {
+					final int K = xs_term_count;
+					entry.xs_expsum = omat_expsum;
+					if (f_omat_rup_targ_rup_src) {
+						entry.xs_rup_decay = xr_copy_array (xs_rup_decay, history.rupture_count * K);
+					}
+					if (f_omat_rup_targ_int_src || f_omat_int_targ_rup_src || f_omat_int_targ_int_src) {
+						entry.xs_int_decay = xr_copy_array (xs_int_decay, history.interval_count * K);
+						entry.xs_int_src = xr_copy_array (xs_int_src, history.interval_count * K);
+						entry.xs_int_targ = xr_copy_array (xs_int_targ, history.interval_count * K);
+					}
+					if (f_omat_int_targ_int_src) {
+						entry.omat_self_int_src = xr_copy_array (omat_self_int_src, history.interval_count);
+					}
+				}
+				else if (f_compact) {
+					entry.cmat_rup_targ_rup_src = cmat_rup_targ_rup_src;
+					entry.cmat_rup_targ_int_src = cmat_rup_targ_int_src;
+					entry.cmat_int_targ_rup_src = cmat_int_targ_rup_src;
+					entry.cmat_int_targ_int_src = cmat_int_targ_int_src;
+				}
+				else {
+					entry.omat_rup_targ_rup_src = omat_rup_targ_rup_src;
+					entry.omat_rup_targ_int_src = omat_rup_targ_int_src;
+					entry.omat_int_targ_rup_src = omat_int_targ_rup_src;
+					entry.omat_int_targ_int_src = omat_int_targ_int_src;
+				}
+
+				omat_next_archive.put_entry (p, c, entry);
+			}
+
+			// Statistics for the prior archive, counting rows (or per-rupture and per-interval factors for sum-of-exponentials)
+
+			if (omat_prior_archive != null) {
+				long rows_total = 0L;
+				if (f_expsum) {
+					if (f_omat_rup_targ_rup_src) {
+						rows_total += history.rupture_count;
+					}
+					if (f_omat_rup_targ_int_src || f_omat_int_targ_rup_src || f_omat_int_targ_int_src) {
+						rows_total += history.interval_count;
+					}
+				} else {
+					if (f_omat_rup_targ_rup_src) {
+						rows_total += history.rupture_count;
+					}
+					if (f_omat_rup_targ_int_src) {
+						rows_total += history.rupture_count;
+					}
+					if (f_omat_int_targ_rup_src) {
+						rows_total += history.interval_count;
+					}
+					if (f_omat_int_targ_int_src) {
+						rows_total += history.interval_count;
+					}
+				}
+				omat_prior_archive.add_row_stats (xr_rows_copied, rows_total);
+			}
+
+			xr_prior = null;
+			return;
+		}
+
+
+
+
+		//----- Single-precision storage -----
+
+
+
+
+		// True if this object stores the dense matrices in single precision.
+
+		private boolean f_compact;
+
+		// Single-precision versions of the dense matrices, used when f_compact is true.
+		// Each has the same shape and contents as the corresponding double[][] matrix,
+		// with rows packed into contiguous blocks, and the double[][] matrix is not allocated.
+		// The array omat_self_int_src is still stored in double precision.
+		// The apply functions accumulate sums in double precision.
+
+		private OEFloatRowMatrix cmat_rup_targ_rup_src;
+		private OEFloatRowMatrix cmat_rup_targ_int_src;
+		private OEFloatRowMatrix cmat_int_targ_rup_src;
+		private OEFloatRowMatrix cmat_int_targ_int_src;
+
+		// Scratch row used when building single-precision matrices, with length at least the longest row.
+
+		private double[] cs_scratch;
+
+
+		// Allocate a dense matrix with the given row lengths, as a jagged double[][] array.
+
+		private double[][] alloc_jagged (int[] row_len) {
+			final double[][] m = new double[row_len.length][];
+			for (int i = 0; i < row_len.length; ++i) {
+				m[i] = new double[row_len[i]];
+			}
+			return m;
+		}
+
+
+		// Allocate the scratch row, with length at least the longest row of any single-precision matrix.
+
+		private void alloc_cs_scratch () {
+			int len = 0;
+			if (cmat_rup_targ_rup_src != null) {
+				len = Math.max (len, cmat_rup_targ_rup_src.get_max_row_len());
+			}
+			if (cmat_rup_targ_int_src != null) {
+				len = Math.max (len, cmat_rup_targ_int_src.get_max_row_len());
+			}
+			if (cmat_int_targ_rup_src != null) {
+				len = Math.max (len, cmat_int_targ_rup_src.get_max_row_len());
+			}
+			if (cmat_int_targ_int_src != null) {
+				len = Math.max (len, cmat_int_targ_int_src.get_max_row_len());
+			}
+			cs_scratch = new double[len];
+			return;
+		}
+
+
+		// Apply the matrix for rupture target and rupture source, using single-precision storage.
+		// Performs the same operation as apply_omat_rup_targ_rup_src.
+
+		private void cs_apply_rup_targ_rup_src (
+				final double[] y1,
+				final double[] y2,
+				final double[] x1,
+				final double[] x2,
+				final double[] d ) {
+
+			final OEFloatRowMatrix m = cmat_rup_targ_rup_src;
+			final int i_top = m.get_row_count();
+			for (int i = 0; i < i_top; ++i) {
+				double sum1 = 0.0;
+				double sum2 = 0.0;
+				final float[] blk = m.get_block (i);
+				final int off = m.get_row_offset (i);
+				final int j_top = m.get_row_len (i);
+				for (int j = 0; j < j_top; ++j) {
+					final double v = blk[off + j];
+					sum1 += (v * x1[j]);
+					sum2 += (v * x2[j]);
+				}
+				y1[i] = sum1 * d[i];
+				y2[i] = sum2 * d[i];
+			}
+			return;
+		}
+
+
+		// Apply the matrix for rupture target and interval source, using single-precision storage.
+		// Performs the same operation as apply_omat_rup_targ_int_src.
+
+		private void cs_apply_rup_targ_int_src (
+				final double[] y1,
+				final double[] y2,
+				final double[] x1,
+				final double[] x2,
+				final double[] o1,
+				final double[] o2,
+				final double[] d ) {
+
+			final OEFloatRowMatrix m = cmat_rup_targ_int_src;
+			final int i_top = m.get_row_count();
+			for (int i = 0; i < i_top; ++i) {
+				double sum1 = 0.0;
+				double sum2 = 0.0;
+				final float[] blk = m.get_block (i);
+				final int off = m.get_row_offset (i);
+				final int j_top = m.get_row_len (i);
+				for (int j = 0; j < j_top; ++j) {
+					final double v = blk[off + j];
+					sum1 += (v * x1[j]);
+					sum2 += (v * x2[j]);
+				}
+				y1[i] = sum1 * d[i] + o1[i];
+				y2[i] = sum2 * d[i] + o2[i];
+			}
+			return;
+		}
+
+
+		// Apply the matrix for rupture target and interval source, using single-precision storage.
+		// Performs the same operation as apply_omat_rup_targ_int_src, with three vectors.
+
+		private void cs_apply_rup_targ_int_src (
+				final double[] y1,
+				final double[] y2,
+				final double[] y3,
+				final double[] x1,
+				final double[] x2,
+				final double[] x3,
+				final double[] o1,
+				final double[] o2,
+				final double[] o3,
+				final double[] d ) {
+
+			final OEFloatRowMatrix m = cmat_rup_targ_int_src;
+			final int i_top = m.get_row_count();
+			for (int i = 0; i < i_top; ++i) {
+				double sum1 = 0.0;
+				double sum2 = 0.0;
+				double sum3 = 0.0;
+				final float[] blk = m.get_block (i);
+				final int off = m.get_row_offset (i);
+				final int j_top = m.get_row_len (i);
+				for (int j = 0; j < j_top; ++j) {
+					final double v = blk[off + j];
+					sum1 += (v * x1[j]);
+					sum2 += (v * x2[j]);
+					sum3 += (v * x3[j]);
+				}
+				y1[i] = sum1 * d[i] + o1[i];
+				y2[i] = sum2 * d[i] + o2[i];
+				y3[i] = sum3 * d[i] + o3[i];
+			}
+			return;
+		}
+
+
+		// Apply the matrix for interval target and rupture source, using single-precision storage.
+		// Performs the same operation as apply_omat_int_targ_rup_src.
+
+		private void cs_apply_int_targ_rup_src (
+				final double[] y1,
+				final double[] y2,
+				final double[] z1,
+				final double[] z2,
+				final double[] x1,
+				final double[] x2,
+				final double[] dy,
+				final double[] dz ) {
+
+			final OEFloatRowMatrix m = cmat_int_targ_rup_src;
+			final int i_top = m.get_row_count();
+
+			double total1 = 0.0;
+			double total2 = 0.0;
+
+			for (int i = 0; i < i_top; ++i) {
+				double sum1 = 0.0;
+				double sum2 = 0.0;
+				final float[] blk = m.get_block (i);
+				final int off = m.get_row_offset (i);
+				final int j_top = m.get_row_len (i);
+				for (int j = 0; j < j_top; ++j) {
+					final double v = blk[off + j];
+					sum1 += (v * x1[j]);
+					sum2 += (v * x2[j]);
+				}
+				y1[i] = sum1 * dy[i];
+				y2[i] = sum2 * dy[i];
+				total1 += (sum1 * dz[i]);
+				total2 += (sum2 * dz[i]);
+			}
+
+			z1[0] = total1;
+			z2[0] = total2;
+			return;
+		}
+
+
+		// Apply the matrix for interval target and interval source, using single-precision storage.
+		// Performs the same operation as apply_omat_int_targ_int_src.
+
+		private void cs_apply_int_targ_int_src (
+				final double[] y1,
+				final double[] y2,
+				final double[] z1,
+				final double[] z2,
+				final double[] x1,
+				final double[] x2,
+				final double[] o1,
+				final double[] o2,
+				final double[] dy,
+				final double[] dz,
+				final double s) {
+
+			final OEFloatRowMatrix m = cmat_int_targ_int_src;
+			final int i_top = m.get_row_count();
+
+			double total1 = 0.0;
+			double total2 = 0.0;
+
+			for (int i = 0; i < i_top; ++i) {
+
+				// Propagate from prior outputs
+
+				double sum1 = 0.0;
+				double sum2 = 0.0;
+				final float[] blk = m.get_block (i);
+				final int off = m.get_row_offset (i);
+				final int j_top = m.get_row_len (i);
+				for (int j = 0; j < j_top; ++j) {
+					final double v = blk[off + j];
+					sum1 += (v * y1[j]);
+					sum2 += (v * y2[j]);
+				}
+
+				// Vector output
+
+				final double self = omat_self_int_src[i];
+
+				y1[i] = (sum1 * dy[i] + x1[i]) * s * (self * dy[i] * s + 1.0);
+				y2[i] = (sum2 * dy[i] + x2[i]) * s * (self * dy[i] * s + 1.0);
+
+				// Scalar output
+
+				total1 += ((y1[i] * self + sum1) * dz[i]);
+				total2 += ((y2[i] * self + sum2) * dz[i]);
+			}
+
+			z1[0] = total1 + o1[0];
+			z2[0] = total2 + o2[0];
+			return;
+		}
+
+
+		// Apply the matrix for interval target and interval source, using single-precision storage.
+		// Performs the same operation as apply_omat_int_targ_int_src, with three vectors.
+
+		private void cs_apply_int_targ_int_src (
+				final double[] y1,
+				final double[] y2,
+				final double[] y3,
+				final double[] z1,
+				final double[] z2,
+				final double[] z3,
+				final double[] x1,
+				final double[] x2,
+				final double[] x3,
+				final double[] o1,
+				final double[] o2,
+				final double[] o3,
+				final double[] dy,
+				final double[] dz,
+				final double s) {
+
+			final OEFloatRowMatrix m = cmat_int_targ_int_src;
+			final int i_top = m.get_row_count();
+
+			double total1 = 0.0;
+			double total2 = 0.0;
+			double total3 = 0.0;
+
+			for (int i = 0; i < i_top; ++i) {
+
+				// Propagate from prior outputs
+
+				double sum1 = 0.0;
+				double sum2 = 0.0;
+				double sum3 = 0.0;
+				final float[] blk = m.get_block (i);
+				final int off = m.get_row_offset (i);
+				final int j_top = m.get_row_len (i);
+				for (int j = 0; j < j_top; ++j) {
+					final double v = blk[off + j];
+					sum1 += (v * y1[j]);
+					sum2 += (v * y2[j]);
+					sum3 += (v * y3[j]);
+				}
+
+				// Vector output
+
+				final double self = omat_self_int_src[i];
+
+				y1[i] = (sum1 * dy[i] + x1[i]) * s * (self * dy[i] * s + 1.0);
+				y2[i] = (sum2 * dy[i] + x2[i]) * s * (self * dy[i] * s + 1.0);
+				y3[i] = (sum3 * dy[i] + x3[i]) * s * (self * dy[i] * s + 1.0);
+
+				// Scalar output
+
+				total1 += ((y1[i] * self + sum1) * dz[i]);
+				total2 += ((y2[i] * self + sum2) * dz[i]);
+				total3 += ((y3[i] * self + sum3) * dz[i]);
+			}
+
+			z1[0] = total1 + o1[0];
+			z2[0] = total2 + o2[0];
+			z3[0] = total3 + o3[0];
+			return;
+		}
+
+
+
+
+		//----- Sum-of-exponentials representation -----
+
+
+
+
+		// True if this object uses the sum-of-exponentials representation instead of dense matrices.
+
+		private boolean f_expsum;
+
+		// Sum-of-exponentials approximation to the Omori kernel, or null if not built.
+		// When f_expsum is true, the dense matrices omat_rup_targ_rup_src, omat_rup_targ_int_src,
+		// omat_int_targ_rup_src, and omat_int_targ_int_src are not allocated.  Instead, each matrix
+		// is represented by the factors below, and the apply functions evaluate the matrix products
+		// with recurrences over time, using the approximation
+		//
+		//   (t - s + c)^(-p) ~ SUM(w[k] * exp(-u[k]*(t - s + c)))
+		//
+		// where the sum runs over 0 <= k < K, with K = xs_term_count.  The array omat_self_int_src
+		// is still allocated and computed exactly.
+
+		private OEOmoriExpSum omat_expsum;
+
+		// Number of terms in the approximation (K).
+
+		private int xs_term_count;
+
+		// Target coefficients, with length K.
+		//
+		//   xs_targ_coef[k] = w[k] * exp(-u[k]*c)
+
+		private double[] xs_targ_coef;
+
+		// Decay between successive ruptures, used for rupture target and rupture source.
+		//
+		//   xs_rup_decay[i*K + k] = exp(-u[k]*(t[i] - t[i-1]))
+		//
+		//   t[i] = a_rupture_obj[i].t_day
+		//
+		// The entries for i == 0 are set to 1.  This is allocated with length >= rupture_count*K.
+
+		private double[] xs_rup_decay;
+
+		// Decay across each interval, source integral of each interval, and target density integral
+		// of each interval.
+		//
+		//   xs_int_decay[i*K + k] = exp(-u[k]*(t2 - t1))
+		//
+		//   xs_int_src[i*K + k] = Integral(s = t1, s = t2; exp(-u[k]*(t2 - s)) * ds)
+		//
+		//   xs_int_targ[i*K + k] = w[k] * exp(-u[k]*c) * Integral(t = t1, t = t2; exp(-u[k]*(t - t1)) * dt) / (t2 - t1)
+		//
+		//   t1 = a_interval_time[i]
+		//   t2 = a_interval_time[i + 1]
+		//
+		// These are allocated with length >= interval_count*K, if any matrix has interval sources or targets.
+
+		private double[] xs_int_decay;
+		private double[] xs_int_src;
+		private double[] xs_int_targ;
+
+		// Factors for rupture target and interval source.
+		//
+		//   xs_rup_targ_int[(i - targ_rup_begin)*K + k] = w[k] * exp(-u[k]*(t - tm + c))
+		//
+		//   t = a_rupture_int_time_value[i]
+		//   tm = a_interval_time[a_rupture_int_time_index[i]]
+		//
+		// This is defined for target ruptures, targ_rup_begin <= i < targ_rup_end.
+
+		private double[] xs_rup_targ_int;
+
+		// Factors for interval target and rupture source.
+		// A source rupture j is folded into the running sum at the start time t1 of the first target
+		// interval i whose row contains j and which begins at or after the source rupture.  Then
+		//
+		//   xs_rup_src_int[j*K + k] = exp(-u[k]*(t1 - s))
+		//
+		//   s = a_rupture_int_time_value[j]
+		//
+		// This is allocated with length >= rupture_count*K.
+
+		private double[] xs_rup_src_int;
+
+		// Row structure for interval target and rupture source, which is independent of p and c.
+		// For each target interval i:
+		//
+		//   xs_int_rup_fold_end[i] = Number of source ruptures folded into the running sum at interval i.
+		//   xs_int_rup_row_end[i] = Number of source ruptures in row i, same as omat_int_targ_rup_src[i].length.
+		//
+		// Sources j with xs_int_rup_fold_end[i] <= j < xs_int_rup_row_end[i] lie in the interior of interval i,
+		// and their Omori values are computed exactly and stored in xs_int_rup_interior, beginning at
+		// index xs_int_rup_interior_begin[i].
+
+		private int[] xs_int_rup_fold_end;
+		private int[] xs_int_rup_row_end;
+		private int[] xs_int_rup_interior_begin;
+		private double[] xs_int_rup_interior;
+
+
+		// Return an array with at least the given length, re-using the existing array if possible.
+
+		private double[] xs_realloc (double[] x, int len) {
+			if (x == null || x.length < len) {
+				return new double[len];
+			}
+			return x;
+		}
+
+
+		// Function to allocate the sum-of-exponentials structures that do not depend on p and c.
+
+		private void alloc_omat_expsum () {
+
+			final int rupture_count = history.rupture_count;
+			final int[] a_rupture_int_time_index = history.a_rupture_int_time_index;
+			final double[] a_rupture_int_time_value = history.a_rupture_int_time_value;
+			final int interval_count = history.interval_count;
+			final double[] a_interval_time = history.a_interval_time;
+
+			// Row structure for interval target and rupture source
+
+			if (f_omat_int_targ_rup_src) {
+				xs_int_rup_fold_end = new int[interval_count];
+				xs_int_rup_row_end = new int[interval_count];
+				xs_int_rup_interior_begin = new int[interval_count];
+
+				int n = 0;
+				int q = 0;
+				int n_interior = 0;
+				for (int i_t_int = 0; i_t_int < interval_count; ++i_t_int) {
+					while (n < rupture_count && a_rupture_int_time_index[n] <= i_t_int) {
+						++n;
+					}
+					final double t1 = a_interval_time[i_t_int];
+					while (q < n && a_rupture_int_time_value[q] <= t1) {
+						++q;
+					}
+					xs_int_rup_fold_end[i_t_int] = q;
+					xs_int_rup_row_end[i_t_int] = n;
+					xs_int_rup_interior_begin[i_t_int] = n_interior;
+					n_interior += (n - q);
+				}
+
+				xs_int_rup_interior = new double[n_interior];
+			}
+
+			// Self array for interval target and interval source
+
+			if (f_omat_int_targ_int_src) {
+				omat_self_int_src = new double[interval_count];
+			}
+
+			return;
+		}
+
+
+		// Function to build the sum-of-exponentials approximation and factors, for the current p and c.
+
+		private void build_omat_expsum () {
+
+			final int rupture_count = history.rupture_count;
+			final OERupture[] a_rupture_obj = history.a_rupture_obj;
+			final int[] a_rupture_int_time_index = history.a_rupture_int_time_index;
+			final double[] a_rupture_int_time_value = history.a_rupture_int_time_value;
+			final int interval_count = history.interval_count;
+			final double[] a_interval_time = history.a_interval_time;
+
+			// Make the approximation, valid for all source-target separations in the history.
+			// For incremental refitting, re-use the prior fit's approximation if it is valid for this
+			// history, so that factors for the unchanged part of the history can be copied.  When saving
+			// to an archive, make the approximation valid over a longer span, so that the next fit
+			// (whose history is usually somewhat longer) can re-use it.
+
+			final double history_span = calc_history_span();
+			boolean f_reuse = false;
+
+			if (xr_prior != null && xr_prior.xs_expsum != null
+				&& xr_prior.xs_expsum.get_x_max() >= history_span + c && xr_prior.xs_expsum.get_tol() == omat_tol) {
+				omat_expsum = xr_prior.xs_expsum;
+				f_reuse = true;
+			}
+			else if (omat_next_archive != null) {
+				omat_expsum = new OEOmoriExpSum (p, c, c, (XS_ARCHIVE_SPAN_FACTOR * history_span) + c, omat_tol);
+			}
+			else {
+				omat_expsum = new OEOmoriExpSum (p, c, c, history_span + c, omat_tol);
+			}
+
+			final int K = omat_expsum.get_term_count();
+			xs_term_count = K;
+
+			final double[] u = new double[K];
+			xs_targ_coef = new double[K];
+			for (int k = 0; k < K; ++k) {
+				u[k] = omat_expsum.get_rate (k);
+				xs_targ_coef[k] = omat_expsum.get_weight (k) * Math.exp (-u[k] * c);
+			}
+
+			// Number of ruptures and intervals whose factors can be copied from the prior fit
+
+			int xr_rup_copy = 0;
+			int xr_int_copy = 0;
+
+			if (f_reuse) {
+				xr_rup_copy = omat_match_rup_count;
+				if (xr_prior.xs_rup_decay != null) {
+					xr_rup_copy = Math.min (xr_rup_copy, xr_prior.xs_rup_decay.length / K);
+				}
+				xr_int_copy = Math.max (0, omat_match_int_time_count - 1);
+				if (xr_prior.xs_int_decay != null) {
+					xr_int_copy = Math.min (xr_int_copy, xr_prior.xs_int_decay.length / K);
+				}
+				if (xr_prior.omat_self_int_src != null) {
+					xr_int_copy = Math.min (xr_int_copy, xr_prior.omat_self_int_src.length);
+				}
+			}
+
+			// Rupture target and rupture source
+
+			if (f_omat_rup_targ_rup_src) {
+				xs_rup_decay = xs_realloc (xs_rup_decay, rupture_count * K);
+				int i_rup_begin = 0;
+				if (xr_rup_copy > 0 && xr_prior.xs_rup_decay != null) {
+					i_rup_begin = xr_rup_copy;
+					System.arraycopy (xr_prior.xs_rup_decay, 0, xs_rup_decay, 0, i_rup_begin * K);
+					xr_rows_copied += i_rup_begin;
+				}
+				for (int i_rup = i_rup_begin; i_rup < rupture_count; ++i_rup) {
+					final double dt = ((i_rup == 0) ? 0.0 : (a_rupture_obj[i_rup].t_day - a_rupture_obj[i_rup - 1].t_day));
+					final int ib = i_rup * K;
+					for (int k = 0; k < K; ++k) {
+						xs_rup_decay[ib + k] = Math.exp (-u[k] * dt);
+					}
+				}
+			}
+
+			// Interval factors, if any matrix has interval sources or targets
+
+			if (f_omat_rup_targ_int_src || f_omat_int_targ_rup_src || f_omat_int_targ_int_src) {
+				xs_int_decay = xs_realloc (xs_int_decay, interval_count * K);
+				xs_int_src = xs_realloc (xs_int_src, interval_count * K);
+				xs_int_targ = xs_realloc (xs_int_targ, interval_count * K);
+				int i_int_begin = 0;
+				if (xr_int_copy > 0 && xr_prior.xs_int_decay != null) {
+					i_int_begin = xr_int_copy;
+					System.arraycopy (xr_prior.xs_int_decay, 0, xs_int_decay, 0, i_int_begin * K);
+					System.arraycopy (xr_prior.xs_int_src, 0, xs_int_src, 0, i_int_begin * K);
+					System.arraycopy (xr_prior.xs_int_targ, 0, xs_int_targ, 0, i_int_begin * K);
+					xr_rows_copied += i_int_begin;
+				}
+				for (int i_int = i_int_begin; i_int < interval_count; ++i_int) {
+					final double w = a_interval_time[i_int + 1] - a_interval_time[i_int];
+					final int ib = i_int * K;
+					for (int k = 0; k < K; ++k) {
+						final double uw = u[k] * w;
+						final double g = OEOmoriCalc.expm1dx (-uw);		// (1 - exp(-u*w))/(u*w)
+						xs_int_decay[ib + k] = Math.exp (-uw);
+						xs_int_src[ib + k] = g * w;
+						xs_int_targ[ib + k] = xs_targ_coef[k] * g;
+					}
+				}
+			}
+
+			// Rupture target and interval source
+
+			if (f_omat_rup_targ_int_src) {
+				xs_rup_targ_int = xs_realloc (xs_rup_targ_int, (targ_rup_end - targ_rup_begin) * K);
+				for (int i_t_rup = targ_rup_begin; i_t_rup < targ_rup_end; ++i_t_rup) {
+					final double dt = Math.max (0.0, a_rupture_int_time_value[i_t_rup] - a_interval_time[a_rupture_int_time_index[i_t_rup]]);
+					final int ib = (i_t_rup - targ_rup_begin) * K;
+					for (int k = 0; k < K; ++k) {
+						xs_rup_targ_int[ib + k] = xs_targ_coef[k] * Math.exp (-u[k] * dt);
+					}
+				}
+			}
+
+			// Interval target and rupture source
+
+			if (f_omat_int_targ_rup_src) {
+				xs_rup_src_int = xs_realloc (xs_rup_src_int, rupture_count * K);
+				int q = 0;
+				for (int i_t_int = 0; i_t_int < interval_count; ++i_t_int) {
+					final double t1 = a_interval_time[i_t_int];
+					final double t2 = a_interval_time[i_t_int + 1];
+					final double t2_minus_t1 = t2 - t1;
+
+					// Factors for sources folded in at this interval
+
+					final int q_top = xs_int_rup_fold_end[i_t_int];
+					for ( ; q < q_top; ++q) {
+						final double ds = t1 - a_rupture_int_time_value[q];
+						final int qb = q * K;
+						for (int k = 0; k < K; ++k) {
+							xs_rup_src_int[qb + k] = Math.exp (-u[k] * ds);
+						}
+					}
+
+					// Exact values for sources in the interior of this interval
+
+					final int j_top = xs_int_rup_row_end[i_t_int];
+					int jj = xs_int_rup_interior_begin[i_t_int];
+					for (int j = q_top; j < j_top; ++j) {
+						final double t2_minus_s = t2 - a_rupture_int_time_value[j];
+						if (t2_minus_s > TINY_DURATION_DAYS) {
+							xs_int_rup_interior[jj] = (t2_minus_s / t2_minus_t1) * OEOmoriCalc.omext_single_density_integral (p, c, t2_minus_s);
+						} else {
+							xs_int_rup_interior[jj] = 0.0;
+						}
+						++jj;
+					}
+				}
+			}
+
+			// Self array for interval target and interval source
+
+			if (f_omat_int_targ_int_src) {
+				int i_int_begin = 0;
+				if (xr_int_copy > 0 && xr_prior.omat_self_int_src != null) {
+					i_int_begin = xr_int_copy;
+					System.arraycopy (xr_prior.omat_self_int_src, 0, omat_self_int_src, 0, i_int_begin);
+				}
+				for (int i_int = i_int_begin; i_int < interval_count; ++i_int) {
+					omat_self_int_src[i_int] = OEOmoriCalc.omext_self_double_density_integral (p, c, a_interval_time[i_int + 1] - a_interval_time[i_int]);
+				}
+			}
+
+			return;
+		}
+
+
+		// Apply the matrix for rupture target and rupture source, using sum-of-exponentials.
+		// Performs the same operation as apply_omat_rup_targ_rup_src.
+		// The running sums are
+		//   st1[k] = SUM(exp(-u[k]*(t[i] - t[j])) * x1[j])
+		// over 0 <= j < i, and likewise for st2.
+
+		private void xs_apply_rup_targ_rup_src (
+				final double[] y1,
+				final double[] y2,
+				final double[] x1,
+				final double[] x2,
+				final double[] d ) {
+
+			final int rupture_count = history.rupture_count;
+			final int K = xs_term_count;
+			final double[] coef = xs_targ_coef;
+			final double[] decay = xs_rup_decay;
+
+			final double[] st1 = new double[K];
+			final double[] st2 = new double[K];
+
+			for (int i = 0; i < rupture_count; ++i) {
+				final int ib = i * K;
+				final double xi1 = x1[i];
+				final double xi2 = x2[i];
+
+				if (i >= targ_rup_begin && i < targ_rup_end) {
+					double sum1 = 0.0;
+					double sum2 = 0.0;
+					for (int k = 0; k < K; ++k) {
+						final double e = decay[ib + k];
+						final double s1 = st1[k] * e;
+						final double s2 = st2[k] * e;
+						sum1 += (coef[k] * s1);
+						sum2 += (coef[k] * s2);
+						st1[k] = s1 + xi1;
+						st2[k] = s2 + xi2;
+					}
+					y1[i] = sum1 * d[i];
+					y2[i] = sum2 * d[i];
+				}
+
+				else {
+					for (int k = 0; k < K; ++k) {
+						final double e = decay[ib + k];
+						st1[k] = st1[k] * e + xi1;
+						st2[k] = st2[k] * e + xi2;
+					}
+					y1[i] = 0.0;
+					y2[i] = 0.0;
+				}
+			}
+			return;
+		}
+
+
+		// Apply the matrix for rupture target and interval source, using sum-of-exponentials.
+		// Performs the same operation as apply_omat_rup_targ_int_src.
+		// The running sums are
+		//   st1[k] = SUM(exp(-u[k]*(tm - s2)) * Integral(s = s1, s = s2; exp(-u[k]*(s2 - s)) * ds) * x1[j])
+		// over source intervals 0 <= j < m, where s1 and s2 are the begin and end of interval j,
+		// and tm = a_interval_time[m] is the end of the last folded interval.
+
+		private void xs_apply_rup_targ_int_src (
+				final double[] y1,
+				final double[] y2,
+				final double[] x1,
+				final double[] x2,
+				final double[] o1,
+				final double[] o2,
+				final double[] d ) {
+
+			final int rupture_count = history.rupture_count;
+			final int[] a_rupture_int_time_index = history.a_rupture_int_time_index;
+			final int K = xs_term_count;
+
+			final double[] st1 = new double[K];
+			final double[] st2 = new double[K];
+			int m = 0;
+
+			for (int i = 0; i < rupture_count; ++i) {
+				if (i >= targ_rup_begin && i < targ_rup_end) {
+
+					// Fold in the intervals that lie before this target
+
+					final int m_top = a_rupture_int_time_index[i];
+					for ( ; m < m_top; ++m) {
+						final int mb = m * K;
+						final double xm1 = x1[m];
+						final double xm2 = x2[m];
+						for (int k = 0; k < K; ++k) {
+							final double e = xs_int_decay[mb + k];
+							final double g = xs_int_src[mb + k];
+							st1[k] = st1[k] * e + g * xm1;
+							st2[k] = st2[k] * e + g * xm2;
+						}
+					}
+
+					// Evaluate at the target
+
+					final int ib = (i - targ_rup_begin) * K;
+					double sum1 = 0.0;
+					double sum2 = 0.0;
+					for (int k = 0; k < K; ++k) {
+						final double f = xs_rup_targ_int[ib + k];
+						sum1 += (f * st1[k]);
+						sum2 += (f * st2[k]);
+					}
+					y1[i] = sum1 * d[i] + o1[i];
+					y2[i] = sum2 * d[i] + o2[i];
+				}
+
+				else {
+					y1[i] = o1[i];
+					y2[i] = o2[i];
+				}
+			}
+			return;
+		}
+
+
+		// Apply the matrix for rupture target and interval source, using sum-of-exponentials.
+		// Performs the same operation as apply_omat_rup_targ_int_src, with three vectors.
+
+		private void xs_apply_rup_targ_int_src (
+				final double[] y1,
+				final double[] y2,
+				final double[] y3,
+				final double[] x1,
+				final double[] x2,
+				final double[] x3,
+				final double[] o1,
+				final double[] o2,
+				final double[] o3,
+				final double[] d ) {
+
+			final int rupture_count = history.rupture_count;
+			final int[] a_rupture_int_time_index = history.a_rupture_int_time_index;
+			final int K = xs_term_count;
+
+			final double[] st1 = new double[K];
+			final double[] st2 = new double[K];
+			final double[] st3 = new double[K];
+			int m = 0;
+
+			for (int i = 0; i < rupture_count; ++i) {
+				if (i >= targ_rup_begin && i < targ_rup_end) {
+
+					// Fold in the intervals that lie before this target
+
+					final int m_top = a_rupture_int_time_index[i];
+					for ( ; m < m_top; ++m) {
+						final int mb = m * K;
+						final double xm1 = x1[m];
+						final double xm2 = x2[m];
+						final double xm3 = x3[m];
+						for (int k = 0; k < K; ++k) {
+							final double e = xs_int_decay[mb + k];
+							final double g = xs_int_src[mb + k];
+							st1[k] = st1[k] * e + g * xm1;
+							st2[k] = st2[k] * e + g * xm2;
+							st3[k] = st3[k] * e + g * xm3;
+						}
+					}
+
+					// Evaluate at the target
+
+					final int ib = (i - targ_rup_begin) * K;
+					double sum1 = 0.0;
+					double sum2 = 0.0;
+					double sum3 = 0.0;
+					for (int k = 0; k < K; ++k) {
+						final double f = xs_rup_targ_int[ib + k];
+						sum1 += (f * st1[k]);
+						sum2 += (f * st2[k]);
+						sum3 += (f * st3[k]);
+					}
+					y1[i] = sum1 * d[i] + o1[i];
+					y2[i] = sum2 * d[i] + o2[i];
+					y3[i] = sum3 * d[i] + o3[i];
+				}
+
+				else {
+					y1[i] = o1[i];
+					y2[i] = o2[i];
+					y3[i] = o3[i];
+				}
+			}
+			return;
+		}
+
+
+		// Apply the matrix for interval target and rupture source, using sum-of-exponentials.
+		// Performs the same operation as apply_omat_int_targ_rup_src.
+		// The running sums are
+		//   st1[k] = SUM(exp(-u[k]*(t1 - s)) * x1[j])
+		// over folded source ruptures j, where t1 is the beginning of the target interval.
+		// Source ruptures in the interior of the target interval are applied exactly.
+
+		private void xs_apply_int_targ_rup_src (
+				final double[] y1,
+				final double[] y2,
+				final double[] z1,
+				final double[] z2,
+				final double[] x1,
+				final double[] x2,
+				final double[] dy,
+				final double[] dz ) {
+
+			final int interval_count = history.interval_count;
+			final int K = xs_term_count;
+
+			final double[] st1 = new double[K];
+			final double[] st2 = new double[K];
+			int q = 0;
+
+			double total1 = 0.0;
+			double total2 = 0.0;
+
+			for (int i = 0; i < interval_count; ++i) {
+				final int ib = i * K;
+
+				// Advance the running sums from the start of the prior interval to the start of this interval
+
+				if (i > 0) {
+					final int pb = ib - K;
+					for (int k = 0; k < K; ++k) {
+						final double e = xs_int_decay[pb + k];
+						st1[k] *= e;
+						st2[k] *= e;
+					}
+				}
+
+				// Fold in the sources that lie before this interval
+
+				final int q_top = xs_int_rup_fold_end[i];
+				for ( ; q < q_top; ++q) {
+					final int qb = q * K;
+					final double xq1 = x1[q];
+					final double xq2 = x2[q];
+					for (int k = 0; k < K; ++k) {
+						final double h = xs_rup_src_int[qb + k];
+						st1[k] += (h * xq1);
+						st2[k] += (h * xq2);
+					}
+				}
+
+				// Evaluate at the target
+
+				double sum1 = 0.0;
+				double sum2 = 0.0;
+				for (int k = 0; k < K; ++k) {
+					final double f = xs_int_targ[ib + k];
+					sum1 += (f * st1[k]);
+					sum2 += (f * st2[k]);
+				}
+
+				// Sources in the interior of this interval
+
+				final int j_top = xs_int_rup_row_end[i];
+				int jj = xs_int_rup_interior_begin[i];
+				for (int j = q_top; j < j_top; ++j) {
+					final double v = xs_int_rup_interior[jj];
+					sum1 += (v * x1[j]);
+					sum2 += (v * x2[j]);
+					++jj;
+				}
+
+				y1[i] = sum1 * dy[i];
+				y2[i] = sum2 * dy[i];
+				total1 += (sum1 * dz[i]);
+				total2 += (sum2 * dz[i]);
+			}
+
+			z1[0] = total1;
+			z2[0] = total2;
+			return;
+		}
+
+
+		// Apply the matrix for interval target and interval source, using sum-of-exponentials.
+		// Performs the same operation as apply_omat_int_targ_int_src.
+		// The running sums are
+		//   st1[k] = SUM(exp(-u[k]*(t1 - s2)) * Integral(s = s1, s = s2; exp(-u[k]*(s2 - s)) * ds) * y1[j])
+		// over source intervals 0 <= j < i, where s1 and s2 are the begin and end of interval j,
+		// and t1 is the beginning of target interval i.
 
-		public final void apply_omat_int_targ_int_src (
+		private void xs_apply_int_targ_int_src (
 				final double[] y1,
 				final double[] y2,
 				final double[] z1,
@@ -1914,43 +3368,26 @@ public class OEDisc2ExtFit {
 				final double[] dz,
 				final double s) {
 
-			// Zero-matrix case
-
-			if (omat_int_targ_int_src == null) {
-				final int ii_top = history.interval_count;
-				for (int ii = 0; ii < ii_top; ++ii) {
-					y1[ii] = x1[ii] * s;
-					y2[ii] = x2[ii] * s;
-				}
-				z1[0] = o1[0];
-				z2[0] = o2[0];
-				return;
-			}
-
-			// Non-zero matrix
-
-			final int i_top = omat_int_targ_int_src.length;
+			final int interval_count = history.interval_count;
+			final int K = xs_term_count;
 
-			// Accumulators across all targets for scalar output
+			final double[] st1 = new double[K];
+			final double[] st2 = new double[K];
 
 			double total1 = 0.0;
 			double total2 = 0.0;
 
-			// For each target...
-
-			for (int i = 0; i < i_top; ++i) {
+			for (int i = 0; i < interval_count; ++i) {
+				final int ib = i * K;
 
 				// Propagate from prior outputs
 
 				double sum1 = 0.0;
 				double sum2 = 0.0;
-
-				final double[] row = omat_int_targ_int_src[i];
-				final int j_top = row.length;
-
-				for (int j = 0; j < j_top; ++j) {
-					sum1 += (row[j] * y1[j]);
-					sum2 += (row[j] * y2[j]);
+				for (int k = 0; k < K; ++k) {
+					final double f = xs_int_targ[ib + k];
+					sum1 += (f * st1[k]);
+					sum2 += (f * st2[k]);
 				}
 
 				// Vector output
@@ -1964,6 +3401,17 @@ public class OEDisc2ExtFit {
 
 				total1 += ((y1[i] * self + sum1) * dz[i]);
 				total2 += ((y2[i] * self + sum2) * dz[i]);
+
+				// Fold this interval into the running sums, advancing them to the end of this interval
+
+				final double yi1 = y1[i];
+				final double yi2 = y2[i];
+				for (int k = 0; k < K; ++k) {
+					final double e = xs_int_decay[ib + k];
+					final double g = xs_int_src[ib + k];
+					st1[k] = st1[k] * e + g * yi1;
+					st2[k] = st2[k] * e + g * yi2;
+				}
 			}
 
 			// Total scalar output
@@ -1974,37 +3422,10 @@ public class OEDisc2ExtFit {
 		}
 
 
-		// Function to apply the matrix.
-		// Parameters:
-		//  y1 = Target vector #1, length = interval_count.
-		//  y2 = Target vector #2, length = interval_count.
-		//  y3 = Target vector #3, length = interval_count.
-		//  z1 = Target scalar #1, length = 1.
-		//  z2 = Target scalar #2, length = 1.
-		//  z3 = Target scalar #3, length = 1.
-		//  x1 = Source vector #1, length = interval_count.
-		//  x2 = Source vector #2, length = interval_count.
-		//  x3 = Source vector #3, length = interval_count.
-		//  o1 = Source scalar offset #1, length = 1.
-		//  o2 = Source scalar offset #2, length = 1.
-		//  o3 = Source scalar offset #3, length = 1.
-		//  dy = Target scaling vector for y, length = interval_count.
-		//  dz = Target scaling vector for z, length = interval_count.
-		//  s = Scale factor.
-		// Performs the operations (with m denoting omat_int_targ_int_src and v denoting omat_self_int_src):
-		//   y1[i] = (SUM(m[i][j] * y1[j]) * dy[i] + x1[i]) * s * (1 + v[i] * dy[i] * s);
-		//   y2[i] = (SUM(m[i][j] * y2[j]) * dy[i] + x2[i]) * s * (1 + v[i] * dy[i] * s);
-		//   y3[i] = (SUM(m[i][j] * y3[j]) * dy[i] + x3[i]) * s * (1 + v[i] * dy[i] * s);
-		// where the sum is over j satisfying 0 <= j < m[i].length, for i satisfying 0 <= i <= m.length.
-		// Because the formulas are a recurrence, they must be evaluated sequentially in increasing i.
-		//   z1[0] = SUM((SUM(m[i][j] * y1[j]) + y1[i] * v[i]) * dz[i]) + o1[0]
-		//   z2[0] = SUM((SUM(m[i][j] * y2[j]) + y2[i] * v[i]) * dz[i]) + o2[0]
-		//   z3[0] = SUM((SUM(m[i][j] * y3[j]) + y3[i] * v[i]) * dz[i]) + o3[0]
-		// where the inner sum is over j satisfying 0 <= j < m[i].length, and the outer sum is
-		// over i satisfying 0 <= i <= m.length.  Because the formulas refer to y1[i] and y2[i] and y3[i],
-		// the y values must be computed first.
+		// Apply the matrix for interval target and interval source, using sum-of-exponentials.
+		// Performs the same operation as apply_omat_int_targ_int_src, with three vectors.
 
-		public final void apply_omat_int_targ_int_src (
+		private void xs_apply_int_targ_int_src (
 				final double[] y1,
 				final double[] y2,
 				final double[] y3,
@@ -2021,48 +3442,30 @@ public class OEDisc2ExtFit {
 				final double[] dz,
 				final double s) {
 
-			// Zero-matrix case
-
-			if (omat_int_targ_int_src == null) {
-				final int ii_top = history.interval_count;
-				for (int ii = 0; ii < ii_top; ++ii) {
-					y1[ii] = x1[ii] * s;
-					y2[ii] = x2[ii] * s;
-					y3[ii] = x3[ii] * s;
-				}
-				z1[0] = o1[0];
-				z2[0] = o2[0];
-				z3[0] = o3[0];
-				return;
-			}
-
-			// Non-zero matrix
-
-			final int i_top = omat_int_targ_int_src.length;
+			final int interval_count = history.interval_count;
+			final int K = xs_term_count;
 
-			// Accumulators across all targets for scalar output
+			final double[] st1 = new double[K];
+			final double[] st2 = new double[K];
+			final double[] st3 = new double[K];
 
 			double total1 = 0.0;
 			double total2 = 0.0;
 			double total3 = 0.0;
 
-			// For each target...
-
-			for (int i = 0; i < i_top; ++i) {
+			for (int i = 0; i < interval_count; ++i) {
+				final int ib = i * K;
 
 				// Propagate from prior outputs
 
 				double sum1 = 0.0;
 				double sum2 = 0.0;
 				double sum3 = 0.0;
-
-				final double[] row = omat_int_targ_int_src[i];
-				final int j_top = row.length;
-
-				for (int j = 0; j < j_top; ++j) {
-					sum1 += (row[j] * y1[j]);
-					sum2 += (row[j] * y2[j]);
-					sum3 += (row[j] * y3[j]);
+				for (int k = 0; k < K; ++k) {
+					final double f = xs_int_targ[ib + k];
+					sum1 += (f * st1[k]);
+					sum2 += (f * st2[k]);
+					sum3 += (f * st3[k]);
 				}
 
 				// Vector output
@@ -2079,6 +3482,19 @@ public class OEDisc2ExtFit {
 				total1 += ((y1[i] * self + sum1) * dz[i]);
 				total2 += ((y2[i] * self + sum2) * dz[i]);
 				total3 += ((y3[i] * self + sum3) * dz[i]);
+
+				// Fold this interval into the running sums, advancing them to the end of this interval
+
+				final double yi1 = y1[i];
+				final double yi2 = y2[i];
+				final double yi3 = y3[i];
+				for (int k = 0; k < K; ++k) {
+					final double e = xs_int_decay[ib + k];
+					final double g = xs_int_src[ib + k];
+					st1[k] = st1[k] * e + g * yi1;
+					st2[k] = st2[k] * e + g * yi2;
+					st3[k] = st3[k] * e + g * yi3;
+				}
 			}
 
 			// Total scalar output
@@ -2090,6 +3506,12 @@ public class OEDisc2ExtFit {
 		}
 
 
+		// Get the sum-of-exponentials approximation, or null if not using it (or not yet built).
+
+		public final OEOmoriExpSum get_omat_expsum () {
+			return omat_expsum;
+		}
+
 
 
 		//----- Building -----
@@ -2109,6 +3531,31 @@ public class OEDisc2ExtFit {
 			omat_int_targ_int_src = null;
 			omat_self_int_src = null;
 
+			f_compact = false;
+			cmat_rup_targ_rup_src = null;
+			cmat_rup_targ_int_src = null;
+			cmat_int_targ_rup_src = null;
+			cmat_int_targ_int_src = null;
+			cs_scratch = null;
+
+			xr_prior = null;
+			xr_rows_copied = 0L;
+
+			f_expsum = false;
+			omat_expsum = null;
+			xs_term_count = 0;
+			xs_targ_coef = null;
+			xs_rup_decay = null;
+			xs_int_decay = null;
+			xs_int_src = null;
+			xs_int_targ = null;
+			xs_rup_targ_int = null;
+			xs_rup_src_int = null;
+			xs_int_rup_fold_end = null;
+			xs_int_rup_row_end = null;
+			xs_int_rup_interior_begin = null;
+			xs_int_rup_interior = null;
+
 			return;
 		}
 
@@ -2119,6 +3566,20 @@ public class OEDisc2ExtFit {
 
 		private void omat_alloc () {
 
+			// If using sum-of-exponentials, allocate its structures instead of dense matrices
+
+			if (omat_meth == OMAT_METH_EXPSUM) {
+				f_expsum = true;
+				alloc_omat_expsum();
+				return;
+			}
+
+			// If using single precision, the dense matrices are stored compactly
+
+			if (omat_meth == OMAT_METH_FLOAT) {
+				f_compact = true;
+			}
+
 			// Allocate all the matrices that we need
 
 			if (f_omat_rup_targ_rup_src) {
@@ -2136,6 +3597,12 @@ public class OEDisc2ExtFit {
 			if (f_omat_int_targ_int_src) {
 				alloc_omat_int_targ_int_src();
 			}
+
+			// Scratch row for building single-precision matrices
+
+			if (f_compact) {
+				alloc_cs_scratch();
+			}
 		
 			return;
 		}
@@ -2154,6 +3621,18 @@ public class OEDisc2ExtFit {
 			this.p = p;
 			this.c = c;
 
+			// Set up for incremental refitting
+
+			xr_begin_build();
+
+			// If using sum-of-exponentials, build its factors instead of dense matrices
+
+			if (f_expsum) {
+				build_omat_expsum();
+				xr_end_build();
+				return;
+			}
+
 			// Build all the matrices that we need
 
 			if (f_omat_rup_targ_rup_src) {
@@ -2171,6 +3650,10 @@ public class OEDisc2ExtFit {
 			if (f_omat_int_targ_int_src) {
 				build_omat_int_targ_int_src();
 			}
+
+			// Save to the archive for the next fit
+
+			xr_end_build();
 		
 			return;
 		}
@@ -2205,6 +3688,30 @@ public class OEDisc2ExtFit {
 			result.append ("omat_int_targ_int_src: " + tri_mat_summary_string(omat_int_targ_int_src) + "\n");
 			result.append ("omat_self_int_src: "     + vec_summary_string(omat_self_int_src)         + "\n");
 
+			if (f_compact) {
+				result.append ("f_compact = " + f_compact + "\n");
+				if (cmat_rup_targ_rup_src != null) {
+					result.append ("cmat_rup_targ_rup_src: " + cmat_rup_targ_rup_src.toString() + "\n");
+				}
+				if (cmat_rup_targ_int_src != null) {
+					result.append ("cmat_rup_targ_int_src: " + cmat_rup_targ_int_src.toString() + "\n");
+				}
+				if (cmat_int_targ_rup_src != null) {
+					result.append ("cmat_int_targ_rup_src: " + cmat_int_targ_rup_src.toString() + "\n");
+				}
+				if (cmat_int_targ_int_src != null) {
+					result.append ("cmat_int_targ_int_src: " + cmat_int_targ_int_src.toString() + "\n");
+				}
+			}
+
+			if (f_expsum) {
+				result.append ("f_expsum = " + f_expsum + "\n");
+				if (omat_expsum != null) {
+					result.append ("xs_term_count = " + xs_term_count + "\n");
+					result.append ("xs_max_rel_error = " + omat_expsum.get_max_rel_error() + "\n");
+				}
+			}
+
 			return result.toString();
 		}
 
@@ -3431,14 +4938,13 @@ public class OEDisc2ExtFit {
 
 			// Accumulate contributions from each rupture
 
-			double result = 0.0;
-
 			final int nlo = like_rup_begin;
 			final int nhi = like_rup_end;
 
-			for (int n = nlo; n < nhi; ++n) {
-				result += (Math.log((ten_a_q * like_rup_targ_all_src[n]) + (ten_ams_q * like_main_rup_targ_all_src[n])));
-			}
+			double result = OEFitKernels.sum_log (0.0,
+				ten_a_q, like_rup_targ_all_src,
+				ten_ams_q, like_main_rup_targ_all_src,
+				nlo, nhi);
 
 			// Subtract accumulated contributions from each interval
 
@@ -3462,14 +4968,14 @@ public class OEDisc2ExtFit {
 
 			// Accumulate contributions from each rupture
 
-			double result = 0.0;
-
 			final int nlo = like_rup_begin;
 			final int nhi = like_rup_end;
 
-			for (int n = nlo; n < nhi; ++n) {
-				result += (Math.log((ten_a_q * like_rup_targ_all_src[n]) + (ten_ams_q * like_main_rup_targ_all_src[n]) + (mu * like_bkgd_rup_targ_all_src[n])));
-			}
+			double result = OEFitKernels.sum_log (0.0,
+				ten_a_q, like_rup_targ_all_src,
+				ten_ams_q, like_main_rup_targ_all_src,
+				mu, like_bkgd_rup_targ_all_src,
+				nlo, nhi);
 
 			// Subtract accumulated contributions from each interval
 
@@ -3542,11 +5048,10 @@ public class OEDisc2ExtFit {
 
 				// Accumulate contributions from each rupture
 
-				double result = log_like[j];
-
-				for (int n = nlo; n < nhi; ++n) {
-					result += (Math.log((ten_a_q * like_rup_targ_all_src[n]) + (ten_ams_q_j * like_main_rup_targ_all_src[n])));
-				}
+				double result = OEFitKernels.sum_log (log_like[j],
+					ten_a_q, like_rup_targ_all_src,
+					ten_ams_q_j, like_main_rup_targ_all_src,
+					nlo, nhi);
 
 				// Subtract accumulated contributions from each interval
 
@@ -3622,11 +5127,11 @@ public class OEDisc2ExtFit {
 
 				// Accumulate contributions from each rupture
 
-				double result = log_like[j];
-
-				for (int n = nlo; n < nhi; ++n) {
-					result += (Math.log((ten_a_q * like_rup_targ_all_src[n]) + (ten_ams_q_j * like_main_rup_targ_all_src[n]) + (mu * like_bkgd_rup_targ_all_src[n])));
-				}
+				double result = OEFitKernels.sum_log (log_like[j],
+					ten_a_q, like_rup_targ_all_src,
+					ten_ams_q_j, like_main_rup_targ_all_src,
+					mu, like_bkgd_rup_targ_all_src,
+					nlo, nhi);
 
 				// Subtract accumulated contributions from each interval
 
@@ -3957,6 +5462,156 @@ public class OEDisc2ExtFit {
 
 
 
+	//----- Memory estimates -----
+
+
+
+
+	// Number of terms assumed when estimating memory for the sum-of-exponentials method.
+	// The actual number depends on p, c, and the tolerance, and is usually smaller than this.
+
+	private static final long XS_EST_TERM_COUNT = 120L;
+
+	// Approximate overhead for an object or array header, in bytes.
+
+	private static final long MEM_OBJ_OVERHEAD = 16L;
+
+
+
+
+	// Estimate the memory needed for one MagExponent object, in bytes.
+	// Must be called after dfit_build.
+
+	public final long estimate_mexp_bytes () {
+		final long rupture_count = history.rupture_count;
+		final long interval_count = history.interval_count;
+		return (8L * ((3L * rupture_count) + (2L * interval_count))) + (8L * MEM_OBJ_OVERHEAD);
+	}
+
+
+
+
+	// Estimate the memory needed for one OmoriMatrix object, in bytes.
+	// Must be called after dfit_build and set_grid_options (if used), and accounts for
+	// the matrices that are enabled and the Omori matrix method selected by the grid options.
+
+	public final long estimate_omat_bytes () {
+		final int rupture_count = history.rupture_count;
+		final int[] a_rupture_int_time_index = history.a_rupture_int_time_index;
+		final int interval_count = history.interval_count;
+
+		long result = 8L * MEM_OBJ_OVERHEAD;
+
+		// Sum-of-exponentials method, factors proportional to rows times terms
+
+		if (omat_meth == OMAT_METH_EXPSUM) {
+			long xs_elements = 0L;
+			if (f_omat_rup_targ_rup_src) {
+				xs_elements += rupture_count;
+			}
+			if (f_omat_rup_targ_int_src || f_omat_int_targ_rup_src || f_omat_int_targ_int_src) {
+				xs_elements += 3L * interval_count;
+			}
+			if (f_omat_rup_targ_int_src) {
+				xs_elements += (targ_rup_end - targ_rup_begin);
+			}
+			if (f_omat_int_targ_rup_src) {
+				xs_elements += rupture_count;
+				result += (12L * interval_count) + (8L * rupture_count);
+			}
+			if (f_omat_int_targ_int_src) {
+				result += 8L * interval_count;
+			}
+			result += 8L * XS_EST_TERM_COUNT * xs_elements;
+			return result;
+		}
+
+		// Dense methods, count rows and elements
+
+		long rows = 0L;
+		long elements = 0L;
+
+		if (f_omat_rup_targ_rup_src) {
+			rows += rupture_count;
+			for (int i_t_rup = targ_rup_begin; i_t_rup < targ_rup_end; ++i_t_rup) {
+				elements += i_t_rup;
+			}
+		}
+
+		if (f_omat_rup_targ_int_src) {
+			rows += rupture_count;
+			for (int i_t_rup = targ_rup_begin; i_t_rup < targ_rup_end; ++i_t_rup) {
+				elements += a_rupture_int_time_index[i_t_rup];
+			}
+		}
+
+		if (f_omat_int_targ_rup_src) {
+			rows += interval_count;
+			int n = 0;
+			for (int i_t_int = 0; i_t_int < interval_count; ++i_t_int) {
+				while (n < rupture_count && a_rupture_int_time_index[n] <= i_t_int) {
+					++n;
+				}
+				elements += n;
+			}
+		}
+
+		if (f_omat_int_targ_int_src) {
+			rows += interval_count;
+			elements += (((long)interval_count) * ((long)(interval_count - 1))) / 2L;
+			result += 8L * interval_count;
+		}
+
+		if (omat_meth == OMAT_METH_FLOAT) {
+			result += OEFloatRowMatrix.estimate_bytes (rows, elements) + (8L * Math.max (rupture_count, interval_count));
+		} else {
+			result += OEFloatRowMatrix.estimate_jagged_double_bytes (rows, elements);
+		}
+
+		return result;
+	}
+
+
+
+
+	// Estimate the memory needed for one PairMagOmori object, in bytes, not including
+	// the MagExponent and OmoriMatrix objects that it refers to.
+	// Must be called after dfit_build.
+
+	public final long estimate_pmom_bytes () {
+		final long rupture_count = history.rupture_count;
+		final long interval_count = history.interval_count;
+		return (8L * ((2L * rupture_count) + (2L * interval_count))) + (12L * MEM_OBJ_OVERHEAD);
+	}
+
+
+
+
+	// Estimate the memory needed for one AValueProd object, in bytes.
+	// Must be called after dfit_build.
+
+	public final long estimate_avpr_bytes () {
+		final long rupture_count = history.rupture_count;
+		final long interval_count = history.interval_count;
+		return (8L * ((3L * rupture_count) + (3L * interval_count))) + (12L * MEM_OBJ_OVERHEAD);
+	}
+
+
+
+
+	// Make a one-line string summarizing the memory estimates.
+
+	public final String memory_estimate_string () {
+		return "mexp_bytes = " + estimate_mexp_bytes()
+			+ ", omat_bytes = " + estimate_omat_bytes()
+			+ ", pmom_bytes = " + estimate_pmom_bytes()
+			+ ", avpr_bytes = " + estimate_avpr_bytes();
+	}
+
+
+
+
+
 	//----- Construction -----
 
 
@@ -3997,6 +5652,12 @@ public class OEDisc2ExtFit {
 		tint_br = 0.0;
 		f_intensity = false;
 		grid_options = null;
+		omat_meth = DEF_OMAT_METH;
+		omat_tol = DEF_OMAT_TOL;
+		omat_prior_archive = null;
+		omat_next_archive = null;
+		omat_match_rup_count = 0;
+		omat_match_int_time_count = 0;
 
 		f_omat_rup_targ_rup_src = true;
 		f_omat_rup_targ_int_src = true;
@@ -4081,6 +5742,8 @@ public class OEDisc2ExtFit {
 		this.tint_br = get_like_time_interval();
 		this.f_intensity = false;
 		this.grid_options = new OEGridOptions();
+		this.omat_meth = grid_options.get_omat_meth();
+		this.omat_tol = grid_options.get_omat_tol();
 
 		// Set the matrix allocation flags
 
@@ -4345,14 +6008,85 @@ public class OEDisc2ExtFit {
 
 	// Set the options for the parameter grid.
 
+	// Note: This must be called before any OmoriMatrix objects are obtained, because the
+	// grid options select the representation of the Omori matrices.  As a safeguard,
+	// any pooled OmoriMatrix objects are discarded.
+
 	public final void set_grid_options (OEGridOptions grid_options) {
 		this.grid_options = grid_options;
+		if (grid_options == null) {
+			omat_meth = DEF_OMAT_METH;
+			omat_tol = DEF_OMAT_TOL;
+		} else {
+			omat_meth = grid_options.get_omat_meth();
+			omat_tol = grid_options.get_omat_tol();
+		}
+		omat_list = new ConcurrentLinkedDeque<OmoriMatrix>();
+		return;
+	}
+
+
+
+
+	// Set the archives of Omori matrices, for incremental refitting.
+	// Parameters:
+	//  prior_archive = Archive built by a prior fit, or null if none.  Rows of the Omori
+	//    matrices that are unchanged from the prior fit are copied from this archive.
+	//  next_archive = Archive to receive the Omori matrices built by this fit, or null if none.
+	//    It must have been created for the same history as this fitter.
+	// Note: This must be called after dfit_build and set_grid_options (if used).  Matrices are
+	// archived in the representation selected by the grid options (double or single precision
+	// rows, or sum-of-exponentials factors), and prior archived matrices are used only if they
+	// were built with the same representation.
+	// Note: The prior archive must not be the same as the next archive.
+
+	public final void set_omat_archive (OEDisc2OmatArchive prior_archive, OEDisc2OmatArchive next_archive) {
+		if (next_archive != null && next_archive.get_history() != history) {
+			throw new IllegalArgumentException ("OEDisc2ExtFit.set_omat_archive: Next archive was created for a different history");
+		}
+		if (prior_archive != null && prior_archive == next_archive) {
+			throw new IllegalArgumentException ("OEDisc2ExtFit.set_omat_archive: Prior archive is the same as next archive");
+		}
+
+		omat_prior_archive = prior_archive;
+		omat_next_archive = next_archive;
+
+		if (prior_archive == null) {
+			omat_match_rup_count = 0;
+			omat_match_int_time_count = 0;
+		} else {
+			omat_match_rup_count = history.calc_matching_rupture_count (prior_archive.get_history());
+			omat_match_int_time_count = history.calc_matching_interval_time_count (prior_archive.get_history());
+		}
 		return;
 	}
 
 
 
 
+	// Calculate the time span of the history.
+	// It is the largest possible separation between a source time and a target time,
+	// considering rupture times, matching interval times, and interval endpoints.
+
+	private double calc_history_span () {
+		final int rupture_count = history.rupture_count;
+		final int interval_count = history.interval_count;
+		final double[] a_interval_time = history.a_interval_time;
+
+		double t_lo = a_interval_time[0];
+		double t_hi = a_interval_time[interval_count];
+
+		if (rupture_count > 0) {
+			t_lo = Math.min (t_lo, Math.min (history.a_rupture_obj[0].t_day, history.a_rupture_int_time_value[0]));
+			t_hi = Math.max (t_hi, Math.max (history.a_rupture_obj[rupture_count - 1].t_day, history.a_rupture_int_time_value[rupture_count - 1]));
+		}
+
+		return t_hi - t_lo;
+	}
+
+
+
+
 	// Calculate the mainshock magnitude.
 	// It is the largest magnitude among ruptures considered mainshocks, or NO_MAG_NEG if none.
 
@@ -381,6 +381,48 @@ public class OEDisc2History {
 
 
 
+	//----- Comparison with another history -----
+
+
+	// These functions support incremental refitting, where a history is rebuilt after new
+	// ruptures are added to the catalog.  Typically the leading portion of the new history
+	// is identical to the old history, and quantities that depend only on that leading
+	// portion do not need to be recalculated.
+
+
+	// Get the number of leading ruptures that are the same in this history and the other history.
+	// Two ruptures are the same if they have exactly the same time and the same matching interval time.
+	// Magnitudes are not compared.
+	// Returns n such that ruptures 0 through n-1 are the same.
+
+	public final int calc_matching_rupture_count (OEDisc2History other) {
+		final int n_top = Math.min (rupture_count, other.rupture_count);
+		for (int n = 0; n < n_top; ++n) {
+			if (!( a_rupture_obj[n].t_day == other.a_rupture_obj[n].t_day
+				&& a_rupture_int_time_value[n] == other.a_rupture_int_time_value[n] )) {
+				return n;
+			}
+		}
+		return n_top;
+	}
+
+	// Get the number of leading interval endpoints that are the same in this history and the other history.
+	// Returns n such that a_interval_time[0] through a_interval_time[n-1] are exactly the same.
+	// Intervals 0 through n-2 are the same (provided n >= 2).
+
+	public final int calc_matching_interval_time_count (OEDisc2History other) {
+		final int n_top = Math.min (interval_count, other.interval_count) + 1;
+		for (int n = 0; n < n_top; ++n) {
+			if (!( a_interval_time[n] == other.a_interval_time[n] )) {
+				return n;
+			}
+		}
+		return n_top;
+	}
+
+
+
+
 	//----- Raw magnitude of completeness function -----
 
 
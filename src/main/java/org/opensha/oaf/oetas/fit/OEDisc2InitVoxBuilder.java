@@ -2,7 +2,10 @@ package org.opensha.oaf.oetas.fit;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.opensha.oaf.util.AutoCloseList;
 import org.opensha.oaf.util.AutoExecutorService;
@@ -153,6 +156,29 @@ public class OEDisc2InitVoxBuilder {
 
 
 
+	//----- Scheduling options -----
+
+	// True to use dependency-driven scheduling when there are more threads than (c, p) pairs.
+	// If false, the partial voxels are built in separate phases, each followed by a barrier.
+
+	private boolean f_dep_sched = true;
+
+
+
+
+	// Set the scheduling option.
+	// Parameters:
+	//  f_dep_sched = True to use dependency-driven scheduling (the default).
+	// Returns this object.
+
+	public final OEDisc2InitVoxBuilder set_dep_sched (boolean f_dep_sched) {
+		this.f_dep_sched = f_dep_sched;
+		return this;
+	}
+
+
+
+
 	//----- Partial Voxels -----
 
 
@@ -1445,12 +1471,478 @@ public class OEDisc2InitVoxBuilder {
 
 
 
+	// Likelihood calculation using a dependency-driven task scheduler.
+	//
+	// The work is divided into tasks:
+	//  - Build the mexp object for a (b, alpha) pair.
+	//  - Build the omat object for a (c, p) pair.
+	//  - For a (b, alpha, c, p) quadruple, build the pmom object, and then either calculate
+	//    the voxels for all n values, or (if splitting by n) queue a task for each n value.
+	//  - For a (b, alpha, c, p, n) quintuple, calculate the voxel (only if splitting by n).
+	// A quadruple task becomes ready as soon as its (b, alpha) and (c, p) partial voxels are built,
+	// so the builds and the likelihood calculations overlap, and no thread waits at a barrier
+	// between phases.  Newly-ready tasks go to the front of the ready queue, so the threads finish
+	// the work that depends on a partial voxel before starting to build another.  Each partial
+	// voxel is closed as soon as all tasks that depend on it are finished, which releases its
+	// handle back to the fitter's pool, so the peak number of live omat objects is about the
+	// number of threads, rather than the number of (c, p) pairs.
+	//
+	// Each loop index obtained from the loop helper entitles the thread to execute one task from
+	// the ready queue (not necessarily the task with that index).  This keeps the loop helper's
+	// counting, progress messages, timeout, and abort handling the same as the other strategies.
+	// A thread waiting for a task to become ready polls so it can notice a termination request.
+
+	private class TM_dep_like_calc implements SimpleThreadTarget {
+
+		// The loop helper.
+
+		private SimpleThreadLoopHelper loop_helper = new SimpleThreadLoopHelper (PMFMT_RUNNING);
+
+		// True to split quadruples into separate tasks for each n value.
+
+		private boolean f_split_n;
+
+		// The number of (b, alpha) pairs, (c, p) pairs, (b, alpha, c, p) quadruples, and n values.
+
+		private int b_alpha_count;
+		private int c_p_count;
+		private int quad_count;
+		private int n_count;
+
+		// Task numbering.  Tasks are numbered consecutively in the order:
+		// mexp builds, omat builds, quadruples, quintuples (if splitting by n).
+		// Within the quadruples, quad_index = c_p_index * b_alpha_count + b_alpha_index.
+		// Within the quintuples, quint_index = quad_index * n_count + n_index.
+
+		private int task_omat_begin;
+		private int task_quad_begin;
+		private int task_quint_begin;
+		private int task_count;
+
+		// List of partial voxels for (b, alpha) pairs (read-only).
+
+		private List<PartialVoxBAlpha> l_pvox_b_alpha;
+
+		// List of partial voxels for (c, p) pairs (read-only).
+
+		private List<PartialVoxCP> l_pvox_c_p;
+
+		// List of partial voxels for (b, alpha, c, p) quadruples (read-only), used only if splitting by n.
+
+		private List<PartialVoxQuad> l_pvox_quad;
+
+		// For each quadruple, the number of partial voxels for (b, alpha) and (c, p) not yet built.
+
+		private AtomicIntegerArray quad_pending_builds;
+
+		// For each (b, alpha) pair, the number of quadruples that use it and are not yet finished.
+
+		private AtomicIntegerArray b_alpha_pending_users;
+
+		// For each (c, p) pair, the number of quadruples that use it and are not yet finished.
+
+		private AtomicIntegerArray c_p_pending_users;
+
+		// For each quadruple, the number of quintuples not yet finished, used only if splitting by n.
+
+		private AtomicIntegerArray quad_pending_users;
+
+		// Queue of tasks that are ready to execute.
+
+		private LinkedBlockingDeque<Integer> ready_tasks;
+
+		// Total number of voxels created by the threads.
+
+		private AtomicInteger thread_voxel_count = new AtomicInteger();
+
+		// Time to wait for a task to become ready before checking for termination, in milliseconds.
+
+		private static final long READY_POLL_MILLIS = 100L;
+
+		// Mark that a (b, alpha) or (c, p) partial voxel is built, for the given quadruple.
+		// If both partial voxels are now built, the quadruple task is queued.
+
+		private void quad_build_done (int quad_index) {
+			if (quad_pending_builds.decrementAndGet (quad_index) == 0) {
+				ready_tasks.addFirst (task_quad_begin + quad_index);
+			}
+			return;
+		}
+
+		// Mark that a quadruple is finished.
+		// If it is the last user of its (b, alpha) or (c, p) partial voxel, that partial voxel is closed.
+
+		private void quad_finished (int quad_index) {
+			final int b_alpha_index = quad_index % b_alpha_count;
+			final int c_p_index = quad_index / b_alpha_count;
+			if (b_alpha_pending_users.decrementAndGet (b_alpha_index) == 0) {
+				l_pvox_b_alpha.get (b_alpha_index).close();
+			}
+			if (c_p_pending_users.decrementAndGet (c_p_index) == 0) {
+				l_pvox_c_p.get (c_p_index).close();
+			}
+			return;
+		}
+
+		// Get the next ready task.
+		// Returns the task number, or -1 if prompt termination has been requested.
+
+		private int take_ready_task () throws InterruptedException {
+			for (;;) {
+				Integer task = ready_tasks.pollFirst (READY_POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (task != null) {
+					return task.intValue();
+				}
+				if (loop_helper.get_req_termination()) {
+					return -1;
+				}
+			}
+		}
+
+		// Entry point for a thread.
+		// Parameters:
+		//  thread_manager = The thread manager.
+		//  thread_number = The thread number, which ranges from 0 to the number of
+		//                  threads in the pool minus 1.
+		// Threading: This function is called by all the threads in the pool, and
+		// so must be thread-safe and use any needed synchronization.
+
+		@Override
+		public void thread_entry (SimpleThreadManager thread_manager, int thread_number) throws Exception {
+
+			try (
+				PartialVoxQuad pvox_quad = new PartialVoxQuad();
+				OEDisc2ExtFit.AValueProdHandle avpr = fitter.make_AValueProdHandle();
+			) {
+
+				// List of voxels we created
+
+				ArrayList<OEDisc2InitStatVox> voxels = new ArrayList<OEDisc2InitStatVox>();
+
+				// Loop until loop completed or prompt termination is requested
+
+				for (int index = loop_helper.get_loop_index(); index >= 0; index = loop_helper.get_next_index()) {
+
+					// Get a task that is ready to run
+
+					final int task = take_ready_task();
+					if (task < 0) {
+						break;
+					}
+
+					// Build the mexp object, then queue any quadruples that are now ready
+
+					if (task < task_omat_begin) {
+						final int b_alpha_index = task;
+						l_pvox_b_alpha.get(b_alpha_index).mexp_build (fitter);
+						for (int c_p_index = 0; c_p_index < c_p_count; ++c_p_index) {
+							quad_build_done (c_p_index * b_alpha_count + b_alpha_index);
+						}
+					}
+
+					// Build the omat object, then queue any quadruples that are now ready
+
+					else if (task < task_quad_begin) {
+						final int c_p_index = task - task_omat_begin;
+						l_pvox_c_p.get(c_p_index).omat_build (fitter);
+						for (int b_alpha_index = 0; b_alpha_index < b_alpha_count; ++b_alpha_index) {
+							quad_build_done (c_p_index * b_alpha_count + b_alpha_index);
+						}
+					}
+
+					// Quadruple ...
+
+					else if (task < task_quint_begin) {
+						final int quad_index = task - task_quad_begin;
+						final PartialVoxBAlpha pvox_b_alpha = l_pvox_b_alpha.get (quad_index % b_alpha_count);
+						final PartialVoxCP pvox_c_p = l_pvox_c_p.get (quad_index / b_alpha_count);
+
+						// If splitting by n, build the shared pmom object and queue the quintuples
+
+						if (f_split_n) {
+							l_pvox_quad.get(quad_index).pmom_build (fitter, pvox_b_alpha, pvox_c_p);
+							for (int n_index = n_count - 1; n_index >= 0; --n_index) {
+								ready_tasks.addFirst (task_quint_begin + (quad_index * n_count + n_index));
+							}
+						}
+
+						// Otherwise, build our pmom object and create the voxels for all branch ratios
+
+						else {
+							pvox_quad.pmom_build (fitter, pvox_b_alpha, pvox_c_p);
+							for (int n_index = 0; n_index < n_count; ++n_index) {
+								voxels.add (build_stat_vox (avpr, pvox_quad, n_index));
+							}
+							quad_finished (quad_index);
+						}
+					}
+
+					// Quintuple, create the voxel, and if it is the last for its quadruple then release the pmom object
+
+					else {
+						final int quint_index = task - task_quint_begin;
+						final int quad_index = quint_index / n_count;
+						final int n_index = quint_index % n_count;
+						final PartialVoxQuad shared_pvox_quad = l_pvox_quad.get (quad_index);
+						voxels.add (build_stat_vox (avpr, shared_pvox_quad, n_index));
+						if (quad_pending_users.decrementAndGet (quad_index) == 0) {
+							shared_pvox_quad.close();
+							quad_finished (quad_index);
+						}
+					}
+				}
+
+				// Pass the voxels to the consumer
+
+				voxel_consumer.add_voxels (voxels);
+				thread_voxel_count.addAndGet (voxels.size());
+			}
+
+			return;
+		}
+
+		// Build the list of voxels using dependency-driven scheduling.
+		// Parameters:
+		//  exec_timer = Execution timer, provides executor, time limit, and progress message interval.
+		//  the_f_split_n = True to use a separate task for each (b, alpha, c, p, n) quintuple,
+		//                  false to use a separate task for each (b, alpha, c, p) quadruple.
+
+		public void dep_calc_like (SimpleExecTimer exec_timer, boolean the_f_split_n) throws OEException {
+
+			// Initialize result
+
+			loop_result.clear();
+
+			// Open the consumer
+
+			voxel_consumer.begin_voxel_consume (fit_info, b_alpha_def.get_b_scaling());
+			thread_voxel_count.set (0);
+
+			// Task counts and numbering
+
+			f_split_n = the_f_split_n;
+
+			b_alpha_count = b_alpha_def.get_combo_count();
+			c_p_count = c_p_def.get_combo_count();
+			quad_count = b_alpha_count * c_p_count;
+			n_count = n_def.get_combo_count();
+
+			task_omat_begin = b_alpha_count;
+			task_quad_begin = task_omat_begin + c_p_count;
+			task_quint_begin = task_quad_begin + quad_count;
+			task_count = task_quint_begin + (f_split_n ? (quad_count * n_count) : 0);
+
+			final String unit_name = (f_split_n ? "(b, alpha, c, p, n) quintuples" : "(b, alpha, c, p) quadruples");
+
+			try (
+				AutoCloseList<PartialVoxBAlpha> auto_l_pvox_b_alpha = new AutoCloseList<PartialVoxBAlpha>();
+				AutoCloseList<PartialVoxCP> auto_l_pvox_c_p = new AutoCloseList<PartialVoxCP>();
+				AutoCloseList<PartialVoxQuad> auto_l_pvox_quad = new AutoCloseList<PartialVoxQuad>();
+			) {
+
+				// Create the partial voxels, which are built by the tasks
+
+				for (int j = 0; j < b_alpha_count; ++j) {
+					auto_l_pvox_b_alpha.add (new PartialVoxBAlpha (b_alpha_def, j));
+				}
+				for (int j = 0; j < c_p_count; ++j) {
+					auto_l_pvox_c_p.add (new PartialVoxCP (c_p_def, j));
+				}
+				if (f_split_n) {
+					for (int j = 0; j < quad_count; ++j) {
+						auto_l_pvox_quad.add (new PartialVoxQuad());
+					}
+				}
+
+				// Pass read-only lists to the threads
+
+				l_pvox_b_alpha = auto_l_pvox_b_alpha.get_read_only_view();
+				l_pvox_c_p = auto_l_pvox_c_p.get_read_only_view();
+				l_pvox_quad = auto_l_pvox_quad.get_read_only_view();
+
+				// Dependency counts
+
+				quad_pending_builds = new AtomicIntegerArray (quad_count);
+				for (int j = 0; j < quad_count; ++j) {
+					quad_pending_builds.set (j, 2);
+				}
+
+				b_alpha_pending_users = new AtomicIntegerArray (b_alpha_count);
+				for (int j = 0; j < b_alpha_count; ++j) {
+					b_alpha_pending_users.set (j, c_p_count);
+				}
+
+				c_p_pending_users = new AtomicIntegerArray (c_p_count);
+				for (int j = 0; j < c_p_count; ++j) {
+					c_p_pending_users.set (j, b_alpha_count);
+				}
+
+				quad_pending_users = null;
+				if (f_split_n) {
+					quad_pending_users = new AtomicIntegerArray (quad_count);
+					for (int j = 0; j < quad_count; ++j) {
+						quad_pending_users.set (j, n_count);
+					}
+				}
+
+				// Initially the ready tasks are the builds, with the (b, alpha) pairs first since they are cheap
+
+				ready_tasks = new LinkedBlockingDeque<Integer>();
+				for (int task = 0; task < task_quad_begin; ++task) {
+					ready_tasks.addLast (task);
+				}
+
+				// Say hello
+
+				System.out.println ("Start calculating likelihoods for " + unit_name + " with dependency-driven scheduling");
+
+				// Run the loop
+
+				loop_helper.run_loop (this, exec_timer, 0, task_count);
+
+				// Capture the result
+
+				loop_result.accum_loop (loop_helper);
+
+				// Discard the queue
+
+				ready_tasks = null;
+			}
+
+			// Check for thread abort
+
+			if (loop_helper.is_abort()) {
+				System.out.println (loop_helper.get_abort_message_string());
+				String loop_stat = loop_helper.make_progress_message (PMFMT_ABORT);
+				String msg = "Abort calculating likelihoods for " + unit_name + " because of thread abort";
+				System.out.println (loop_stat);
+				System.out.println (msg);
+				throw new OEFitThreadAbortException (msg + ": " + loop_stat);
+			}
+
+			// Otherwise, check for timeout
+
+			if (loop_helper.is_incomplete()) {
+				String loop_stat = loop_helper.make_progress_message (PMFMT_TIMEOUT);
+				String msg = "Abort calculating likelihoods for " + unit_name + " because of timeout";
+				System.out.println (loop_stat);
+				System.out.println (msg);
+				throw new OEFitTimeoutException (msg + ": " + loop_stat);
+			}
+
+			// Otherwise, normal termination
+
+			System.out.println (loop_helper.make_progress_message (PMFMT_DONE));
+			System.out.println ("Finish calculating likelihoods for " + unit_name);
+
+			// Check the number of voxels
+
+			final int expected_voxel_count = b_alpha_def.get_combo_count() * c_p_def.get_combo_count() * n_def.get_combo_count();
+			final int got_voxel_count = thread_voxel_count.get();
+			if (got_voxel_count != expected_voxel_count) {
+				throw new InvariantViolationException ("OEDisc2InitVoxBuilder.TM_dep_like_calc.dep_calc_like: Voxel count mismatch: got " + got_voxel_count + ", expected " + expected_voxel_count);
+			}
+
+			// Close the consumer
+
+			voxel_consumer.end_voxel_consume();
+
+			return;
+		}
+
+	}
+
+
+
+
+	// Estimate the peak memory needed to build the voxels, in bytes.
+	// Parameters:
+	//  num_threads = Number of threads, must be > 0.
+	// Before calling, must set up the shared objects and the grid parameters.
+	// Implementation note: Follows the choice of threading strategy in build_voxels.
+	// The estimate counts the cached partial voxels plus the per-thread working objects.
+
+	public long estimate_memory_bytes (int num_threads) {
+
+		final long mexp_bytes = fitter.estimate_mexp_bytes();
+		final long omat_bytes = fitter.estimate_omat_bytes();
+		final long pmom_bytes = fitter.estimate_pmom_bytes();
+		final long avpr_bytes = fitter.estimate_avpr_bytes();
+
+		final long b_alpha_count = b_alpha_def.get_combo_count();
+		final long c_p_count = c_p_def.get_combo_count();
+		final long quad_count = b_alpha_count * c_p_count;
+
+		// The cached list of mexp objects is used in all strategies
+
+		long result = b_alpha_count * mexp_bytes;
+
+		// One omat and pmom per thread
+
+		if (num_threads <= c_p_count) {
+			result += num_threads * (omat_bytes + pmom_bytes + avpr_bytes);
+		}
+
+		// Dependency-driven scheduling, omat objects live only while in use, one pmom per thread
+
+		else if (f_dep_sched && num_threads <= quad_count) {
+			result += (Math.min (c_p_count, 2L * num_threads) * omat_bytes) + (num_threads * (pmom_bytes + avpr_bytes));
+		}
+
+		// Dependency-driven scheduling, omat and pmom objects live only while in use
+
+		else if (f_dep_sched) {
+			result += (Math.min (c_p_count, 2L * num_threads) * omat_bytes) + (Math.min (quad_count, 2L * num_threads) * pmom_bytes) + (num_threads * avpr_bytes);
+		}
+
+		// Cached list of omat, one pmom per thread
+
+		else if (num_threads <= quad_count) {
+			result += (c_p_count * omat_bytes) + (num_threads * (pmom_bytes + avpr_bytes));
+		}
+
+		// Cached lists of omat and pmom
+
+		else {
+			result += (c_p_count * omat_bytes) + (quad_count * pmom_bytes) + (num_threads * avpr_bytes);
+		}
+
+		return result;
+	}
+
+
+
+
+	// Calculate the number of threads to use, so that the estimated memory fits in the available memory.
+	// Parameters:
+	//  num_threads = Desired number of threads, must be > 0.
+	//  avail_bytes = Available memory, in bytes.
+	// Returns the largest number of threads, not exceeding num_threads, for which the estimated
+	// memory fits in the available memory.  Returns 1 if even one thread does not fit.
+	// Before calling, must set up the shared objects and the grid parameters.
+	// Note: Because the threading strategy depends on the number of threads, the estimated memory
+	// is not necessarily monotonic in the number of threads, so each count is checked.
+
+	public int calc_mem_num_threads (int num_threads, long avail_bytes) {
+		for (int n = num_threads; n > 1; --n) {
+			if (estimate_memory_bytes (n) <= avail_bytes) {
+				return n;
+			}
+		}
+		return 1;
+	}
+
+
+
+
 	// Build the list of voxels.
 	// Parameters:
 	//  exec_timer = Execution timer, provides executor, time limit, and progress message interval.
 	// Before calling, must set up the shared objects and the grid parameters.
-	// Implementation note: Selects one of the three threading strategies above,
-	// depending on the structure of the grid.
+	// Implementation note: Selects one of the threading strategies above,
+	// depending on the structure of the grid and the scheduling option.
+	// When there are more threads than (c, p) pairs, dependency-driven scheduling is used
+	// unless disabled by set_dep_sched.
 
 	public void build_voxels (SimpleExecTimer exec_timer) throws OEException {
 
@@ -1491,13 +1983,21 @@ public class OEDisc2InitVoxBuilder {
 		// Otherwise, if there are enough (b, alpha, c, p) quadruples to occupy all threads, use thread loop iteration per (b, alpha, c, p) quadruple
 
 		else if (num_threads <= quad_count) {
-			(new TM_pmom_like_calc()).pmom_calc_like (exec_timer);
+			if (f_dep_sched) {
+				(new TM_dep_like_calc()).dep_calc_like (exec_timer, false);
+			} else {
+				(new TM_pmom_like_calc()).pmom_calc_like (exec_timer);
+			}
 		}
 
 		// Otherwise, use thread loop iteration per (b, alpha, c, p, n) quintuple
 
 		else {
-			(new TM_avpr_like_calc()).avpr_calc_like (exec_timer);
+			if (f_dep_sched) {
+				(new TM_dep_like_calc()).dep_calc_like (exec_timer, true);
+			} else {
+				(new TM_avpr_like_calc()).avpr_calc_like (exec_timer);
+			}
 		}
 
 		return;
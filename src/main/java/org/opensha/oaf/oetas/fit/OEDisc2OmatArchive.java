@@ -0,0 +1,380 @@
+package org.opensha.oaf.oetas.fit;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// Archive of Omori matrices, for incremental refitting.
+//
+// When a forecast is re-run after new ruptures are added to the catalog, the new history
+// usually begins with the same ruptures and intervals as the old history.  A row of a
+// triangular Omori matrix depends only on the target and the sources that precede it, so
+// every row whose target lies in the unchanged leading portion of the history is the same as
+// in the old fit.  This class holds the rows computed during one fit, so that the next fit can
+// copy the unchanged rows and compute only the new ones.  The cost of building the matrices
+// for the next fit is then roughly proportional to the number of new rows, times the length
+// of a row, rather than the square of the history size.
+//
+// Matrices are archived in the fitter's representation.  For the single-precision method the
+// archive holds single-precision rows.  For the sum-of-exponentials method the archive holds
+// the approximation and the per-rupture and per-interval factors, which are copied for the
+// unchanged part of the history when the prior approximation covers the new history's span.
+//
+// To use:
+//  - When running a fit, create an archive for its history, and pass it to the fitter as the
+//    next archive (OEDisc2ExtFit.set_omat_archive).  Each (p, c) matrix built by the fitter is
+//    stored in the archive.
+//  - When running the next fit, pass the saved archive to the fitter as the prior archive.
+//    The fitter compares the two histories, and copies unchanged rows from the archive.
+// Between forecasts, archives are kept in OEDisc2OmatArchiveStore.
+//
+// The archive can hold a lot of memory (about the same as the Omori matrices for every (c, p)
+// pair in the grid), so a limit can be set on the number of bytes stored.  Matrices that do
+// not fit within the limit are not stored, and are rebuilt in full by the next fit.
+//
+// Threading: Entries may be added and retrieved simultaneously from multiple threads.
+// An entry must not be modified after it is added.
+
+public class OEDisc2OmatArchive {
+
+	//----- Contents -----
+
+	// The history from which the archived matrices were built.
+
+	private OEDisc2History history;
+
+	// The maximum number of bytes to store, or -1L if no limit.
+
+	private long max_bytes;
+
+	// The number of bytes currently stored.
+
+	private AtomicLong stored_bytes;
+
+	// Map from (p, c) to archived matrices.
+
+	private ConcurrentHashMap<Key, Entry> entry_map;
+
+	// Statistics for fits that use this archive as the prior archive:
+	// the number of rows copied, and the total number of rows.
+
+	private AtomicLong rows_copied;
+	private AtomicLong rows_total;
+
+
+
+
+	//----- Key and entry -----
+
+
+
+
+	// Key for the map, which is an exact (p, c) pair.
+
+	private static final class Key {
+		private final double p;
+		private final double c;
+
+		public Key (double p, double c) {
+			this.p = p;
+			this.c = c;
+		}
+
+		@Override
+		public boolean equals (Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!( obj instanceof Key )) {
+				return false;
+			}
+			Key other = (Key)obj;
+			return Double.doubleToLongBits (p) == Double.doubleToLongBits (other.p)
+				&& Double.doubleToLongBits (c) == Double.doubleToLongBits (other.c);
+		}
+
+		@Override
+		public int hashCode () {
+			return Long.hashCode (Double.doubleToLongBits (p) * 31L + Double.doubleToLongBits (c));
+		}
+	}
+
+
+
+
+	// Archived matrices for one (p, c) pair.
+	// The matrices are stored in the representation used by the fitter that built them,
+	// which is given by omat_meth, and the fields for other representations are null.
+	//  - Dense (OMAT_METH_DENSE): Each matrix has the same layout as the corresponding double[][]
+	//    matrix in OEDisc2ExtFit.OmoriMatrix, and each row holds exactly the row length.
+	//  - Single precision (OMAT_METH_FLOAT): Each matrix is a copy of the corresponding
+	//    OEFloatRowMatrix in OEDisc2ExtFit.OmoriMatrix.
+	//  - Sum-of-exponentials (OMAT_METH_EXPSUM): The approximation, and copies of the factors that
+	//    depend only on a single rupture or interval (see OEDisc2ExtFit.OmoriMatrix), with length
+	//    rupture_count*K or interval_count*K, plus the self-interaction vector omat_self_int_src.
+	//    The factors that depend on the row structure are not archived, and are rebuilt each time.
+	// A matrix or factor array is null if it was not built.
+
+	public static class Entry {
+
+		int omat_meth;
+
+		double[][] omat_rup_targ_rup_src;
+		double[][] omat_rup_targ_int_src;
+		double[][] omat_int_targ_rup_src;
+		double[][] omat_int_targ_int_src;
+
+		OEFloatRowMatrix cmat_rup_targ_rup_src;
+		OEFloatRowMatrix cmat_rup_targ_int_src;
+		OEFloatRowMatrix cmat_int_targ_rup_src;
+		OEFloatRowMatrix cmat_int_targ_int_src;
+
+		OEOmoriExpSum xs_expsum;
+		double[] xs_rup_decay;
+		double[] xs_int_decay;
+		double[] xs_int_src;
+		double[] xs_int_targ;
+		double[] omat_self_int_src;
+
+		// Replace the dense and single-precision matrices with copies.
+		// This lets the fitter pass its working matrices to put_entry, which copies them only if the
+		// entry is stored.  (The sum-of-exponentials factors are small, and the fitter copies them.)
+
+		final void copy_matrices () {
+			omat_rup_targ_rup_src = copy_jagged (omat_rup_targ_rup_src);
+			omat_rup_targ_int_src = copy_jagged (omat_rup_targ_int_src);
+			omat_int_targ_rup_src = copy_jagged (omat_int_targ_rup_src);
+			omat_int_targ_int_src = copy_jagged (omat_int_targ_int_src);
+			cmat_rup_targ_rup_src = copy_cmat (cmat_rup_targ_rup_src);
+			cmat_rup_targ_int_src = copy_cmat (cmat_rup_targ_int_src);
+			cmat_int_targ_rup_src = copy_cmat (cmat_int_targ_rup_src);
+			cmat_int_targ_int_src = copy_cmat (cmat_int_targ_int_src);
+			return;
+		}
+
+		private static double[][] copy_jagged (double[][] x) {
+			if (x == null) {
+				return null;
+			}
+			final double[][] result = new double[x.length][];
+			for (int i = 0; i < x.length; ++i) {
+				result[i] = x[i].clone();
+			}
+			return result;
+		}
+
+		private static OEFloatRowMatrix copy_cmat (OEFloatRowMatrix x) {
+			if (x == null) {
+				return null;
+			}
+			return new OEFloatRowMatrix (x);
+		}
+
+		// Estimate the number of bytes used by this entry.
+		// Note: Assumes 16 bytes of header per array and 8 bytes per reference.
+
+		public final long estimate_bytes () {
+			long result = 64L;
+			result += estimate_jagged_bytes (omat_rup_targ_rup_src);
+			result += estimate_jagged_bytes (omat_rup_targ_int_src);
+			result += estimate_jagged_bytes (omat_int_targ_rup_src);
+			result += estimate_jagged_bytes (omat_int_targ_int_src);
+			result += estimate_cmat_bytes (cmat_rup_targ_rup_src);
+			result += estimate_cmat_bytes (cmat_rup_targ_int_src);
+			result += estimate_cmat_bytes (cmat_int_targ_rup_src);
+			result += estimate_cmat_bytes (cmat_int_targ_int_src);
+			if (xs_expsum != null) {
+				result += 64L + (32L * xs_expsum.get_term_count());
+			}
+			result += estimate_array_bytes (xs_rup_decay);
+			result += estimate_array_bytes (xs_int_decay);
+			result += estimate_array_bytes (xs_int_src);
+			result += estimate_array_bytes (xs_int_targ);
+			result += estimate_array_bytes (omat_self_int_src);
+			return result;
+		}
+
+		private static long estimate_jagged_bytes (double[][] x) {
+			if (x == null) {
+				return 0L;
+			}
+			long result = 16L + (8L * x.length);
+			for (double[] row : x) {
+				if (row != null) {
+					result += 16L + (8L * row.length);
+				}
+			}
+			return result;
+		}
+
+		private static long estimate_cmat_bytes (OEFloatRowMatrix x) {
+			if (x == null) {
+				return 0L;
+			}
+			return OEFloatRowMatrix.estimate_bytes (x.get_row_count(), x.get_element_count());
+		}
+
+		private static long estimate_array_bytes (double[] x) {
+			if (x == null) {
+				return 0L;
+			}
+			return 16L + (8L * x.length);
+		}
+	}
+
+
+
+
+	//----- Access -----
+
+
+
+
+	// Get the history from which the archived matrices were built.
+
+	public final OEDisc2History get_history () {
+		return history;
+	}
+
+
+
+
+	// Get the archived matrices for the given (p, c), or null if none.
+
+	public final Entry get_entry (double p, double c) {
+		return entry_map.get (new Key (p, c));
+	}
+
+
+
+
+	// Add archived matrices for the given (p, c).
+	// Returns true if the entry was stored, false if it would exceed the memory limit
+	// or there is already an entry for (p, c).
+	// The dense and single-precision matrices in the entry can be the fitter's working matrices;
+	// they are copied only if the entry is stored.
+
+	public final boolean put_entry (double p, double c, Entry entry) {
+		final long bytes = entry.estimate_bytes();
+		final Key key = new Key (p, c);
+
+		if (entry_map.containsKey (key)) {
+			return false;
+		}
+
+		// Reserve the memory, if there is a limit
+
+		if (max_bytes >= 0L) {
+			if (stored_bytes.addAndGet (bytes) > max_bytes) {
+				stored_bytes.addAndGet (-bytes);
+				return false;
+			}
+		} else {
+			stored_bytes.addAndGet (bytes);
+		}
+
+		// Store a copy of the entry, releasing the memory if there was already an entry
+
+		entry.copy_matrices();
+
+		if (entry_map.putIfAbsent (key, entry) != null) {
+			stored_bytes.addAndGet (-bytes);
+			return false;
+		}
+		return true;
+	}
+
+
+
+
+	// Get the number of entries.
+
+	public final int get_entry_count () {
+		return entry_map.size();
+	}
+
+
+
+
+	// Get the number of bytes stored.
+
+	public final long get_stored_bytes () {
+		return stored_bytes.get();
+	}
+
+
+
+
+	// Record row statistics for a build that used this archive as the prior archive.
+
+	public final void add_row_stats (long copied, long total) {
+		rows_copied.addAndGet (copied);
+		rows_total.addAndGet (total);
+		return;
+	}
+
+
+
+
+	// Get the number of rows copied from this archive.
+
+	public final long get_rows_copied () {
+		return rows_copied.get();
+	}
+
+
+
+
+	// Get the total number of rows built by fits using this archive.
+
+	public final long get_rows_total () {
+		return rows_total.get();
+	}
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	// Create an empty archive.
+	// Parameters:
+	//  history = The history from which the archived matrices are built.
+	//  max_bytes = The maximum number of bytes to store, or -1L if no limit.
+
+	public OEDisc2OmatArchive (OEDisc2History history, long max_bytes) {
+		if (history == null) {
+			throw new IllegalArgumentException ("OEDisc2OmatArchive: No history supplied");
+		}
+		this.history = history;
+		this.max_bytes = max_bytes;
+		this.stored_bytes = new AtomicLong (0L);
+		this.entry_map = new ConcurrentHashMap<Key, Entry>();
+		this.rows_copied = new AtomicLong (0L);
+		this.rows_total = new AtomicLong (0L);
+	}
+
+
+
+
+	// Display a summary of our contents.
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+
+		result.append ("OEDisc2OmatArchive:" + "\n");
+		result.append ("rupture_count = " + history.rupture_count + "\n");
+		result.append ("interval_count = " + history.interval_count + "\n");
+		result.append ("max_bytes = " + max_bytes + "\n");
+		result.append ("stored_bytes = " + stored_bytes.get() + "\n");
+		result.append ("entry_count = " + entry_map.size() + "\n");
+		result.append ("rows_copied = " + rows_copied.get() + "\n");
+		result.append ("rows_total = " + rows_total.get() + "\n");
+
+		return result.toString();
+	}
+
+}
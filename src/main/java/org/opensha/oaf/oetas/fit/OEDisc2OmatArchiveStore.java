@@ -0,0 +1,204 @@
+package org.opensha.oaf.oetas.fit;
+
+import java.util.LinkedHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.opensha.oaf.util.SimpleUtils;
+
+
+// Store that keeps Omori matrix archives between fits, for incremental refitting.
+//
+// Each archive is filed under a key that identifies the earthquake sequence, typically the
+// mainshock event ID.  When a forecast is run, the fit takes the archive left by the previous
+// forecast for the same sequence (if any) and uses it as its prior archive, and then files its
+// own archive for use by the next forecast.  See OEDisc2OmatArchive.
+//
+// The archives are held in memory, because they are far too large to save with the forecast
+// data.  So they last only for the life of the process, which is fine because they only speed
+// up the fit; a fit that finds no archive builds its matrices from scratch, with the same result
+// (for the sum-of-exponentials method, the same to within the method's tolerance).
+//
+// The total size of the stored archives is limited, and the least recently used archives are
+// discarded when the limit is exceeded.  Each archive is also limited to the same size, so that
+// one very large sequence cannot exceed the limit by itself.
+//
+// Threading: All methods are synchronized, and can be called from multiple threads.
+// An archive that has been taken out of the store belongs to the caller; it is not shared.
+
+public class OEDisc2OmatArchiveStore {
+
+	//----- Constants -----
+
+	// Default maximum number of bytes to store (256 MB).
+
+	public static final long DEF_MAX_BYTES = 256L * 1048576L;
+
+	// Default maximum number of archives to store.
+
+	public static final int DEF_MAX_ENTRIES = 100;
+
+
+
+
+	//----- Contents -----
+
+	// Maximum number of bytes to store, or 0L if the store is disabled.
+
+	private long max_bytes;
+
+	// Maximum number of archives to store.
+
+	private int max_entries;
+
+	// Archives, in order of least recent use.
+
+	private LinkedHashMap<String, OEDisc2OmatArchive> entries;
+
+	// Total bytes stored in the archives.
+
+	private long total_bytes;
+
+	// Statistics: number of times take found an archive, and did not find one.
+
+	private long hits;
+	private long misses;
+
+
+
+
+	//----- Global store -----
+
+	// The default maximum number of bytes to store.
+	// This can be selected with the system property oafomatarchive, which can be
+	// "on" to use DEF_MAX_BYTES, "off" to disable the store, or a number of megabytes.
+	// The default is DEF_MAX_BYTES.
+
+	public static final long default_max_bytes = SimpleUtils.get_property_on_off_long ("oafomatarchive", DEF_MAX_BYTES / 1048576L, DEF_MAX_BYTES / 1048576L) * 1048576L;
+
+	// The global store, used by the forecast pipeline.
+
+	private static final OEDisc2OmatArchiveStore global_store = new OEDisc2OmatArchiveStore (default_max_bytes, DEF_MAX_ENTRIES);
+
+	// Get the global store.
+
+	public static OEDisc2OmatArchiveStore get_global_store () {
+		return global_store;
+	}
+
+
+
+
+	//----- Construction -----
+
+	// Create an empty store.
+	// Parameters:
+	//  max_bytes = Maximum number of bytes to store, or 0L to disable the store.
+	//  max_entries = Maximum number of archives to store.
+
+	public OEDisc2OmatArchiveStore (long max_bytes, int max_entries) {
+		this.max_bytes = max_bytes;
+		this.max_entries = max_entries;
+		entries = new LinkedHashMap<String, OEDisc2OmatArchive> (16, 0.75f, true);
+		total_bytes = 0L;
+		hits = 0L;
+		misses = 0L;
+	}
+
+
+
+
+	//----- Access -----
+
+	// Return true if the store is enabled.
+
+	public synchronized boolean is_enabled () {
+		return max_bytes > 0L;
+	}
+
+	// Get the maximum number of bytes to store, which is also the limit for a single archive.
+
+	public synchronized long get_max_bytes () {
+		return max_bytes;
+	}
+
+
+
+
+	// Take the archive filed under the given key, removing it from the store.
+	// Returns null if there is none.
+
+	public synchronized OEDisc2OmatArchive take (String key) {
+		OEDisc2OmatArchive archive = entries.remove (key);
+		if (archive == null) {
+			++misses;
+		} else {
+			++hits;
+			total_bytes -= archive.get_stored_bytes();
+		}
+		return archive;
+	}
+
+
+
+
+	// File an archive under the given key, replacing any archive already filed under the key.
+	// Least recently used archives are discarded to stay within the limits.
+	// The archive must not be modified after it is filed.
+
+	public synchronized void put (String key, OEDisc2OmatArchive archive) {
+		if (max_bytes <= 0L) {
+			return;
+		}
+
+		OEDisc2OmatArchive old_archive = entries.remove (key);
+		if (old_archive != null) {
+			total_bytes -= old_archive.get_stored_bytes();
+		}
+
+		entries.put (key, archive);
+		total_bytes += archive.get_stored_bytes();
+
+		// Discard least recently used archives (the one just filed is the most recently used)
+
+		Iterator<Map.Entry<String, OEDisc2OmatArchive>> it = entries.entrySet().iterator();
+		while (it.hasNext() && (total_bytes > max_bytes || entries.size() > max_entries)) {
+			total_bytes -= it.next().getValue().get_stored_bytes();
+			it.remove();
+		}
+		return;
+	}
+
+
+
+
+	// Discard all archives.
+
+	public synchronized void clear () {
+		entries.clear();
+		total_bytes = 0L;
+		return;
+	}
+
+
+
+
+	// Get the number of archives stored.
+
+	public synchronized int get_entry_count () {
+		return entries.size();
+	}
+
+	// Get the total number of bytes stored.
+
+	public synchronized long get_total_bytes () {
+		return total_bytes;
+	}
+
+	// Get statistics as a string.
+
+	public synchronized String get_stats_string () {
+		return "archives = " + entries.size() + ", bytes = " + total_bytes + ", max_bytes = " + max_bytes + ", hits = " + hits + ", misses = " + misses;
+	}
+
+}
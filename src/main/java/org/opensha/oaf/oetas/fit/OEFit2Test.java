@@ -174,6 +174,303 @@ public class OEFit2Test {
 
 
 
+	// Compare the accuracy and speed of an alternative Omori matrix method against dense Omori matrices.
+	// The alternative method is omat_meth (OMAT_METH_XXXX), with tolerance omat_tol (if applicable).
+	// The log-likelihood is computed with both methods for a small grid of p, c, a, and ams values,
+	// centered on the values in cat_params and seed_params.  Displays the largest absolute difference
+	// in log-likelihood, and the time required to build the Omori matrix and pair data structures.
+
+	public static void omat_accuracy_test (OEDisc2History history, OECatalogParamsStats cat_params, OESeedParamsStats seed_params,
+			boolean f_intervals, int lmr_opt, int omat_meth, double omat_tol) {
+
+		// Create the fitters, one dense and one using the alternative method
+
+		boolean f_likelihood = true;
+		boolean f_background = seed_params.has_background_rate();
+
+		OEDisc2ExtFit fitter_dense = new OEDisc2ExtFit();
+		fitter_dense.dfit_build (history, cat_params.get_params_mags(), f_intervals, f_likelihood, lmr_opt, f_background);
+		fitter_dense.set_grid_options ((new OEGridOptions()).set_omat_meth (OEConstants.OMAT_METH_DENSE, omat_tol));
+
+		OEDisc2ExtFit fitter_xs = new OEDisc2ExtFit();
+		fitter_xs.dfit_build (history, cat_params.get_params_mags(), f_intervals, f_likelihood, lmr_opt, f_background);
+		fitter_xs.set_grid_options ((new OEGridOptions()).set_omat_meth (omat_meth, omat_tol));
+
+		System.out.println ();
+		System.out.println ("Dense memory estimate: " + fitter_dense.memory_estimate_string());
+		System.out.println ("Alternative memory estimate: " + fitter_xs.memory_estimate_string());
+
+		// Parameter offsets
+
+		double[] p_offset = {-0.2, 0.0, 0.2};
+		double[] c_factor = {0.1, 1.0, 10.0};
+		double[] a_offset = {-0.5, 0.0, 0.5};
+		double[] ams_offset = {-0.5, 0.0, 0.5};
+
+		double max_diff = 0.0;
+		double max_diff_like = 0.0;
+		long time_dense = 0L;
+		long time_xs = 0L;
+
+		// Allocate the data structures and obtain their handles
+
+		try (
+			OEDisc2ExtFit.MagExponentHandle mexp_dense = fitter_dense.make_MagExponentHandle();
+			OEDisc2ExtFit.OmoriMatrixHandle omat_dense = fitter_dense.make_OmoriMatrixHandle();
+			OEDisc2ExtFit.PairMagOmoriHandle pmom_dense = fitter_dense.make_PairMagOmoriHandle();
+			OEDisc2ExtFit.AValueProdHandle avpr_dense = fitter_dense.make_AValueProdHandle();
+			OEDisc2ExtFit.MagExponentHandle mexp_xs = fitter_xs.make_MagExponentHandle();
+			OEDisc2ExtFit.OmoriMatrixHandle omat_xs = fitter_xs.make_OmoriMatrixHandle();
+			OEDisc2ExtFit.PairMagOmoriHandle pmom_xs = fitter_xs.make_PairMagOmoriHandle();
+			OEDisc2ExtFit.AValueProdHandle avpr_xs = fitter_xs.make_AValueProdHandle();
+		) {
+
+			// Build the magnitude-exponent data structures
+
+			mexp_dense.mexp_build (cat_params.b, cat_params.alpha);
+			mexp_xs.mexp_build (cat_params.b, cat_params.alpha);
+
+			// Loop over Omori parameters
+
+			for (int ip = 0; ip < p_offset.length; ++ip) {
+				for (int ic = 0; ic < c_factor.length; ++ic) {
+					double p = cat_params.p + p_offset[ip];
+					double c = cat_params.c * c_factor[ic];
+
+					// Build the Omori matrix and pair data structures, with timing
+
+					long t0 = System.currentTimeMillis();
+					omat_dense.omat_build (p, c);
+					pmom_dense.pmom_build (mexp_dense, omat_dense);
+					long t1 = System.currentTimeMillis();
+					omat_xs.omat_build (p, c);
+					pmom_xs.pmom_build (mexp_xs, omat_xs);
+					long t2 = System.currentTimeMillis();
+
+					time_dense += (t1 - t0);
+					time_xs += (t2 - t1);
+
+					if (ip == 0 && ic == 0) {
+						System.out.println ();
+						System.out.println (omat_xs.get_omat().toString());
+					}
+
+					// Loop over productivity parameters
+
+					for (int ia = 0; ia < a_offset.length; ++ia) {
+						double ten_aint_q = Math.pow(10.0, cat_params.a + a_offset[ia]) * mexp_dense.get_q_correction();
+
+						avpr_dense.avpr_build (pmom_dense, ten_aint_q);
+						avpr_xs.avpr_build (pmom_xs, ten_aint_q);
+
+						for (int iams = 0; iams < ams_offset.length; ++iams) {
+							double ten_a_q = ten_aint_q;
+							double ten_ams_q = Math.pow(10.0, seed_params.ams + ams_offset[iams]);
+
+							double like_dense;
+							double like_xs;
+							if (f_background) {
+								like_dense = avpr_dense.avpr_calc_log_like (ten_a_q, ten_ams_q, seed_params.mu);
+								like_xs = avpr_xs.avpr_calc_log_like (ten_a_q, ten_ams_q, seed_params.mu);
+							} else {
+								like_dense = avpr_dense.avpr_calc_log_like (ten_a_q, ten_ams_q);
+								like_xs = avpr_xs.avpr_calc_log_like (ten_a_q, ten_ams_q);
+							}
+
+							double diff = Math.abs (like_xs - like_dense);
+							if (diff > max_diff) {
+								max_diff = diff;
+								max_diff_like = like_dense;
+							}
+						}
+					}
+
+					System.out.println (String.format ("p = %.4f, c = %.4e, dense time = %d ms, alternative time = %d ms, max loglike diff so far = %.4e",
+							p, c, t1 - t0, t2 - t1, max_diff));
+				}
+			}
+		}
+
+		// Display the results
+
+		System.out.println ();
+		System.out.println ("omat_meth = " + omat_meth);
+		System.out.println ("omat_tol = " + omat_tol);
+		System.out.println ("rupture_count = " + history.rupture_count);
+		System.out.println ("interval_count = " + history.interval_count);
+		System.out.println ("max loglike diff = " + max_diff + " (at loglike = " + max_diff_like + ")");
+		System.out.println ("total dense build time = " + time_dense + " ms");
+		System.out.println ("total alternative build time = " + time_xs + " ms");
+
+		return;
+	}
+
+
+
+
+	// Test incremental refitting, by comparing Omori matrices built from a prior fit's archive
+	// against Omori matrices built from scratch.
+	// Parameters:
+	//  history_prior = History for the prior fit, typically containing an initial part of the catalog.
+	//  history = History for the new fit.
+	//  cat_params = Catalog parameters.
+	//  seed_params = Seed parameters.
+	//  f_intervals = True to use intervals.
+	//  lmr_opt = Magnitude range option for log-likelihood.
+	//  omat_meth = Omori matrix method (OMAT_METH_XXXX), used for all fits.
+	//  omat_tol = Tolerance for the Omori matrix method (if applicable).
+
+	public static void incremental_refit_test (OEDisc2History history_prior, OEDisc2History history, OECatalogParamsStats cat_params, OESeedParamsStats seed_params,
+			boolean f_intervals, int lmr_opt, int omat_meth, double omat_tol) {
+
+		// Create the fitter for the prior fit, which saves its Omori matrices in an archive
+
+		boolean f_likelihood = true;
+		boolean f_background = seed_params.has_background_rate();
+
+		OEDisc2ExtFit fitter_prior = new OEDisc2ExtFit();
+		fitter_prior.dfit_build (history_prior, cat_params.get_params_mags(), f_intervals, f_likelihood, lmr_opt, f_background);
+		fitter_prior.set_grid_options ((new OEGridOptions()).set_omat_meth (omat_meth, omat_tol));
+		OEDisc2OmatArchive archive = new OEDisc2OmatArchive (history_prior, -1L);
+		fitter_prior.set_omat_archive (null, archive);
+
+		// Create the fitters for the new fit, one from scratch and one using the archive
+
+		OEDisc2ExtFit fitter_full = new OEDisc2ExtFit();
+		fitter_full.dfit_build (history, cat_params.get_params_mags(), f_intervals, f_likelihood, lmr_opt, f_background);
+		fitter_full.set_grid_options ((new OEGridOptions()).set_omat_meth (omat_meth, omat_tol));
+
+		OEDisc2ExtFit fitter_incr = new OEDisc2ExtFit();
+		fitter_incr.dfit_build (history, cat_params.get_params_mags(), f_intervals, f_likelihood, lmr_opt, f_background);
+		fitter_incr.set_grid_options ((new OEGridOptions()).set_omat_meth (omat_meth, omat_tol));
+		fitter_incr.set_omat_archive (archive, null);
+
+		System.out.println ();
+		System.out.println ("Matching rupture count = " + history.calc_matching_rupture_count (history_prior));
+		System.out.println ("Matching interval time count = " + history.calc_matching_interval_time_count (history_prior));
+
+		// Parameter offsets
+
+		double[] p_offset = {-0.2, 0.0, 0.2};
+		double[] c_factor = {0.1, 1.0, 10.0};
+		double[] a_offset = {-0.5, 0.0, 0.5};
+		double[] ams_offset = {-0.5, 0.0, 0.5};
+
+		double max_diff = 0.0;
+		long time_prior = 0L;
+		long time_full = 0L;
+		long time_incr = 0L;
+
+		// Allocate the data structures and obtain their handles
+
+		try (
+			OEDisc2ExtFit.OmoriMatrixHandle omat_prior = fitter_prior.make_OmoriMatrixHandle();
+			OEDisc2ExtFit.MagExponentHandle mexp_full = fitter_full.make_MagExponentHandle();
+			OEDisc2ExtFit.OmoriMatrixHandle omat_full = fitter_full.make_OmoriMatrixHandle();
+			OEDisc2ExtFit.PairMagOmoriHandle pmom_full = fitter_full.make_PairMagOmoriHandle();
+			OEDisc2ExtFit.AValueProdHandle avpr_full = fitter_full.make_AValueProdHandle();
+			OEDisc2ExtFit.MagExponentHandle mexp_incr = fitter_incr.make_MagExponentHandle();
+			OEDisc2ExtFit.OmoriMatrixHandle omat_incr = fitter_incr.make_OmoriMatrixHandle();
+			OEDisc2ExtFit.PairMagOmoriHandle pmom_incr = fitter_incr.make_PairMagOmoriHandle();
+			OEDisc2ExtFit.AValueProdHandle avpr_incr = fitter_incr.make_AValueProdHandle();
+		) {
+
+			// Build the magnitude-exponent data structures
+
+			mexp_full.mexp_build (cat_params.b, cat_params.alpha);
+			mexp_incr.mexp_build (cat_params.b, cat_params.alpha);
+
+			// Prior fit, which fills the archive
+
+			for (int ip = 0; ip < p_offset.length; ++ip) {
+				for (int ic = 0; ic < c_factor.length; ++ic) {
+					double p = cat_params.p + p_offset[ip];
+					double c = cat_params.c * c_factor[ic];
+
+					long t0 = System.currentTimeMillis();
+					omat_prior.omat_build (p, c);
+					long t1 = System.currentTimeMillis();
+					time_prior += (t1 - t0);
+				}
+			}
+
+			System.out.println ();
+			System.out.println (archive.toString());
+
+			// Loop over Omori parameters
+
+			for (int ip = 0; ip < p_offset.length; ++ip) {
+				for (int ic = 0; ic < c_factor.length; ++ic) {
+					double p = cat_params.p + p_offset[ip];
+					double c = cat_params.c * c_factor[ic];
+
+					// Build the Omori matrix and pair data structures, with timing
+
+					long t0 = System.currentTimeMillis();
+					omat_full.omat_build (p, c);
+					long t1 = System.currentTimeMillis();
+					omat_incr.omat_build (p, c);
+					long t2 = System.currentTimeMillis();
+
+					time_full += (t1 - t0);
+					time_incr += (t2 - t1);
+
+					pmom_full.pmom_build (mexp_full, omat_full);
+					pmom_incr.pmom_build (mexp_incr, omat_incr);
+
+					// Loop over productivity parameters
+
+					for (int ia = 0; ia < a_offset.length; ++ia) {
+						double ten_aint_q = Math.pow(10.0, cat_params.a + a_offset[ia]) * mexp_full.get_q_correction();
+
+						avpr_full.avpr_build (pmom_full, ten_aint_q);
+						avpr_incr.avpr_build (pmom_incr, ten_aint_q);
+
+						for (int iams = 0; iams < ams_offset.length; ++iams) {
+							double ten_a_q = ten_aint_q;
+							double ten_ams_q = Math.pow(10.0, seed_params.ams + ams_offset[iams]);
+
+							double like_full;
+							double like_incr;
+							if (f_background) {
+								like_full = avpr_full.avpr_calc_log_like (ten_a_q, ten_ams_q, seed_params.mu);
+								like_incr = avpr_incr.avpr_calc_log_like (ten_a_q, ten_ams_q, seed_params.mu);
+							} else {
+								like_full = avpr_full.avpr_calc_log_like (ten_a_q, ten_ams_q);
+								like_incr = avpr_incr.avpr_calc_log_like (ten_a_q, ten_ams_q);
+							}
+
+							max_diff = Math.max (max_diff, Math.abs (like_incr - like_full));
+						}
+					}
+
+					System.out.println (String.format ("p = %.4f, c = %.4e, full build time = %d ms, incremental build time = %d ms, max loglike diff so far = %.4e",
+							p, c, t1 - t0, t2 - t1, max_diff));
+				}
+			}
+		}
+
+		// Display the results
+
+		System.out.println ();
+		System.out.println ("prior rupture_count = " + history_prior.rupture_count);
+		System.out.println ("prior interval_count = " + history_prior.interval_count);
+		System.out.println ("rupture_count = " + history.rupture_count);
+		System.out.println ("interval_count = " + history.interval_count);
+		System.out.println ("rows copied = " + archive.get_rows_copied() + " of " + archive.get_rows_total());
+		System.out.println ("omat_meth = " + omat_meth);
+		System.out.println ("omat_tol = " + omat_tol);
+		System.out.println ("max loglike diff = " + max_diff + ((omat_meth == OEConstants.OMAT_METH_EXPSUM) ? " (expected to be within tolerance)" : " (expected to be zero)"));
+		System.out.println ("total prior build time = " + time_prior + " ms");
+		System.out.println ("total full build time = " + time_full + " ms");
+		System.out.println ("total incremental build time = " + time_incr + " ms");
+
+		return;
+	}
+
+
+
+
 	// Lay out an a/ams likelihood grid.
 	// grid[i][j] contains the likelihood value for a_range[i] and ams_range[j].
 
@@ -9674,6 +9971,321 @@ public class OEFit2Test {
 
 
 
+		// Subcommand : Test #36
+		// Command format:
+		//  test36  zams  n  p  c  b  alpha  mref  msup  tbegin  tend
+		//          magCat  helm_param  disc_delta  mag_cat_count  eligible_mag  eligible_count
+		//          durlim_ratio  durlim_min  durlim_max  t_interval_begin  before_max_count  mag_cat_int_join
+		//          f_intervals  lmr_opt  omat_meth  omat_tol
+		//          [t_day  rup_mag]...
+		// Generate a catalog with the given parameters.
+		// The catalog is seeded with ruptures at the given times and magnitudes.
+		// Then construct a history containing the catalog.
+		// Then compare log-likelihoods computed with dense Omori matrices and with the Omori matrix
+		// method omat_meth (2 = sum-of-exponentials, 3 = single precision),
+		// for a small grid of parameters centered on the given parameters.
+		// Display the largest difference in log-likelihood, and the build times.
+		// Same as test #4 except runs the Omori matrix accuracy test instead of the smoke test.
+
+		if (testargs.is_test ("test36")) {
+			try {
+
+				System.out.println ("Generating catalog and history, and comparing Omori matrix methods");
+				double zams = testargs.get_double ("zams");
+				double n = testargs.get_double ("n");
+				double p = testargs.get_double ("p");
+				double c = testargs.get_double ("c");
+				double b = testargs.get_double ("b");
+				double alpha = testargs.get_double ("alpha");
+				double mref = testargs.get_double ("mref");
+				double msup = testargs.get_double ("msup");
+				double tbegin = testargs.get_double ("tbegin");
+				double tend = testargs.get_double ("tend");
+
+				double magCat = testargs.get_double ("magCat");
+				int helm_param = testargs.get_int ("helm_param");
+				double disc_delta = testargs.get_double ("disc_delta");
+				int mag_cat_count = testargs.get_int ("mag_cat_count");
+				double eligible_mag = testargs.get_double ("eligible_mag");
+				int eligible_count = testargs.get_int ("eligible_count");
+
+				double durlim_ratio = testargs.get_double ("durlim_ratio");
+				double durlim_min = testargs.get_double ("durlim_min");
+				double durlim_max = testargs.get_double ("durlim_max");
+				double t_interval_begin = testargs.get_double ("t_interval_begin");
+				int before_max_count = testargs.get_int ("before_max_count");
+				int mag_cat_int_join = testargs.get_int ("mag_cat_int_join");
+
+				boolean f_intervals = testargs.get_boolean ("f_intervals");
+				int lmr_opt = testargs.get_int ("lmr_opt");
+				int omat_meth = testargs.get_int ("omat_meth");
+				double omat_tol = testargs.get_double ("omat_tol");
+
+				double[] time_mag_array = testargs.get_double_tuple_array ("time_mag_array", -1, 0, 2, "time", "mag");
+				testargs.end_test();
+
+				// Make the catalog parameters
+
+				OECatalogParams cat_params = (new OECatalogParams()).set_to_fixed_mag_br (
+					n,		// n
+					p,		// p
+					c,		// c
+					b,		// b
+					alpha,	// alpha
+					mref,	// mref
+					msup,	// msup
+					tbegin,	// tbegin
+					tend	// tend
+				);
+
+				// Make the seed parameters
+
+				OESeedParams seed_params = (new OESeedParams()).set_from_zams (zams, cat_params);
+
+				// Make the catalog initializer
+
+				OEEnsembleInitializer initializer = (new OEInitFixedState()).setup_time_mag_list (cat_params, seed_params, time_mag_array, true);
+
+				// Make the catalog examiner
+
+				ArrayList<OERupture> rup_list = new ArrayList<OERupture>();
+				OEExaminerSaveList examiner = new OEExaminerSaveList (rup_list, true);
+
+				// Generate a catalog
+
+				OESimulator.gen_single_catalog (initializer, examiner);
+
+				// Make time-splitting function
+
+				OEMagCompFnDisc.SplitFn split_fn = new OEMagCompFnDisc.SplitFnRatio (durlim_ratio, durlim_min, durlim_max);
+
+				// Make the history parameters
+
+				double t_range_begin = Math.min (tbegin, t_interval_begin);
+				double t_range_end = tend;
+				for (int itm = 0; itm < time_mag_array.length; itm += 2) {
+					t_range_begin = Math.min (t_range_begin, time_mag_array[itm]);
+				}
+
+				OEDiscFGHParams hist_params = new OEDiscFGHParams();
+
+				hist_params.set_sim_history_typical (
+					magCat,				// magCat
+					helm_param,			// helm_param
+					t_range_begin,		// t_range_begin
+					t_range_end,		// t_range_end
+					disc_delta,			// disc_delta
+					mag_cat_count,		// mag_cat_count
+					eligible_mag,		// eligible_mag
+					eligible_count,		// eligible_count
+					split_fn,			// split_fn
+					t_interval_begin,	// t_interval_begin
+					before_max_count,	// before_max_count
+					mag_cat_int_join	// mag_cat_int_join
+				);
+
+				// Make a history
+
+				OEDisc2History history = new OEDisc2History();
+
+				history.build_from_fgh (hist_params, rup_list);
+
+				// Display a summary of the history
+
+				System.out.println ();
+				System.out.println ("rupture_count = " + history.rupture_count);
+				System.out.println ("interval_count = " + history.interval_count);
+
+				// Run the accuracy test
+
+				omat_accuracy_test (history, cat_params.get_params_stats(), seed_params.get_params_stats(), f_intervals, lmr_opt, omat_meth, omat_tol);
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
+		// Subcommand : Test #37
+		// Command format:
+		//  test37  zams  n  p  c  b  alpha  mref  msup  tbegin  tend
+		//          magCat  helm_param  disc_delta  mag_cat_count  eligible_mag  eligible_count
+		//          durlim_ratio  durlim_min  durlim_max  t_interval_begin  before_max_count  mag_cat_int_join
+		//          f_intervals  lmr_opt  t_prior  omat_meth  omat_tol
+		//          [t_day  rup_mag]...
+		// Generate a catalog with the given parameters.
+		// The catalog is seeded with ruptures at the given times and magnitudes.
+		// Then construct a history containing the catalog.
+		// Also construct a prior history containing only the ruptures before time t_prior,
+		// and ending at time t_prior, which represents an earlier forecast.
+		// Then build Omori matrices for the prior history, saving them in an archive, and build
+		// Omori matrices for the full history both from scratch and using the archive,
+		// for a small grid of parameters centered on the given parameters.
+		// All fits use the Omori matrix method omat_meth (1 = dense, 2 = sum-of-exponentials, 3 = single precision).
+		// Display the largest difference in log-likelihood (which should be zero, or within tolerance
+		// for sum-of-exponentials, where the archived approximation covers a longer span), and the build times.
+		// Same as test #36 except runs the incremental refit test instead of the accuracy test.
+
+		if (testargs.is_test ("test37")) {
+			try {
+
+				System.out.println ("Generating catalog and histories, and testing incremental refitting");
+				double zams = testargs.get_double ("zams");
+				double n = testargs.get_double ("n");
+				double p = testargs.get_double ("p");
+				double c = testargs.get_double ("c");
+				double b = testargs.get_double ("b");
+				double alpha = testargs.get_double ("alpha");
+				double mref = testargs.get_double ("mref");
+				double msup = testargs.get_double ("msup");
+				double tbegin = testargs.get_double ("tbegin");
+				double tend = testargs.get_double ("tend");
+
+				double magCat = testargs.get_double ("magCat");
+				int helm_param = testargs.get_int ("helm_param");
+				double disc_delta = testargs.get_double ("disc_delta");
+				int mag_cat_count = testargs.get_int ("mag_cat_count");
+				double eligible_mag = testargs.get_double ("eligible_mag");
+				int eligible_count = testargs.get_int ("eligible_count");
+
+				double durlim_ratio = testargs.get_double ("durlim_ratio");
+				double durlim_min = testargs.get_double ("durlim_min");
+				double durlim_max = testargs.get_double ("durlim_max");
+				double t_interval_begin = testargs.get_double ("t_interval_begin");
+				int before_max_count = testargs.get_int ("before_max_count");
+				int mag_cat_int_join = testargs.get_int ("mag_cat_int_join");
+
+				boolean f_intervals = testargs.get_boolean ("f_intervals");
+				int lmr_opt = testargs.get_int ("lmr_opt");
+				double t_prior = testargs.get_double ("t_prior");
+				int omat_meth = testargs.get_int ("omat_meth");
+				double omat_tol = testargs.get_double ("omat_tol");
+
+				double[] time_mag_array = testargs.get_double_tuple_array ("time_mag_array", -1, 0, 2, "time", "mag");
+				testargs.end_test();
+
+				// Make the catalog parameters
+
+				OECatalogParams cat_params = (new OECatalogParams()).set_to_fixed_mag_br (
+					n,		// n
+					p,		// p
+					c,		// c
+					b,		// b
+					alpha,	// alpha
+					mref,	// mref
+					msup,	// msup
+					tbegin,	// tbegin
+					tend	// tend
+				);
+
+				// Make the seed parameters
+
+				OESeedParams seed_params = (new OESeedParams()).set_from_zams (zams, cat_params);
+
+				// Make the catalog initializer
+
+				OEEnsembleInitializer initializer = (new OEInitFixedState()).setup_time_mag_list (cat_params, seed_params, time_mag_array, true);
+
+				// Make the catalog examiner
+
+				ArrayList<OERupture> rup_list = new ArrayList<OERupture>();
+				OEExaminerSaveList examiner = new OEExaminerSaveList (rup_list, true);
+
+				// Generate a catalog
+
+				OESimulator.gen_single_catalog (initializer, examiner);
+
+				// Make time-splitting function
+
+				OEMagCompFnDisc.SplitFn split_fn = new OEMagCompFnDisc.SplitFnRatio (durlim_ratio, durlim_min, durlim_max);
+
+				// Make the history parameters
+
+				double t_range_begin = Math.min (tbegin, t_interval_begin);
+				double t_range_end = tend;
+				for (int itm = 0; itm < time_mag_array.length; itm += 2) {
+					t_range_begin = Math.min (t_range_begin, time_mag_array[itm]);
+				}
+
+				OEDiscFGHParams hist_params = new OEDiscFGHParams();
+
+				hist_params.set_sim_history_typical (
+					magCat,				// magCat
+					helm_param,			// helm_param
+					t_range_begin,		// t_range_begin
+					t_range_end,		// t_range_end
+					disc_delta,			// disc_delta
+					mag_cat_count,		// mag_cat_count
+					eligible_mag,		// eligible_mag
+					eligible_count,		// eligible_count
+					split_fn,			// split_fn
+					t_interval_begin,	// t_interval_begin
+					before_max_count,	// before_max_count
+					mag_cat_int_join	// mag_cat_int_join
+				);
+
+				// Make a history
+
+				OEDisc2History history = new OEDisc2History();
+
+				history.build_from_fgh (hist_params, rup_list);
+
+				// Make the prior history, from ruptures before the prior time
+
+				ArrayList<OERupture> prior_rup_list = new ArrayList<OERupture>();
+				for (OERupture rup : rup_list) {
+					if (rup.t_day < t_prior) {
+						prior_rup_list.add (rup);
+					}
+				}
+
+				OEDiscFGHParams prior_hist_params = new OEDiscFGHParams();
+
+				prior_hist_params.set_sim_history_typical (
+					magCat,				// magCat
+					helm_param,			// helm_param
+					t_range_begin,		// t_range_begin
+					t_prior,			// t_range_end
+					disc_delta,			// disc_delta
+					mag_cat_count,		// mag_cat_count
+					eligible_mag,		// eligible_mag
+					eligible_count,		// eligible_count
+					split_fn,			// split_fn
+					t_interval_begin,	// t_interval_begin
+					before_max_count,	// before_max_count
+					mag_cat_int_join	// mag_cat_int_join
+				);
+
+				OEDisc2History history_prior = new OEDisc2History();
+
+				history_prior.build_from_fgh (prior_hist_params, prior_rup_list);
+
+				// Display a summary of the histories
+
+				System.out.println ();
+				System.out.println ("prior rupture_count = " + history_prior.rupture_count);
+				System.out.println ("prior interval_count = " + history_prior.interval_count);
+				System.out.println ("rupture_count = " + history.rupture_count);
+				System.out.println ("interval_count = " + history.interval_count);
+
+				// Run the incremental refit test
+
+				incremental_refit_test (history_prior, history, cat_params.get_params_stats(), seed_params.get_params_stats(), f_intervals, lmr_opt, omat_meth, omat_tol);
+
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+
+			return;
+		}
+
+
+
+
 		// Unrecognized subcommand.
 
 		System.err.println ("OEFit2Test : Unrecognized subcommand : " + args[0]);
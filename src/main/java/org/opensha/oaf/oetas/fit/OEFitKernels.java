@@ -0,0 +1,517 @@
+package org.opensha.oaf.oetas.fit;
+
+import org.opensha.oaf.util.TestArgs;
+import org.opensha.oaf.util.SimpleUtils;
+
+
+// Inner-loop kernels for parameter fitting.
+//
+// This class holds the loops that account for most of the time spent fitting:
+//
+// - The log-likelihood reductions, which are evaluated once per (a, ams) grid point for every
+//   voxel.  Each is a sum of logarithms over the target ruptures.
+//
+// - The row products used to apply an Omori matrix to productivity vectors (see
+//   OEDisc2ExtFit.OmoriMatrix.apply_omat_*), which are evaluated once per voxel.
+//
+// - The power-law row used to build the rupture-target rupture-source Omori matrix (see
+//   OEDisc2ExtFit.OmoriMatrix.build_omat_rup_targ_rup_src), which is evaluated once per (p, c).
+//
+// Each kernel has two implementations:
+//
+// - A scalar implementation, which performs exactly the same arithmetic, in the same order, as
+//   the original loops.  Results are bitwise identical to the original code.
+//
+// - A vector implementation, in OEFitVectorKernels, which uses the Vector API (the incubator
+//   module jdk.incubator.vector) so the loops run on SIMD registers.  The terms are computed with
+//   the same operations as the scalar implementation, except that the vector logarithm and power
+//   functions may differ from Math.log and Math.pow by 1 ulp, and sums are accumulated in one
+//   partial sum per lane.  So results differ from the scalar implementation by rounding error, of
+//   order N*eps times the mean absolute value of the terms, for a sum of N terms (eps = 2^-52).
+//   This is comparable to the rounding error of the scalar implementation itself, and far below
+//   the resolution of the likelihood grids.
+//
+// The implementation is selected once, when the class is loaded.  The vector implementation is
+// used if the JVM was started with --add-modules jdk.incubator.vector, and the hardware has SIMD
+// registers that hold at least two doubles.  Otherwise, or if the system property oaffitkernels
+// is set to "scalar" (for example by passing -Doaffitkernels=scalar to the JVM), the scalar
+// implementation is used.  The vector implementation is loaded by name, so this class works
+// even if OEFitVectorKernels was not compiled (it needs JDK 16 or later).
+//
+// The single-precision and sum-of-exponentials Omori matrices have their own apply loops, which
+// do not use these kernels.
+//
+// All functions are static and thread-safe;  they use no storage other than their arguments.
+
+public class OEFitKernels {
+
+	//----- Kernel implementations -----
+
+	// Interface for a set of kernels.
+	// The kernel functions are described with the static functions below.
+
+	public interface KernelSet {
+
+		// Get the name of the kernels.
+
+		public String get_kernel_name ();
+
+		// Get the number of doubles processed per operation.
+
+		public int get_lane_count ();
+
+		public double sum_log (final double init,
+				final double ca, final double[] a,
+				final double cb, final double[] b,
+				final int lo, final int hi);
+
+		public double sum_log (final double init,
+				final double ca, final double[] a,
+				final double cb, final double[] b,
+				final double cc, final double[] c,
+				final int lo, final int hi);
+
+		public void dot (final double[] sums, final double[] row,
+				final double[] x1, final double[] x2,
+				final int len);
+
+		public void dot (final double[] sums, final double[] row,
+				final double[] x1, final double[] x2, final double[] x3,
+				final int len);
+
+		public void pow_diff (final double[] y, final double t, final double[] s, final double e,
+				final int len);
+	}
+
+
+
+
+	// Scalar kernels.
+
+	public static class ScalarKernels implements KernelSet {
+
+		@Override
+		public String get_kernel_name () {
+			return "scalar";
+		}
+
+		@Override
+		public int get_lane_count () {
+			return 1;
+		}
+
+		@Override
+		public double sum_log (final double init,
+				final double ca, final double[] a,
+				final double cb, final double[] b,
+				final int lo, final int hi) {
+			double result = init;
+			for (int n = lo; n < hi; ++n) {
+				result += (Math.log((ca * a[n]) + (cb * b[n])));
+			}
+			return result;
+		}
+
+		@Override
+		public double sum_log (final double init,
+				final double ca, final double[] a,
+				final double cb, final double[] b,
+				final double cc, final double[] c,
+				final int lo, final int hi) {
+			double result = init;
+			for (int n = lo; n < hi; ++n) {
+				result += (Math.log((ca * a[n]) + (cb * b[n]) + (cc * c[n])));
+			}
+			return result;
+		}
+
+		@Override
+		public void dot (final double[] sums, final double[] row,
+				final double[] x1, final double[] x2,
+				final int len) {
+			double sum1 = 0.0;
+			double sum2 = 0.0;
+			for (int j = 0; j < len; ++j) {
+				sum1 += (row[j] * x1[j]);
+				sum2 += (row[j] * x2[j]);
+			}
+			sums[0] = sum1;
+			sums[1] = sum2;
+			return;
+		}
+
+		@Override
+		public void dot (final double[] sums, final double[] row,
+				final double[] x1, final double[] x2, final double[] x3,
+				final int len) {
+			double sum1 = 0.0;
+			double sum2 = 0.0;
+			double sum3 = 0.0;
+			for (int j = 0; j < len; ++j) {
+				sum1 += (row[j] * x1[j]);
+				sum2 += (row[j] * x2[j]);
+				sum3 += (row[j] * x3[j]);
+			}
+			sums[0] = sum1;
+			sums[1] = sum2;
+			sums[2] = sum3;
+			return;
+		}
+
+		@Override
+		public void pow_diff (final double[] y, final double t, final double[] s, final double e,
+				final int len) {
+			for (int j = 0; j < len; ++j) {
+				y[j] = Math.pow(t - s[j], e);
+			}
+			return;
+		}
+	}
+
+
+
+
+	//----- Selection -----
+
+	// Class name of the vector kernels.
+
+	private static final String VECTOR_KERNELS_CLASS = "org.opensha.oaf.oetas.fit.OEFitVectorKernels";
+
+	// Name of the Vector API module.
+
+	private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+	// The scalar kernels.
+
+	public static final KernelSet scalar_kernels = new ScalarKernels();
+
+	// The vector kernels, or null if they are not available.
+
+	public static final KernelSet vector_kernels = load_vector_kernels();
+
+	// The selected kernels.
+
+	private static final KernelSet kernels = select_kernels();
+
+	// Load the vector kernels, return null if they are not available.
+	// Note: Any error is caught, because the module or the class may be missing,
+	// or the JVM may not support the Vector API.
+
+	private static KernelSet load_vector_kernels () {
+		KernelSet result = null;
+		try {
+			if (ModuleLayer.boot().findModule (VECTOR_MODULE).isPresent()) {
+				KernelSet vk = (KernelSet)(Class.forName (VECTOR_KERNELS_CLASS).getDeclaredConstructor().newInstance());
+				if (vk.get_lane_count() >= 2) {
+					result = vk;
+				}
+			}
+		} catch (Throwable e) {
+			result = null;
+		}
+		return result;
+	}
+
+	// Select the kernels, according to availability and the system property.
+
+	private static KernelSet select_kernels () {
+		KernelSet result = vector_kernels;
+		if (result == null || SimpleUtils.is_property_value ("oaffitkernels", "scalar")) {
+			result = scalar_kernels;
+		}
+		return result;
+	}
+
+	// Get a string describing the selected kernels.
+
+	public static String get_kernel_name () {
+		return kernels.get_kernel_name();
+	}
+
+
+
+
+	//----- Log-likelihood sums -----
+
+
+
+
+	// Calculate a sum of logarithms of a two-term linear combination.
+	// Parameters:
+	//  init = Initial value.
+	//  ca = Coefficient for vector a.
+	//  a = Vector a.
+	//  cb = Coefficient for vector b.
+	//  b = Vector b.
+	//  lo = Beginning of index range.
+	//  hi = End of index range.
+	// Returns:
+	//  init + SUM(log((ca * a[n]) + (cb * b[n])))
+	// where the sum runs over lo <= n < hi.
+
+	public static double sum_log (final double init,
+			final double ca, final double[] a,
+			final double cb, final double[] b,
+			final int lo, final int hi) {
+		return kernels.sum_log (init, ca, a, cb, b, lo, hi);
+	}
+
+
+
+
+	// Calculate a sum of logarithms of a three-term linear combination.
+	// Parameters:
+	//  init = Initial value.
+	//  ca = Coefficient for vector a.
+	//  a = Vector a.
+	//  cb = Coefficient for vector b.
+	//  b = Vector b.
+	//  cc = Coefficient for vector c.
+	//  c = Vector c.
+	//  lo = Beginning of index range.
+	//  hi = End of index range.
+	// Returns:
+	//  init + SUM(log((ca * a[n]) + (cb * b[n]) + (cc * c[n])))
+	// where the sum runs over lo <= n < hi.
+
+	public static double sum_log (final double init,
+			final double ca, final double[] a,
+			final double cb, final double[] b,
+			final double cc, final double[] c,
+			final int lo, final int hi) {
+		return kernels.sum_log (init, ca, a, cb, b, cc, c, lo, hi);
+	}
+
+
+
+
+	//----- Omori matrix rows -----
+
+
+
+
+	// Calculate the products of a matrix row with two vectors.
+	// Parameters:
+	//  sums = Array to receive the products, length >= 2.
+	//  row = Matrix row.
+	//  x1 = Vector #1.
+	//  x2 = Vector #2.
+	//  len = Number of elements to use.
+	// Sets:
+	//  sums[0] = SUM(row[j] * x1[j])
+	//  sums[1] = SUM(row[j] * x2[j])
+	// where the sum runs over 0 <= j < len.
+
+	public static void dot (final double[] sums, final double[] row,
+			final double[] x1, final double[] x2,
+			final int len) {
+		kernels.dot (sums, row, x1, x2, len);
+		return;
+	}
+
+
+
+
+	// Calculate the products of a matrix row with three vectors.
+	// Parameters:
+	//  sums = Array to receive the products, length >= 3.
+	//  row = Matrix row.
+	//  x1 = Vector #1.
+	//  x2 = Vector #2.
+	//  x3 = Vector #3.
+	//  len = Number of elements to use.
+	// Sets:
+	//  sums[0] = SUM(row[j] * x1[j])
+	//  sums[1] = SUM(row[j] * x2[j])
+	//  sums[2] = SUM(row[j] * x3[j])
+	// where the sum runs over 0 <= j < len.
+
+	public static void dot (final double[] sums, final double[] row,
+			final double[] x1, final double[] x2, final double[] x3,
+			final int len) {
+		kernels.dot (sums, row, x1, x2, x3, len);
+		return;
+	}
+
+
+
+
+	// Calculate a power of differences.
+	// Parameters:
+	//  y = Array to receive the values.
+	//  t = Value to subtract from.
+	//  s = Values to subtract.
+	//  e = Exponent.
+	//  len = Number of elements to calculate.
+	// Sets:
+	//  y[j] = (t - s[j])^e
+	// for 0 <= j < len.
+
+	public static void pow_diff (final double[] y, final double t, final double[] s, final double e,
+			final int len) {
+		kernels.pow_diff (y, t, s, e, len);
+		return;
+	}
+
+
+
+
+	//----- Testing -----
+
+
+
+
+	// Return the relative difference between two values.
+
+	private static double rel_diff (double x, double y) {
+		return Math.abs (x - y) / Math.max (Math.abs (x), Double.MIN_NORMAL);
+	}
+
+
+
+
+	public static void main(String[] args) {
+		try {
+		TestArgs testargs = new TestArgs (args, "OEFitKernels");
+
+
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  seed  n  reps
+		// Compare the vector and scalar kernels on random data of length n, and display
+		// the maximum differences and the time taken for reps repetitions of each kernel.
+		// The JVM must be started with --add-modules jdk.incubator.vector to test the vector kernels.
+
+		if (testargs.is_test ("test1")) {
+
+			// Read arguments
+
+			System.out.println ("Comparing vector and scalar fitting kernels");
+			long seed = testargs.get_long ("seed");
+			int n = testargs.get_int ("n");
+			int reps = testargs.get_int ("reps");
+			testargs.end_test();
+
+			System.out.println ();
+			System.out.println ("Selected kernels: " + get_kernel_name());
+
+			if (vector_kernels == null) {
+				System.out.println ("Vector kernels are not available");
+				return;
+			}
+
+			KernelSet sk = scalar_kernels;
+			KernelSet vk = vector_kernels;
+
+			// Random data, with likelihood-like vectors of differing scales
+
+			java.util.Random rand = new java.util.Random (seed);
+
+			double[] x1 = new double[n];
+			double[] x2 = new double[n];
+			double[] x3 = new double[n];
+			double[] ts = new double[n];
+			for (int j = 0; j < n; ++j) {
+				x1[j] = rand.nextDouble();
+				x2[j] = rand.nextDouble() * 1.0e-3;
+				x3[j] = rand.nextDouble() * 1.0e3;
+				ts[j] = rand.nextDouble() * 365.0;
+			}
+
+			// Compare log sums
+
+			System.out.println ();
+			double ls_s = sk.sum_log (0.0, 2.5, x1, 7.0, x2, 0.3, x3, 0, n);
+			double ls_v = vk.sum_log (0.0, 2.5, x1, 7.0, x2, 0.3, x3, 0, n);
+			System.out.println ("sum_log3 = " + ls_s + ", rel diff = " + rel_diff (ls_s, ls_v));
+
+			ls_s = sk.sum_log (0.0, 2.5, x1, 7.0, x2, 0, n);
+			ls_v = vk.sum_log (0.0, 2.5, x1, 7.0, x2, 0, n);
+			System.out.println ("sum_log2 = " + ls_s + ", rel diff = " + rel_diff (ls_s, ls_v));
+
+			// Compare row products
+
+			double[] sums_s = new double[3];
+			double[] sums_v = new double[3];
+
+			sk.dot (sums_s, x1, x2, x3, n);
+			vk.dot (sums_v, x1, x2, x3, n);
+			System.out.println ("dot2 = " + sums_s[0] + ", " + sums_s[1] + ", rel diff = " + rel_diff (sums_s[0], sums_v[0]) + ", " + rel_diff (sums_s[1], sums_v[1]));
+
+			sk.dot (sums_s, x1, x2, x3, ts, n);
+			vk.dot (sums_v, x1, x2, x3, ts, n);
+			System.out.println ("dot3 = " + sums_s[0] + ", " + sums_s[1] + ", " + sums_s[2] + ", rel diff = " + rel_diff (sums_s[0], sums_v[0]) + ", " + rel_diff (sums_s[1], sums_v[1]) + ", " + rel_diff (sums_s[2], sums_v[2]));
+
+			// Compare powers, with an Omori-like exponent and offset
+
+			double[] pow_s = new double[n];
+			double[] pow_v = new double[n];
+
+			sk.pow_diff (pow_s, 365.01, ts, -1.08, n);
+			vk.pow_diff (pow_v, 365.01, ts, -1.08, n);
+			double max_pow_diff = 0.0;
+			for (int j = 0; j < n; ++j) {
+				max_pow_diff = Math.max (max_pow_diff, rel_diff (pow_s[j], pow_v[j]));
+			}
+			System.out.println ("pow_diff max rel diff = " + max_pow_diff);
+
+			// Timing
+
+			double sink = 0.0;
+			long t0;
+
+			for (int pass = 0; pass < 2; ++pass) {
+				System.out.println ();
+				System.out.println ("Timing pass " + pass + ":");
+
+				for (int k = 0; k < 2; ++k) {
+					KernelSet ks = ((k == 0) ? sk : vk);
+
+					t0 = System.nanoTime();
+					for (int r = 0; r < reps; ++r) {
+						sink += ks.sum_log (0.0, 2.5, x1, 7.0, x2, 0, n);
+					}
+					System.out.println (ks.get_kernel_name() + " sum_log: " + ((System.nanoTime() - t0) / 1000000L) + " ms");
+
+					t0 = System.nanoTime();
+					for (int r = 0; r < reps; ++r) {
+						ks.dot (sums_s, x1, x2, x3, n);
+						sink += sums_s[0];
+					}
+					System.out.println (ks.get_kernel_name() + " dot: " + ((System.nanoTime() - t0) / 1000000L) + " ms");
+
+					t0 = System.nanoTime();
+					for (int r = 0; r < reps; ++r) {
+						ks.pow_diff (pow_s, 365.01, ts, -1.08, n);
+						sink += pow_s[r % n];
+					}
+					System.out.println (ks.get_kernel_name() + " pow_diff: " + ((System.nanoTime() - t0) / 1000000L) + " ms");
+				}
+			}
+
+			System.out.println ();
+			System.out.println ("sink = " + sink);
+
+			// Done
+
+			System.out.println ();
+			System.out.println ("Done");
+
+			return;
+		}
+
+
+
+
+		// Unrecognized subcommand, or exception
+
+		testargs.unrecognized_test();
+		} catch (Exception e) {
+		e.printStackTrace();
+		}
+		return;
+	}
+
+}
@@ -0,0 +1,200 @@
+package org.opensha.oaf.oetas.fit;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+// Vector kernels for parameter fitting.
+//
+// This class implements the kernels in OEFitKernels using the Vector API, which is in the
+// incubator module jdk.incubator.vector.  Each loop processes as many doubles at once as fit in
+// the preferred SIMD register (for example, 4 with AVX2 or 8 with AVX-512), followed by a scalar
+// loop for the remaining elements.  See OEFitKernels for a description of the differences from
+// the scalar kernels.
+//
+// This class must only be accessed through OEFitKernels, which loads it by name if the module is
+// present.  Compiling it requires JDK 16 or later, with --add-modules jdk.incubator.vector.
+//
+// All functions are thread-safe;  they use no storage other than their arguments.
+
+public class OEFitVectorKernels implements OEFitKernels.KernelSet {
+
+	// The vector shape, the preferred shape for this hardware.
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+
+
+
+	@Override
+	public String get_kernel_name () {
+		return "vector (" + SPECIES.length() + " lanes)";
+	}
+
+	@Override
+	public int get_lane_count () {
+		return SPECIES.length();
+	}
+
+
+
+
+	@Override
+	public double sum_log (final double init,
+			final double ca, final double[] a,
+			final double cb, final double[] b,
+			final int lo, final int hi) {
+
+		// Vector loop
+
+		DoubleVector acc = DoubleVector.zero (SPECIES);
+		final int vlen = SPECIES.length();
+		final int n_top = lo + SPECIES.loopBound (hi - lo);
+		int n = lo;
+		for ( ; n < n_top; n += vlen) {
+			final DoubleVector va = DoubleVector.fromArray (SPECIES, a, n);
+			final DoubleVector vb = DoubleVector.fromArray (SPECIES, b, n);
+			acc = acc.add (va.mul (ca).add (vb.mul (cb)).lanewise (VectorOperators.LOG));
+		}
+
+		// Scalar loop for the remaining elements
+
+		double result = init + acc.reduceLanes (VectorOperators.ADD);
+		for ( ; n < hi; ++n) {
+			result += (Math.log((ca * a[n]) + (cb * b[n])));
+		}
+		return result;
+	}
+
+
+
+
+	@Override
+	public double sum_log (final double init,
+			final double ca, final double[] a,
+			final double cb, final double[] b,
+			final double cc, final double[] c,
+			final int lo, final int hi) {
+
+		// Vector loop
+
+		DoubleVector acc = DoubleVector.zero (SPECIES);
+		final int vlen = SPECIES.length();
+		final int n_top = lo + SPECIES.loopBound (hi - lo);
+		int n = lo;
+		for ( ; n < n_top; n += vlen) {
+			final DoubleVector va = DoubleVector.fromArray (SPECIES, a, n);
+			final DoubleVector vb = DoubleVector.fromArray (SPECIES, b, n);
+			final DoubleVector vc = DoubleVector.fromArray (SPECIES, c, n);
+			acc = acc.add (va.mul (ca).add (vb.mul (cb)).add (vc.mul (cc)).lanewise (VectorOperators.LOG));
+		}
+
+		// Scalar loop for the remaining elements
+
+		double result = init + acc.reduceLanes (VectorOperators.ADD);
+		for ( ; n < hi; ++n) {
+			result += (Math.log((ca * a[n]) + (cb * b[n]) + (cc * c[n])));
+		}
+		return result;
+	}
+
+
+
+
+	@Override
+	public void dot (final double[] sums, final double[] row,
+			final double[] x1, final double[] x2,
+			final int len) {
+
+		// Vector loop
+
+		DoubleVector acc1 = DoubleVector.zero (SPECIES);
+		DoubleVector acc2 = DoubleVector.zero (SPECIES);
+		final int vlen = SPECIES.length();
+		final int j_top = SPECIES.loopBound (len);
+		int j = 0;
+		for ( ; j < j_top; j += vlen) {
+			final DoubleVector vr = DoubleVector.fromArray (SPECIES, row, j);
+			acc1 = acc1.add (vr.mul (DoubleVector.fromArray (SPECIES, x1, j)));
+			acc2 = acc2.add (vr.mul (DoubleVector.fromArray (SPECIES, x2, j)));
+		}
+
+		// Scalar loop for the remaining elements
+
+		double sum1 = acc1.reduceLanes (VectorOperators.ADD);
+		double sum2 = acc2.reduceLanes (VectorOperators.ADD);
+		for ( ; j < len; ++j) {
+			sum1 += (row[j] * x1[j]);
+			sum2 += (row[j] * x2[j]);
+		}
+		sums[0] = sum1;
+		sums[1] = sum2;
+		return;
+	}
+
+
+
+
+	@Override
+	public void dot (final double[] sums, final double[] row,
+			final double[] x1, final double[] x2, final double[] x3,
+			final int len) {
+
+		// Vector loop
+
+		DoubleVector acc1 = DoubleVector.zero (SPECIES);
+		DoubleVector acc2 = DoubleVector.zero (SPECIES);
+		DoubleVector acc3 = DoubleVector.zero (SPECIES);
+		final int vlen = SPECIES.length();
+		final int j_top = SPECIES.loopBound (len);
+		int j = 0;
+		for ( ; j < j_top; j += vlen) {
+			final DoubleVector vr = DoubleVector.fromArray (SPECIES, row, j);
+			acc1 = acc1.add (vr.mul (DoubleVector.fromArray (SPECIES, x1, j)));
+			acc2 = acc2.add (vr.mul (DoubleVector.fromArray (SPECIES, x2, j)));
+			acc3 = acc3.add (vr.mul (DoubleVector.fromArray (SPECIES, x3, j)));
+		}
+
+		// Scalar loop for the remaining elements
+
+		double sum1 = acc1.reduceLanes (VectorOperators.ADD);
+		double sum2 = acc2.reduceLanes (VectorOperators.ADD);
+		double sum3 = acc3.reduceLanes (VectorOperators.ADD);
+		for ( ; j < len; ++j) {
+			sum1 += (row[j] * x1[j]);
+			sum2 += (row[j] * x2[j]);
+			sum3 += (row[j] * x3[j]);
+		}
+		sums[0] = sum1;
+		sums[1] = sum2;
+		sums[2] = sum3;
+		return;
+	}
+
+
+
+
+	@Override
+	public void pow_diff (final double[] y, final double t, final double[] s, final double e,
+			final int len) {
+
+		// Vector loop
+
+		final DoubleVector vt = DoubleVector.broadcast (SPECIES, t);
+		final int vlen = SPECIES.length();
+		final int j_top = SPECIES.loopBound (len);
+		int j = 0;
+		for ( ; j < j_top; j += vlen) {
+			vt.sub (DoubleVector.fromArray (SPECIES, s, j)).lanewise (VectorOperators.POW, e).intoArray (y, j);
+		}
+
+		// Scalar loop for the remaining elements
+
+		for ( ; j < len; ++j) {
+			y[j] = Math.pow(t - s[j], e);
+		}
+		return;
+	}
+
+}
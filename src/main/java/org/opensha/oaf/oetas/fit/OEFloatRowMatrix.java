@@ -0,0 +1,377 @@
+package org.opensha.oaf.oetas.fit;
+
+import org.opensha.oaf.util.TestArgs;
+
+
+// Compact storage for a matrix with rows of varying length, in single precision.
+//
+// This is a replacement for a jagged double[][] array, used to hold large triangular matrices.
+// Elements are stored as float, which halves the memory compared to double.  The rows are packed
+// end-to-end into a small number of large contiguous blocks, which avoids the per-row object
+// overhead of a jagged array and gives sequential memory access when rows are processed in order.
+// A row is never split between blocks, so each row can be processed as a contiguous range of
+// a single float[] array.
+//
+// Row i is stored in get_block(i), at indexes get_row_offset(i) through get_row_offset(i) + get_row_len(i) - 1.
+//
+// Callers that compute sums of products should accumulate in double.
+//
+// Threading: After the elements are filled in, the object can be read simultaneously from multiple threads.
+
+public class OEFloatRowMatrix {
+
+	//----- Constants -----
+
+	// Default maximum number of elements in a block (16 MB per block).
+	// A block can be larger if it needs to hold a single row that is larger than this.
+
+	public static final int DEF_BLOCK_SIZE = 1 << 22;
+
+
+
+
+	//----- Storage -----
+
+	// Number of rows.
+
+	private int row_count;
+
+	// Length of each row.
+
+	private int[] a_row_len;
+
+	// Index of the block that holds each row.
+
+	private int[] a_row_block;
+
+	// Offset of each row within its block.
+
+	private int[] a_row_offset;
+
+	// The blocks.
+
+	private float[][] a_block;
+
+	// Total number of elements.
+
+	private long element_count;
+
+
+
+
+	//----- Access -----
+
+	// Get the number of rows.
+
+	public final int get_row_count () {
+		return row_count;
+	}
+
+	// Get the length of row i.
+
+	public final int get_row_len (int i) {
+		return a_row_len[i];
+	}
+
+	// Get the block that holds row i.
+
+	public final float[] get_block (int i) {
+		return a_block[a_row_block[i]];
+	}
+
+	// Get the offset of row i within its block.
+
+	public final int get_row_offset (int i) {
+		return a_row_offset[i];
+	}
+
+	// Get the total number of elements.
+
+	public final long get_element_count () {
+		return element_count;
+	}
+
+	// Get the number of blocks.
+
+	public final int get_block_count () {
+		return a_block.length;
+	}
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	// Construct a matrix with the given row lengths, using the default block size.
+	// Parameters:
+	//  row_len = Array giving the length of each row.  The array is retained (not copied).
+	// All elements are initialized to zero.
+
+	public OEFloatRowMatrix (int[] row_len) {
+		this (row_len, DEF_BLOCK_SIZE);
+	}
+
+
+
+
+	// Construct a matrix with the given row lengths and block size.
+	// Parameters:
+	//  row_len = Array giving the length of each row.  The array is retained (not copied).
+	//  block_size = Maximum number of elements in a block, must be > 0.
+	// All elements are initialized to zero.
+
+	public OEFloatRowMatrix (int[] row_len, int block_size) {
+		if (!( block_size > 0 )) {
+			throw new IllegalArgumentException ("OEFloatRowMatrix: Invalid block size: " + block_size);
+		}
+
+		row_count = row_len.length;
+		a_row_len = row_len;
+		a_row_block = new int[row_count];
+		a_row_offset = new int[row_count];
+		element_count = 0L;
+
+		// First pass: assign rows to blocks, and count the blocks
+
+		int block_count = 0;
+		int block_used = 0;
+		for (int i = 0; i < row_count; ++i) {
+			final int len = row_len[i];
+			if (len < 0) {
+				throw new IllegalArgumentException ("OEFloatRowMatrix: Invalid row length: row_len[" + i + "] = " + len);
+			}
+			if (block_count == 0 || (len > 0 && block_used > 0 && block_used + len > block_size)) {
+				++block_count;
+				block_used = 0;
+			}
+			a_row_block[i] = block_count - 1;
+			a_row_offset[i] = block_used;
+			block_used += len;
+			element_count += len;
+		}
+
+		// Second pass: allocate the blocks
+
+		int[] block_len = new int[block_count];
+		for (int i = 0; i < row_count; ++i) {
+			block_len[a_row_block[i]] = a_row_offset[i] + row_len[i];
+		}
+
+		a_block = new float[block_count][];
+		for (int k = 0; k < block_count; ++k) {
+			a_block[k] = new float[block_len[k]];
+		}
+	}
+
+
+
+
+	// Construct a copy of another matrix.
+	// Parameters:
+	//  other = The matrix to copy.
+	// The row structure is shared with the other matrix (it is never modified), and the blocks are copied.
+
+	public OEFloatRowMatrix (OEFloatRowMatrix other) {
+		row_count = other.row_count;
+		a_row_len = other.a_row_len;
+		a_row_block = other.a_row_block;
+		a_row_offset = other.a_row_offset;
+		element_count = other.element_count;
+
+		a_block = new float[other.a_block.length][];
+		for (int k = 0; k < a_block.length; ++k) {
+			a_block[k] = other.a_block[k].clone();
+		}
+	}
+
+
+
+
+	// Store row i from an array of doubles.
+	// Parameters:
+	//  i = Row index.
+	//  values = Values to store, must have length >= get_row_len(i).
+
+	public final void set_row (int i, double[] values) {
+		final float[] block = a_block[a_row_block[i]];
+		final int off = a_row_offset[i];
+		final int len = a_row_len[i];
+		for (int j = 0; j < len; ++j) {
+			block[off + j] = (float)(values[j]);
+		}
+		return;
+	}
+
+
+
+
+	// Load row i into an array of doubles.
+	// Parameters:
+	//  i = Row index.
+	//  values = Array to receive the values, must have length >= get_row_len(i).
+
+	public final void get_row (int i, double[] values) {
+		final float[] block = a_block[a_row_block[i]];
+		final int off = a_row_offset[i];
+		final int len = a_row_len[i];
+		for (int j = 0; j < len; ++j) {
+			values[j] = block[off + j];
+		}
+		return;
+	}
+
+
+
+
+	// Get element j of row i (for testing and display).
+
+	public final double get (int i, int j) {
+		return a_block[a_row_block[i]][a_row_offset[i] + j];
+	}
+
+
+
+
+	// Get the maximum row length.
+
+	public final int get_max_row_len () {
+		int result = 0;
+		for (int i = 0; i < row_count; ++i) {
+			result = Math.max (result, a_row_len[i]);
+		}
+		return result;
+	}
+
+
+
+
+	// Estimate the number of bytes of memory needed for a matrix.
+	// Parameters:
+	//  row_count = Number of rows.
+	//  element_count = Total number of elements.
+
+	public static long estimate_bytes (long row_count, long element_count) {
+		return (element_count * 4L) + (row_count * 12L) + (((element_count / DEF_BLOCK_SIZE) + 1L) * 24L) + 64L;
+	}
+
+
+
+
+	// Estimate the number of bytes of memory needed for a jagged double[][] array with the same shape.
+	// Parameters:
+	//  row_count = Number of rows.
+	//  element_count = Total number of elements.
+	// Note: Assumes 16 bytes of header per array and 8 bytes per reference.
+
+	public static long estimate_jagged_double_bytes (long row_count, long element_count) {
+		return (element_count * 8L) + (row_count * 24L) + 16L;
+	}
+
+
+
+
+	// Display a summary of our contents.
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+
+		result.append ("OEFloatRowMatrix: ");
+		result.append ("rows = " + row_count);
+		result.append (", elements = " + element_count);
+		result.append (", blocks = " + a_block.length);
+
+		return result.toString();
+	}
+
+
+
+
+	//----- Testing -----
+
+
+
+
+	public static void main(String[] args) {
+		try {
+		TestArgs testargs = new TestArgs (args, "OEFloatRowMatrix");
+
+
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  row_count  block_size
+		// Construct a lower-triangular matrix with the given number of rows, fill it with
+		// values, and check that the values read back match to single precision.
+
+		if (testargs.is_test ("test1")) {
+
+			// Read arguments
+
+			System.out.println ("Constructing triangular float row matrix");
+			int row_count = testargs.get_int ("row_count");
+			int block_size = testargs.get_int ("block_size");
+			testargs.end_test();
+
+			// Construct the matrix
+
+			int[] row_len = new int[row_count];
+			for (int i = 0; i < row_count; ++i) {
+				row_len[i] = i;
+			}
+
+			OEFloatRowMatrix fmat = new OEFloatRowMatrix (row_len, block_size);
+
+			System.out.println ();
+			System.out.println (fmat.toString());
+
+			// Fill rows
+
+			double[] values = new double[row_count];
+			for (int i = 0; i < row_count; ++i) {
+				for (int j = 0; j < i; ++j) {
+					values[j] = Math.pow ((i - j) + 0.01, -1.1);
+				}
+				fmat.set_row (i, values);
+			}
+
+			// Check values
+
+			double max_rel_err = 0.0;
+			for (int i = 0; i < row_count; ++i) {
+				for (int j = 0; j < i; ++j) {
+					double exact = Math.pow ((i - j) + 0.01, -1.1);
+					max_rel_err = Math.max (max_rel_err, Math.abs (fmat.get (i, j) - exact) / exact);
+				}
+			}
+
+			System.out.println ();
+			System.out.println ("max_rel_err = " + max_rel_err);
+			System.out.println ("estimate_bytes = " + estimate_bytes (row_count, fmat.get_element_count()));
+			System.out.println ("estimate_jagged_double_bytes = " + estimate_jagged_double_bytes (row_count, fmat.get_element_count()));
+
+			// Done
+
+			System.out.println ();
+			System.out.println ("Done");
+
+			return;
+		}
+
+
+
+
+		// Unrecognized subcommand, or exception
+
+		testargs.unrecognized_test();
+		} catch (Exception e) {
+		e.printStackTrace();
+		}
+		return;
+	}
+
+}
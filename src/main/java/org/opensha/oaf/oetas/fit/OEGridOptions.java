@@ -33,6 +33,24 @@ public class OEGridOptions implements Marshalable {
 	}
 
 
+	// Method used to store and apply Omori matrices (OMAT_METH_XXXX).
+
+	private int omat_meth;
+
+	public final int get_omat_meth () {
+		return omat_meth;
+	}
+
+
+	// Relative tolerance for approximate Omori matrix methods.
+
+	private double omat_tol;
+
+	public final double get_omat_tol () {
+		return omat_tol;
+	}
+
+
 
 
 	//----- Construction -----
@@ -44,6 +62,8 @@ public class OEGridOptions implements Marshalable {
 
 	public final void clear () {
 		relative_zams = false;
+		omat_meth = OEConstants.DEF_OMAT_METH;
+		omat_tol = OEConstants.DEF_OMAT_TOL;
 		return;
 	}
 
@@ -65,6 +85,23 @@ public class OEGridOptions implements Marshalable {
 		boolean relative_zams
 	) {
 		this.relative_zams = relative_zams;
+		this.omat_meth = OEConstants.DEF_OMAT_METH;
+		this.omat_tol = OEConstants.DEF_OMAT_TOL;
+	}
+
+
+
+
+	// Constructor that sets the supplied values.
+
+	public OEGridOptions (
+		boolean relative_zams,
+		int omat_meth,
+		double omat_tol
+	) {
+		this.relative_zams = relative_zams;
+		this.omat_meth = omat_meth;
+		this.omat_tol = omat_tol;
 	}
 
 
@@ -77,6 +114,40 @@ public class OEGridOptions implements Marshalable {
 		boolean relative_zams
 	) {
 		this.relative_zams = relative_zams;
+		this.omat_meth = OEConstants.DEF_OMAT_METH;
+		this.omat_tol = OEConstants.DEF_OMAT_TOL;
+		return this;
+	}
+
+
+
+
+	// Set up the options with the supplied values.
+	// Returns this object.
+
+	public final OEGridOptions set (
+		boolean relative_zams,
+		int omat_meth,
+		double omat_tol
+	) {
+		this.relative_zams = relative_zams;
+		this.omat_meth = omat_meth;
+		this.omat_tol = omat_tol;
+		return this;
+	}
+
+
+
+
+	// Set the Omori matrix method and tolerance, leaving other options unchanged.
+	// Returns this object.
+
+	public final OEGridOptions set_omat_meth (
+		int omat_meth,
+		double omat_tol
+	) {
+		this.omat_meth = omat_meth;
+		this.omat_tol = omat_tol;
 		return this;
 	}
 
@@ -88,6 +159,8 @@ public class OEGridOptions implements Marshalable {
 
 	public final OEGridOptions copy_from (OEGridOptions other) {
 		this.relative_zams = other.relative_zams;
+		this.omat_meth = other.omat_meth;
+		this.omat_tol = other.omat_tol;
 		return this;
 	}
 
@@ -103,6 +176,8 @@ public class OEGridOptions implements Marshalable {
 		result.append ("OEGridOptions:" + "\n");
 
 		result.append ("relative_zams = " + relative_zams + "\n");
+		result.append ("omat_meth = " + omat_meth + "\n");
+		result.append ("omat_tol = " + omat_tol + "\n");
 
 		return result.toString();
 	}
@@ -118,6 +193,7 @@ public class OEGridOptions implements Marshalable {
 	// Marshal version number.
 
 	private static final int MARSHAL_VER_1 = 140001;
+	private static final int MARSHAL_VER_2 = 140002;
 
 	private static final String M_VERSION_NAME = "OEGridOptions";
 
@@ -127,7 +203,7 @@ public class OEGridOptions implements Marshalable {
 
 		// Version
 
-		int ver = MARSHAL_VER_1;
+		int ver = MARSHAL_VER_2;
 
 		writer.marshalInt (M_VERSION_NAME, ver);
 
@@ -142,6 +218,15 @@ public class OEGridOptions implements Marshalable {
 		}
 		break;
 
+		case MARSHAL_VER_2: {
+
+			writer.marshalBoolean ("relative_zams", relative_zams);
+			writer.marshalInt     ("omat_meth"    , omat_meth    );
+			writer.marshalDouble  ("omat_tol"     , omat_tol     );
+
+		}
+		break;
+
 		}
 
 		return;
@@ -153,7 +238,7 @@ public class OEGridOptions implements Marshalable {
 	
 		// Version
 
-		int ver = reader.unmarshalInt (M_VERSION_NAME, MARSHAL_VER_1, MARSHAL_VER_1);
+		int ver = reader.unmarshalInt (M_VERSION_NAME, MARSHAL_VER_1, MARSHAL_VER_2);
 
 		// Contents
 
@@ -162,6 +247,17 @@ public class OEGridOptions implements Marshalable {
 		case MARSHAL_VER_1: {
 
 			relative_zams = reader.unmarshalBoolean ("relative_zams");
+			omat_meth = OEConstants.DEF_OMAT_METH;
+			omat_tol = OEConstants.DEF_OMAT_TOL;
+
+		}
+		break;
+
+		case MARSHAL_VER_2: {
+
+			relative_zams = reader.unmarshalBoolean ("relative_zams");
+			omat_meth     = reader.unmarshalInt     ("omat_meth"    , OEConstants.OMAT_METH_MIN, OEConstants.OMAT_METH_MAX);
+			omat_tol      = reader.unmarshalDouble  ("omat_tol"     );
 
 		}
 		break;
@@ -229,7 +325,9 @@ public class OEGridOptions implements Marshalable {
 		OEGridOptions grid_options = new OEGridOptions();
 
 		grid_options.set (
-			true		// relative_zams
+			true,							// relative_zams
+			OEConstants.OMAT_METH_EXPSUM,	// omat_meth
+			1.0e-7							// omat_tol
 		);
 
 		return grid_options;
@@ -0,0 +1,365 @@
+package org.opensha.oaf.oetas.fit;
+
+import org.opensha.oaf.util.TestArgs;
+
+
+// Sum-of-exponentials approximation to the Omori kernel.
+//
+// This class approximates the Omori kernel
+//
+//   x^(-p)     with  x = t - s + c
+//
+// by a sum of decaying exponentials
+//
+//   x^(-p) ~ SUM( w[k] * exp(-u[k]*x) )
+//
+// which is accurate to a given relative tolerance for x_min <= x <= x_max.
+//
+// The approximation comes from the integral representation
+//
+//   x^(-p) = (1/Gamma(p)) * Integral(tau = -infinity, tau = infinity; exp(p*tau - x*exp(tau)) * dtau)
+//
+// which is discretized by the trapezoidal rule with step h in tau, and truncated at both ends.
+// The integrand is analytic in a strip, so the trapezoidal rule converges exponentially in 1/h,
+// with relative error approximately exp(-pi^2/h) independent of x.  The left truncation point is
+// controlled by x_max, and the right truncation point is controlled by x_min, so the number of
+// terms grows only logarithmically with the ratio x_max/x_min.  The normalization constant
+// 1/Gamma(p) is not computed directly;  instead the weights are scaled so the approximation is
+// exact at the geometric mean of x_min and x_max.
+//
+// The point of the approximation is that exp(-u*(t - s + c)) factors into a function of t times
+// a function of s, so a sum over sources s < t can be carried along by a recurrence in t, giving
+// matrix-vector products with a triangular Omori matrix in time proportional to the number
+// of rows times the number of terms, rather than the square of the number of rows.
+//
+// After construction, the object is not modified and can be shared between threads.
+
+public class OEOmoriExpSum {
+
+	//----- Parameters -----
+
+	// Omori exponent parameter.
+
+	private double p;
+
+	// Omori offset parameter.
+
+	private double c;
+
+	// Minimum argument for which the approximation is valid, in days.
+
+	private double x_min;
+
+	// Maximum argument for which the approximation is valid, in days.
+
+	private double x_max;
+
+	// Requested relative tolerance.
+
+	private double tol;
+
+
+	//----- Approximation -----
+
+	// Number of terms.
+
+	private int term_count;
+
+	// Decay rates u[k], in increasing order, in units of 1/days.
+
+	private double[] a_rate;
+
+	// Weights w[k].
+
+	private double[] a_weight;
+
+	// Step size used for the trapezoidal rule.
+
+	private double step;
+
+	// Maximum relative error, as measured on a fine grid over [x_min, x_max].
+
+	private double max_rel_error;
+
+
+
+
+	//----- Access -----
+
+	public final double get_p () {
+		return p;
+	}
+
+	public final double get_c () {
+		return c;
+	}
+
+	public final double get_x_min () {
+		return x_min;
+	}
+
+	public final double get_x_max () {
+		return x_max;
+	}
+
+	public final double get_tol () {
+		return tol;
+	}
+
+	public final int get_term_count () {
+		return term_count;
+	}
+
+	public final double get_rate (int k) {
+		return a_rate[k];
+	}
+
+	public final double get_weight (int k) {
+		return a_weight[k];
+	}
+
+	public final double get_max_rel_error () {
+		return max_rel_error;
+	}
+
+
+
+
+	// Maximum number of times to refine the step size, if the measured error exceeds the tolerance.
+
+	private static final int MAX_REFINE = 6;
+
+	// Number of sample points per trapezoidal step, when measuring the error.
+	// (The trapezoidal error is periodic in log(x) with period equal to the step.)
+
+	private static final int ERR_SAMPLES_PER_STEP = 8;
+
+	// Smallest permitted tolerance.
+
+	private static final double MIN_TOL = 1.0e-14;
+
+
+
+
+	// Construct the approximation.
+	// Parameters:
+	//  p = Omori exponent parameter, must be > 0.
+	//  c = Omori offset parameter, must be > 0.
+	//  x_min = Minimum argument, must be > 0;  typically equal to c.
+	//  x_max = Maximum argument;  typically the time span of the history plus c.
+	//  tol = Relative tolerance, must be > 0.
+
+	public OEOmoriExpSum (double p, double c, double x_min, double x_max, double tol) {
+		if (!( p > 0.0 && c > 0.0 && x_min > 0.0 && tol > 0.0 )) {
+			throw new IllegalArgumentException ("OEOmoriExpSum: Invalid parameters: p = " + p + ", c = " + c + ", x_min = " + x_min + ", tol = " + tol);
+		}
+
+		this.p = p;
+		this.c = c;
+		this.x_min = x_min;
+		this.x_max = Math.max (x_max, x_min * Math.E);
+		this.tol = Math.max (tol, MIN_TOL);
+
+		// Initial step size and truncation tolerance
+
+		double trap_tol = this.tol / 4.0;
+		double h = (Math.PI * Math.PI) / Math.log (1.0 / this.tol);
+
+		// Build, and refine until the measured error is within tolerance
+
+		for (int refine = 0; ; ++refine) {
+			build (h, trap_tol);
+			if (max_rel_error <= this.tol || refine >= MAX_REFINE) {
+				break;
+			}
+			h = h * 0.8;
+			trap_tol = trap_tol * 0.25;
+		}
+	}
+
+
+
+
+	// Build the approximation with the given step size and truncation tolerance.
+
+	private void build (double h, double trap_tol) {
+
+		// Left truncation, where exp(-x*u) ~ 1 for all x <= x_max:
+		// the omitted part is about (x_max*exp(tau_lo))^p / (p*Gamma(p)), relative to Gamma(p).
+
+		final double tau_lo = (Math.log (trap_tol * p) / p) - Math.log (x_max);
+
+		// Right truncation, where the incomplete gamma tail beyond v = x_min*exp(tau_hi) is negligible.
+
+		final double log_inv_tol = Math.log (1.0 / trap_tol);
+		final double v_hi = log_inv_tol + (p * Math.log (log_inv_tol + 1.0)) + 2.0;
+		final double tau_hi = Math.log (v_hi / x_min);
+
+		// Nodes and unnormalized weights
+
+		step = h;
+		term_count = ((int)Math.ceil ((tau_hi - tau_lo) / h)) + 1;
+		a_rate = new double[term_count];
+		a_weight = new double[term_count];
+
+		for (int k = 0; k < term_count; ++k) {
+			final double tau = tau_lo + (k * h);
+			a_rate[k] = Math.exp (tau);
+			a_weight[k] = h * Math.exp (p * tau);
+		}
+
+		// Normalize so the approximation is exact at the geometric mean of the range
+
+		final double x_ref = Math.sqrt (x_min * x_max);
+		final double scale = Math.pow (x_ref, -p) / eval (x_ref);
+		for (int k = 0; k < term_count; ++k) {
+			a_weight[k] *= scale;
+		}
+
+		// Measure the error
+
+		max_rel_error = calc_max_rel_error (ERR_SAMPLES_PER_STEP);
+		return;
+	}
+
+
+
+
+	// Evaluate the approximation at the given argument.
+
+	public final double eval (double x) {
+		double sum = 0.0;
+		for (int k = 0; k < term_count; ++k) {
+			sum += (a_weight[k] * Math.exp (-a_rate[k] * x));
+		}
+		return sum;
+	}
+
+
+
+
+	// Calculate the maximum relative error on a logarithmic grid over [x_min, x_max].
+	// Parameters:
+	//  samples_per_step = Number of samples per trapezoidal step in log(x).
+
+	public final double calc_max_rel_error (int samples_per_step) {
+		final double log_lo = Math.log (x_min);
+		final double log_hi = Math.log (x_max);
+		final int n = Math.max (2, (int)Math.ceil ((log_hi - log_lo) * samples_per_step / step) + 1);
+		double result = 0.0;
+		for (int i = 0; i < n; ++i) {
+			final double log_x = log_lo + ((log_hi - log_lo) * i) / (n - 1);
+			final double x = Math.exp (log_x);
+			final double exact = Math.exp (-p * log_x);
+			result = Math.max (result, Math.abs (eval(x) - exact) / exact);
+		}
+		return result;
+	}
+
+
+
+
+	// Return the number of bytes needed to store an array with one element per term for each of n items.
+
+	public final long array_bytes (long n) {
+		return n * ((long)term_count) * 8L;
+	}
+
+
+
+
+	// Display our contents.
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+
+		result.append ("OEOmoriExpSum:" + "\n");
+		result.append ("p = " + p + "\n");
+		result.append ("c = " + c + "\n");
+		result.append ("x_min = " + x_min + "\n");
+		result.append ("x_max = " + x_max + "\n");
+		result.append ("tol = " + tol + "\n");
+		result.append ("term_count = " + term_count + "\n");
+		result.append ("step = " + step + "\n");
+		result.append ("max_rel_error = " + max_rel_error + "\n");
+
+		return result.toString();
+	}
+
+
+
+
+	//----- Testing -----
+
+
+
+
+	public static void main(String[] args) {
+		try {
+		TestArgs testargs = new TestArgs (args, "OEOmoriExpSum");
+
+
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  p  c  x_max  tol
+		// Construct the approximation with x_min = c, display it, and display the
+		// relative error at a selection of points.
+
+		if (testargs.is_test ("test1")) {
+
+			// Read arguments
+
+			System.out.println ("Constructing sum-of-exponentials approximation to Omori kernel");
+			double p = testargs.get_double ("p");
+			double c = testargs.get_double ("c");
+			double x_max = testargs.get_double ("x_max");
+			double tol = testargs.get_double ("tol");
+			testargs.end_test();
+
+			// Construct and display
+
+			OEOmoriExpSum expsum = new OEOmoriExpSum (p, c, c, x_max, tol);
+
+			System.out.println ();
+			System.out.println (expsum.toString());
+
+			// Error at selected points
+
+			System.out.println ();
+			System.out.println ("Relative error:");
+			for (double x = c; x <= expsum.get_x_max() * 1.000001; x *= 3.0) {
+				double exact = Math.pow (x, -p);
+				double approx = expsum.eval (x);
+				System.out.println (String.format ("x = %.6e, exact = %.10e, approx = %.10e, rel_err = %.3e",
+					x, exact, approx, Math.abs (approx - exact) / exact));
+			}
+
+			// Error on a very fine grid
+
+			System.out.println ();
+			System.out.println ("Max relative error on fine grid = " + expsum.calc_max_rel_error (64));
+
+			// Done
+
+			System.out.println ();
+			System.out.println ("Done");
+
+			return;
+		}
+
+
+
+
+		// Unrecognized subcommand, or exception
+
+		testargs.unrecognized_test();
+		} catch (Exception e) {
+		e.printStackTrace();
+		}
+		return;
+	}
+
+}
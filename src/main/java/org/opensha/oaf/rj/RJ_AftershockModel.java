@@ -2,11 +2,15 @@ package org.opensha.oaf.rj;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.LinkedHashMap;
 import java.util.Locale;
 
-import org.apache.commons.math3.distribution.PoissonDistribution;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.opensha.commons.data.function.ArbDiscrEmpiricalDistFunc;
 import org.opensha.commons.data.function.EvenlyDiscretizedFunc;
 import org.opensha.commons.data.function.HistogramFunction;
@@ -19,6 +23,7 @@ import org.opensha.sha.magdist.GutenbergRichterMagFreqDist;
 import org.opensha.sha.magdist.IncrementalMagFreqDist;
 
 import org.opensha.oaf.util.SimpleUtils;
+import org.opensha.oaf.util.AutoExecutorService;
 
 import org.opensha.oaf.aafs.ActionConfig;
 
@@ -229,6 +234,24 @@ public abstract class RJ_AftershockModel implements USGS_ForecastModel {
 	protected double tMinDaysCurrent = -1.0;
 	protected double tMaxDaysCurrent = -1.0;
 
+	// Primitive-array form of the M5 distribution for one time interval.
+	// expnum contains the distinct expected numbers of M5 aftershocks, sorted in increasing order,
+	// and prob contains the corresponding probabilities.  The number of points is size.
+	// This has the same contents as numMag5_DistributionFunc, and is used for the aleatory
+	// calculations, which only need to iterate over the points.
+
+	protected static final class M5Arrays {
+		public double[] expnum;
+		public double[] prob;
+		public int size;
+	}
+
+	// The M5 arrays for the time interval m5_tMinDays to m5_tMaxDays, or null if none.
+
+	protected M5Arrays m5_arrays = null;
+	protected double m5_tMinDays = -1.0;
+	protected double m5_tMaxDays = -1.0;
+
 	// The cumulative probability distribution of (a,p,c) values.
 	// The length of this array is apc_total_size.
 	// Indexes into this array are single indexes, as defined by get_single_index();
@@ -525,6 +548,10 @@ public abstract class RJ_AftershockModel implements USGS_ForecastModel {
 		tMinDaysCurrent = -1.0;
 		tMaxDaysCurrent = -1.0;
 
+		m5_arrays = null;
+		m5_tMinDays = -1.0;
+		m5_tMaxDays = -1.0;
+
 		cum_apc_probability = null;
 
 		// Find the biggest element in the matrix
@@ -717,6 +744,152 @@ public abstract class RJ_AftershockModel implements USGS_ForecastModel {
 	
 
 	
+	/**
+	 * This computes the primitive-array form of the distribution of the number of M >= 5.0 events.
+	 * @param tMinDays = Beginning of the time interval, in days since the mainshock.
+	 * @param tMaxDays = End of the time interval, in days since the mainshock.
+	 * @return
+	 * Returns the M5 arrays for the time interval, which are cached in m5_arrays.
+	 */
+	protected final M5Arrays compute_m5_arrays(double tMinDays, double tMaxDays) {
+
+		// If we already have arrays computed for this time interval, then just return them
+
+		if (m5_tMinDays == tMinDays && m5_tMaxDays == tMaxDays && m5_arrays != null) {
+			return m5_arrays;
+		}
+
+		// Compute and save the result
+
+		m5_arrays = make_m5_arrays(tMinDays, tMaxDays);
+		m5_tMinDays = tMinDays;
+		m5_tMaxDays = tMaxDays;
+		return m5_arrays;
+	}
+
+
+
+
+	/**
+	 * This makes the primitive-array form of the distribution of the number of M >= 5.0 events.
+	 * @param tMinDays = Beginning of the time interval, in days since the mainshock.
+	 * @param tMaxDays = End of the time interval, in days since the mainshock.
+	 * @return
+	 * Returns newly-allocated M5 arrays for the time interval.
+	 * The expected number is 10^a times a quantity that depends only on (p,c), so the R&J
+	 * integral is evaluated once for each (p,c) in the support, rather than once per (a,p,c).
+	 * Points with exactly the same expected number are combined by adding their probabilities.
+	 * This does not modify the model, so it can be called from several threads at once.
+	 */
+	private M5Arrays make_m5_arrays(double tMinDays, double tMaxDays) {
+
+		// Allocate arrays large enough for the entire support
+
+		int capacity = Math.max (1, (a_support_hi - a_support_lo) * (p_support_hi - p_support_lo) * (c_support_hi - c_support_lo));
+		double[] expnum = new double[capacity];
+		double[] prob = new double[capacity];
+		int n = 0;
+
+		// Powers of 10 for each a in the support
+
+		double[] a_scale = new double[a_support_hi - a_support_lo];
+		for (int aIndex = a_support_lo; aIndex < a_support_hi; aIndex++) {
+			a_scale[aIndex - a_support_lo] = Math.pow(10.0, get_a(aIndex));
+		}
+
+		// Loop over (p,c), computing the expected number for a == 0, then scale for each a
+
+		for (int pIndex = p_support_lo; pIndex < p_support_hi; pIndex++) {
+			for (int cIndex = c_support_lo; cIndex < c_support_hi; cIndex++) {
+				double unitM5 = AftershockStatsCalc.getExpectedNumEvents(0.0, b, magMain, 5.0, get_p(pIndex), get_c(cIndex), tMinDays, tMaxDays);
+				for (int aIndex = a_support_lo; aIndex < a_support_hi; aIndex++) {
+					if (apc_likelihood[aIndex][pIndex][cIndex] > apc_max_tail_element) {
+						expnum[n] = unitM5 * a_scale[aIndex - a_support_lo];
+						prob[n] = apc_likelihood[aIndex][pIndex][cIndex] / apc_support_total;
+						++n;
+					}
+				}
+			}
+		}
+
+		// Sort by expected number, and combine equal expected numbers
+
+		sort_parallel (expnum, prob, n);
+
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			if (m > 0 && expnum[i] == expnum[m - 1]) {
+				prob[m - 1] += prob[i];
+			} else {
+				expnum[m] = expnum[i];
+				prob[m] = prob[i];
+				++m;
+			}
+		}
+
+		// Return the result
+
+		M5Arrays result = new M5Arrays();
+		result.expnum = expnum;
+		result.prob = prob;
+		result.size = m;
+		return result;
+	}
+
+
+
+
+	// Sort two parallel arrays into increasing order of the first array, using heapsort.
+	// Parameters:
+	//  key = Array of keys.
+	//  val = Array of values, which is permuted along with the keys.
+	//  n = Number of elements to sort.
+
+	private static void sort_parallel (double[] key, double[] val, int n) {
+
+		// Build the heap
+
+		for (int i = n / 2 - 1; i >= 0; i--) {
+			sift_down (key, val, i, n);
+		}
+
+		// Repeatedly move the largest element to the end
+
+		for (int end = n - 1; end > 0; end--) {
+			double tk = key[0]; key[0] = key[end]; key[end] = tk;
+			double tv = val[0]; val[0] = val[end]; val[end] = tv;
+			sift_down (key, val, 0, end);
+		}
+
+		return;
+	}
+
+	private static void sift_down (double[] key, double[] val, int i, int n) {
+		double k = key[i];
+		double v = val[i];
+		for (;;) {
+			int child = 2 * i + 1;
+			if (child >= n) {
+				break;
+			}
+			if (child + 1 < n && key[child + 1] > key[child]) {
+				++child;
+			}
+			if (key[child] <= k) {
+				break;
+			}
+			key[i] = key[child];
+			val[i] = val[child];
+			i = child;
+		}
+		key[i] = k;
+		val[i] = v;
+		return;
+	}
+
+
+
+	
 	/**
 	 * This computes the distribution of the number of M >= 5.0 events given all a, p, and c values, as well as the associated
 	 * weight for each set of values.  This is used as a reference function that can be scaled to other magnitudes for greater
@@ -742,16 +915,12 @@ public abstract class RJ_AftershockModel implements USGS_ForecastModel {
 		numMag5_DistributionFunc = new ArbDiscrEmpiricalDistFunc();
 
 		// Add points to the function, x = expected number of M5 aftershocks, y = probability of (a,p,c)
+		// (The points come from the primitive-array form, in increasing order of x)
 
-		for (int aIndex = a_support_lo; aIndex < a_support_hi; aIndex++) {
-			for (int pIndex = p_support_lo; pIndex < p_support_hi; pIndex++) {
-				for (int cIndex = c_support_lo; cIndex < c_support_hi; cIndex++) {
-					if (apc_likelihood[aIndex][pIndex][cIndex] > apc_max_tail_element) {
-						double numM5 = AftershockStatsCalc.getExpectedNumEvents(get_a(aIndex), b, magMain, 5.0, get_p(pIndex), get_c(cIndex), tMinDays, tMaxDays);
-						numMag5_DistributionFunc.set(numM5, apc_likelihood[aIndex][pIndex][cIndex] / apc_support_total);
-					}
-				}
-			}
+		M5Arrays m5 = compute_m5_arrays(tMinDays, tMaxDays);
+
+		for (int i = 0; i < m5.size; i++) {
+			numMag5_DistributionFunc.set(m5.expnum[i], m5.prob[i]);
 		}
 
 		// Debug or verbose output
@@ -826,18 +995,25 @@ public abstract class RJ_AftershockModel implements USGS_ForecastModel {
 
 	@Override
 	public double getProbOneOrMoreEvents(double magMin, double tMinDays, double tMaxDays) {
+
+		// Use the M5 distribution, scaled to the requested magnitude
+
+		return calcProbOneOrMoreEvents(compute_m5_arrays(tMinDays, tMaxDays), magMin);
+	}
+
+
+
+
+	// Calculate the probability of one or more aftershocks, from the M5 distribution.
+
+	private double calcProbOneOrMoreEvents(M5Arrays m5, double magMin) {
 		double result = 0.0;
+		double mag_scale = Math.pow(10d, b*(5.0 - magMin));
 
-		for (int aIndex = a_support_lo; aIndex < a_support_hi; aIndex++) {
-			for (int pIndex = p_support_lo; pIndex < p_support_hi; pIndex++) {
-				for (int cIndex = c_support_lo; cIndex < c_support_hi; cIndex++) {
-					if (apc_likelihood[aIndex][pIndex][cIndex] > apc_max_tail_element) {
-						double expectedVal = AftershockStatsCalc.getExpectedNumEvents(get_a(aIndex), b, magMain, magMin, get_p(pIndex), get_c(cIndex), tMinDays, tMaxDays);
-						double poissonProb = 1.0 - Math.exp(-expectedVal);
-						result += (poissonProb * apc_likelihood[aIndex][pIndex][cIndex] / apc_support_total);
-					}
-				}
-			}
+		for (int i = 0; i < m5.size; i++) {
+			double expectedVal = m5.expnum[i] * mag_scale;
+			double poissonProb = 1.0 - Math.exp(-expectedVal);
+			result += (poissonProb * m5.prob[i]);
 		}
 
 		if (result > 1.0) {
@@ -1124,87 +1300,161 @@ public abstract class RJ_AftershockModel implements USGS_ForecastModel {
 	 * Note that, although the return type is double[], the return values are integers.
 	 *
 	 * Implementation notes:
-	 * Documentation for PoissonDistribution is here:
-	 * http://commons.apache.org/proper/commons-math/javadocs/api-3.6/org/apache/commons/math3/distribution/PoissonDistribution.html
-	 * Since we do not generate samples from PoissonDistribution, it is better to use the constructor:
-	 * PoissonDistribution(RandomGenerator rng, double p, double epsilon, int maxIterations)
-	 * Set rng = null so that it does not create a random number generator.
-	 * Set epsilon and maxIterations to their default values.
-	 * However, this constructor is apparently planned for removal from Apache Math 4.0,
-	 * so leave the original constructor commented-out in case it needs to be restored.
+	 * The Poisson distributions are computed by RJ_PoissonStacker, which evaluates each
+	 * distribution over a window by recurrence, rather than by PoissonDistribution.
+	 * Each distribution is truncated to its 0.0001 to 0.9999 fractiles, and the length of the
+	 * result is set by the 0.999 fractile of the largest expected number, as before.
 	 */
 
 	@Override
 	public double[] getCumNumFractileWithAleatory(double[] fractileArray, double mag, double tMinDays, double tMaxDays) {
 		// compute the distribution for the expected num aftershocks with M >= 5 (which we will scale to other magnitudes)
-		computeNumMag5_DistributionFunc(tMinDays, tMaxDays);
+		M5Arrays m5 = compute_m5_arrays(tMinDays, tMaxDays);
 
-		// get the maximum expected num, which we will use to set the maximum num in the distribution function
-//System.out.print("\tworking on M "+mag+"\nunm="+numMag5_DistributionFunc.size()+"\n");
-		double maxExpNum = numMag5_DistributionFunc.getMaxX()*Math.pow(10d, b*(5.0 - mag));
+		return calcCumNumFractileWithAleatory(m5, new RJ_PoissonStacker(), fractileArray, mag);
+	}
 
-		if (maxExpNum > 10000000.0) {	// should never matter for sensible data
-			maxExpNum = 10000000.0;
-		}
 
-//		PoissonDistribution poissDist = new PoissonDistribution(maxExpNum);
-		PoissonDistribution poissDist = new PoissonDistribution(null, maxExpNum, PoissonDistribution.DEFAULT_EPSILON, PoissonDistribution.DEFAULT_MAX_ITERATIONS);
-		int maxAleatoryNum = poissDist.inverseCumulativeProbability(0.999);
-		
-		double[] distFunc = new double[maxAleatoryNum + 1];
-		double totWt = 0.0;
-		for(int j = 0; j < distFunc.length; j++) {
-			distFunc[j] = 0.0;
+
+
+	/**
+	 * This provides the cumulative number for the given fractiles, for several magnitudes.
+	 * @param fractileArray = Desired fractiles (percentile/100) of the probability distribution.
+	 * @param magArray = Minimum magnitudes of aftershocks considered.
+	 * @param tMinDays = Start of time range, in days after the mainshock.
+	 * @param tMaxDays = End of time range, in days after the mainshock.
+	 * @return
+	 * The return value is an array whose length equals magArray.length.  The m-th element
+	 * is the same as the return value of getCumNumFractileWithAleatory for magArray[m].
+	 * The M5 distribution and the Poisson workspace are shared by all the magnitudes.
+	 */
+
+	@Override
+	public double[][] getCumNumFractileWithAleatory(double[] fractileArray, double[] magArray, double tMinDays, double tMaxDays) {
+		M5Arrays m5 = compute_m5_arrays(tMinDays, tMaxDays);
+
+		RJ_PoissonStacker stacker = new RJ_PoissonStacker();
+		double[][] result = new double[magArray.length][];
+		for (int m = 0; m < magArray.length; m++) {
+			result[m] = calcCumNumFractileWithAleatory(m5, stacker, fractileArray, magArray[m]);
 		}
+		return result;
+	}
 
-		// Stack the Poisson probability distributions, weighted by likelihoods
-		
-		for(int i = 0; i < numMag5_DistributionFunc.size(); i++) {
-			double expNum = numMag5_DistributionFunc.getX(i)*Math.pow(10d, b*(5.0 - mag));
-			double wt = numMag5_DistributionFunc.getY(i);
-//			poissDist = new PoissonDistribution(expNum);
-			poissDist = new PoissonDistribution(null, expNum, PoissonDistribution.DEFAULT_EPSILON, PoissonDistribution.DEFAULT_MAX_ITERATIONS);
-			totWt += wt;
-			
-			int minLoopVal = poissDist.inverseCumulativeProbability(0.0001);
-			int maxLoopVal = poissDist.inverseCumulativeProbability(0.9999);
-			if(maxLoopVal > distFunc.length - 1) {
-				maxLoopVal = distFunc.length - 1;
+
+
+
+	/**
+	 * This provides the cumulative number for the given fractiles, and the probability of one
+	 * or more aftershocks, for a table of time ranges and magnitudes.
+	 * @param fractileArray = Desired fractiles (percentile/100) of the probability distribution.
+	 * @param magArray = Minimum magnitudes of aftershocks considered.
+	 * @param tMinDaysArray = Start of each time range, in days after the mainshock.
+	 * @param tMaxDaysArray = End of each time range, in days after the mainshock.
+	 * @param fractileResult = Array to receive the fractiles, dimension [tMinDaysArray.length][magArray.length].
+	 * @param probResult = Array to receive the probabilities, dimension [tMinDaysArray.length][magArray.length].
+	 * See USGS_ForecastModel for the contents of the results.
+	 *
+	 * Implementation notes:
+	 * For each time range, the M5 distribution is computed once and shared by all the magnitudes
+	 * and fractiles.  The time ranges are independent, so they are computed in parallel, using
+	 * up to RJ_SeqSpecLikelihoodGrid.default_num_threads threads (system property "oafrjthreads").
+	 * The M5 distributions are computed without using the cache, so the threads do not modify the model.
+	 */
+
+	@Override
+	public void getForecastTable(final double[] fractileArray, final double[] magArray, final double[] tMinDaysArray, final double[] tMaxDaysArray,
+			final double[][][] fractileResult, final double[][] probResult) {
+
+		final int num_windows = tMinDaysArray.length;
+
+		// The number of threads to use, at least one
+
+		final int threads = Math.max (1, Math.min (RJ_SeqSpecLikelihoodGrid.default_num_threads, num_windows));
+
+		// Counter used by threads to claim time ranges
+
+		final AtomicInteger next_window = new AtomicInteger (0);
+
+		// The task, which computes time ranges until all are claimed
+
+		Runnable task = new Runnable() {
+			@Override
+			public void run () {
+				RJ_PoissonStacker stacker = new RJ_PoissonStacker();
+				for (int w = next_window.getAndIncrement(); w < num_windows; w = next_window.getAndIncrement()) {
+					M5Arrays m5 = make_m5_arrays(tMinDaysArray[w], tMaxDaysArray[w]);
+					for (int m = 0; m < magArray.length; m++) {
+						fractileResult[w][m] = calcCumNumFractileWithAleatory(m5, stacker, fractileArray, magArray[m]);
+						probResult[w][m] = calcProbOneOrMoreEvents(m5, magArray[m]);
+					}
+				}
 			}
-			if(minLoopVal < 0) {
-				minLoopVal = 0;
+		};
+
+		// If single-threaded, just run it
+
+		if (threads <= 1) {
+			task.run();
+			return;
+		}
+
+		// Run the task in the executor threads and in this thread
+
+		try (
+			AutoExecutorService auto_executor = new AutoExecutorService (threads - 1);
+		) {
+			ExecutorService executor = auto_executor.get_executor();
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int n = 1; n < threads; ++n) {
+				futures.add (executor.submit (task));
 			}
-			for(int j = minLoopVal; j <= maxLoopVal; j++) {
-				distFunc[j] += poissDist.probability(j)*wt;
+
+			task.run();
+
+			for (Future<?> future : futures) {
+				future.get();
 			}
 		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException ("RJ_AftershockModel.getForecastTable: Interrupted while computing forecast", e);
+		}
+		catch (Exception e) {
+			throw new RuntimeException ("RJ_AftershockModel.getForecastTable: Exception while computing forecast", e);
+		}
+
+		return;
+	}
+
+
 
-		// Convert to a cumulative distribution
 
-		double sum = 0.0;
-		for(int j = 0; j < distFunc.length; j++) {
-			sum += distFunc[j];
-			distFunc[j] = sum;
+	// Calculate the cumulative number for the given fractiles, for one magnitude.
+	// The M5 distribution must be computed for the desired time range.
+
+	private double[] calcCumNumFractileWithAleatory(M5Arrays m5, RJ_PoissonStacker stacker, double[] fractileArray, double mag) {
+
+		// get the maximum expected num, which we will use to set the maximum num in the distribution function
+
+		double mag_scale = Math.pow(10d, b*(5.0 - mag));
+		double maxExpNum = ((m5.size > 0) ? m5.expnum[m5.size - 1] : 0.0) * mag_scale;
+
+		if (maxExpNum > 10000000.0) {	// should never matter for sensible data
+			maxExpNum = 10000000.0;
 		}
 
-		// Get the fractiles, using binary search
-
-		double[] fractValArray = new double[fractileArray.length];
-		for(int i = 0; i < fractileArray.length; i++) {
-			int lo = -1;
-			int hi = distFunc.length;
-			while (hi - lo > 1) {
-				int mid = (lo + hi) / 2;
-				if (distFunc[mid] >= fractileArray[i]) {
-					hi = mid;		// preserve the condition distFunc[hi] >= fractile
-				} else {
-					lo = mid;
-				}
-			}
-			fractValArray[i] = (double)hi;
+		double[] distFunc = new double[stacker.get_stack_size(maxExpNum)];
+
+		// Stack the Poisson probability distributions, weighted by likelihoods
+
+		for (int i = 0; i < m5.size; i++) {
+			stacker.stack(distFunc, m5.expnum[i] * mag_scale, m5.prob[i]);
 		}
 
-		return fractValArray;
+		// Get the fractiles from the cumulative distribution
+
+		return RJ_PoissonStacker.get_fractiles(distFunc, fractileArray);
 	}
 
 
@@ -1259,48 +1509,27 @@ public abstract class RJ_AftershockModel implements USGS_ForecastModel {
 	 * The i-th element of the return value is the probability of i aftershocks occurring.
 	 *
 	 * Implementation notes:
-	 * Documentation for PoissonDistribution is here:
-	 * http://commons.apache.org/proper/commons-math/javadocs/api-3.6/org/apache/commons/math3/distribution/PoissonDistribution.html
-	 * Since we do not generate samples from PoissonDistribution, it is better to use the constructor:
-	 * PoissonDistribution(RandomGenerator rng, double p, double epsilon, int maxIterations)
-	 * Set rng = null so that it does not create a random number generator.
-	 * Set epsilon and maxIterations to their default values.
-	 * However, this constructor is apparently planned for removal from Apache Math 4.0,
-	 * so leave the original constructor commented-out in case it needs to be restored.
+	 * The Poisson distributions are computed by RJ_PoissonStacker, which evaluates each
+	 * distribution over a window by recurrence, rather than by PoissonDistribution.
+	 * Each distribution is truncated to its 0.0001 to 0.9999 fractiles, and the length of the
+	 * result is set by the 0.999 fractile of the largest expected number, as before.
 	 */
 	public double[] getDistFuncWithAleatory(double mag, double tMinDays, double tMaxDays) {
 		// compute the distribution for the expected num aftershocks with M >= 5 (which we will scale to other magnitudes)
-		computeNumMag5_DistributionFunc(tMinDays, tMaxDays);
+		M5Arrays m5 = compute_m5_arrays(tMinDays, tMaxDays);
 
 		// get the maximum expected num, which we will use to set the maximum num in the distribution function
-//System.out.print("\tworking on M "+mag+"\nunm="+numMag5_DistributionFunc.size()+"\n");
-		double maxExpNum = numMag5_DistributionFunc.getMaxX()*Math.pow(10d, b*(5-mag));
 
-//		PoissonDistribution poissDist = new PoissonDistribution(maxExpNum);
-		PoissonDistribution poissDist = new PoissonDistribution(null, maxExpNum, PoissonDistribution.DEFAULT_EPSILON, PoissonDistribution.DEFAULT_MAX_ITERATIONS);
-		int maxAleatoryNum = poissDist.inverseCumulativeProbability(0.999);
-		
-		double[] distFunc = new double[maxAleatoryNum+1];
-		double totWt=0;
-		
-		for(int i=0;i<numMag5_DistributionFunc.size();i++) {
-//System.out.print(", "+i);
-			double expNum = numMag5_DistributionFunc.getX(i)*Math.pow(10d, b*(5-mag));
-			double wt = numMag5_DistributionFunc.getY(i);
-//			poissDist = new PoissonDistribution(expNum);
-			poissDist = new PoissonDistribution(null, expNum, PoissonDistribution.DEFAULT_EPSILON, PoissonDistribution.DEFAULT_MAX_ITERATIONS);
-			totWt+=wt;
-			
-			int minLoopVal = poissDist.inverseCumulativeProbability(0.0001);
-			int maxLoopVal = poissDist.inverseCumulativeProbability(0.9999);
-			if(maxLoopVal>maxAleatoryNum)
-				maxLoopVal=maxAleatoryNum;
-			if(minLoopVal < 0)
-				minLoopVal = 0;
-			for(int j=minLoopVal;j<=maxLoopVal;j++) {
-				distFunc[j] += poissDist.probability(j)*wt;
-			}
-			
+		double mag_scale = Math.pow(10d, b*(5-mag));
+		double maxExpNum = ((m5.size > 0) ? m5.expnum[m5.size - 1] : 0.0) * mag_scale;
+
+		RJ_PoissonStacker stacker = new RJ_PoissonStacker();
+		double[] distFunc = new double[stacker.get_stack_size(maxExpNum)];
+
+		// Stack the Poisson probability distributions, weighted by likelihoods
+
+		for (int i = 0; i < m5.size; i++) {
+			stacker.stack(distFunc, m5.expnum[i] * mag_scale, m5.prob[i]);
 		}
 
 		return distFunc;
@@ -293,80 +293,37 @@ public class RJ_AftershockModel_SequenceSpecific extends RJ_AftershockModel {
 		this.dataStartTimeDays = dataStartTimeDays;
 		this.dataEndTimeDays = dataEndTimeDays;
 
-		this.numAftershocks = 0;
+		// Read the aftershocks into the grid engine
 
-		// Allocate the array
+		RJ_SeqSpecLikelihoodGrid grid = new RJ_SeqSpecLikelihoodGrid (
+			mainShock, aftershockList, magCat, magCompFn, b, dataStartTimeDays, dataEndTimeDays);
 
-		apc_likelihood = new double[num_a][num_p][num_c];
-		double ln10 = Math.log(10);
+		this.numAftershocks = grid.get_num_events();
 
-		// Sum of magMain - magMin(t_i)
+		// Allocate the array
 
-		double sum1 = 0.0;
+		apc_likelihood = new double[num_a][num_p][num_c];
 
-		// Sum of log(t_i + c)
+		// Values of a, p, and c
 
-		double[] sum2 = new double[num_c];
-		for(int cIndex = 0; cIndex < num_c; cIndex++) {
-			sum2[cIndex] = 0.0;
+		double[] a_values = new double[num_a];
+		for(int aIndex = 0; aIndex < num_a; aIndex++) {
+			a_values[aIndex] = get_a(aIndex);
 		}
 
-		// Number of aftershocks
-
-		int numEvents = 0;
-
-		// Scan list of aftershocks
-
-		for(ObsEqkRupture rup:aftershockList) {
-
-			// Get time since the mainshock in days, skip it if it is outside our time interval
-
-			double timeSinceMainDays = (double)(rup.getOriginTime()-mainShock.getOriginTime()) / (double)AftershockStatsCalc.MILLISEC_PER_DAY;
-			if(timeSinceMainDays < 0.0 || timeSinceMainDays < dataStartTimeDays || timeSinceMainDays > dataEndTimeDays) { // not necessary if list already filtered
-				continue;
-			}
-
-			// Get the magnitude of completeness at this time
-
-			double magMin = magCompFn.getMagCompleteness (magMain, magCat, timeSinceMainDays);
-
-			// If the aftershock magnitude is at least the magnitude of completeness, accumulate it
-
-			if(rup.getMag() >= magMin) {
-				numEvents += 1;
-				sum1 += (magMain - magMin);
-				for(int cIndex = 0; cIndex < num_c; cIndex++) {
-					double c = get_c(cIndex);
-					sum2[cIndex] += Math.log(timeSinceMainDays + c);
-				}
-				++numAftershocks;
-			}
+		double[] p_values = new double[num_p];
+		for(int pIndex = 0; pIndex < num_p; pIndex++) {
+			p_values[pIndex] = get_p(pIndex);
 		}
 
-		// Now loop over p and a and c
-
-		for(int pIndex=0;pIndex<num_p;pIndex++) {
-			double p = get_p(pIndex);
-			for(int aIndex=0;aIndex<num_a;aIndex++) {
-				double a = get_a(aIndex);
-				for(int cIndex = 0; cIndex < num_c; cIndex++) {
-					double c = get_c(cIndex);
-
-					// Compute the integral of the aftershock rate over the time interval
-
-					double integral = AftershockStatsCalc.getPageExpectedNumEvents(
-						a, b, magMain, magCat, magCompFn, p, c, Math.max (0.0, dataStartTimeDays), dataEndTimeDays);
-
-					// Form the log likelihood
-
-					double logLike = numEvents*a*ln10 + b*ln10*sum1 - p*sum2[cIndex] - integral;
+		double[] c_values = new double[num_c];
+		for(int cIndex = 0; cIndex < num_c; cIndex++) {
+			c_values[cIndex] = get_c(cIndex);
+		}
 
-					// Save it as the array element
+		// Fill the array with log-likelihood
 
-					apc_likelihood[aIndex][pIndex][cIndex] = logLike;
-				}
-			}
-		}
+		grid.fill_log_likelihood (apc_likelihood, a_values, p_values, c_values, RJ_SeqSpecLikelihoodGrid.default_num_threads);
 
 		// Complete the likelihood setup
 
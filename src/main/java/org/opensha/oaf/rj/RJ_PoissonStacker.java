@@ -0,0 +1,255 @@
+package org.opensha.oaf.rj;
+
+
+/**
+ * Stacker for Poisson distributions, used by the RJ models to combine epistemic and aleatory uncertainty.
+ *
+ * The RJ models form a probability distribution for the number of aftershocks by summing
+ * a Poisson distribution for each (a,p,c) triple, weighted by the probability of the triple.
+ * Each Poisson distribution is truncated to the values between its 0.0001 and 0.9999 fractiles.
+ *
+ * Rather than constructing a distribution object for each mean, and evaluating the probability
+ * one value at a time, this class computes the probabilities for all values in a window around
+ * the mode, using the recurrence P(k+1) = P(k)*mean/(k+1).  The window extends many standard
+ * deviations on each side of the mode, so that the probability outside the window is negligible,
+ * and the probabilities are normalized to sum to 1 over the window.  Normalizing avoids the need
+ * to evaluate the log-gamma function, and makes the result accurate for very large means.
+ * The fractiles are then found by a cumulative sum over the window.
+ *
+ * The object holds workspace, which is re-used for each distribution.  It is not thread-safe.
+ */
+public class RJ_PoissonStacker {
+
+	//----- Parameters -----
+
+	// Lower and upper cumulative distribution limits for each stacked Poisson distribution.
+
+	public static final double LOWER_CDF = 0.0001;
+	public static final double UPPER_CDF = 0.9999;
+
+	// Upper cumulative distribution limit for the maximum mean, used to size the result.
+
+	public static final double MAX_UPPER_CDF = 0.999;
+
+	// Number of standard deviations, and additional number of values, on each side of the mode.
+
+	private static final double WINDOW_SDEV = 9.0;
+	private static final int WINDOW_EXTRA = 12;
+
+
+
+
+	//----- Workspace -----
+
+	// The probabilities in the current window, win_prob[k - win_lo] is the probability of k.
+
+	private double[] win_prob;
+
+	// The lowest value, and the number of values, in the current window.
+
+	private int win_lo;
+	private int win_size;
+
+	// The mean for the current window, or -1.0 if none.
+
+	private double win_mean;
+
+
+
+
+	//----- Construction -----
+
+	public RJ_PoissonStacker () {
+		win_prob = new double[256];
+		win_lo = 0;
+		win_size = 0;
+		win_mean = -1.0;
+	}
+
+
+
+
+	//----- Calculation -----
+
+
+
+
+	// Compute the probabilities for a window around the mode of the Poisson distribution.
+	// A mean <= 0 is treated as a distribution concentrated at zero.
+
+	private void calc_window (double mean) {
+
+		// If we already have this mean, nothing to do
+
+		if (mean == win_mean) {
+			return;
+		}
+		win_mean = mean;
+
+		// Degenerate distribution
+
+		if (!( mean > 0.0 )) {
+			win_lo = 0;
+			win_size = 1;
+			win_prob[0] = 1.0;
+			return;
+		}
+
+		// Window limits
+
+		double d_mode = Math.floor (mean);
+		double d_half = Math.ceil (WINDOW_SDEV * Math.sqrt (mean)) + (double)WINDOW_EXTRA;
+		int mode = (int)d_mode;
+		int lo = (int)(Math.max (0.0, d_mode - d_half));
+		int hi = (int)(d_mode + d_half);
+
+		win_lo = lo;
+		win_size = hi - lo + 1;
+		if (win_prob.length < win_size) {
+			win_prob = new double[Math.max (win_size, 2 * win_prob.length)];
+		}
+
+		// Unnormalized probabilities, relative to the mode, by recurrence in each direction
+
+		int m = mode - lo;
+		win_prob[m] = 1.0;
+		double total = 1.0;
+
+		double p = 1.0;
+		for (int j = m + 1; j < win_size; ++j) {
+			p = p * mean / ((double)(j + lo));
+			win_prob[j] = p;
+			total += p;
+		}
+
+		p = 1.0;
+		for (int j = m - 1; j >= 0; --j) {
+			p = p * ((double)(j + lo + 1)) / mean;
+			win_prob[j] = p;
+			total += p;
+		}
+
+		// Normalize
+
+		double scale = 1.0 / total;
+		for (int j = 0; j < win_size; ++j) {
+			win_prob[j] *= scale;
+		}
+
+		return;
+	}
+
+
+
+
+	// Return the smallest value k such that the probability of k or fewer is >= q.
+	// Parameters:
+	//  mean = Mean of the Poisson distribution.
+	//  q = Cumulative probability, 0 < q < 1.
+
+	public int inverse_cdf (double mean, double q) {
+		calc_window (mean);
+		double cum = 0.0;
+		for (int j = 0; j < win_size; ++j) {
+			cum += win_prob[j];
+			if (cum >= q) {
+				return j + win_lo;
+			}
+		}
+		return win_lo + win_size - 1;
+	}
+
+
+
+
+	// Get the size of the stacked distribution, for a given maximum mean.
+	// The size is one more than the MAX_UPPER_CDF fractile of the Poisson distribution with the maximum mean.
+
+	public int get_stack_size (double max_mean) {
+		return inverse_cdf (max_mean, MAX_UPPER_CDF) + 1;
+	}
+
+
+
+
+	// Add a weighted Poisson distribution to a stacked distribution.
+	// Parameters:
+	//  dist = Stacked distribution, dist[k] is the probability of k.
+	//  mean = Mean of the Poisson distribution.
+	//  wt = Weight.
+	// The Poisson distribution is truncated to values between its LOWER_CDF and UPPER_CDF
+	// fractiles, and to the length of dist.
+
+	public void stack (double[] dist, double mean, double wt) {
+		calc_window (mean);
+
+		// Find the range of values to add, as cumulative sums over the window
+
+		double cum = 0.0;
+		int j = 0;
+		for ( ; j < win_size; ++j) {
+			cum += win_prob[j];
+			if (cum >= LOWER_CDF) {
+				break;
+			}
+		}
+		int j_lo = Math.min (j, win_size - 1);
+
+		for ( ; j < win_size - 1; ++j) {
+			if (cum >= UPPER_CDF) {
+				break;
+			}
+			cum += win_prob[j + 1];
+		}
+		int j_hi = Math.min (Math.min (j, win_size - 1), dist.length - 1 - win_lo);
+
+		// Add the weighted probabilities
+
+		for (j = j_lo; j <= j_hi; ++j) {
+			dist[j + win_lo] += win_prob[j] * wt;
+		}
+
+		return;
+	}
+
+
+
+
+	// Get fractiles of a stacked distribution.
+	// Parameters:
+	//  dist = Stacked distribution, dist[k] is the probability of k.  It is converted in-place to a cumulative distribution.
+	//  fractileArray = Desired fractiles.
+	// Returns an array whose i-th element is the minimum number n such that the cumulative
+	// probability of n is >= fractileArray[i], or dist.length if there is no such n.
+
+	public static double[] get_fractiles (double[] dist, double[] fractileArray) {
+
+		// Convert to a cumulative distribution
+
+		double sum = 0.0;
+		for (int j = 0; j < dist.length; j++) {
+			sum += dist[j];
+			dist[j] = sum;
+		}
+
+		// Get the fractiles, using binary search
+
+		double[] fractValArray = new double[fractileArray.length];
+		for (int i = 0; i < fractileArray.length; i++) {
+			int lo = -1;
+			int hi = dist.length;
+			while (hi - lo > 1) {
+				int mid = (lo + hi) / 2;
+				if (dist[mid] >= fractileArray[i]) {
+					hi = mid;		// preserve the condition dist[hi] >= fractile
+				} else {
+					lo = mid;
+				}
+			}
+			fractValArray[i] = (double)hi;
+		}
+
+		return fractValArray;
+	}
+
+}
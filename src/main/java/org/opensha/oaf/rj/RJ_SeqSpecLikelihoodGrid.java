@@ -0,0 +1,424 @@
+package org.opensha.oaf.rj;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupList;
+import org.opensha.sha.earthquake.observedEarthquake.ObsEqkRupture;
+
+import org.opensha.oaf.util.AutoExecutorService;
+import org.opensha.oaf.util.SimpleUtils;
+
+
+/**
+ * Log-likelihood grid engine for the sequence specific Reasenberg-Jones model.
+ *
+ * For a parameter triple (a,p,c), the log-likelihood is (see RJ_AftershockModel_SequenceSpecific):
+ *  log L(a,p,c) = N*a*log(10) + b*log(10)*SUM(magMain - magMin(t_i)) - p*SUM(log(t_i + c)) - INTEGRAL(lambda(t)*dt)
+ * The integral is 10^a times a quantity that depends only on (p,c), call it I(p,c).
+ * I(p,c) requires numerical integration when the magnitude of completeness is time-dependent,
+ * and so it is by far the most expensive part of the calculation.
+ *
+ * This engine computes I(p,c) once for each (p,c), by evaluating the integral with a == 0.
+ * Then the entire a-dimension of the grid is filled using precomputed values of 10^a.
+ * The (p,c) cells are distributed over multiple threads when the grid is large enough.
+ *
+ * The aftershock list is read once, into a primitive array of times, so that the sums
+ * over aftershocks do not need to access the rupture objects.
+ *
+ * Note: Because the adaptive quadrature uses a relative tolerance, evaluating it at
+ * a == 0 and scaling gives the same result as evaluating it at each a, up to rounding.
+ */
+public class RJ_SeqSpecLikelihoodGrid {
+
+	//----- Configuration -----
+
+	// The default number of threads.
+	// It is selected by the system property "oafrjthreads", which can be an integer >= 1,
+	// or "default" to use AutoExecutorService.get_default_num_threads.  The default is 1,
+	// which means the grid is filled in the calling thread.
+
+	public static final int default_num_threads = SimpleUtils.get_property_num_threads ("oafrjthreads", 1);
+
+	// The minimum number of (p,c) cells per thread, for using multiple threads.
+
+	public static final int MIN_CELLS_PER_THREAD = 16;
+
+
+
+
+	//----- Parameters -----
+
+	// Gutenberg-Richter b-value.
+
+	private double b;
+
+	// Mainshock magnitude.
+
+	private double magMain;
+
+	// Magnitude of completeness in normal times.
+
+	private double magCat;
+
+	// Time-dependent magnitude of completeness function.
+
+	private MagCompFn magCompFn;
+
+	// Start and end of the data time interval, in days since the mainshock.
+
+	private double dataStartTimeDays;
+	private double dataEndTimeDays;
+
+
+
+
+	//----- Aftershock data -----
+
+	// Number of aftershocks.
+
+	private int numEvents;
+
+	// Times of the aftershocks, in days since the mainshock.
+	// The length can exceed numEvents.
+
+	private double[] eventTimes;
+
+	// Sum of magMain - magMin(t_i).
+
+	private double sum1;
+
+
+	// Get the number of aftershocks used.
+
+	public final int get_num_events () {
+		return numEvents;
+	}
+
+
+
+
+	//----- Construction -----
+
+
+
+
+	/**
+	 * Create the engine and read the aftershocks.
+	 * @param mainShock - the mainshock
+	 * @param aftershockList - list of aftershocks; events below the magnitude of completeness are not used
+	 * @param magCat - magnitude of completeness in normal times
+	 * @param magCompFn - the magnitude of completeness function
+	 * @param b - assumed b value
+	 * @param dataStartTimeDays - start time for data, in days since the mainshock
+	 * @param dataEndTimeDays - end time for data, in days since the mainshock
+	 */
+	public RJ_SeqSpecLikelihoodGrid (ObsEqkRupture mainShock, List<ObsEqkRupture> aftershockList,
+				double magCat, MagCompFn magCompFn, double b, double dataStartTimeDays, double dataEndTimeDays) {
+
+		this.b = b;
+		this.magMain = mainShock.getMag();
+		this.magCat = magCat;
+		this.magCompFn = magCompFn;
+		this.dataStartTimeDays = dataStartTimeDays;
+		this.dataEndTimeDays = dataEndTimeDays;
+
+		// Scan list of aftershocks
+
+		long mainTime = mainShock.getOriginTime();
+
+		eventTimes = new double[aftershockList.size()];
+		numEvents = 0;
+		sum1 = 0.0;
+
+		for (ObsEqkRupture rup : aftershockList) {
+
+			// Get time since the mainshock in days, skip it if it is outside our time interval
+
+			double timeSinceMainDays = (double)(rup.getOriginTime() - mainTime) / (double)AftershockStatsCalc.MILLISEC_PER_DAY;
+			if (timeSinceMainDays < 0.0 || timeSinceMainDays < dataStartTimeDays || timeSinceMainDays > dataEndTimeDays) {
+				continue;
+			}
+
+			// Get the magnitude of completeness at this time
+
+			double magMin = magCompFn.getMagCompleteness (magMain, magCat, timeSinceMainDays);
+
+			// If the aftershock magnitude is at least the magnitude of completeness, save it
+
+			if (rup.getMag() >= magMin) {
+				eventTimes[numEvents++] = timeSinceMainDays;
+				sum1 += (magMain - magMin);
+			}
+		}
+	}
+
+
+
+
+	//----- Calculation -----
+
+
+
+
+	// Calculate SUM(log(t_i + c)).
+
+	public double calc_sum_log (double c) {
+		double sum = 0.0;
+		for (int i = 0; i < numEvents; ++i) {
+			sum += Math.log (eventTimes[i] + c);
+		}
+		return sum;
+	}
+
+
+
+
+	// Calculate I(p,c), the integral of the aftershock rate over the data interval when a == 0.
+
+	public double calc_unit_integral (double p, double c) {
+		return AftershockStatsCalc.getPageExpectedNumEvents (
+			0.0, b, magMain, magCat, magCompFn, p, c, Math.max (0.0, dataStartTimeDays), dataEndTimeDays);
+	}
+
+
+
+
+	/**
+	 * Fill the log-likelihood grid.
+	 * @param apc_likelihood - array to receive the log-likelihood, dimension [num_a][num_p][num_c]
+	 * @param a_values - values of a, length num_a
+	 * @param p_values - values of p, length num_p
+	 * @param c_values - values of c, length num_c
+	 * @param num_threads - maximum number of threads to use, 1 to use only the calling thread
+	 */
+	public void fill_log_likelihood (final double[][][] apc_likelihood,
+				double[] a_values, final double[] p_values, final double[] c_values, int num_threads) {
+
+		final int num_a = a_values.length;
+		final int num_p = p_values.length;
+		final int num_c = c_values.length;
+		final double ln10 = Math.log(10);
+
+		// Terms that depend only on a: N*a*log(10) + b*log(10)*sum1, and 10^a
+
+		final double[] a_term = new double[num_a];
+		final double[] a_scale = new double[num_a];
+		for (int aIndex = 0; aIndex < num_a; aIndex++) {
+			double a = a_values[aIndex];
+			a_term[aIndex] = numEvents*a*ln10 + b*ln10*sum1;
+			a_scale[aIndex] = Math.pow (10.0, a);
+		}
+
+		// Terms that depend only on c: SUM(log(t_i + c))
+
+		final double[] sum2 = new double[num_c];
+		for (int cIndex = 0; cIndex < num_c; cIndex++) {
+			sum2[cIndex] = calc_sum_log (c_values[cIndex]);
+		}
+
+		// The number of threads to use, at least one
+
+		final int num_cells = num_p * num_c;
+		final int threads = Math.max (1, Math.min (num_threads, num_cells / MIN_CELLS_PER_THREAD));
+
+		// Counter used by threads to claim (p,c) cells
+
+		final AtomicInteger next_cell = new AtomicInteger (0);
+
+		// The task, which fills cells until all are claimed
+
+		Runnable task = new Runnable() {
+			@Override
+			public void run () {
+				for (int cell = next_cell.getAndIncrement(); cell < num_cells; cell = next_cell.getAndIncrement()) {
+					int pIndex = cell / num_c;
+					int cIndex = cell % num_c;
+					double p = p_values[pIndex];
+					double c = c_values[cIndex];
+
+					// Integral with a == 0, and the term that depends on (p,c)
+
+					double integral = calc_unit_integral (p, c);
+					double pc_term = p*sum2[cIndex];
+
+					// Form the log likelihood for each a
+
+					for (int aIndex = 0; aIndex < num_a; aIndex++) {
+						apc_likelihood[aIndex][pIndex][cIndex] = a_term[aIndex] - pc_term - a_scale[aIndex]*integral;
+					}
+				}
+			}
+		};
+
+		// If single-threaded, just run it
+
+		if (threads <= 1) {
+			task.run();
+			return;
+		}
+
+		// Run the task in the executor threads and in this thread
+
+		try (
+			AutoExecutorService auto_executor = new AutoExecutorService (threads - 1);
+		) {
+			ExecutorService executor = auto_executor.get_executor();
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int n = 1; n < threads; ++n) {
+				futures.add (executor.submit (task));
+			}
+
+			task.run();
+
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException ("RJ_SeqSpecLikelihoodGrid.fill_log_likelihood: Interrupted while filling grid", e);
+		}
+		catch (Exception e) {
+			throw new RuntimeException ("RJ_SeqSpecLikelihoodGrid.fill_log_likelihood: Exception while filling grid", e);
+		}
+
+		return;
+	}
+
+
+
+
+	//----- Testing -----
+
+
+
+
+	public static void main(String[] args) {
+
+		// There needs to be at least one argument, which is the subcommand
+
+		if (args.length < 1) {
+			System.err.println ("RJ_SeqSpecLikelihoodGrid : Missing subcommand");
+			return;
+		}
+
+
+		// Subcommand : Test #1
+		// Command format:
+		//  test1  num_p  num_c  num_threads
+		// Generate a simulated aftershock sequence.
+		// Fill the grid with this engine, and with the direct per-cell calculation, and compare.
+		// Display the times and the largest difference.
+
+		if (args[0].equalsIgnoreCase ("test1")) {
+
+			// Three additional arguments
+
+			if (args.length != 4) {
+				System.err.println ("RJ_SeqSpecLikelihoodGrid : Invalid 'test1' subcommand");
+				return;
+			}
+
+			int num_p = Integer.parseInt (args[1]);
+			int num_c = Integer.parseInt (args[2]);
+			int num_threads = Integer.parseInt (args[3]);
+
+			// Parameter values
+
+			double a = -1.67;
+			double b = 0.91;
+			double c = 0.05;
+			double p = 1.08;
+			double magMain = 7.5;
+			double magCat = 2.5;
+			double capF = 0.5;
+			double capG = 1.25;
+			double capH = 0.75;
+			double dataStartTimeDays = 0.0;
+			double dataEndTimeDays = 30.0;
+
+			int num_a = 101;
+			double[] a_values = new double[num_a];
+			for (int i = 0; i < num_a; ++i) {
+				a_values[i] = -2.0 + (1.0 * i) / (num_a - 1);
+			}
+			double[] p_values = new double[num_p];
+			for (int i = 0; i < num_p; ++i) {
+				p_values[i] = (num_p == 1) ? p : (0.9 + (0.3 * i) / (num_p - 1));
+			}
+			double[] c_values = new double[num_c];
+			for (int i = 0; i < num_c; ++i) {
+				c_values[i] = (num_c == 1) ? c : Math.pow (10.0, -3.0 + (2.0 * i) / (num_c - 1));
+			}
+
+			MagCompFn magCompFn = MagCompFn.makePageOrConstant (capF, capG, capH);
+
+			// Run the simulation
+
+			ObsEqkRupList aftershockList = AftershockStatsCalc.simAftershockSequence(a, b, magMain, magCat, magCompFn, p, c, dataStartTimeDays, dataEndTimeDays);
+			ObsEqkRupture mainShock = new ObsEqkRupture("0", 0L, null, magMain);
+
+			// Fill with the engine
+
+			long t0 = System.currentTimeMillis();
+
+			RJ_SeqSpecLikelihoodGrid engine = new RJ_SeqSpecLikelihoodGrid (mainShock, aftershockList,
+				magCat, magCompFn, b, dataStartTimeDays, dataEndTimeDays);
+			double[][][] fast = new double[num_a][num_p][num_c];
+			engine.fill_log_likelihood (fast, a_values, p_values, c_values, num_threads);
+
+			long t1 = System.currentTimeMillis();
+
+			// Fill directly
+
+			double ln10 = Math.log(10);
+			double sum1 = engine.sum1;
+			double[][][] direct = new double[num_a][num_p][num_c];
+			for (int pIndex = 0; pIndex < num_p; pIndex++) {
+				for (int aIndex = 0; aIndex < num_a; aIndex++) {
+					for (int cIndex = 0; cIndex < num_c; cIndex++) {
+						double integral = AftershockStatsCalc.getPageExpectedNumEvents(
+							a_values[aIndex], b, magMain, magCat, magCompFn, p_values[pIndex], c_values[cIndex], dataStartTimeDays, dataEndTimeDays);
+						direct[aIndex][pIndex][cIndex] = engine.numEvents*a_values[aIndex]*ln10 + b*ln10*sum1
+							- p_values[pIndex]*engine.calc_sum_log (c_values[cIndex]) - integral;
+					}
+				}
+			}
+
+			long t2 = System.currentTimeMillis();
+
+			// Compare
+
+			double max_diff = 0.0;
+			for (int aIndex = 0; aIndex < num_a; aIndex++) {
+				for (int pIndex = 0; pIndex < num_p; pIndex++) {
+					for (int cIndex = 0; cIndex < num_c; cIndex++) {
+						max_diff = Math.max (max_diff, Math.abs (fast[aIndex][pIndex][cIndex] - direct[aIndex][pIndex][cIndex]));
+					}
+				}
+			}
+
+			System.out.println ("num_events = " + engine.numEvents);
+			System.out.println ("engine time = " + (t1 - t0) + " ms");
+			System.out.println ("direct time = " + (t2 - t1) + " ms");
+			System.out.println ("max_diff = " + max_diff);
+
+			return;
+		}
+
+
+
+
+		// Unrecognized subcommand.
+
+		System.err.println ("RJ_SeqSpecLikelihoodGrid : Unrecognized subcommand : " + args[0]);
+		return;
+
+	}
+
+}
@@ -611,6 +611,8 @@ public class USGS_AftershockForecast {
 		if (f_verbose) {
 			System.out.println("Start date: "+df.format(Date.from(startDate)));
 		}
+		double[] tMinDaysArray = new double[durations.length];
+		double[] tMaxDaysArray = new double[durations.length];
 		for (int i=0; i<durations.length; i++) {
 			Duration duration = durations[i];
 			Instant endDate = duration.getEndDate(startDate);
@@ -625,11 +627,22 @@ public class USGS_AftershockForecast {
 					"tMaxDays must be greter than tMinDays: %s <= %s", tMaxDays, tMinDays);
 			
 			endDates[i] = endDate;
+			tMinDaysArray[i] = tMinDays;
+			tMaxDaysArray[i] = tMaxDays;
+		}
+
+		// all durations and magnitudes in one call, so the model can share work among them
+		double[][][] tableFractiles = new double[durations.length][calcMags.length][];
+		double[][] tableProbs = new double[durations.length][calcMags.length];
+		model.getForecastTable(combinedCalcFractiles, calcMags, tMinDaysArray, tMaxDaysArray, tableFractiles, tableProbs);
+
+		for (int i=0; i<durations.length; i++) {
+			Duration duration = durations[i];
 			
 			for (int m=0; m<calcMags.length; m++) {
 				double minMag = calcMags[m];
 				
-				double[] fractiles = model.getCumNumFractileWithAleatory(combinedCalcFractiles, minMag, tMinDays, tMaxDays);
+				double[] fractiles = tableFractiles[i][m];
 				
 				numEventsLower.put(duration, minMag, fractiles[0]);
 				numEventsUpper.put(duration, minMag, fractiles[1]);
@@ -638,7 +651,7 @@ public class USGS_AftershockForecast {
 
 //				double expectedVal = model.getModalNumEvents(minMag, tMinDays, tMaxDays);
 //				double poissonProb = 1 - Math.exp(-expectedVal);
-				double poissonProb = model.getProbOneOrMoreEvents(minMag, tMinDays, tMaxDays);
+				double poissonProb = tableProbs[i][m];
 
 				if (poissonProb < 1.0e-12) {
 					poissonProb = 0.0;	// fewer than 4 significant digits available
@@ -51,7 +51,64 @@ public interface USGS_ForecastModel {
 	// cannot supply the requested results.
 
 	public double[] getCumNumFractileWithAleatory (double[] fractileArray, double mag, double tMinDays, double tMaxDays);
-	
+
+
+
+
+	// Get fractiles for the probability distribution of forecasted number of aftershocks, for several magnitudes.
+	// Parameters:
+	//  fractileArray = Desired fractiles (percentile/100) of the probability distribution.
+	//  magArray = Minimum magnitudes of aftershocks considered.
+	//  tMinDays = Start of time range, in days after some origin time.
+	//  tMaxDays = End of time range, in days after some origin time.
+	// The return value is an array whose length equals magArray.length.
+	// The m-th element of the return value is the same as the return value of
+	// getCumNumFractileWithAleatory for magnitude magArray[m].
+	//
+	// Note: A model can override this to share work among the magnitudes.
+	// The default implementation calls getCumNumFractileWithAleatory for each magnitude.
+
+	public default double[][] getCumNumFractileWithAleatory (double[] fractileArray, double[] magArray, double tMinDays, double tMaxDays) {
+		double[][] result = new double[magArray.length][];
+		for (int m = 0; m < magArray.length; ++m) {
+			result[m] = getCumNumFractileWithAleatory (fractileArray, magArray[m], tMinDays, tMaxDays);
+		}
+		return result;
+	}
+
+
+
+
+	// Get fractiles and probabilities for a table of time ranges and magnitudes.
+	// Parameters:
+	//  fractileArray = Desired fractiles (percentile/100) of the probability distribution.
+	//  magArray = Minimum magnitudes of aftershocks considered.
+	//  tMinDaysArray = Start of each time range, in days after some origin time.
+	//  tMaxDaysArray = End of each time range, in days after some origin time.
+	//  fractileResult = Array to receive the fractiles, dimension [tMinDaysArray.length][magArray.length].
+	//  probResult = Array to receive the probabilities, dimension [tMinDaysArray.length][magArray.length].
+	// On return, fractileResult[w][m] is the same as the return value of
+	// getCumNumFractileWithAleatory for magnitude magArray[m] and time range w,
+	// and probResult[w][m] is the same as the return value of getProbOneOrMoreEvents
+	// for magnitude magArray[m] and time range w.
+	//
+	// Note: A model can override this to share work among the table entries, or to
+	// compute time ranges in parallel.  The default implementation calls the
+	// multi-magnitude getCumNumFractileWithAleatory for each time range, and
+	// getProbOneOrMoreEvents for each table entry.
+
+	public default void getForecastTable (double[] fractileArray, double[] magArray, double[] tMinDaysArray, double[] tMaxDaysArray,
+			double[][][] fractileResult, double[][] probResult) {
+		for (int w = 0; w < tMinDaysArray.length; ++w) {
+			double[][] magFractiles = getCumNumFractileWithAleatory (fractileArray, magArray, tMinDaysArray[w], tMaxDaysArray[w]);
+			for (int m = 0; m < magArray.length; ++m) {
+				fractileResult[w][m] = magFractiles[m];
+				probResult[w][m] = getProbOneOrMoreEvents (magArray[m], tMinDaysArray[w], tMaxDaysArray[w]);
+			}
+		}
+		return;
+	}
+
 
 
 
@@ -1148,6 +1148,26 @@ public class SimpleUtils {
 
 
 
+	// Get the amount of memory available for new objects, in bytes.
+	// This is the maximum heap size minus the memory currently in use.
+	// If there is no maximum heap size, returns Long.MAX_VALUE.
+
+	public static long get_available_memory () {
+		long max_memory = Runtime.getRuntime().maxMemory();
+		long total_memory = Runtime.getRuntime().totalMemory();
+		long free_memory = Runtime.getRuntime().freeMemory();
+
+		if (max_memory == Long.MAX_VALUE) {
+			return Long.MAX_VALUE;
+		}
+
+		long used_memory = total_memory - free_memory;
+		return Math.max (0L, max_memory - used_memory);
+	}
+
+
+
+
 	// Show the current memory status on standard output.
 	// If a test is in progress, do nothing because memory usage is not repeatable.
 
@@ -1288,6 +1308,111 @@ public class SimpleUtils {
 
 
 
+	//----- System properties -----
+
+	// These functions read the system properties that select default options, which are
+	// typically given on the command line with -D<name>=<value>.  They never throw an
+	// exception:  if the property is not set, or cannot be read, or has an invalid value,
+	// then the default is returned.  Keywords are not case-sensitive.
+
+
+
+
+	// Get a system property, with leading and trailing white space removed.
+	// Returns null if the property is not set or cannot be read.
+
+	public static String get_property_string (String name) {
+		String result = null;
+		try {
+			String s = System.getProperty (name);
+			if (s != null) {
+				result = s.trim();
+			}
+		} catch (Exception e) {
+			result = null;
+		}
+		return result;
+	}
+
+
+
+
+	// Return true if a system property is set to the given keyword.
+
+	public static boolean is_property_value (String name, String keyword) {
+		String s = get_property_string (name);
+		return s != null && s.equalsIgnoreCase (keyword);
+	}
+
+
+
+
+	// Get a system property that is an integer.
+	// Returns def_value if the property is not set, not a number, or less than min_value.
+
+	public static long get_property_long (String name, long def_value, long min_value) {
+		long result = def_value;
+		String s = get_property_string (name);
+		if (s != null) {
+			try {
+				long n = Long.parseLong (s);
+				if (n >= min_value) {
+					result = n;
+				}
+			} catch (Exception e) {
+				result = def_value;
+			}
+		}
+		return result;
+	}
+
+	public static int get_property_int (String name, int def_value, int min_value) {
+		long n = get_property_long (name, (long)def_value, (long)min_value);
+		return (n > (long)Integer.MAX_VALUE) ? def_value : (int)n;
+	}
+
+
+
+
+	// Get a system property that is "on", "off", or a non-negative integer.
+	// Returns on_value for "on", 0 for "off", or the number.
+	// Returns def_value if the property is not set or is invalid.
+
+	public static long get_property_on_off_long (String name, long def_value, long on_value) {
+		String s = get_property_string (name);
+		if (s != null) {
+			if (s.equalsIgnoreCase ("on")) {
+				return on_value;
+			}
+			if (s.equalsIgnoreCase ("off")) {
+				return 0L;
+			}
+		}
+		return get_property_long (name, def_value, 0L);
+	}
+
+	public static int get_property_on_off_int (String name, int def_value, int on_value) {
+		long n = get_property_on_off_long (name, (long)def_value, (long)on_value);
+		return (n > (long)Integer.MAX_VALUE) ? def_value : (int)n;
+	}
+
+
+
+
+	// Get a system property that is a number of threads, which can be an integer >= 1,
+	// or "default" to use AutoExecutorService.get_default_num_threads.
+	// Returns def_value if the property is not set or is invalid.
+
+	public static int get_property_num_threads (String name, int def_value) {
+		if (is_property_value (name, "default")) {
+			return AutoExecutorService.get_default_num_threads();
+		}
+		return get_property_int (name, def_value, 1);
+	}
+
+
+
+
 	//----- Testing -----
 
 